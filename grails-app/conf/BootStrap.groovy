@@ -115,6 +115,8 @@ class BootStrap {
             properties.setProperty(IceOptions.WORK_S3_BUCKET_NAME, prop.getProperty(IceOptions.WORK_S3_BUCKET_NAME));
             properties.setProperty(IceOptions.WORK_S3_BUCKET_REGION, prop.getProperty(IceOptions.WORK_S3_BUCKET_REGION));
             properties.setProperty(IceOptions.WORK_S3_BUCKET_PREFIX, prop.getProperty(IceOptions.WORK_S3_BUCKET_PREFIX));
+            if (prop.getProperty(IceOptions.POLL_THREADS) != null)
+                properties.setProperty(IceOptions.POLL_THREADS, prop.getProperty(IceOptions.POLL_THREADS));
 			
 			// Resource Tagging stuff
 			String[] customTags = prop.getProperty(IceOptions.CUSTOM_TAGS, "").split(",");        
@@ -175,6 +177,16 @@ class BootStrap {
                     properties.setProperty(IceOptions.ONDEMAND_COST_ALERT_THRESHOLD, prop.getProperty(IceOptions.ONDEMAND_COST_ALERT_THRESHOLD));
                 if (prop.getProperty(IceOptions.URL_PREFIX) != null)
                     properties.setProperty(IceOptions.URL_PREFIX, prop.getProperty(IceOptions.URL_PREFIX));
+                if (prop.getProperty(IceOptions.CUBES) != null)
+                    properties.setProperty(IceOptions.CUBES, prop.getProperty(IceOptions.CUBES));
+                if (prop.getProperty(IceOptions.APPGROUP_SERIES) != null)
+                    properties.setProperty(IceOptions.APPGROUP_SERIES, prop.getProperty(IceOptions.APPGROUP_SERIES));
+                if (prop.getProperty(IceOptions.HOURLY_BLOCKS) != null)
+                    properties.setProperty(IceOptions.HOURLY_BLOCKS, prop.getProperty(IceOptions.HOURLY_BLOCKS));
+                if (prop.getProperty(IceOptions.UPLOAD_THREADS) != null)
+                    properties.setProperty(IceOptions.UPLOAD_THREADS, prop.getProperty(IceOptions.UPLOAD_THREADS));
+                if (prop.getProperty(IceOptions.RESOURCE_STORE) != null)
+                    properties.setProperty(IceOptions.RESOURCE_STORE, prop.getProperty(IceOptions.RESOURCE_STORE));
 
                 ReservationService.ReservationPeriod reservationPeriod =
                     ReservationService.ReservationPeriod.valueOf(prop.getProperty(IceOptions.RESERVATION_PERIOD, "threeyear"));
@@ -212,6 +224,12 @@ class BootStrap {
                 properties.setProperty(IceOptions.LOCAL_DIR, prop.getProperty("ice.reader.localDir", "/mnt/ice"));
                 if (prop.getProperty(IceOptions.MONTHLY_CACHE_SIZE) != null)
                     properties.setProperty(IceOptions.MONTHLY_CACHE_SIZE, prop.getProperty(IceOptions.MONTHLY_CACHE_SIZE));
+                if (prop.getProperty(IceOptions.OFF_HEAP_DATA) != null)
+                    properties.setProperty(IceOptions.OFF_HEAP_DATA, prop.getProperty(IceOptions.OFF_HEAP_DATA));
+                if (prop.getProperty(IceOptions.HOURLY_BLOCKS) != null)
+                    properties.setProperty(IceOptions.HOURLY_BLOCKS, prop.getProperty(IceOptions.HOURLY_BLOCKS));
+                if (prop.getProperty(IceOptions.SLOW_QUERY_MILLIS) != null)
+                    properties.setProperty(IceOptions.SLOW_QUERY_MILLIS, prop.getProperty(IceOptions.SLOW_QUERY_MILLIS));
                 if (prop.getProperty(IceOptions.CURRENCY_RATE) != null)
                     properties.setProperty(IceOptions.CURRENCY_RATE, prop.getProperty(IceOptions.CURRENCY_RATE));
                 if (prop.getProperty(IceOptions.CURRENCY_SIGN) != null)
@@ -235,7 +253,8 @@ class BootStrap {
                             applicationGroupService,
                             prop.getProperty(IceOptions.WEEKLYFROM),
                             prop.getProperty(IceOptions.WEEKLYBCC, ""),
-                            prop.getProperty(IceOptions.WEEKLYTEST, "")
+                            prop.getProperty(IceOptions.WEEKLYTEST, ""),
+                            Double.parseDouble(prop.getProperty(IceOptions.WEEKLY_SEND_RATE, "1"))
                         )
                 }
 
@@ -113,6 +113,12 @@ grails.project.dependency.resolution = {
                     'mockito-core',
             )
         }
+
+        // Microbenchmarks in src/benchmark, run with "grails benchmark"
+        test(
+                'org.openjdk.jmh:jmh-core:1.21',
+                'org.openjdk.jmh:jmh-generator-annprocess:1.21'
+        )
     }
 
     plugins {
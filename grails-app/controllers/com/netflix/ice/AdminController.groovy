@@ -0,0 +1,77 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+
+package com.netflix.ice
+
+import grails.converters.JSON
+
+import com.netflix.ice.common.Metrics
+import com.netflix.ice.reader.Managers
+import com.netflix.ice.reader.ReaderConfig
+import com.netflix.ice.tag.Product
+
+/**
+ * Operational endpoints. /admin/metrics returns the metrics registry in the Prometheus text
+ * format, or as JSON with format=json. The same values are available over JMX. /admin/ready reports
+ * which products the reader has finished loading; it returns 503 until "all" is ready.
+ */
+class AdminController {
+
+	static allowedMethods = [
+		metrics: "GET",
+		ready: "GET",
+	];
+
+    def metrics = {
+        Metrics metrics = Metrics.getInstance();
+        if ("json".equals(params.format)) {
+            def result = [
+                status: 200,
+                counters: metrics.getCounters(),
+                gauges: metrics.getGauges(),
+                timerCounts: metrics.getTimerCounts(),
+                timerSeconds: metrics.getTimerSeconds(),
+                timerMaxSeconds: metrics.getTimerMaxSeconds(),
+            ]
+            render result as JSON
+            return;
+        }
+        render(text: metrics.getPrometheusText(), contentType: "text/plain; version=0.0.4", encoding: "UTF-8")
+    }
+
+    def ready = {
+        ReaderConfig config = ReaderConfig.getInstance();
+        if (config == null) {
+            def result = [status: 404, message: "not a reader"]
+            response.status = 404;
+            render result as JSON
+            return;
+        }
+
+        Managers managers = config.managers;
+        Map<String, Boolean> products = new TreeMap<String, Boolean>();
+        for (Product product: managers.getProducts()) {
+            if (product != null)
+                products.put(product.name, managers.isReady(product));
+        }
+        boolean all = managers.isReady(null);
+        def result = [status: all ? 200 : 503, all: all, products: products]
+        response.status = result.status;
+        render result as JSON
+    }
+}
@@ -48,7 +48,8 @@ import org.json.JSONObject
 
 import com.netflix.ice.common.ConsolidateType
 import com.netflix.ice.common.Instance
-import com.netflix.ice.common.TagCoverageRatio;
+import com.netflix.ice.common.TagGroup
+import com.netflix.ice.common.TagCoverageSeries;
 
 import org.joda.time.Hours
 import org.slf4j.Logger;
@@ -57,6 +58,9 @@ import org.apache.commons.lang.StringUtils
 
 import com.netflix.ice.common.AwsUtils
 
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.GZIPOutputStream
+
 
 class DashboardController {
     private static Logger logger = LoggerFactory.getLogger(DashboardController.class);
@@ -370,65 +374,210 @@ class DashboardController {
 		render result as JSON		
 	}
 
+    /**
+     * Streams the data as CSV (default) or as JSON lines (format=jsonl). Hourly and daily requests
+     * are fetched a month at a time and written straight to the response so memory use doesn't
+     * grow with the length of the interval. CSV rows of several months are spooled to a local file
+     * until the header is known. The response is gzipped when the client accepts it.
+     */
     def download = {
-        def o = params;
         JSONObject query = new JSONObject();
         for (Map.Entry entry: params.entrySet()) {
             query.put(entry.getKey(), entry.getValue());
         }
-
-        def result = doGetData(query);
-
-        File file = File.createTempFile("aws", "csv");
-
-        BufferedWriter bwriter = new BufferedWriter(new FileWriter(file));
-        Long start = result.start;
-        int num = result.data.values().iterator().next().length;
-
-        String[] record = new String[result.data.size() + 1];
-        record[0] = "Time";
-        int index = 1;
-        for (Map.Entry entry: result.data) {
-            record[index++] = entry.getKey().name;
+        QueryTrace trace = QueryTrace.start("download");
+        try {
+            writeDownload(query);
         }
-        bwriter.write(StringUtils.join(record, ","));
-        bwriter.newLine();
+        finally {
+            trace.finish();
+            logSlowQuery(trace, query);
+        }
+        return;
+    }
 
+    private void writeDownload(JSONObject query) {
+        boolean jsonLines = "jsonl".equals(params.format);
         ConsolidateType consolidateType = ConsolidateType.valueOf(query.getString("consolidate"));
-        for (int timeIndex = 0; timeIndex < num; timeIndex++) {
-            record[0] = dateFormatterForDownload.print(start);
-            index = 1;
-            for (Map.Entry entry: result.data) {
-                double[] values = entry.getValue();
-                record[index++] = values[timeIndex];
+        List<JSONObject> chunks = getDownloadChunks(query, consolidateType);
+
+        // CSV needs every column in the header, so the rows of each month are spooled while the tag names are collected.
+        Set<String> nameSet = Sets.newLinkedHashSet();
+        File spool = null;
+        int numSpooled = 0;
+        def result = null;
+        if (!jsonLines) {
+            if (chunks.size() == 1) {
+                result = doGetData(chunks.get(0));
+                for (Tag tag: result.data.keySet())
+                    nameSet.add(tag.name);
             }
-            bwriter.write(StringUtils.join(record, ","));
-            bwriter.newLine();
-            if (consolidateType != ConsolidateType.monthly)
-                start += result.interval;
-            else
-                start = new DateTime(start, DateTimeZone.UTC).plusMonths(1).getMillis()
+            else {
+                spool = File.createTempFile("download", ".tmp", new File(getConfig().localDir));
+                numSpooled = spoolDownloadRows(spool, chunks, nameSet, consolidateType);
+            }
+        }
+        List<String> names = Lists.newArrayList(nameSet);
+
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        response.setHeader("Content-Type", jsonLines ? "application/x-ndjson;" : "application/octet-stream;")
+        response.setHeader("Content-disposition", "attachment;filename=aws." + (jsonLines ? "jsonl" : "csv"))
+        if (gzip)
+            response.setHeader("Content-Encoding", "gzip")
+
+        OutputStream out = gzip ? new GZIPOutputStream(response.outputStream, 64 * 1024) : response.outputStream;
+        BufferedWriter bwriter = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        try {
+            if (jsonLines) {
+                for (JSONObject chunk: chunks) {
+                    writeDownloadRows(bwriter, doGetData(chunk), null, consolidateType);
+                    // push each chunk to the client rather than buffering the whole response
+                    bwriter.flush();
+                }
+            }
+            else {
+                bwriter.write("Time," + StringUtils.join(names, ","));
+                bwriter.newLine();
+                if (result != null)
+                    writeDownloadRows(bwriter, result, names, consolidateType);
+                else
+                    writeSpooledRows(bwriter, spool, numSpooled, names.size());
+            }
+        }
+        finally {
+            bwriter.close();
+            if (spool != null)
+                spool.delete();
         }
-        bwriter.close();
+    }
 
-        response.setHeader("Content-Type","application/octet-stream;")
-        response.setHeader("Content-Length", "${file.size()}")
-        response.setHeader("Content-disposition", "attachment;filename=aws.csv")
+    /**
+     * Query each chunk once and write its rows to the spool file, each row as the time, the number
+     * of columns known so far and their values. Columns are only ever added to the end of nameSet,
+     * so rows written before a column was seen just lack the trailing values.
+     *
+     * @return the number of rows written
+     */
+    private int spoolDownloadRows(File spool, List<JSONObject> chunks, Set<String> nameSet, ConsolidateType consolidateType) {
+        int numRows = 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spool)));
+        try {
+            for (JSONObject chunk: chunks) {
+                def result = doGetData(chunk);
+                if (result.data.size() == 0)
+                    continue;
 
-        FileInputStream input = new FileInputStream(file);
-        response.outputStream << input;
-        response.outputStream.flush();
-        input.close();
-        file.delete();
-        return;
+                Map<String, double[]> dataByName = Maps.newHashMap();
+                for (Map.Entry<Tag, double[]> entry: result.data.entrySet()) {
+                    nameSet.add(entry.getKey().name);
+                    dataByName.put(entry.getKey().name, entry.getValue());
+                }
+                List<double[]> columns = Lists.newArrayList();
+                for (String name: nameSet)
+                    columns.add(dataByName.get(name));
+
+                int num = result.data.values().iterator().next().length;
+                Long start = result.start;
+                for (int timeIndex = 0; timeIndex < num; timeIndex++) {
+                    out.writeLong(start);
+                    out.writeInt(columns.size());
+                    for (double[] values: columns)
+                        out.writeDouble(values == null || timeIndex >= values.length ? 0.0 : values[timeIndex]);
+                    numRows++;
+                    start = nextDownloadTime(start, result, consolidateType);
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+        return numRows;
+    }
+
+    private void writeSpooledRows(BufferedWriter bwriter, File spool, int numRows, int numColumns) {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spool)));
+        try {
+            for (int i = 0; i < numRows; i++) {
+                StringBuilder record = new StringBuilder(dateFormatterForDownload.print(in.readLong()));
+                int numValues = in.readInt();
+                for (int j = 0; j < numColumns; j++)
+                    record.append(",").append(j < numValues ? in.readDouble() : 0.0);
+                bwriter.write(record.toString());
+                bwriter.newLine();
+            }
+        }
+        finally {
+            in.close();
+        }
     }
 
     def getData = {
         def text = request.reader.text;
         JSONObject query = (JSONObject)JSON.parse(text);
 
-        def result = doGetData(query);
-        render result as JSON
+        QueryTrace trace = QueryTrace.start("getData");
+        try {
+            renderData(doGetData(query));
+        }
+        finally {
+            trace.finish();
+            logSlowQuery(trace, query);
+        }
+        return;
+    }
+
+    private void renderData(Map result) {
+        long start = System.nanoTime();
+        try {
+            writeData(result);
+        }
+        finally {
+            QueryTrace.span(QueryTrace.RENDER, start);
+        }
+    }
+
+    private void writeData(Map result) {
+        BinaryDataEncoder.ValueType valueType = BinaryDataEncoder.getValueType(request.getHeader("Accept"));
+        if (valueType == null) {
+            render result as JSON
+            return;
+        }
+
+        // Compact binary response for clients that ask for it, see BinaryDataEncoder for the layout
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        OutputStream out = response.outputStream;
+        response.setHeader("Content-Type", valueType.contentType)
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip")
+            out = new GZIPOutputStream(out, 64 * 1024);
+        }
+        else if (acceptEncoding != null && acceptEncoding.contains("deflate")) {
+            response.setHeader("Content-Encoding", "deflate")
+            out = new DeflaterOutputStream(out);
+        }
+        long step = result.interval == null ? 0 : result.interval;
+        try {
+            BinaryDataEncoder.encode(out, valueType, result.start, step, result.data);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Log queries that took longer than ice.reader.slowQueryMillis along with where the time went.
+     */
+    private void logSlowQuery(QueryTrace trace, JSONObject query) {
+        if (trace.getElapsedMillis() < getConfig().slowQueryMillis)
+            return;
+        Map values = [:];
+        for (Iterator keys = query.keys(); keys.hasNext(); ) {
+            String key = keys.next();
+            values.put(key, query.get(key));
+        }
+        logger.warn("slow query: " + trace + " " + QueryTrace.normalize(values));
     }
 
     def getApplicationGroup = {
@@ -599,27 +748,26 @@ class DashboardController {
                 }
                 products = Lists.newArrayList(productSet);
             }
-            data = Maps.newTreeMap();
+            Map<Tag, TagCoverageSeries> coverage = Maps.newTreeMap();
 			for (UserTag tag: tags) {
-				DataManager dataManager = getManagers().getTagCoverageManager(tag);
-				Map<Tag, double[]> dataOfTag = dataManager.getData(
+				TagCoverageManager dataManager = getManagers().getTagCoverageManager(tag);
+				Map<Tag, TagCoverageSeries> coverageOfTag = dataManager.getCoverage(
 					interval,
 					new TagLists(accounts, regions, zones, products, operations, usageTypes, resourceGroups),
 					groupBy == TagType.Tag ? null : groupBy,
 					aggregate,
-					forReservation,
-					usageUnit
+					forReservation
 				);
 				
 				if (groupBy == TagType.Tag) {
-					data.put(tag, dataOfTag.get(Tag.aggregated));
+					coverage.put(tag, coverageOfTag.get(Tag.aggregated));
 				}
 				else {
-					mergeTagCoverageData(dataOfTag, data);
+					TagCoverageSeries.merge(coverageOfTag, coverage);
 				}
 			}
 			// Convert all the response data to percentage
-			convertTagCoverageToPercentage(data);
+			data = TagCoverageSeries.toPercentage(coverage);
 		}
         else if (groupBy == TagType.ApplicationGroup) {
             data = Maps.newTreeMap();
@@ -629,44 +777,73 @@ class DashboardController {
 
             Map<String, ApplicationGroup> appgroups = getConfig().applicationGroupService.getApplicationGroups();
             List<List<Product>> productsWithResources = getConfig().resourceService.getProductsWithResources();
-            for (String name: appgroups.keySet()) {
-                appgroup = appgroups.get(name);
-                if (appgroup.data == null)
-                    continue;
-                for (Product product: products) {
-                    if (product == null)
-                        continue;
+            // the precomputed series roll up zones and usage types, which unit conversions depend on
+            DataManager seriesManager = null;
+            if ((zones == null || zones.size() == 0) && (usageTypes == null || usageTypes.size() == 0) && (usageUnit == UsageUnit.Dollar || usageUnit == UsageUnit.Native))
+                seriesManager = getManagers().getApplicationGroupManager(isCost, consolidateType, appgroups);
 
-                    Product appgroupProduct = null;
-                    for (List<Product> list: productsWithResources) {
-                        if (list.contains(product)) {
-                            appgroupProduct = list.get(0);
-                            break;
-                        }
-                    }
-                    if (appgroupProduct == null)
-                        continue;
-
-                    List<ResourceGroup> resourceGroupsOfProduct = ResourceGroup.getResourceGroups(appgroup.data.get(appgroupProduct.toString()));
-                    if (resourceGroupsOfProduct.size() == 0)
-                        continue;
-
-                    DataManager dataManager = isCost ? getManagers().getCostManager(product, consolidateType) : getManagers().getUsageManager(product, consolidateType);
-                    if (dataManager == null)
-                        continue;
-                    Map<Tag, double[]> dataOfProduct = dataManager.getData(
+            if (seriesManager != null) {
+                List<Product> seriesProducts = Lists.newArrayList();
+                for (Product product: products) {
+                    if (product != null && productsWithResources.any { it.contains(product) })
+                        seriesProducts.add(product);
+                }
+                if (seriesProducts.size() > 0) {
+                    // the series hold the application group in place of the resource group
+                    Map<Tag, double[]> series = seriesManager.getData(
                         interval,
-                        new TagLists(accounts, regions, zones, Lists.newArrayList(product), operations, usageTypes, resourceGroupsOfProduct),
-                        null,
+                        new TagLists(accounts, regions, null, seriesProducts, operations, null, null),
+                        TagType.ResourceGroup,
                         aggregate,
                         forReservation,
-						usageUnit
+                        usageUnit
                     );
-
-                    Map<Tag, double[]> tmp = Maps.newHashMap();
-                    tmp.put(new com.netflix.ice.tag.ApplicationGroup(name), dataOfProduct.get(Tag.aggregated));
-
-                    merge(tmp, data);
+                    for (Map.Entry<Tag, double[]> entry: series.entrySet()) {
+                        Tag tag = entry.getKey() == Tag.aggregated ? Tag.aggregated : new com.netflix.ice.tag.ApplicationGroup(entry.getKey().name);
+                        data.put(tag, entry.getValue());
+                    }
+                }
+            }
+            else {
+                for (String name: appgroups.keySet()) {
+                    appgroup = appgroups.get(name);
+                    if (appgroup.data == null)
+                        continue;
+                    for (Product product: products) {
+                        if (product == null)
+                            continue;
+
+                        Product appgroupProduct = null;
+                        for (List<Product> list: productsWithResources) {
+                            if (list.contains(product)) {
+                                appgroupProduct = list.get(0);
+                                break;
+                            }
+                        }
+                        if (appgroupProduct == null)
+                            continue;
+
+                        List<ResourceGroup> resourceGroupsOfProduct = ResourceGroup.getResourceGroups(appgroup.data.get(appgroupProduct.toString()));
+                        if (resourceGroupsOfProduct.size() == 0)
+                            continue;
+
+                        DataManager dataManager = isCost ? getManagers().getCostManager(product, consolidateType) : getManagers().getUsageManager(product, consolidateType);
+                        if (dataManager == null)
+                            continue;
+                        Map<Tag, double[]> dataOfProduct = dataManager.getData(
+                            interval,
+                            new TagLists(accounts, regions, zones, Lists.newArrayList(product), operations, usageTypes, resourceGroupsOfProduct),
+                            null,
+                            aggregate,
+                            forReservation,
+							usageUnit
+                        );
+
+                        Map<Tag, double[]> tmp = Maps.newHashMap();
+                        tmp.put(new com.netflix.ice.tag.ApplicationGroup(name), dataOfProduct.get(Tag.aggregated));
+
+                        merge(tmp, data);
+                    }
                 }
             }
         }
@@ -744,15 +921,17 @@ class DashboardController {
         }
 		
 		def stats = [:];
+		long statsStart = System.nanoTime();
 		if (elasticity) {
 			// consolidate the data to daily
-			data = reduceToDailyElasticity(data, stats);
+			data = DataStats.reduceToDailyElasticity(data, stats);
 		}
 		else {
 			if (groupBy == TagType.UsageType && consolidateFamily)
 				data = consolidateFamilies(data);
-	        stats = getStats(data);
+	        stats = DataStats.getStats(data);
 		}
+		QueryTrace.span(QueryTrace.STATS, statsStart);
 		
 		if (aggregate == AggregateType.stats && data.size() > 1)
 			data.remove(Tag.aggregated);
@@ -805,26 +984,17 @@ class DashboardController {
 	            result.sps = config.throughputMetricService.getData(interval, consolidateType);
 	        }
 	
+	        double currencyRate = isCost ? config.currencyRate : 1;
 	        if (factorsps) {
-	            double[] consolidatedSps = result.sps;
-	            double multiply = config.throughputMetricService.getFactoredCostMultiply();
-	            for (Tag tag: result.data.keySet()) {
-	                double[] values = result.data.get(tag);
-	                for (int i = 0; i < values.length; i++) {
-	                    double sps = i < consolidatedSps.length ? consolidatedSps[i] : 0.0;
-	                    if (sps == 0.0)
-	                        values[i] = 0.0;
-	                    else
-	                        values[i] = values[i] / sps * multiply;
-	                }
-	            }
+	            // the currency conversion is folded into the per unit factor
+	            CostPerUnit.divide(result.data, result.sps, config.throughputMetricService.getFactoredCostMultiply() * currencyRate);
 	        }
 
-	        if (isCost && config.currencyRate != 1) {
-	            for (Tag tag: result.data.keySet()) {
-	                double[] values = result.data.get(tag);
-	                for (int i = 0; i < values.length; i++) {
-	                    values[i] = values[i] * config.currencyRate;
+	        if (currencyRate != 1) {
+	            if (!factorsps) {
+	                for (double[] values: result.data.values()) {
+	                    for (int i = 0; i < values.length; i++)
+	                        values[i] = values[i] * currencyRate;
 	                }
 	            }
 	
@@ -862,79 +1032,6 @@ class DashboardController {
         }
     }
 	
-	/*
-	 * Tag coverage values are encoded ratios, so use TagCoverageRatio class to perform addition.
-	 */
-    private void mergeTagCoverageData(Map<Tag, double[]> from, Map<Tag, double[]> to) {
-        for (Map.Entry<Tag, double[]> entry: from.entrySet()) {
-            Tag tag = entry.getKey();
-            double[] newValues = entry.getValue();
-            if (to.containsKey(tag)) {
-                double[] oldValues = to.get(tag);
-                for (int i = 0; i < newValues.length; i++) {
-					oldValues[i] = TagCoverageRatio.add(oldValues[i], newValues[i]);
-                }
-            }
-            else {
-                to.put(tag, newValues);
-            }
-        }
-    }
-	
-	private void convertTagCoverageToPercentage(Map<Tag, double[]> data) {
-		for (double[] values: data.values()) {
-			for (int i = 0; i < values.length; i++)
-				values[i] = new TagCoverageRatio(values[i]).toPercentage();
-		}
-	}
-	
-	private Map<Tag, double[]> reduceToDailyElasticity(Map<Tag, double[]> data, Map<Tag, Map> stats) {
-		// Run through the hourly data reducing to a daily elasticity value
-		Map<Tag, double[]> result = Maps.newTreeMap();
-		for (Map.Entry<Tag, double[]> entry: data.entrySet()) {
-			Tag tag = entry.getKey();
-			def days = entry.getValue().length / 24;
-			double[] dailyDataForKey = new double[days];
-			def hourIndex = 0;
-			def dayIndex = 0;
-			double dailyMin = 1000000000; // arbitrary large number
-			double dailyMax = 0;
-			double avgDailyMin = 0;
-			double avgDailyMax = 0;
-  
-			for (double v: entry.getValue()) {
-				if (v < dailyMin) {
-					dailyMin = v;
-				}
-				if (v > dailyMax) {
-					dailyMax = v;
-				}
-				hourIndex++;
-				if (hourIndex == 24) {
-					double elasticity = 1;
-					if (dailyMax > 0)
-						elasticity = 1 - dailyMin / dailyMax;
-					dailyDataForKey[dayIndex++] = elasticity * 100;
-					avgDailyMin += dailyMin;
-					avgDailyMax += dailyMax;
-					
-					// reset accumlators for next day
-					dailyMin = 1000000000;
-					dailyMax = 0;
-					hourIndex = 0;
-				}
-			}
-			avgDailyMin /= days;
-			avgDailyMax /= days;
-			result.put(tag, dailyDataForKey);
-			double elasticity = 1;
-			if (avgDailyMax > 0)
-				elasticity = 1 - avgDailyMin / avgDailyMax;
-			stats[tag] = [avgDailyMin: avgDailyMin, avgDailyMax: avgDailyMax, elasticity: elasticity * 100];
-		}
-		return result;
-	}
-	
 	private Map<Tag, Map> consolidateFamilies(Map<Tag, double[]> data) {
 		// Run through the data reducing EC2 Instance Types to a Family Type
 		Map<Tag, double[]> result = Maps.newTreeMap();
@@ -959,35 +1056,6 @@ class DashboardController {
 		return result;
 	}
 		
-    private Map<Tag, Map> getStats(Map<Tag, double[]> data) {
-        def result = [:];
-
-        for (Map.Entry<Tag, double[]> entry: data.entrySet()) {
-            Tag tag = entry.getKey();
-            double[] values = entry.getValue();
-            double max = 0;
-			double min = 0;
-            double total = 0;
-
-            if (values.length == 0)
-                continue;
-
-			// Set the first min
-			min = values[0];
-			
-            for (double v: values) {
-                if (v > max)
-                    max = v;
-				if (v < min)
-					min = v;
-                total += v;
-            }
-            result[tag] = [min: min, max: max, total: total, average: total / values.length];
-        }
-
-        return result;
-    }
-
     private List<String> listParams(String name) {
         if (params.containsKey(name)) {
             String value = params.get(name);
@@ -1008,6 +1076,78 @@ class DashboardController {
         }
     }
 
+    /**
+     * Split a download request into one query per month for hourly and daily data.
+     * Weekly and monthly data are small enough to fetch in one query.
+     */
+    private List<JSONObject> getDownloadChunks(JSONObject query, ConsolidateType consolidateType) {
+        boolean hourly = consolidateType == ConsolidateType.hourly || consolidateType == ConsolidateType.daily ||
+            (query.has("elasticity") && query.getBoolean("elasticity")) || (query.has("tagCoverage") && query.getBoolean("tagCoverage"));
+        if (!hourly || query.has("spans"))
+            return Lists.newArrayList(query);
+
+        DateTime start = dateFormatter.parseDateTime(query.getString("start"));
+        DateTime end = dateFormatter.parseDateTime(query.getString("end"));
+        List<JSONObject> chunks = Lists.newArrayList();
+        while (start.isBefore(end)) {
+            DateTime chunkEnd = start.withDayOfMonth(1).withMillisOfDay(0).plusMonths(1);
+            if (chunkEnd.isAfter(end))
+                chunkEnd = end;
+            JSONObject chunk = new JSONObject(query, JSONObject.getNames(query));
+            chunk.put("start", dateFormatter.print(start));
+            chunk.put("end", dateFormatter.print(chunkEnd));
+            chunks.add(chunk);
+            start = chunkEnd;
+        }
+        if (chunks.size() == 0)
+            chunks.add(query);
+        return chunks;
+    }
+
+    private void writeDownloadRows(BufferedWriter bwriter, def result, List<String> names, ConsolidateType consolidateType) {
+        if (result.data.size() == 0)
+            return;
+
+        Map<String, double[]> dataByName = Maps.newHashMap();
+        for (Map.Entry<Tag, double[]> entry: result.data.entrySet()) {
+            dataByName.put(entry.getKey().name, entry.getValue());
+        }
+        int num = result.data.values().iterator().next().length;
+        Long start = result.start;
+
+        for (int timeIndex = 0; timeIndex < num; timeIndex++) {
+            String time = dateFormatterForDownload.print(start);
+            if (names == null) {
+                JSONObject values = new JSONObject();
+                for (Map.Entry<String, double[]> entry: dataByName.entrySet()) {
+                    values.put(entry.getKey(), entry.getValue()[timeIndex]);
+                }
+                JSONObject row = new JSONObject();
+                row.put("time", time);
+                row.put("data", values);
+                bwriter.write(row.toString());
+            }
+            else {
+                StringBuilder record = new StringBuilder(time);
+                for (String name: names) {
+                    double[] values = dataByName.get(name);
+                    record.append(",").append(values == null || timeIndex >= values.length ? 0.0 : values[timeIndex]);
+                }
+                bwriter.write(record.toString());
+            }
+            bwriter.newLine();
+
+            start = nextDownloadTime(start, result, consolidateType);
+        }
+    }
+
+    private Long nextDownloadTime(Long start, def result, ConsolidateType consolidateType) {
+        if (consolidateType != ConsolidateType.monthly)
+            return start + result.interval;
+        else
+            return new DateTime(start, DateTimeZone.UTC).plusMonths(1).getMillis()
+    }
+
     private Interval roundInterval(Interval interval, ConsolidateType consolidateType) {
         DateTime start = interval.getStart();
         DateTime end = interval.getEnd();
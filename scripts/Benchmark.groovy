@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Compiles the JMH benchmarks in src/benchmark against the application classes and runs them.
+ * Results are written as JSON to target/benchmark-reports/results.json.
+ *
+ * Arguments select the benchmarks to run and other JMH options go in benchmark.args, e.g. to run
+ * only the serializer benchmarks with a larger report:
+ *
+ *     grails -Dbenchmark.args="-p rows=1000000" benchmark DataSerializerBenchmark
+ */
+includeTargets << grailsScript("_GrailsCompile")
+
+target(benchmark: "Runs the JMH benchmarks and writes the results as JSON") {
+    depends(compile)
+
+    String benchmarkClassesDir = "${projectTargetDir}/benchmark-classes"
+    String reportsDir = "${projectTargetDir}/benchmark-reports"
+    ant.mkdir(dir: benchmarkClassesDir)
+    ant.mkdir(dir: reportsDir)
+
+    ant.path(id: "benchmark.classpath") {
+        pathelement(location: benchmarkClassesDir)
+        pathelement(location: grailsSettings.classesDir.path)
+        grailsSettings.testDependencies.each { File f -> pathelement(location: f.path) }
+    }
+
+    // jmh-generator-annprocess is on the classpath, so javac generates the benchmark harness as it compiles
+    ant.javac(srcdir: "${basedir}/src/benchmark", destdir: benchmarkClassesDir, classpathref: "benchmark.classpath",
+            encoding: "UTF-8", includeantruntime: false, debug: true)
+
+    ant.java(classname: "org.openjdk.jmh.Main", classpathref: "benchmark.classpath", fork: true, failonerror: true, dir: basedir) {
+        arg(value: "-rf")
+        arg(value: "json")
+        arg(value: "-rff")
+        arg(value: "${reportsDir}/results.json")
+        System.getProperty("benchmark.args", "").tokenize().each { arg(value: it) }
+        argsMap.params.each { arg(value: it) }
+    }
+    grailsConsole.updateStatus "Benchmark results written to ${reportsDir}/results.json"
+}
+
+setDefaultTarget(benchmark)
@@ -0,0 +1,63 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.netflix.ice.reader.AggregateType;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.reader.UsageUnit;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+
+/**
+ * A month of hourly cost from the data manager, both as a single aggregated series and grouped.
+ * The month is loaded into the cache during warmup so this measures the query, not the file read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BasicDataManagerBenchmark {
+    @Param({ "Account", "Product" })
+    public TagType groupBy;
+
+    @Benchmark
+    public Map<Tag, double[]> getData(SyntheticReaderData reader) {
+        return reader.dataManager.getData(reader.interval, new TagLists(), null, AggregateType.both, false, UsageUnit.Instances);
+    }
+
+    @Benchmark
+    public Map<Tag, double[]> getDataGroupBy(SyntheticReaderData reader) {
+        return reader.dataManager.getData(reader.interval, new TagLists(), groupBy, AggregateType.both, false, UsageUnit.Instances);
+    }
+}
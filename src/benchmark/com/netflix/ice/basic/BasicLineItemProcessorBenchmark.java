@@ -0,0 +1,113 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.ResourceService;
+import com.netflix.ice.processor.CostAndUsageData;
+import com.netflix.ice.processor.CostAndUsageReport;
+import com.netflix.ice.processor.CostAndUsageReportLineItem;
+import com.netflix.ice.processor.LineItemProcessor;
+import com.netflix.ice.processor.SyntheticCostAndUsageReport;
+
+/**
+ * Cost of a single line item going through BasicLineItemProcessor.process, cycling through the
+ * rows of a synthetic report that has already been parsed into memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BasicLineItemProcessorBenchmark {
+    @Param({ "10" })
+    public int accounts;
+
+    @Param({ "8" })
+    public int products;
+
+    @Param({ "0", "4" })
+    public int tags;
+
+    @Param({ "10000" })
+    public int rows;
+
+    private File dir;
+    private LineItemProcessor lineItemProcessor;
+    private CostAndUsageReportLineItem lineItem;
+    private String[][] items;
+    private CostAndUsageData data;
+    private Map<String, Double> ondemandRate;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDir();
+        SyntheticCostAndUsageReport synthetic = new SyntheticCostAndUsageReport(accounts, products, tags, rows);
+        File manifest = synthetic.write(dir);
+
+        AccountService accountService = new BasicAccountService(new Properties());
+        ProductService productService = new BasicProductService(new Properties());
+        ResourceService resourceService = synthetic.newResourceService(productService);
+        lineItemProcessor = synthetic.newLineItemProcessor(accountService, productService, resourceService);
+        lineItem = new CostAndUsageReportLineItem(false, new CostAndUsageReport(manifest, null));
+        resourceService.initHeader(lineItem.getResourceTagsHeader());
+
+        items = new String[rows][];
+        for (int row = 0; row < rows; row++)
+            items[row] = synthetic.getRow(row);
+        data = new CostAndUsageData();
+        ondemandRate = Maps.newHashMap();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public LineItemProcessor.Result process() {
+        lineItem.setItems(items[next]);
+        next = (next + 1) % items.length;
+        return lineItemProcessor.process(SyntheticCostAndUsageReport.START.getMillis(), true, true, lineItem, data, null, ondemandRate, null);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.AwsUtils;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.CostAndUsageData;
+import com.netflix.ice.processor.ReadWriteData;
+import com.netflix.ice.processor.SyntheticCostAndUsageReport;
+import com.netflix.ice.reader.ReadOnlyData;
+import com.netflix.ice.reader.TagGroupManager;
+import com.netflix.ice.tag.Product;
+
+/**
+ * Reader side managers serving one month of hourly cost from a synthetic report. The data file is
+ * written to a temporary directory and read from there, nothing is fetched from s3.
+ */
+@State(Scope.Benchmark)
+public class SyntheticReaderData {
+    @Param({ "10", "100" })
+    public int accounts;
+
+    @Param({ "8" })
+    public int products;
+
+    @Param({ "2" })
+    public int tags;
+
+    @Param({ "100000" })
+    public int rows;
+
+    public final Interval interval = new Interval(SyntheticCostAndUsageReport.START, SyntheticCostAndUsageReport.START.plusMonths(1));
+    public TagGroupManager tagGroupManager;
+    public BasicDataManager dataManager;
+
+    private File dir;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDir();
+        SyntheticCostAndUsageReport synthetic = new SyntheticCostAndUsageReport(accounts, products, tags, rows);
+        AccountService accountService = new BasicAccountService(new Properties());
+        ProductService productService = new BasicProductService(new Properties());
+        CostAndUsageData data = synthetic.process(accountService, productService, synthetic.write(dir));
+
+        Set<TagGroup> tagGroups = Sets.newHashSet(data.getCost(null).getTagGroups());
+        for (Product product: productService.getProducts()) {
+            if (data.getCost(product) != null)
+                tagGroups.addAll(data.getCost(product).getTagGroups());
+        }
+        TreeMap<Long, Collection<TagGroup>> tagGroupsByMonth = Maps.newTreeMap();
+        tagGroupsByMonth.put(SyntheticCostAndUsageReport.START.getMillis(), tagGroups);
+        tagGroupManager = new BasicTagGroupManager(tagGroupsByMonth);
+
+        dataManager = new LocalDataManager(dir, tagGroupManager, accountService, productService);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(dataManager.getFile(SyntheticCostAndUsageReport.START)));
+        try {
+            ReadWriteData.Serializer.serialize(out, data.getCost(null));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * Data manager that loads its files from a local directory and never polls.
+     */
+    private static class LocalDataManager extends BasicDataManager {
+        private final File dir;
+
+        LocalDataManager(File dir, TagGroupManager tagGroupManager, AccountService accountService, ProductService productService) {
+            super(SyntheticCostAndUsageReport.START, "cost_hourly_all", ConsolidateType.hourly, tagGroupManager, false, 12, accountService, productService, null);
+            this.dir = dir;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        protected boolean useBlockFiles() {
+            return false;
+        }
+
+        @Override
+        protected File getFile(DateTime monthDate) {
+            return new File(dir, dbName + "_" + AwsUtils.monthDateFormat.print(monthDate));
+        }
+
+        @Override
+        protected boolean downloadFile(File file) {
+            return false;
+        }
+
+        @Override
+        protected ReadOnlyData deserialize(InputStream is) throws IOException {
+            return ReadOnlyData.Serializer.deserialize(accountService, productService, new DataInputStream(is), false);
+        }
+    }
+}
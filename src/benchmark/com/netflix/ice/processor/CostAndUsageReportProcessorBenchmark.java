@@ -0,0 +1,127 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.basic.BasicReservationService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.IceOptions;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.ResourceService;
+import com.netflix.ice.processor.ReservationService.ReservationPeriod;
+import com.netflix.ice.processor.ReservationService.ReservationUtilization;
+
+/**
+ * Processes a whole synthetic Cost and Usage report file: gunzip, CSV parsing and the line item processor.
+ * Nothing is uploaded, the AWS clients are created with dummy credentials and never used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CostAndUsageReportProcessorBenchmark {
+    @Param({ "10" })
+    public int accounts;
+
+    @Param({ "8" })
+    public int products;
+
+    @Param({ "2" })
+    public int tags;
+
+    @Param({ "100000" })
+    public int rows;
+
+    private File dir;
+    private CostAndUsageReportProcessor processor;
+    private CostAndUsageReport report;
+    private List<File> files;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDir();
+        SyntheticCostAndUsageReport synthetic = new SyntheticCostAndUsageReport(accounts, products, tags, rows);
+        File manifest = synthetic.write(dir);
+
+        Properties properties = new Properties();
+        properties.setProperty(IceOptions.START_MONTH, "2017-08");
+        properties.setProperty(IceOptions.WORK_S3_BUCKET_NAME, "benchmark");
+        properties.setProperty(IceOptions.WORK_S3_BUCKET_REGION, "us-east-1");
+        properties.setProperty(IceOptions.BILLING_S3_BUCKET_NAME, "benchmark");
+        properties.setProperty(IceOptions.BILLING_S3_BUCKET_REGION, "us-east-1");
+        properties.setProperty(IceOptions.LOCAL_DIR, dir.getPath());
+
+        AccountService accountService = new BasicAccountService(new Properties());
+        ProductService productService = new BasicProductService(new Properties());
+        ResourceService resourceService = synthetic.newResourceService(productService);
+        ReservationService reservationService = new BasicReservationService(ReservationPeriod.oneyear, ReservationUtilization.PARTIAL, false);
+        ProcessorConfig config = new ProcessorConfig(
+                properties,
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("benchmark", "benchmark")),
+                accountService,
+                productService,
+                reservationService,
+                resourceService,
+                synthetic.newLineItemProcessor(accountService, productService, resourceService),
+                null,
+                false);
+
+        processor = new CostAndUsageReportProcessor(config);
+        report = new CostAndUsageReport(manifest, processor);
+        files = Lists.newArrayList(synthetic.getReportFile(dir));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public CostAndUsageData processReportFile() throws IOException {
+        CostAndUsageData data = new CostAndUsageData();
+        processor.processReport(SyntheticCostAndUsageReport.START, report, files, data, null, null);
+        return data;
+    }
+}
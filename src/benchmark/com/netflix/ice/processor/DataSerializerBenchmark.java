@@ -0,0 +1,110 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.reader.ReadOnlyData;
+
+/**
+ * Serialization of one month of hourly data as written by the processor and read by the reader.
+ * The data comes from running a synthetic report through the line item processor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataSerializerBenchmark {
+    @Param({ "10", "100" })
+    public int accounts;
+
+    @Param({ "8" })
+    public int products;
+
+    @Param({ "2" })
+    public int tags;
+
+    @Param({ "100000" })
+    public int rows;
+
+    private AccountService accountService;
+    private ProductService productService;
+    private ReadWriteData data;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        File dir = Files.createTempDir();
+        try {
+            SyntheticCostAndUsageReport synthetic = new SyntheticCostAndUsageReport(accounts, products, tags, rows);
+            accountService = new BasicAccountService(new Properties());
+            productService = new BasicProductService(new Properties());
+            data = synthetic.process(accountService, productService, synthetic.write(dir)).getCost(null);
+        }
+        finally {
+            FileUtils.deleteDirectory(dir);
+        }
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ReadWriteData.Serializer.serialize(out, data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public ReadWriteData roundTrip() throws IOException {
+        return ReadWriteData.Serializer.deserialize(accountService, productService, new DataInputStream(new ByteArrayInputStream(serialize())));
+    }
+
+    @Benchmark
+    public ReadOnlyData deserializeReadOnly() throws IOException {
+        return ReadOnlyData.Serializer.deserialize(accountService, productService, new DataInputStream(new ByteArrayInputStream(serialized)), false);
+    }
+}
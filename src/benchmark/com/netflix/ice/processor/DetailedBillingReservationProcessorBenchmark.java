@@ -0,0 +1,165 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.basic.BasicReservationService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.LineItem;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.ReservationService.ReservationKey;
+import com.netflix.ice.processor.ReservationService.ReservationPeriod;
+import com.netflix.ice.processor.ReservationService.ReservationUtilization;
+import com.netflix.ice.processor.pricelist.PriceListService;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.Zone;
+
+/**
+ * Reservation processing of a month of EC2 usage. The payer account owns zone scoped No Upfront
+ * reservations for every instance type and the linked accounts borrow them.
+ *
+ * The first run downloads the public EC2 price list and caches it in target/benchmark-pricelist.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DetailedBillingReservationProcessorBenchmark {
+    private static final String priceListDir = "target/benchmark-pricelist";
+    private static final String[] instanceTypes = new String[]{ "m4.large", "m4.xlarge", "c4.large", "c4.xlarge", "r4.large" };
+    private static final Zone[] zones = new Zone[]{ Zone.US_EAST_1A, Zone.US_EAST_1B };
+    private static final int HOURS = 31 * 24;
+
+    @Param({ "10", "100" })
+    public int accounts;
+
+    private BasicReservationService reservationService;
+    private ReservationProcessor reservationProcessor;
+    private List<Map<TagGroup, Double>> usage;
+    private List<Map<TagGroup, Double>> cost;
+    private CostAndUsageData data;
+
+    @Setup
+    public void setup() throws Exception {
+        List<Account> accountList = Lists.newArrayList();
+        for (int i = 0; i < accounts; i++)
+            accountList.add(new Account(Long.toString(100000000000L + i), "Account" + i));
+        Account payer = accountList.get(0);
+        Map<Account, List<Account>> payerAccounts = Maps.newHashMap();
+        payerAccounts.put(payer, Lists.newArrayList(accountList.subList(1, accounts)));
+        Map<Account, Set<String>> reservationOwners = Maps.newHashMap();
+        reservationOwners.put(payer, Sets.newHashSet("ec2"));
+        AccountService accountService = new BasicAccountService(accountList, payerAccounts, reservationOwners, null, null);
+        ProductService productService = new BasicProductService(null);
+
+        new File(priceListDir).mkdirs();
+        PriceListService priceListService = new PriceListService(priceListDir, null, null);
+        priceListService.init();
+        reservationProcessor = new DetailedBillingReservationProcessor(payerAccounts, reservationOwners.keySet(), productService, priceListService, false);
+
+        // account, product, region, reservationID, reservationOfferingId, instanceType, scope, availabilityZone, multiAZ, start, end, duration, usagePrice, fixedPrice, instanceCount, productDescription, state, currencyCode, offeringType, recurringCharge
+        String start = LineItem.amazonBillingDateFormat.print(SyntheticCostAndUsageReport.START.minusMonths(6));
+        String end = LineItem.amazonBillingDateFormat.print(SyntheticCostAndUsageReport.START.plusMonths(6));
+        Map<ReservationKey, CanonicalReservedInstances> reservations = Maps.newHashMap();
+        for (String instanceType: instanceTypes) {
+            for (Zone zone: zones) {
+                String id = instanceType + "-" + zone.name;
+                String csv = payer.id + ",EC2,us-east-1," + id + ",," + instanceType + ",Availability Zone," + zone.name + ",false," +
+                        start + "," + end + ",31536000,0.0,0.0," + accounts + ",Linux/UNIX (Amazon VPC),active,USD,No Upfront,Hourly:0.05";
+                reservations.put(new ReservationKey(payer.id, "us-east-1", id), new CanonicalReservedInstances(csv));
+            }
+        }
+        reservationService = new BasicReservationService(ReservationPeriod.oneyear, ReservationUtilization.HEAVY, false);
+        reservationService.updateReservations(reservations, accountService, SyntheticCostAndUsageReport.START.getMillis(), productService);
+
+        // Every account uses one reserved and one on-demand instance of each type in each zone
+        Product ec2Instance = productService.getProductByName(Product.ec2Instance);
+        usage = Lists.newArrayList();
+        cost = Lists.newArrayList();
+        for (int hour = 0; hour < HOURS; hour++) {
+            Map<TagGroup, Double> usageMap = Maps.newHashMap();
+            Map<TagGroup, Double> costMap = Maps.newHashMap();
+            for (Account account: accountList) {
+                for (String instanceType: instanceTypes) {
+                    UsageType usageType = UsageType.getUsageType(instanceType, "hours");
+                    for (Zone zone: zones) {
+                        usageMap.put(TagGroup.getTagGroup(account, Region.US_EAST_1, zone, ec2Instance, Operation.bonusReservedInstancesHeavy, usageType, null), 1.0);
+                        TagGroup ondemand = TagGroup.getTagGroup(account, Region.US_EAST_1, zone, ec2Instance, Operation.ondemandInstances, usageType, null);
+                        usageMap.put(ondemand, 1.0);
+                        costMap.put(ondemand, 0.1);
+                    }
+                }
+            }
+            usage.add(usageMap);
+            cost.add(costMap);
+        }
+    }
+
+    /**
+     * The processor rewrites the data in place, so every invocation starts from a fresh copy.
+     */
+    @Setup(Level.Invocation)
+    public void copyData() {
+        data = new CostAndUsageData();
+        data.getUsage(null).setData(copy(usage), 0, false);
+        data.getCost(null).setData(copy(cost), 0, false);
+    }
+
+    private static List<Map<TagGroup, Double>> copy(List<Map<TagGroup, Double>> from) {
+        List<Map<TagGroup, Double>> result = Lists.newArrayListWithCapacity(from.size());
+        for (Map<TagGroup, Double> map: from)
+            result.add(Maps.newHashMap(map));
+        return result;
+    }
+
+    @Benchmark
+    public CostAndUsageData process() throws Exception {
+        reservationProcessor.process(reservationService, data, null, SyntheticCostAndUsageReport.START);
+        return data;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.basic.BasicLineItemProcessor;
+import com.netflix.ice.basic.BasicReservationService;
+import com.netflix.ice.basic.BasicResourceService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.LineItem;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.ResourceService;
+import com.netflix.ice.processor.ReservationService.ReservationPeriod;
+import com.netflix.ice.processor.ReservationService.ReservationUtilization;
+
+/**
+ * Generates a Cost and Usage report of made up line items for the benchmarks. The shape of the
+ * report is set by the number of accounts, products, resource tags and rows. Every value is
+ * derived from the row number so the same parameters always give the same report.
+ */
+public class SyntheticCostAndUsageReport {
+    public static final DateTime START = new DateTime(2017, 8, 1, 0, 0, DateTimeZone.UTC);
+    public static final String REPORT_NAME = "synthetic-cost-and-usage";
+    private static final int HOURS = 31 * 24;
+    private static final int TAG_VALUES = 4;
+
+    // product name, usage type, operation, pricing unit and rate of the services we generate line items for
+    private static final String[][] services = new String[][]{
+        { "Amazon Elastic Compute Cloud", "BoxUsage:m4.large", "RunInstances", "Hrs", "0.1" },
+        { "Amazon Simple Storage Service", "TimedStorage-ByteHrs", "StandardStorage", "GB-Mo", "0.023" },
+        { "Amazon CloudWatch", "CW:MetricMonitorUsage", "MetricStorage", "Metrics", "0.3" },
+        { "Amazon DynamoDB", "TimedStorage-ByteHrs", "StandardStorage", "GB-Mo", "0.25" },
+        { "AWS Lambda", "Request", "Invoke", "Requests", "0.0000002" },
+        { "Amazon Simple Queue Service", "Requests-Tier1", "GetQueueAttributes", "Requests", "0.0000004" },
+        { "Amazon Simple Notification Service", "Requests-Tier1", "Publish", "Requests", "0.0000005" },
+        { "Amazon ElastiCache", "NodeUsage:cache.m4.large", "CreateCacheCluster:0002", "Hrs", "0.156" },
+    };
+
+    // columns read by CostAndUsageReportLineItem, the resource tag columns are appended after these
+    private static final String[][] columns = new String[][]{
+        { "identity", "LineItemId" },
+        { "bill", "BillType" },
+        { "bill", "PayerAccountId" },
+        { "lineItem", "UsageAccountId" },
+        { "lineItem", "LineItemType" },
+        { "lineItem", "UsageStartDate" },
+        { "lineItem", "UsageEndDate" },
+        { "lineItem", "UsageType" },
+        { "lineItem", "Operation" },
+        { "lineItem", "AvailabilityZone" },
+        { "lineItem", "ResourceId" },
+        { "lineItem", "UsageAmount" },
+        { "lineItem", "NormalizationFactor" },
+        { "lineItem", "UnblendedRate" },
+        { "lineItem", "UnblendedCost" },
+        { "lineItem", "BlendedRate" },
+        { "lineItem", "BlendedCost" },
+        { "lineItem", "LineItemDescription" },
+        { "product", "ProductName" },
+        { "product", "normalizationSizeFactor" },
+        { "product", "usagetype" },
+        { "pricing", "publicOnDemandCost" },
+        { "pricing", "PurchaseOption" },
+        { "pricing", "term" },
+        { "pricing", "unit" },
+        { "reservation", "ReservationARN" },
+    };
+
+    private final int accounts;
+    private final int products;
+    private final int tags;
+    private final int rows;
+
+    public SyntheticCostAndUsageReport(int accounts, int products, int tags, int rows) {
+        this.accounts = accounts;
+        this.products = products;
+        this.tags = tags;
+        this.rows = rows;
+    }
+
+    public String getAccountId(int index) {
+        return Long.toString(100000000000L + index);
+    }
+
+    /**
+     * The resource tags as they should be configured in ice.customTags.
+     */
+    public String[] getCustomTags() {
+        String[] result = new String[tags];
+        for (int i = 0; i < tags; i++)
+            result[i] = "Tag" + i;
+        return result;
+    }
+
+    public String[] getRow(int row) {
+        String[] service = getService((row / accounts) % products);
+        int hour = (int) ((long) row * HOURS / rows);
+        boolean ec2 = service[0].equals(services[0][0]);
+
+        List<String> items = Lists.newArrayListWithCapacity(columns.length + tags);
+        items.add("synthetic" + row);
+        items.add(LineItem.BillType.Anniversary.name());
+        items.add(getAccountId(0));
+        items.add(getAccountId(row % accounts));
+        items.add(LineItem.LineItemType.Usage.name());
+        items.add(LineItem.amazonBillingDateFormatISO.print(START.plusHours(hour)));
+        items.add(LineItem.amazonBillingDateFormatISO.print(START.plusHours(hour + 1)));
+        items.add(service[1]);
+        items.add(service[2]);
+        items.add(ec2 ? "us-east-1a" : "");
+        items.add(ec2 ? String.format("i-%017x", row % 997) : "");
+        items.add("1.0");
+        items.add("");
+        items.add(service[4]);
+        items.add(service[4]);
+        items.add(service[4]);
+        items.add(service[4]);
+        items.add("synthetic " + service[1]);
+        items.add(service[0]);
+        items.add("");
+        items.add(service[1]);
+        items.add(service[4]);
+        items.add("");
+        items.add("OnDemand");
+        items.add(service[3]);
+        items.add("");
+        for (int i = 0; i < tags; i++)
+            items.add("value" + (row / (i * 3 + 1)) % TAG_VALUES);
+        return items.toArray(new String[items.size()]);
+    }
+
+    private String[] getService(int index) {
+        if (index < services.length)
+            return services[index];
+        return new String[]{ "Synthetic Service " + index, "Usage" + index, "Operation" + index, "Units", "0.01" };
+    }
+
+    /**
+     * Write the manifest and gzipped report into dir, returning the manifest file.
+     */
+    public File write(File dir) throws IOException {
+        dir.mkdirs();
+        File report = getReportFile(dir);
+        Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(report)), "UTF-8");
+        try {
+            List<String> header = Lists.newArrayList();
+            for (String[] column: columns)
+                header.add(column[0] + "/" + column[1]);
+            for (String tag: getCustomTags())
+                header.add("resourceTags/user:" + tag);
+            out.write(StringUtils.join(header, ","));
+            out.write("\n");
+            for (int row = 0; row < rows; row++) {
+                out.write(StringUtils.join(getRow(row), ","));
+                out.write("\n");
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        File manifest = new File(dir, REPORT_NAME + "-Manifest.json");
+        out = new OutputStreamWriter(new FileOutputStream(manifest), "UTF-8");
+        try {
+            List<String> manifestColumns = Lists.newArrayList();
+            for (String[] column: columns)
+                manifestColumns.add("{\"category\":\"" + column[0] + "\",\"name\":\"" + column[1] + "\"}");
+            for (String tag: getCustomTags())
+                manifestColumns.add("{\"category\":\"resourceTags\",\"name\":\"user:" + tag + "\"}");
+            out.write("{\"account\":\"" + getAccountId(0) + "\",");
+            out.write("\"columns\":[" + StringUtils.join(manifestColumns, ",") + "],");
+            out.write("\"reportName\":\"" + REPORT_NAME + "\",");
+            out.write("\"billingPeriod\":{\"start\":\"" + CostAndUsageReport.billingPeriodDateFormat.print(START) +
+                    "\",\"end\":\"" + CostAndUsageReport.billingPeriodDateFormat.print(START.plusMonths(1)) + "\"},");
+            out.write("\"reportKeys\":[\"" + report.getName() + "\"]}");
+        }
+        finally {
+            out.close();
+        }
+        return manifest;
+    }
+
+    public File getReportFile(File dir) {
+        return new File(dir, REPORT_NAME + "-1.csv.gz");
+    }
+
+    /**
+     * Resource service that builds resource groups from all of the generated tags.
+     */
+    public ResourceService newResourceService(ProductService productService) {
+        Map<String, List<String>> empty = Maps.newHashMap();
+        return new BasicResourceService(productService, getCustomTags(), new String[]{}, empty, empty);
+    }
+
+    public LineItemProcessor newLineItemProcessor(AccountService accountService, ProductService productService, ResourceService resourceService) {
+        ReservationService reservationService = new BasicReservationService(ReservationPeriod.oneyear, ReservationUtilization.PARTIAL, false);
+        return new BasicLineItemProcessor(accountService, productService, reservationService, resourceService);
+    }
+
+    /**
+     * Run every row through the line item processor, giving the data the processor would archive for the month.
+     */
+    public CostAndUsageData process(AccountService accountService, ProductService productService, File manifest) {
+        ResourceService resourceService = newResourceService(productService);
+        LineItemProcessor lineItemProcessor = newLineItemProcessor(accountService, productService, resourceService);
+        CostAndUsageReportLineItem lineItem = new CostAndUsageReportLineItem(false, new CostAndUsageReport(manifest, null));
+        resourceService.initHeader(lineItem.getResourceTagsHeader());
+
+        CostAndUsageData data = new CostAndUsageData();
+        Map<String, Double> ondemandRate = Maps.newHashMap();
+        for (int row = 0; row < rows; row++) {
+            lineItem.setItems(getRow(row));
+            lineItemProcessor.process(START.getMillis(), true, true, lineItem, data, null, ondemandRate, null);
+        }
+        return data;
+    }
+}
@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 public class BasicAccountService implements AccountService {
 
@@ -35,8 +36,8 @@ public class BasicAccountService implements AccountService {
 
     // Keep the accounts in static maps. TagGroups have a cache and
     // we want fast object comparisons.
-    private static Map<String, Account> accountsById = Maps.newConcurrentMap();
-    private static Map<String, Account> accountsByName = Maps.newConcurrentMap();
+    private static ConcurrentMap<String, Account> accountsById = Maps.newConcurrentMap();
+    private static ConcurrentMap<String, Account> accountsByName = Maps.newConcurrentMap();
     private Map<Account, List<Account>> payerAccounts = Maps.newHashMap();
     private Map<Account, Set<String>> reservationAccounts = Maps.newHashMap();
     private Map<Account, String> reservationAccessRoles = Maps.newHashMap();
@@ -155,11 +156,10 @@ public class BasicAccountService implements AccountService {
 
     public Account getAccountById(String accountId) {
         Account account = accountsById.get(accountId);
+        if (account == null && Account.ROLLUP.id.equals(accountId))
+            return Account.ROLLUP;
         if (account == null) {
-            account = new Account(accountId, accountId);
-            accountsByName.put(account.name, account);
-            accountsById.put(account.id, account);
-            logger.info("getAccountById() created account " + accountId + ".");
+            account = register(new Account(accountId, accountId));
         }
         return account;
     }
@@ -171,15 +171,26 @@ public class BasicAccountService implements AccountService {
         if (account == null) {
             account = accountsById.get(accountName);
         }
+        if (account == null && Account.ROLLUP.name.equals(accountName))
+            return Account.ROLLUP;
         if (account == null) {
-            account = new Account(accountName, accountName);
-            accountsByName.put(account.name, account);
-            accountsById.put(account.id, account);
-            logger.info("getAccountByName() created account " + accountName + ".");
+            account = register(new Account(accountName, accountName));
         }
         return account;
     }
 
+    /*
+     * Only the thread whose account wins the id entry registers it, the others use the winner.
+     */
+    private Account register(Account account) {
+        Account existing = accountsById.putIfAbsent(account.id, account);
+        if (existing != null)
+            return existing;
+        accountsByName.putIfAbsent(account.name, account);
+        logger.info("created account " + account.id + ".");
+        return account;
+    }
+
     public List<Account> getAccounts(List<String> accountNames) {
         List<Account> result = Lists.newArrayList();
         for (String name: accountNames)
@@ -29,6 +29,7 @@ import org.joda.time.*;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -38,6 +39,7 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
 
     protected TagGroupManager tagGroupManager;
     protected InstanceMetricsService instanceMetricsService;
+    private List<CubeManager> cubeManagers = new CopyOnWriteArrayList<CubeManager>();
 
     public BasicDataManager(DateTime startDate, String dbName, ConsolidateType consolidateType, TagGroupManager tagGroupManager, boolean compress,
     		int monthlyCacheSize, AccountService accountService, ProductService productService, InstanceMetricsService instanceMetricsService) {
@@ -47,17 +49,79 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
 
         start();
     }
-    
+
+    /**
+     * Register a pre-aggregated cube of this manager's data.
+     * The cube is only used for intervals that start on or after coverageStart.
+     */
+    public void addCube(Cube cube, BasicDataManager manager, DateTime coverageStart) {
+        // keep the list ordered smallest cube first
+        int index = 0;
+        while (index < cubeManagers.size() && cubeManagers.get(index).cube.ordinal() < cube.ordinal())
+            index++;
+        cubeManagers.add(index, new CubeManager(cube, manager, coverageStart));
+    }
+
+    /**
+     * Returns the smallest cube manager that holds every dimension the tagLists filters on,
+     * or this manager if none of the cubes can answer the query.
+     */
+    private BasicDataManager getSourceManager(Interval interval, TagLists tagLists, UsageUnit usageUnit) {
+        // Unit adjustments are per usage type which the cubes roll up
+        if (usageUnit == UsageUnit.ECUs || usageUnit == UsageUnit.vCPUs || usageUnit == UsageUnit.Normalized)
+            return this;
+        if (!isEmpty(tagLists.zones) || !isEmpty(tagLists.usageTypes) || !isEmpty(tagLists.resourceGroups))
+            return this;
+
+        for (CubeManager cubeManager: cubeManagers) {
+            if (interval.getStart().isBefore(cubeManager.coverageStart))
+                continue;
+            if (!cubeManager.cube.hasAccount && !isEmpty(tagLists.accounts))
+                continue;
+            if (!cubeManager.cube.hasRegion && !isEmpty(tagLists.regions))
+                continue;
+            return cubeManager.manager;
+        }
+        return this;
+    }
+
+    private static boolean isEmpty(List<?> list) {
+        return list == null || list.size() == 0;
+    }
+
     private double[] getData(Interval interval, TagLists tagLists, UsageUnit usageUnit) throws ExecutionException {
+        BasicDataManager source = getSourceManager(interval, tagLists, usageUnit);
+        if (source != this)
+            return source.getData(interval, tagLists, usageUnit);
+
+        double[] result = new double[getSize(interval)];
+        scan(interval, tagLists, usageUnit, result, null);
+        return result;
+    }
+
+    /**
+     * Get the data of every tag group that matches tagLists, read in a single pass and not
+     * grouped. Batch jobs use this to slice one query many ways instead of issuing a query per slice.
+     */
+    public Map<TagGroup, double[]> getTagGroupData(Interval interval, TagLists tagLists) throws ExecutionException {
+        Map<TagGroup, double[]> result = Maps.newHashMap();
+        scan(interval, tagLists, UsageUnit.Dollar, null, result);
+        return result;
+    }
+
+    /**
+     * Add the matching data to either result or, if result is null, to the series of each tag group.
+     */
+    private void scan(Interval interval, TagLists tagLists, UsageUnit usageUnit, double[] result, Map<TagGroup, double[]> byTagGroup) throws ExecutionException {
     	Interval adjusted = getAdjustedInterval(interval);
         DateTime start = adjusted.getStart();
         DateTime end = adjusted.getEnd();
 
         int num = getSize(interval);
-        double[] result = new double[num];
 
         do {
             ReadOnlyData data = getReadOnlyData(start);
+            long scanStart = System.nanoTime();
 
             int resultIndex = 0;
             int fromIndex = 0;
@@ -93,22 +157,43 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
                 }
             }
 
+            loadRows(start, data, fromIndex, fromIndex + num - resultIndex);
+
             List<Integer> columnIndecies = Lists.newArrayList();
-            List<UsageType> usageTypes = Lists.newArrayList();
+            List<TagGroup> tagGroups = Lists.newArrayList();
             int columnIndex = 0;
             for (TagGroup tagGroup: data.getTagGroups()) {
                 if (tagLists.contains(tagGroup)) {
                 	columnIndecies.add(columnIndex);
-                    usageTypes.add(tagGroup.usageType);
+                    tagGroups.add(tagGroup);
                 }
                 columnIndex++;
             }
-            while (resultIndex < num && fromIndex < data.getNum()) {
-                double[] fromData = data.getData(fromIndex++);
-                for (int i = 0; i < columnIndecies.size(); i++)
-                    result[resultIndex] += adjustForUsageUnit(usageUnit, usageTypes.get(i), fromData[columnIndecies.get(i)]);
-                resultIndex++;
+            if (byTagGroup == null) {
+                while (resultIndex < num && fromIndex < data.getNum()) {
+                    if (data.hasData(fromIndex)) {
+                        for (int i = 0; i < columnIndecies.size(); i++)
+                            result[resultIndex] += adjustForUsageUnit(usageUnit, tagGroups.get(i).usageType, data.get(fromIndex, columnIndecies.get(i)));
+                    }
+                    fromIndex++;
+                    resultIndex++;
+                }
             }
+            else {
+                for (int i = 0; i < columnIndecies.size(); i++) {
+                    TagGroup tagGroup = tagGroups.get(i);
+                    double[] values = byTagGroup.get(tagGroup);
+                    if (values == null) {
+                        values = new double[num];
+                        byTagGroup.put(tagGroup, values);
+                    }
+                    for (int from = fromIndex, to = resultIndex; to < num && from < data.getNum(); from++, to++) {
+                        if (data.hasData(from))
+                            values[to] += adjustForUsageUnit(usageUnit, tagGroup.usageType, data.get(from, columnIndecies.get(i)));
+                    }
+                }
+            }
+            QueryTrace.span(QueryTrace.SCAN, scanStart);
 
             if (consolidateType  == ConsolidateType.hourly)
                 start = start.plusMonths(1);
@@ -118,8 +203,6 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
                 break;
         }
         while (start.isBefore(end));
-        
-        return result;
     }
     
     private double adjustForUsageUnit(UsageUnit usageUnit, UsageType usageType, double value) {
@@ -156,8 +239,11 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
             tagListsMap = Maps.newHashMap();
             tagListsMap.put(Tag.aggregated, tagLists);
         }
-        else
+        else {
+            long start = System.nanoTime();
             tagListsMap = tagGroupManager.getTagListsMap(interval, tagLists, groupBy, forReservation);
+            QueryTrace.span(QueryTrace.TAG_LISTS, start);
+        }
 
         Map<Tag, double[]> result = Maps.newTreeMap();
         double[] aggregated = null;
@@ -181,4 +267,15 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
         return result;
     }
 
+    private static class CubeManager {
+        final Cube cube;
+        final BasicDataManager manager;
+        final DateTime coverageStart;
+
+        CubeManager(Cube cube, BasicDataManager manager, DateTime coverageStart) {
+            this.cube = cube;
+            this.manager = manager;
+            this.coverageStart = coverageStart;
+        }
+    }
 }
@@ -17,21 +17,33 @@
  */
 package com.netflix.ice.basic;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.netflix.ice.common.*;
+import com.netflix.ice.processor.ArchiveManifest;
 import com.netflix.ice.processor.Instances;
 import com.netflix.ice.processor.TagGroupWriter;
 import com.netflix.ice.reader.*;
 import com.netflix.ice.tag.Product;
 import com.netflix.ice.tag.UserTag;
 
+import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.joda.time.DateTime;
 
@@ -42,24 +54,48 @@ public class BasicManagers extends Poller implements Managers {
     private ReaderConfig config;
     private boolean compress;
 
-    private Set<Product> products = Sets.newHashSet();
+    // replaced, not modified, as products finish loading so readers never see a partial product
+    private volatile Set<Product> products = Sets.newHashSet();
     private LastProcessedPoller lastProcessedPoller = null;
-    private Map<Product, BasicTagGroupManager> tagGroupManagers = Maps.newHashMap();
-    private TreeMap<Key, BasicDataManager> costManagers = Maps.newTreeMap();
-    private TreeMap<Key, BasicDataManager> usageManagers = Maps.newTreeMap();
-    private TreeMap<UserTag, TagCoverageDataManager> tagCoverageManagers = Maps.newTreeMap();
+    private volatile Map<Product, BasicTagGroupManager> tagGroupManagers = Maps.newHashMap();
+    private volatile TreeMap<Key, BasicDataManager> costManagers = Maps.newTreeMap();
+    private volatile TreeMap<Key, BasicDataManager> usageManagers = Maps.newTreeMap();
+    // products whose managers are being built, and products whose caches have been warmed
+    private final Set<Product> loading = Sets.newHashSet();
+    private final Set<Product> ready = Collections.synchronizedSet(Sets.<Product>newHashSet());
+    private volatile TreeMap<UserTag, TagCoverageDataManager> tagCoverageManagers = Maps.newTreeMap();
+    private Map<Cube, List<BasicDataManager>> cubeManagers = Maps.newHashMap();
+    // digest of the application group definitions the processor computed the series from
+    private volatile String appgroupSeriesDigest = null;
+    private volatile Map<ConsolidateType, BasicDataManager> appgroupCostManagers = Maps.newHashMap();
+    private volatile Map<ConsolidateType, BasicDataManager> appgroupUsageManagers = Maps.newHashMap();
+    private volatile BasicTagGroupManager appgroupTagGroupManager = null;
     private InstanceMetricsService instanceMetricsService = null;
     private InstancesService instancesService = null;
     private Long lastPollMillis = 0L;
+    private File manifestFile;
+    // file digests from the processor's manifest as of our last refresh
+    private Map<String, String> manifest = null;
+    // shared by all the managers to reload their changed files
+    private final ExecutorService refreshPool = Executors.newFixedThreadPool(4,
+            new ThreadFactoryBuilder().setNameFormat("refresh-%d").setDaemon(true).build());
+    // builds the managers of new products and does their initial loads
+    private final ExecutorService loadPool = Executors.newFixedThreadPool(4,
+            new ThreadFactoryBuilder().setNameFormat("load-%d").setDaemon(true).build());
 
     private static final String COVERAGE_PREFIX = "coverage_hourly_";
+    // returned by getChangedFiles() when the manifest hasn't been saved since we last looked
+    private static final Set<String> MANIFEST_UNCHANGED = Collections.emptySet();
     
     BasicManagers(boolean compress) {
     	this.compress = compress;
     }
     
     public void shutdown() {
-    	lastProcessedPoller.shutdown();
+    	if (lastProcessedPoller != null)
+    		lastProcessedPoller.shutdown();
+    	refreshPool.shutdownNow();
+    	loadPool.shutdownNow();
     	
         for (BasicTagGroupManager tagGroupManager: tagGroupManagers.values()) {
             tagGroupManager.shutdown();
@@ -73,6 +109,18 @@ public class BasicManagers extends Poller implements Managers {
         for (TagCoverageDataManager dataManager: tagCoverageManagers.values()) {
             dataManager.shutdown();
         }
+        for (List<BasicDataManager> dataManagers: cubeManagers.values()) {
+            for (BasicDataManager dataManager: dataManagers)
+                dataManager.shutdown();
+        }
+        for (BasicDataManager dataManager: appgroupCostManagers.values()) {
+            dataManager.shutdown();
+        }
+        for (BasicDataManager dataManager: appgroupUsageManagers.values()) {
+            dataManager.shutdown();
+        }
+        if (appgroupTagGroupManager != null)
+            appgroupTagGroupManager.shutdown();
     }
 
     public void init() {
@@ -80,8 +128,8 @@ public class BasicManagers extends Poller implements Managers {
         instanceMetricsService = new InstanceMetricsService(config.localDir, config.workS3BucketName, config.workS3BucketPrefix);
         instancesService = new InstancesService(config.localDir, config.workS3BucketName, config.workS3BucketPrefix, config.accountService);
         
-        lastProcessedPoller = new LastProcessedPoller(config.startDate);
-        		
+        manifestFile = new File(config.localDir, ArchiveManifest.FILE_NAME);
+
         doWork();
         start(1*60, 1*60, false);
     }
@@ -90,6 +138,10 @@ public class BasicManagers extends Poller implements Managers {
         return products;
     }
 
+    public boolean isReady(Product product) {
+        return ready.contains(product);
+    }
+
     @Override
     public Collection<UserTag> getTags() {
         return tagCoverageManagers.keySet();
@@ -107,9 +159,16 @@ public class BasicManagers extends Poller implements Managers {
         return usageManagers.get(new Key(product, consolidateType));
     }
     
-    public DataManager getTagCoverageManager(UserTag tag) {
+    public TagCoverageManager getTagCoverageManager(UserTag tag) {
         return tagCoverageManagers.get(tag);
     }
+
+    public DataManager getApplicationGroupManager(boolean cost, ConsolidateType consolidateType, Map<String, ApplicationGroup> appgroups) {
+        String digest = appgroupSeriesDigest;
+        if (digest == null || !digest.equals(ApplicationGroupSeries.digest(appgroups)))
+            return null;
+        return (cost ? appgroupCostManagers : appgroupUsageManagers).get(consolidateType);
+    }
     
     public Instances getInstances() {
     	return instancesService.getInstances();
@@ -121,34 +180,33 @@ public class BasicManagers extends Poller implements Managers {
     }
 
     private void doWork() {
-    	if (lastPollMillis >= lastProcessedPoller.getLastProcessedMillis())
-    		return;	// nothing to do
-    	
-    	// Mark all the data managers so they update their caches
-    	for (BasicTagGroupManager m: tagGroupManagers.values()) {
-    		m.stale();
-    	}
-    	for (DataFilePoller p: costManagers.values()) {
-    		p.stale();
+    	Set<String> changedFiles = getChangedFiles();
+    	if (changedFiles == null) {
+    		// No manifest from the processor, fall back to having every manager check each of its files
+    		if (lastProcessedPoller == null)
+    			lastProcessedPoller = new LastProcessedPoller(config.startDate);
+	    	if (lastPollMillis >= lastProcessedPoller.getLastProcessedMillis())
+	    		return;	// nothing to do
+	    	
+	    	// Mark all the data managers so they update their caches
+	    	for (StalePoller p: getPollers())
+	    		p.stale();
     	}
-    	for (DataFilePoller p: usageManagers.values()) {
-    		p.stale();
+    	else if (changedFiles == MANIFEST_UNCHANGED) {
+    		return;	// nothing to do
     	}
-    	for (DataFilePoller p: tagCoverageManagers.values()) {
-    		p.stale();
+    	else if (!changedFiles.isEmpty()) {
+    		refresh(changedFiles);
     	}
+    	// The instance files aren't in the manifest. The processor saves the manifest on every run,
+    	// so check them whenever it moves even if none of the data files changed.
     	instancesService.stale();
     	instanceMetricsService.stale();
     	
     	lastPollMillis = DateTime.now().getMillis();
     	
         logger.info("trying to find new tag group and data managers...");
-        Set<Product> products = Sets.newHashSet(this.products);
-        Map<Product, BasicTagGroupManager> tagGroupManagers = Maps.newHashMap(this.tagGroupManagers);
-        TreeMap<Key, BasicDataManager> costManagers = Maps.newTreeMap(this.costManagers);
-        TreeMap<Key, BasicDataManager> usageManagers = Maps.newTreeMap(this.usageManagers);
-
-        Set<Product> newProducts = Sets.newHashSet();
+        List<Product> newProducts = Lists.newArrayList();
         AmazonS3Client s3Client = AwsUtils.getAmazonS3Client();
         for (S3ObjectSummary s3ObjectSummary: s3Client.listObjects(config.workS3BucketName, config.workS3BucketPrefix + TagGroupWriter.DB_PREFIX).getObjectSummaries()) {
             String key = s3ObjectSummary.getKey();
@@ -160,45 +218,284 @@ public class BasicManagers extends Poller implements Managers {
                 String name = key.substring((config.workS3BucketPrefix + TagGroupWriter.DB_PREFIX).length());
                 product = config.productService.getProductByFileName(name);
             }
-            if (!products.contains(product)) {
-                products.add(product);
-                newProducts.add(product);
+            synchronized (loading) {
+                if (!products.contains(product) && loading.add(product)) {
+                    // "all" goes first
+                    if (product == null)
+                        newProducts.add(0, product);
+                    else
+                        newProducts.add(product);
+                }
             }
         }
 
-        for (Product product: newProducts) {
-        	BasicTagGroupManager tagGroupManager = new BasicTagGroupManager(product);
-            tagGroupManagers.put(product, tagGroupManager);
-            for (ConsolidateType consolidateType: ConsolidateType.values()) {
-                Key key = new Key(product, consolidateType);
-                
-            	String partialDbName = consolidateType + "_" + (product == null ? "all" : product.getFileName());
-               
-                costManagers.put(key, new BasicDataManager(config.startDate, "cost_" + partialDbName, consolidateType, tagGroupManager, compress,
-                		config.monthlyCacheSize, config.accountService, config.productService, null));
-                usageManagers.put(key, new BasicDataManager(config.startDate, "usage_" + partialDbName, consolidateType, tagGroupManager, compress,
-                		config.monthlyCacheSize, config.accountService, config.productService, instanceMetricsService));
+        // The products load in the background, except "all" which the cubes, the tag coverage
+        // managers and most of the UI need. The UI can serve it while the rest are still loading.
+        Future<?> all = null;
+        for (final Product product: newProducts) {
+            Future<?> future = loadPool.submit(new Runnable() {
+                public void run() {
+                    load(product);
+                }
+            });
+            if (product == null)
+                all = future;
+        }
+        if (all != null) {
+            try {
+                all.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException e) {
+                logger.error("error loading managers for all products", e.getCause());
             }
         }
 
-        if (newProducts.size() > 0) {
-            this.costManagers = costManagers;
-            this.usageManagers = usageManagers;
-            this.tagGroupManagers = tagGroupManagers;
-            this.products = products;
+        if (products.contains(null)) {
+            addCubeManagers(s3Client);
+            addApplicationGroupManagers();
         }
-        
+
+        // replaced, not modified, since the UI reads it while we add to it
+        TreeMap<UserTag, TagCoverageDataManager> tagCoverageManagers = null;
         for (S3ObjectSummary s3ObjectSummary: s3Client.listObjects(config.workS3BucketName, config.workS3BucketPrefix + COVERAGE_PREFIX).getObjectSummaries()) {
             String key = s3ObjectSummary.getKey();
             String tagName = key.substring((config.workS3BucketPrefix + COVERAGE_PREFIX).length());
             tagName = tagName.substring(0, tagName.indexOf("_"));
-            if (tagCoverageManagers.containsKey(new UserTag(tagName)))
+            UserTag tag = new UserTag(tagName);
+            if ((tagCoverageManagers == null ? this.tagCoverageManagers : tagCoverageManagers).containsKey(tag))
             	continue;
             
-            tagCoverageManagers.put(new UserTag(tagName),
+            if (tagCoverageManagers == null)
+            	tagCoverageManagers = Maps.newTreeMap(this.tagCoverageManagers);
+            tagCoverageManagers.put(tag,
             		new TagCoverageDataManager(config.startDate, "coverage_" + ConsolidateType.hourly + "_" + tagName, ConsolidateType.hourly, getTagGroupManager(null), compress,
             				config.monthlyCacheSize, config.accountService, config.productService));
-        }        
+        }
+        if (tagCoverageManagers != null)
+        	this.tagCoverageManagers = tagCoverageManagers;
+    }
+
+    /**
+     * Build the managers for a product, the tag group manager first since the data managers
+     * depend on it, and publish them together. Then warm the caches; the product is ready after that.
+     */
+    private void load(Product product) {
+        long startMillis = System.currentTimeMillis();
+        try {
+            BasicTagGroupManager tagGroupManager = new BasicTagGroupManager(product);
+            Map<Key, BasicDataManager> cost = Maps.newHashMap();
+            Map<Key, BasicDataManager> usage = Maps.newHashMap();
+            for (ConsolidateType consolidateType: ConsolidateType.values()) {
+                Key key = new Key(product, consolidateType);
+
+            	String partialDbName = consolidateType + "_" + (product == null ? "all" : product.getFileName());
+
+                cost.put(key, new BasicDataManager(config.startDate, "cost_" + partialDbName, consolidateType, tagGroupManager, compress,
+                		config.monthlyCacheSize, config.accountService, config.productService, null));
+                usage.put(key, new BasicDataManager(config.startDate, "usage_" + partialDbName, consolidateType, tagGroupManager, compress,
+                		config.monthlyCacheSize, config.accountService, config.productService, instanceMetricsService));
+            }
+            addProduct(product, tagGroupManager, cost, usage);
+        }
+        catch (RuntimeException e) {
+            logger.error("error building managers for " + product, e);
+            synchronized (loading) {
+                loading.remove(product);
+            }
+            return;
+        }
+
+        try {
+            config.prime(product);
+        }
+        catch (RuntimeException e) {
+            logger.error("error warming caches for " + product, e);
+        }
+        ready.add(product);
+        logger.info((product == null ? "all" : product.getFileName()) + " ready in " + (System.currentTimeMillis() - startMillis) + "ms");
+    }
+
+    private void addProduct(Product product, BasicTagGroupManager tagGroupManager, Map<Key, BasicDataManager> cost, Map<Key, BasicDataManager> usage) {
+        synchronized (loading) {
+            Map<Product, BasicTagGroupManager> tagGroupManagers = Maps.newHashMap(this.tagGroupManagers);
+            TreeMap<Key, BasicDataManager> costManagers = Maps.newTreeMap(this.costManagers);
+            TreeMap<Key, BasicDataManager> usageManagers = Maps.newTreeMap(this.usageManagers);
+            Set<Product> products = Sets.newHashSet(this.products);
+            tagGroupManagers.put(product, tagGroupManager);
+            costManagers.putAll(cost);
+            usageManagers.putAll(usage);
+            products.add(product);
+
+            this.tagGroupManagers = tagGroupManagers;
+            this.costManagers = costManagers;
+            this.usageManagers = usageManagers;
+            this.products = products;
+            loading.remove(product);
+        }
+    }
+
+    private List<StalePoller> getPollers() {
+    	List<StalePoller> pollers = Lists.newArrayList();
+    	pollers.addAll(tagGroupManagers.values());
+    	pollers.addAll(costManagers.values());
+    	pollers.addAll(usageManagers.values());
+    	pollers.addAll(tagCoverageManagers.values());
+    	for (List<BasicDataManager> dataManagers: cubeManagers.values())
+    		pollers.addAll(dataManagers);
+    	pollers.addAll(appgroupCostManagers.values());
+    	pollers.addAll(appgroupUsageManagers.values());
+    	if (appgroupTagGroupManager != null)
+    		pollers.add(appgroupTagGroupManager);
+    	return pollers;
+    }
+
+    /**
+     * Check the processor's manifest for files that have been rewritten since we last looked.
+     * This costs one request per poll no matter how many files the managers have cached.
+     * @return names of the changed files, MANIFEST_UNCHANGED if the manifest itself hasn't changed,
+     * or null if the processor doesn't publish a manifest.
+     */
+    private Set<String> getChangedFiles() {
+    	try {
+    		if (!AwsUtils.downloadFileIfChanged(config.workS3BucketName, config.workS3BucketPrefix, manifestFile, 0) && manifest != null)
+    			return MANIFEST_UNCHANGED;
+
+    		Map<String, String> newManifest = ArchiveManifest.load(manifestFile);
+    		Set<String> changed = Sets.newHashSet();
+    		for (Map.Entry<String, String> entry: newManifest.entrySet()) {
+    			if (manifest == null || !entry.getValue().equals(manifest.get(entry.getKey())))
+    				changed.add(entry.getKey());
+    		}
+    		manifest = newManifest;
+    		appgroupSeriesDigest = newManifest.get(ApplicationGroupSeries.MANIFEST_KEY);
+    		logger.info(changed.size() + " files changed in " + ArchiveManifest.FILE_NAME);
+    		return changed;
+    	}
+    	catch (AmazonServiceException e) {
+    		if (e.getStatusCode() != 404)
+    			logger.error("error checking " + ArchiveManifest.FILE_NAME, e);
+    		return null;
+    	}
+    	catch (Exception e) {
+    		logger.error("error checking " + ArchiveManifest.FILE_NAME, e);
+    		return null;
+    	}
+    }
+
+    /**
+     * Have each manager reload the changed files it has cached. The work is spread across the
+     * shared refresh pool. Managers that fail to refresh fall back to checking all their files.
+     */
+    private void refresh(final Set<String> changedFiles) {
+    	List<StalePoller> pollers = getPollers();
+    	List<Future<?>> futures = Lists.newArrayList();
+    	for (final StalePoller p: pollers) {
+    		futures.add(refreshPool.submit(new Callable<Void>() {
+    			public Void call() throws Exception {
+    				p.refresh(changedFiles);
+    				return null;
+    			}
+    		}));
+    	}
+    	for (int i = 0; i < pollers.size(); i++) {
+    		try {
+    			futures.get(i).get();
+    		}
+    		catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			return;
+    		}
+    		catch (ExecutionException e) {
+    			logger.error("error refreshing changed files", e.getCause());
+    			pollers.get(i).stale();
+    		}
+    	}
+    }
+
+    /**
+     * Look for pre-aggregated cubes written by the processor and attach them to the "all" data managers.
+     */
+    private void addCubeManagers(AmazonS3Client s3Client) {
+        String prefix = config.workS3BucketPrefix + "cost_" + ConsolidateType.hourly + "_" + Cube.FILE_PREFIX;
+        Map<Cube, DateTime> firstMonths = Maps.newHashMap();
+
+        for (S3ObjectSummary s3ObjectSummary: s3Client.listObjects(config.workS3BucketName, prefix).getObjectSummaries()) {
+            // Keys look like cost_hourly_cube_product_operation_2018-01.gz
+            String name = s3ObjectSummary.getKey().substring(prefix.length());
+            if (name.endsWith(".gz"))
+                name = name.substring(0, name.length() - ".gz".length());
+            int monthIndex = name.lastIndexOf("_");
+            if (monthIndex < 0)
+                continue;
+
+            Cube cube;
+            DateTime month;
+            try {
+                cube = Cube.valueOf(name.substring(0, monthIndex));
+                month = AwsUtils.monthDateFormat.parseDateTime(name.substring(monthIndex + 1));
+            }
+            catch (IllegalArgumentException e) {
+                logger.warn("ignoring unexpected cube file " + s3ObjectSummary.getKey());
+                continue;
+            }
+            DateTime first = firstMonths.get(cube);
+            if (first == null || month.isBefore(first))
+                firstMonths.put(cube, month);
+        }
+
+        for (Cube cube: firstMonths.keySet()) {
+            if (cubeManagers.containsKey(cube))
+                continue;
+
+            // The weekly data for the first month is missing the days from the prior month,
+            // so only use the cube from the second month on.
+            DateTime coverageStart = firstMonths.get(cube).plusMonths(1);
+            logger.info("found cube " + cube + ", using it for data from " + coverageStart);
+
+            List<BasicDataManager> dataManagers = Lists.newArrayList();
+            for (ConsolidateType consolidateType: ConsolidateType.values()) {
+                Key key = new Key(null, consolidateType);
+                String partialDbName = consolidateType + "_" + cube.getFileName();
+
+                BasicDataManager cost = new BasicDataManager(config.startDate, "cost_" + partialDbName, consolidateType, tagGroupManagers.get(null), compress,
+                        config.monthlyCacheSize, config.accountService, config.productService, null);
+                BasicDataManager usage = new BasicDataManager(config.startDate, "usage_" + partialDbName, consolidateType, tagGroupManagers.get(null), compress,
+                        config.monthlyCacheSize, config.accountService, config.productService, instanceMetricsService);
+                costManagers.get(key).addCube(cube, cost, coverageStart);
+                usageManagers.get(key).addCube(cube, usage, coverageStart);
+                dataManagers.add(cost);
+                dataManagers.add(usage);
+            }
+            cubeManagers.put(cube, dataManagers);
+        }
+    }
+
+    /**
+     * Create the managers of the application group series once the processor has computed them.
+     */
+    private void addApplicationGroupManagers() {
+        if (appgroupSeriesDigest == null || !appgroupCostManagers.isEmpty())
+            return;
+
+        logger.info("found application group series");
+        // the series have their own tag groups, with the application group in place of the resource group
+        BasicTagGroupManager tagGroupManager = new BasicTagGroupManager(ApplicationGroupSeries.FILE_NAME);
+        Map<ConsolidateType, BasicDataManager> cost = Maps.newHashMap();
+        Map<ConsolidateType, BasicDataManager> usage = Maps.newHashMap();
+        for (ConsolidateType consolidateType: ConsolidateType.values()) {
+            String partialDbName = consolidateType + "_" + ApplicationGroupSeries.FILE_NAME;
+            cost.put(consolidateType, new BasicDataManager(config.startDate, "cost_" + partialDbName, consolidateType, tagGroupManager, compress,
+                    config.monthlyCacheSize, config.accountService, config.productService, null));
+            usage.put(consolidateType, new BasicDataManager(config.startDate, "usage_" + partialDbName, consolidateType, tagGroupManager, compress,
+                    config.monthlyCacheSize, config.accountService, config.productService, instanceMetricsService));
+        }
+        appgroupTagGroupManager = tagGroupManager;
+        appgroupCostManagers = cost;
+        appgroupUsageManagers = usage;
     }
 
     private static class Key implements Comparable<Key> {
@@ -54,10 +54,8 @@ public class BasicProductService implements ProductService {
 
 	public Product getProductByAwsName(String awsName) {
         Product product = productsByAwsName.get(awsName);
-        if (product == null) {
-            product = new Product(awsName);
-            addProduct(product);
-        }
+        if (product == null)
+            product = register(new Product(awsName));
         return product;
     }
     
@@ -66,21 +64,32 @@ public class BasicProductService implements ProductService {
     	Product product = productsByFileName.get(fileName);
     	if (product == null) {
     		String name = Product.getNameFromFileName(fileName);
-    		product = new Product(name);
-    		addProduct(product);
+    		product = productsByName.get(name);
+    		if (product == null)
+    			product = register(new Product(name));
     	}
     	return product;
     }
 
     public Product getProductByName(String name) {
         Product product = productsByName.get(name);
-        if (product == null) {
-            product = new Product(name);
-            addProduct(product);
-        }
+        if (product == null)
+            product = register(new Product(name));
         return product;
     }
     
+    /*
+     * Products are added under several names. The product that wins the entry for its own
+     * name is the only one that ever gets returned, any other thread's copy is dropped.
+     */
+    private Product register(Product product) {
+        Product existing = productsByName.putIfAbsent(product.name, product);
+        if (existing != null)
+            return existing;
+        addProduct(product);
+        return product;
+    }
+
     private void addProduct(Product product) {
         productsByName.put(product.name, product);
         productsByFileName.put(product.getFileName(), product);
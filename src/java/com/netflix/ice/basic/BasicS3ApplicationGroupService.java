@@ -39,6 +39,7 @@ import java.util.Map;
 
 public class BasicS3ApplicationGroupService implements ApplicationGroupService {
     private final static Logger logger = LoggerFactory.getLogger(BasicS3ApplicationGroupService.class);
+    public final static String FILE_NAME = "appgroups";
     private AmazonS3Client s3Client;
     private ReaderConfig config;
 
@@ -61,7 +62,7 @@ public class BasicS3ApplicationGroupService implements ApplicationGroupService {
         String jsonStr;
         InputStream in = null;
         try {
-            in = s3Client.getObject(config.workS3BucketName, config.workS3BucketPrefix + "appgroups").getObjectContent();
+            in = s3Client.getObject(config.workS3BucketName, config.workS3BucketPrefix + FILE_NAME).getObjectContent();
             jsonStr = IOUtils.toString(in);
             in.close();
         }
@@ -70,7 +71,7 @@ public class BasicS3ApplicationGroupService implements ApplicationGroupService {
             if (in != null)
             	try {in.close();} catch (Exception ex){}
             try {
-                in = s3Client.getObject(config.workS3BucketName, config.workS3BucketPrefix + "copy_appgroups").getObjectContent();
+                in = s3Client.getObject(config.workS3BucketName, config.workS3BucketPrefix + "copy_" + FILE_NAME).getObjectContent();
                 jsonStr = IOUtils.toString(in);
             }
             catch (Exception r) {
@@ -84,16 +85,7 @@ public class BasicS3ApplicationGroupService implements ApplicationGroupService {
         }
 
         try {
-            JSONObject json = new JSONObject(new JSONTokener(jsonStr));
-            Map<String, ApplicationGroup> appgroups = Maps.newHashMap();
-            Iterator<?> keys = json.keys();
-            while (keys.hasNext()) {
-                String key = (String) keys.next();
-                String str = json.getString(key);
-                appgroups.put(key, new ApplicationGroup(str));
-            }
-
-            return appgroups;
+            return parse(jsonStr);
         }
         catch (JSONException e) {
             logger.error("Error reading appgroups from json...", e);
@@ -101,6 +93,23 @@ public class BasicS3ApplicationGroupService implements ApplicationGroupService {
         }
     }
 
+    /**
+     * Parse the contents of the appgroups file.
+     * @return map of application group name to application group
+     */
+    public static Map<String, ApplicationGroup> parse(String jsonStr) throws JSONException {
+        JSONObject json = new JSONObject(new JSONTokener(jsonStr));
+        Map<String, ApplicationGroup> appgroups = Maps.newHashMap();
+        Iterator<?> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            String str = json.getString(key);
+            appgroups.put(key, new ApplicationGroup(str));
+        }
+
+        return appgroups;
+    }
+
     public ApplicationGroup getApplicationGroup(String name) {
         Map<String, ApplicationGroup> appgroups = getApplicationGroups();
         return appgroups.get(name);
@@ -112,8 +121,8 @@ public class BasicS3ApplicationGroupService implements ApplicationGroupService {
 
         try {
             String json = getJson(appgroups);
-            s3Client.putObject(config.workS3BucketName, config.workS3BucketPrefix + "appgroups", IOUtils.toInputStream(json), new ObjectMetadata());
-            s3Client.putObject(config.workS3BucketName, config.workS3BucketPrefix + "copy_appgroups", IOUtils.toInputStream(json), new ObjectMetadata());
+            s3Client.putObject(config.workS3BucketName, config.workS3BucketPrefix + FILE_NAME, IOUtils.toInputStream(json), new ObjectMetadata());
+            s3Client.putObject(config.workS3BucketName, config.workS3BucketPrefix + "copy_" + FILE_NAME, IOUtils.toInputStream(json), new ObjectMetadata());
 
             BasicS3ApplicationGroupService.logger.info("saved appgroup " + appgroup);
             return true;
@@ -130,7 +139,7 @@ public class BasicS3ApplicationGroupService implements ApplicationGroupService {
 
         try {
             String json = getJson(appgroups);
-            s3Client.putObject(config.workS3BucketName, config.workS3BucketPrefix + "appgroups", new ByteArrayInputStream(json.getBytes()), new ObjectMetadata());
+            s3Client.putObject(config.workS3BucketName, config.workS3BucketPrefix + FILE_NAME, new ByteArrayInputStream(json.getBytes()), new ObjectMetadata());
 
             BasicS3ApplicationGroupService.logger.info("delete appgroup " + name + " " + appgroup);
             return true;
@@ -48,7 +48,14 @@ public class BasicTagGroupManager extends StalePoller implements TagGroupManager
     private Interval totalInterval;
 
     BasicTagGroupManager(Product product) {
-        this.dbName = TagGroupWriter.DB_PREFIX + (product == null ? "all" : product.getFileName());
+        this(product == null ? "all" : product.getFileName());
+    }
+
+    /**
+     * Manager of the tag groups archived under a name other than a product's, e.g. the application group series.
+     */
+    BasicTagGroupManager(String name) {
+        this.dbName = TagGroupWriter.DB_PREFIX + name;
         file = new File(config.localDir, dbName);
         try {
             stalePoll();
@@ -59,6 +66,25 @@ public class BasicTagGroupManager extends StalePoller implements TagGroupManager
         start(DefaultStalePollInvervalSecs, DefaultStalePollInvervalSecs, false);
     }
 
+    /**
+     * Constructor used for unit testing and benchmarks only. Serves the given TagGroups without polling s3.
+     */
+    BasicTagGroupManager(TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups) {
+        this.dbName = TagGroupWriter.DB_PREFIX + "all";
+        setTagGroups(tagGroupsWithResourceGroups);
+    }
+
+    private void setTagGroups(TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups) {
+        TreeMap<Long, Collection<TagGroup>> tagGroups = removeResourceGroups(tagGroupsWithResourceGroups);
+        Interval totalInterval = null;
+        if (tagGroups.size() > 0) {
+            totalInterval = new Interval(tagGroups.firstKey(), new DateTime(tagGroups.lastKey()).plusMonths(1).getMillis(), DateTimeZone.UTC);
+        }
+        this.totalInterval = totalInterval;
+        this.tagGroups = tagGroups;
+        this.tagGroupsWithResourceGroups = tagGroupsWithResourceGroups;
+    }
+
     @Override
     protected boolean stalePoll() throws IOException {
         boolean downloaded = AwsUtils.downloadFileIfChanged(config.workS3BucketName, config.workS3BucketPrefix, file, 0);
@@ -66,15 +92,7 @@ public class BasicTagGroupManager extends StalePoller implements TagGroupManager
             logger.info("trying to read from " + file);
             DataInputStream in = new DataInputStream(new FileInputStream(file));
             try {
-                TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups = TagGroup.Serializer.deserializeTagGroups(config.accountService, config.productService, in);
-                TreeMap<Long, Collection<TagGroup>> tagGroups = removeResourceGroups(tagGroupsWithResourceGroups);
-                Interval totalInterval = null;
-                if (tagGroups.size() > 0) {
-                    totalInterval = new Interval(tagGroups.firstKey(), new DateTime(tagGroups.lastKey()).plusMonths(1).getMillis(), DateTimeZone.UTC);
-                }
-                this.totalInterval = totalInterval;
-                this.tagGroups = tagGroups;
-                this.tagGroupsWithResourceGroups = tagGroupsWithResourceGroups;
+                setTagGroups(TagGroup.Serializer.deserializeTagGroups(config.accountService, config.productService, in));
                 logger.info("done reading " + file);
             }
             catch (IOException e) {
@@ -87,6 +105,12 @@ public class BasicTagGroupManager extends StalePoller implements TagGroupManager
         return false;
     }
 
+    @Override
+    public void refresh(Set<String> fileNames) throws IOException {
+        if (fileNames.contains(file.getName()))
+            stalePoll();
+    }
+
     @Override
     protected String getThreadName() {
         return this.dbName;
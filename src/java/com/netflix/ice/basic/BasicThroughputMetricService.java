@@ -33,6 +33,7 @@ import org.joda.time.PeriodType;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -46,7 +47,28 @@ public class BasicThroughputMetricService extends Poller implements ThroughputMe
     private ReaderConfig config;
 
     private Map<DateTime, File> fileCache;
-    private LoadingCache<DateTime, double[]> data;
+    private LoadingCache<DateTime, MonthData> data;
+
+    /**
+     * One month of the metric, hourly values along with their daily sums and the monthly total
+     * so daily, weekly and monthly queries don't have to add up every hour.
+     */
+    static class MonthData {
+        final double[] hourly;
+        final double[] daily;
+        final double total;
+
+        MonthData(double[] hourly) {
+            this.hourly = hourly;
+            this.daily = new double[(hourly.length + 23) / 24];
+            double total = 0;
+            for (int i = 0; i < hourly.length; i++) {
+                daily[i / 24] += hourly[i];
+                total += hourly[i];
+            }
+            this.total = total;
+        }
+    }
 
     public BasicThroughputMetricService(String metricName, String metricUnitName, String factoredCostCurrencySign, double factoredCostMultiply, String filePrefix) {
         this.metricName = metricName;
@@ -61,14 +83,14 @@ public class BasicThroughputMetricService extends Poller implements ThroughputMe
         config = ReaderConfig.getInstance();
         data = CacheBuilder.newBuilder()
            .maximumSize(config.monthlyCacheSize)
-           .removalListener(new RemovalListener<DateTime, double[]>() {
-               public void onRemoval(RemovalNotification<DateTime, double[]> objectRemovalNotification) {
+           .removalListener(new RemovalListener<DateTime, MonthData>() {
+               public void onRemoval(RemovalNotification<DateTime, MonthData> objectRemovalNotification) {
                    fileCache.remove(objectRemovalNotification.getKey());
                }
            })
            .build(
-                   new CacheLoader<DateTime, double[]>() {
-                       public double[] load(DateTime monthDate) throws Exception {
+                   new CacheLoader<DateTime, MonthData>() {
+                       public MonthData load(DateTime monthDate) throws Exception {
                            return loadData(monthDate);
                        }
                    });
@@ -82,41 +104,18 @@ public class BasicThroughputMetricService extends Poller implements ThroughputMe
             boolean downloaded = AwsUtils.downloadFileIfChanged(config.workS3BucketName, config.workS3BucketPrefix, file, 0);
             if (downloaded) {
                 logger.info("trying to re-read data for " + file);
-                FileInputStream in = new FileInputStream(file);
-                try {
-                    String[] strs = IOUtils.toString(in).split(",");
-                    double[] values = new double[strs.length];
-                    for (int i = 0; i < strs.length; i++)
-                        values[i] = Double.parseDouble(strs[i]);
-
-                    data.put(key, values);
-                    logger.info("done re-read data for " + file);
-                }
-                finally {
-                    in.close();
-                }
+                data.put(key, read(file));
+                logger.info("done re-read data for " + file);
             }
         }
     }
 
-    private double[] loadData(DateTime monthDate) throws InterruptedException {
+    private MonthData loadData(DateTime monthDate) throws InterruptedException {
         while (true) {
             try {
                 File file = new File(config.localDir, filePrefix + AwsUtils.monthDateFormat.print(monthDate));
                 AwsUtils.downloadFileIfChanged(config.workS3BucketName, config.workS3BucketPrefix, file, 0);
-
-                FileInputStream in = new FileInputStream(file);
-                try {
-                    String[] strs = IOUtils.toString(in).split(",");
-                    double[] values = new double[strs.length];
-                    for (int i = 0; i < strs.length; i++)
-                        values[i] = Double.parseDouble(strs[i]);
-
-                    return values;
-                }
-                finally {
-                    in.close();
-                }
+                return read(file);
             }
             catch (Exception e) {
                 logger.error("error in loading data for " + monthDate, e);
@@ -125,6 +124,20 @@ public class BasicThroughputMetricService extends Poller implements ThroughputMe
         }
     }
 
+    private MonthData read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            String[] strs = IOUtils.toString(in).split(",");
+            double[] values = new double[strs.length];
+            for (int i = 0; i < strs.length; i++)
+                values[i] = Double.parseDouble(strs[i]);
+            return new MonthData(values);
+        }
+        finally {
+            in.close();
+        }
+    }
+
     public String getMetricName() {
         return metricName;
     }
@@ -149,36 +162,50 @@ public class BasicThroughputMetricService extends Poller implements ThroughputMe
         if (interval.getStart().plusHours(num).isBefore(interval.getEnd()))
             num++;
 
-        double[] hourly = new double[num];
-        List<Double> monthly = Lists.newArrayList();
+        boolean monthly = consolidateType == ConsolidateType.monthly;
+        int hoursInPeriod = (int) (consolidateType.millis / AwsUtils.hourMillis);
+        // the daily sums line up with the result when the interval starts on a day
+        boolean useDaily = consolidateType != ConsolidateType.hourly && interval.getStart().getMillisOfDay() == 0;
+        List<Double> totals = Lists.newArrayList();
+        double[] result = monthly ? null : new double[(int) Math.ceil(1.0 * num / hoursInPeriod)];
         do {
-            double total = 0;
             int resultIndex = interval.getStart().isBefore(start) ? Hours.hoursBetween(interval.getStart(), start).getHours() : 0;
             int fromIndex = interval.getStart().isBefore(start) ? 0 : Hours.hoursBetween(start, interval.getStart()).getHours();
 
-            double[] data = this.data.get(start);
-            while (resultIndex < num && fromIndex < data.length) {
-                total += data[fromIndex];
-                hourly[resultIndex++] = data[fromIndex++];
+            MonthData data = this.data.get(start);
+            if (monthly) {
+                totals.add(fromIndex == 0 && resultIndex + data.hourly.length <= num ? data.total : sum(data.hourly, fromIndex, resultIndex, num));
+            }
+            else {
+                while (resultIndex < num && fromIndex < data.hourly.length) {
+                    if (useDaily && fromIndex % 24 == 0 && resultIndex + 24 <= num) {
+                        result[resultIndex / hoursInPeriod] += data.daily[fromIndex / 24];
+                        resultIndex += 24;
+                        fromIndex += 24;
+                    }
+                    else {
+                        result[resultIndex / hoursInPeriod] += data.hourly[fromIndex++];
+                        resultIndex++;
+                    }
+                }
             }
 
             start = start.plusMonths(1);
-            monthly.add(total);
         }
         while (start.isBefore(end));
 
-        int hoursInPeriod = (int) (consolidateType.millis / AwsUtils.hourMillis);
-        num = consolidateType == ConsolidateType.monthly ? monthly.size() : (int) Math.ceil(1.0 * num / hoursInPeriod);
-        double[] result = new double[num];
-
-        if (consolidateType == ConsolidateType.monthly) {
-            for (int i = 0; i < num; i++)
-                result[i] = monthly.get(i);
-        }
-        else {
-            for (int i = 0; i < hourly.length; i++)
-                result[i/hoursInPeriod] += hourly[i];
+        if (monthly) {
+            result = new double[totals.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = totals.get(i);
         }
         return result;
     }
+
+    private static double sum(double[] hourly, int fromIndex, int resultIndex, int num) {
+        double total = 0;
+        while (resultIndex++ < num && fromIndex < hourly.length)
+            total += hourly[fromIndex++];
+        return total;
+    }
 }
@@ -22,9 +22,13 @@ import com.amazonaws.services.simpleemail.model.RawMessage;
 import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.common.ConsolidateType;
 import com.netflix.ice.common.Poller;
+import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.reader.*;
 import com.netflix.ice.reader.ApplicationGroup;
 import com.netflix.ice.tag.*;
@@ -60,14 +64,17 @@ import javax.mail.internet.MimeMultipart;
 import javax.mail.util.ByteArrayDataSource;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.FieldPosition;
 import java.text.NumberFormat;
 import java.text.ParsePosition;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class BasicWeeklyCostEmailService extends Poller {
 
@@ -77,7 +84,6 @@ public class BasicWeeklyCostEmailService extends Poller {
     protected final DateTimeFormatter linkDateFormatter = DateTimeFormat.forPattern("yyyy-MM-dd hha").withZone(DateTimeZone.UTC);
     protected final NumberFormat numberFormatter = NumberFormat.getNumberInstance(Locale.US);
     protected final NumberFormat percentageFormat = NumberFormat.getPercentInstance();
-    protected final NumberFormat costFormatter;
 
     protected int initDelaySec;
     protected int numWeeks;
@@ -94,6 +100,14 @@ public class BasicWeeklyCostEmailService extends Poller {
     private String headerNote;
     private String throughputMetrics;
 
+    // the batch queries and chart rendering run below the priority of dashboard queries
+    private final ExecutorService renderPool = Executors.newFixedThreadPool(4,
+            new ThreadFactoryBuilder().setNameFormat("email-render-%d").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+    // emails are sent one at a time, no faster than the ses send rate
+    private final ExecutorService sendPool = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("email-send-%d").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+    private final RateLimiter sendLimiter = RateLimiter.create(1.0);
+
     public BasicWeeklyCostEmailService(
             List<Account> accounts,
             List<Region> regions,
@@ -118,7 +132,51 @@ public class BasicWeeklyCostEmailService extends Poller {
         this.bccEmail = bccEmail;
         this.testEmail = testEmail;
 
-        costFormatter = new NumberFormat() {
+        percentageFormat.setMinimumFractionDigits(1);
+        percentageFormat.setMaximumFractionDigits(1);
+    }
+
+    /**
+     * @param sendRate maximum number of emails sent per second
+     */
+    public BasicWeeklyCostEmailService(
+            List<Account> accounts,
+            List<Region> regions,
+            List<Product> products,
+            int initDelaySec,
+            int numWeeks,
+            String urlPrefix,
+            ApplicationGroupService applicationGroupService,
+            String fromEmail,
+            String bccEmail,
+            String testEmail,
+            double sendRate) {
+        this(accounts, regions, products, initDelaySec, numWeeks, urlPrefix, applicationGroupService, fromEmail, bccEmail, testEmail);
+        sendLimiter.setRate(sendRate);
+    }
+
+    @Override
+    public void start() {
+        config = ReaderConfig.getInstance();
+        start(initDelaySec, 7*24*3600, true);
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        renderPool.shutdownNow();
+        sendPool.shutdownNow();
+    }
+
+    /**
+     * Cost formatter for chart labels. Each chart gets its own since charts are rendered in parallel.
+     */
+    private static NumberFormat newCostFormatter() {
+        final NumberFormat numberFormatter = NumberFormat.getNumberInstance(Locale.US);
+        numberFormatter.setMaximumFractionDigits(1);
+        numberFormatter.setMinimumFractionDigits(1);
+
+        return new NumberFormat() {
 			private static final long serialVersionUID = 1L;
 			
 			@Override
@@ -134,15 +192,6 @@ public class BasicWeeklyCostEmailService extends Poller {
                 throw new UnsupportedOperationException();
             }
         };
-
-        percentageFormat.setMinimumFractionDigits(1);
-        percentageFormat.setMaximumFractionDigits(1);
-    }
-
-    @Override
-    public void start() {
-        config = ReaderConfig.getInstance();
-        start(initDelaySec, 7*24*3600, true);
     }
 
     protected boolean inTest() {
@@ -182,15 +231,55 @@ public class BasicWeeklyCostEmailService extends Poller {
             Map<String, ApplicationGroup> appgroups = applicationGroupService.getApplicationGroups();
             Map<String, List<ApplicationGroup>> appgroupsByEmail = collectEmails(appgroups);
 
-            for (String email: appgroupsByEmail.keySet()) {
+            DateTime end = new DateTime(DateTimeZone.UTC).withDayOfWeek(1).withMillisOfDay(0);
+            Interval interval = new Interval(end.minusWeeks(numWeeks), end);
+            Map<String, Map<TagGroup, double[]>> series = querySeries(interval, appgroups);
+            Map<Product, Map<ResourceGroup, Map<TagGroup, double[]>>> data = series == null ? queryProducts(interval, appgroups.values()) : null;
+
+            // slice the costs of every application group out of the product data and start rendering
+            // its chart, so the charts render in parallel while the emails are put together. Recipients
+            // of the same application group share its costs and chart.
+            Map<String, WeeklyCosts> costsByAppgroup = Maps.newHashMap();
+            Map<String, List<WeeklyCosts>> costsByEmail = Maps.newTreeMap();
+            for (Map.Entry<String, List<ApplicationGroup>> entry: appgroupsByEmail.entrySet()) {
+                List<WeeklyCosts> list = Lists.newArrayList();
+                for (ApplicationGroup appgroup: entry.getValue()) {
+                    WeeklyCosts costs = costsByAppgroup.get(appgroup.name);
+                    if (costs == null) {
+                        costs = series == null ? getCosts(appgroup, data) : getSeriesCosts(appgroup, series.get(appgroup.name));
+                        costs.chart = getChart(costs, end);
+                        costsByAppgroup.put(appgroup.name, costs);
+                    }
+                    list.add(costs);
+                }
+                costsByEmail.put(entry.getKey(), list);
+            }
+
+            Map<String, Future<?>> sent = Maps.newLinkedHashMap();
+            for (String email: costsByEmail.keySet()) {
                 try {
-                    if (!StringUtils.isEmpty(email))
-                        sendEmail(test, emailService, email, appgroupsByEmail.get(email));
+                    if (!StringUtils.isEmpty(email)) {
+                        Future<?> future = sendEmail(test, emailService, email, costsByEmail.get(email), end);
+                        if (future != null)
+                            sent.put(email, future);
+                    }
                 }
                 catch (Exception e) {
                     logger.error("error in sending email to " + email, e);
                 }
             }
+
+            int numSent = 0;
+            for (Map.Entry<String, Future<?>> entry: sent.entrySet()) {
+                try {
+                    entry.getValue().get();
+                    numSent++;
+                }
+                catch (ExecutionException e) {
+                    logger.error("error in sending email to " + entry.getKey(), e.getCause());
+                }
+            }
+            logger.info("sent " + numSent + " weekly cost emails for " + appgroups.size() + " application groups");
         }
         catch (Exception e) {
             logger.error("error sending cost emails", e);
@@ -216,55 +305,160 @@ public class BasicWeeklyCostEmailService extends Poller {
         return result;
     }
 
-    private File createImage(ApplicationGroup appgroup) throws IOException {
+    /**
+     * Read the weekly costs of every application group from the series precomputed by the processor.
+     * Returns null if there are none computed from the current application group definitions.
+     */
+    private Map<String, Map<TagGroup, double[]>> querySeries(final Interval interval, Map<String, ApplicationGroup> appgroups) throws InterruptedException, ExecutionException {
+        DataManager dataManager = config.managers.getApplicationGroupManager(true, ConsolidateType.weekly, appgroups);
+        if (!(dataManager instanceof BasicDataManager))
+            return null;
+        final BasicDataManager manager = (BasicDataManager) dataManager;
 
-        Map<String, Double> costs = Maps.newHashMap();
-        DateTime end = new DateTime(DateTimeZone.UTC).withDayOfWeek(1).withMillisOfDay(0);
-        Interval interval = new Interval(end.minusWeeks(numWeeks), end);
+        final TagLists tagLists = new TagLists(accounts, regions, null, products, null, null, null);
+        Map<TagGroup, double[]> data = renderPool.submit(new Callable<Map<TagGroup, double[]>>() {
+            public Map<TagGroup, double[]> call() throws Exception {
+                return manager.getTagGroupData(interval, tagLists);
+            }
+        }).get();
+
+        Map<String, Map<TagGroup, double[]>> result = Maps.newHashMap();
+        for (Map.Entry<TagGroup, double[]> entry: data.entrySet()) {
+            String name = entry.getKey().resourceGroup.name;
+            Map<TagGroup, double[]> tagGroups = result.get(name);
+            if (tagGroups == null) {
+                tagGroups = Maps.newHashMap();
+                result.put(name, tagGroups);
+            }
+            tagGroups.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
 
-        for (Product product: products) {
-            List<ResourceGroup> resourceGroups = getResourceGroups(appgroup, product);
+    /**
+     * Query the weekly costs of each product once for the resource groups of all the application
+     * groups. The queries run in parallel on the render pool. Returns the data of each tag group
+     * indexed by product and resource group.
+     */
+    private Map<Product, Map<ResourceGroup, Map<TagGroup, double[]>>> queryProducts(final Interval interval, Collection<ApplicationGroup> appgroups) throws InterruptedException {
+        Map<Product, Future<Map<TagGroup, double[]>>> futures = Maps.newLinkedHashMap();
+
+        for (final Product product: products) {
+            Set<ResourceGroup> resourceGroups = Sets.newHashSet();
+            for (ApplicationGroup appgroup: appgroups)
+                resourceGroups.addAll(getResourceGroups(appgroup, product));
             if (resourceGroups.size() == 0) {
                 continue;
             }
             DataManager dataManager = config.managers.getCostManager(product, ConsolidateType.weekly);
-            if (dataManager == null) {
+            if (!(dataManager instanceof BasicDataManager)) {
+                continue;
+            }
+            final BasicDataManager manager = (BasicDataManager) dataManager;
+            final TagLists tagLists = new TagLists(accounts, regions, null, Lists.newArrayList(product), null, null, Lists.newArrayList(resourceGroups));
+            futures.put(product, renderPool.submit(new Callable<Map<TagGroup, double[]>>() {
+                public Map<TagGroup, double[]> call() throws Exception {
+                    return manager.getTagGroupData(interval, tagLists);
+                }
+            }));
+        }
+
+        Map<Product, Map<ResourceGroup, Map<TagGroup, double[]>>> result = Maps.newHashMap();
+        for (Map.Entry<Product, Future<Map<TagGroup, double[]>>> entry: futures.entrySet()) {
+            Map<TagGroup, double[]> data;
+            try {
+                data = entry.getValue().get();
+            }
+            catch (ExecutionException e) {
+                logger.error("error in getting weekly costs of " + entry.getKey(), e.getCause());
                 continue;
             }
-            TagLists tagLists = new TagLists(accounts, regions, null, Lists.newArrayList(product), null, null, resourceGroups);
-            Map<Tag, double[]> data = dataManager.getData(interval, tagLists, TagType.Product, AggregateType.none, false, UsageUnit.Dollar);
-            for (Tag tag: data.keySet()) {
-                for (int week = 0; week < numWeeks; week++) {
-                    String key = tag + "|" + week;
-                    if (costs.containsKey(key))
-                        costs.put(key, data.get(tag)[week] + costs.get(key));
-                    else
-                        costs.put(key, data.get(tag)[week]);
+
+            Map<ResourceGroup, Map<TagGroup, double[]>> byResourceGroup = Maps.newHashMap();
+            for (Map.Entry<TagGroup, double[]> tagGroupData: data.entrySet()) {
+                ResourceGroup resourceGroup = tagGroupData.getKey().resourceGroup;
+                Map<TagGroup, double[]> tagGroups = byResourceGroup.get(resourceGroup);
+                if (tagGroups == null) {
+                    tagGroups = Maps.newHashMap();
+                    byResourceGroup.put(resourceGroup, tagGroups);
                 }
+                tagGroups.put(tagGroupData.getKey(), tagGroupData.getValue());
             }
+            result.put(entry.getKey(), byResourceGroup);
         }
+        return result;
+    }
+
+    private WeeklyCosts getCosts(ApplicationGroup appgroup, Map<Product, Map<ResourceGroup, Map<TagGroup, double[]>>> data) {
+        WeeklyCosts costs = new WeeklyCosts(appgroup, numWeeks);
+
+        for (Product product: products) {
+            Map<ResourceGroup, Map<TagGroup, double[]>> productData = data.get(product);
+            if (productData == null)
+                continue;
+            for (ResourceGroup resourceGroup: Sets.newHashSet(getResourceGroups(appgroup, product))) {
+                Map<TagGroup, double[]> tagGroups = productData.get(resourceGroup);
+                if (tagGroups == null)
+                    continue;
+                for (Map.Entry<TagGroup, double[]> entry: tagGroups.entrySet())
+                    costs.add(entry.getKey(), entry.getValue());
+            }
+        }
+        return costs;
+    }
+
+    private WeeklyCosts getSeriesCosts(ApplicationGroup appgroup, Map<TagGroup, double[]> series) {
+        WeeklyCosts costs = new WeeklyCosts(appgroup, numWeeks);
+
+        if (series != null) {
+            for (Map.Entry<TagGroup, double[]> entry: series.entrySet())
+                costs.add(entry.getKey(), entry.getValue());
+        }
+        return costs;
+    }
+
+    /**
+     * Start rendering the chart of an application group. Returns null if the application group
+     * has no costs to show.
+     */
+    private Future<byte[]> getChart(WeeklyCosts costs, DateTime end) {
 
         boolean hasData = false;
-        for (Map.Entry<String, Double> entry: costs.entrySet()) {
-            if (!entry.getKey().contains("monitor") && entry.getValue() != null && entry.getValue() >= 0.1) {
-                hasData = true;
-                break;
+        for (Map.Entry<Product, double[]> entry: costs.byProduct.entrySet()) {
+            if (entry.getKey().name.contains("monitor"))
+                continue;
+            for (double cost: entry.getValue()) {
+                if (cost >= 0.1) {
+                    hasData = true;
+                    break;
+                }
             }
         }
         if (!hasData)
             return null;
 
-        DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+        final String title = costs.appGroup.getDisplayName() + " Weekly AWS Costs";
+        final DefaultCategoryDataset dataset = new DefaultCategoryDataset();
 
         for (Product product: products) {
+            double[] values = costs.byProduct.get(product);
             for (int week = 0; week < numWeeks; week++) {
                 String weekStr = String.format("%s - %s week", formatter.print(end.minusWeeks(numWeeks-week)).substring(5), formatter.print(end.minusWeeks(numWeeks-week-1)).substring(5));
-                dataset.addValue(costs.get(product + "|" + week), product.name, weekStr);
+                dataset.addValue(values == null ? null : values[week], product.name, weekStr);
             }
         }
 
+        return renderPool.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                return renderChart(title, dataset);
+            }
+        });
+    }
+
+    private static byte[] renderChart(String title, DefaultCategoryDataset dataset) throws IOException {
+
         JFreeChart chart = ChartFactory.createBarChart3D(
-                appgroup.getDisplayName() + " Weekly AWS Costs",
+                title,
                 "",
                 "Costs",
                 dataset,
@@ -276,9 +470,10 @@ public class BasicWeeklyCostEmailService extends Poller {
         CategoryPlot categoryplot = (CategoryPlot) chart.getPlot();
         BarRenderer3D renderer = (BarRenderer3D)categoryplot.getRenderer();
         renderer.setItemLabelAnchorOffset(10.0);
-        TextTitle title = chart.getTitle();
-        title.setFont(title.getFont().deriveFont((title.getFont().getSize()-3)));
+        TextTitle textTitle = chart.getTitle();
+        textTitle.setFont(textTitle.getFont().deriveFont((textTitle.getFont().getSize()-3)));
 
+        final NumberFormat costFormatter = newCostFormatter();
         renderer.setBaseItemLabelGenerator(new StandardCategoryItemLabelGenerator() {
 			private static final long serialVersionUID = 1L;
 
@@ -293,10 +488,10 @@ public class BasicWeeklyCostEmailService extends Poller {
         numberaxis.setNumberFormatOverride(costFormatter);
 
         BufferedImage image = chart.createBufferedImage(1200, 400);
-        File outputfile = File.createTempFile("awscost", "png");
-        ImageIO.write(image, "png", outputfile);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", outputStream);
 
-        return outputfile;
+        return outputStream.toByteArray();
     }
 
     private List<ResourceGroup> getResourceGroups(ApplicationGroup appGroup, Product product) {
@@ -318,7 +513,7 @@ public class BasicWeeklyCostEmailService extends Poller {
             return ResourceGroup.getResourceGroups(appGroup.data.get(productForResource.name));
     }
 
-    private MimeBodyPart constructEmail(int index, ApplicationGroup appGroup, StringBuilder body) throws IOException, MessagingException {
+    private MimeBodyPart constructEmail(int index, WeeklyCosts costs, DateTime end, StringBuilder body) throws IOException, MessagingException, InterruptedException, ExecutionException {
 
         if (index == 0 && !StringUtils.isEmpty(headerNote))
             body.append(headerNote);
@@ -326,12 +521,11 @@ public class BasicWeeklyCostEmailService extends Poller {
         numberFormatter.setMaximumFractionDigits(1);
         numberFormatter.setMinimumFractionDigits(1);
 
-        File file = createImage(appGroup);
-
-        if (file == null)
+        if (costs.chart == null)
             return null;
+        byte[] image = costs.chart.get();
 
-        DateTime end = new DateTime(DateTimeZone.UTC).withDayOfWeek(1).withMillisOfDay(0);
+        ApplicationGroup appGroup = costs.appGroup;
         String link = getLink("area", ConsolidateType.hourly, appGroup, accounts, regions, end.minusWeeks(numWeeks), end);
         body.append(String.format("<b><h4><a href='%s'>%s</a> Weekly Costs:</h4></b>", link, appGroup.getDisplayName()));
 
@@ -353,35 +547,7 @@ public class BasicWeeklyCostEmailService extends Poller {
         }
         body.append("<td style=\"border-left: 1px solid #DDD;\"></td></tr>");
 
-        Map<String, Double> costs = Maps.newHashMap();
-
-        Interval interval = new Interval(end.minusWeeks(numWeeks), end);
-        double[] total = new double[numWeeks];
-        for (Product product: products) {
-            List<ResourceGroup> resourceGroups = getResourceGroups(appGroup, product);
-            if (resourceGroups.size() == 0) {
-                continue;
-            }
-            DataManager dataManager = config.managers.getCostManager(product, ConsolidateType.weekly);
-            if (dataManager == null) {
-                continue;
-            }
-            for (int i = 0; i < accounts.size(); i++) {
-                List<Account> accountList = Lists.newArrayList(accounts.get(i));
-                TagLists tagLists = new TagLists(accountList, regions, null, Lists.newArrayList(product), null, null, resourceGroups);
-                Map<Tag, double[]> data = dataManager.getData(interval, tagLists, TagType.Region, AggregateType.none, false, UsageUnit.Dollar);
-                for (Tag tag: data.keySet()) {
-                    for (int week = 0; week < numWeeks; week++) {
-                        String key = accounts.get(i) + "|" + tag + "|" + week;
-                        if (costs.containsKey(key))
-                            costs.put(key, data.get(tag)[week] + costs.get(key));
-                        else
-                            costs.put(key, data.get(tag)[week]);
-                        total[week] += data.get(tag)[week];
-                    }
-                }
-            }
-        }
+        double[] total = costs.total;
 
         boolean firstLine = true;
         DateTime currentWeekEnd = end;
@@ -397,9 +563,9 @@ public class BasicWeeklyCostEmailService extends Poller {
                 Account account = accounts.get(i);
                 for (int j = 0; j < regions.size(); j++) {
                     Region region = regions.get(j);
-                    String key = account + "|" + region + "|" + week;
-                    double cost = costs.get(key) == null ? 0 : costs.get(key);
-                    Double lastCost = week == 0 ? null : costs.get(account + "|" + region + "|" + (week - 1));
+                    double[] values = costs.byAccountRegion.get(account + "|" + region);
+                    double cost = values == null ? 0 : values[week];
+                    Double lastCost = week == 0 || values == null ? null : values[week - 1];
                     link = getLink("column", ConsolidateType.daily, appGroup, Lists.newArrayList(account), Lists.newArrayList(region), currentWeekEnd.minusWeeks(1), currentWeekEnd);
                     body.append(getValueCell(cost, lastCost, link, firstLine));
                 }
@@ -432,19 +598,21 @@ public class BasicWeeklyCostEmailService extends Poller {
         body.append("<hr><br>");
 
         MimeBodyPart mimeBodyPart = new MimeBodyPart();
-        mimeBodyPart.setFileName(file.getName());
-        DataSource ds = new ByteArrayDataSource(new FileInputStream(file), "image/png");
+        mimeBodyPart.setFileName("awscost" + index + ".png");
+        DataSource ds = new ByteArrayDataSource(image, "image/png");
         mimeBodyPart.setDataHandler(new DataHandler(ds));
         mimeBodyPart.setHeader("Content-ID", "<image_cid_" + index + ">");
         mimeBodyPart.setHeader("Content-Disposition", "inline");
         mimeBodyPart.setDisposition(MimeBodyPart.INLINE);
 
-        file.delete();
-
         return mimeBodyPart;
     }
 
-    private void sendEmail(boolean test, AmazonSimpleEmailServiceClient emailService, String email, List<ApplicationGroup> appGroups)
+    /**
+     * Put together the email of one owner and queue it to be sent. Returns null if none of the
+     * application groups have costs.
+     */
+    private Future<?> sendEmail(boolean test, final AmazonSimpleEmailServiceClient emailService, String email, List<WeeklyCosts> appGroupCosts, DateTime end)
         throws IOException, MessagingException {
 
         StringBuilder body = new StringBuilder();
@@ -458,7 +626,8 @@ public class BasicWeeklyCostEmailService extends Poller {
         List<MimeBodyPart> mimeBodyParts = Lists.newArrayList();
         int index = 0;
         String subject = "";
-        for (ApplicationGroup appGroup: appGroups) {
+        for (WeeklyCosts costs: appGroupCosts) {
+            ApplicationGroup appGroup = costs.appGroup;
             boolean hasData = false;
             for (String prodName: appGroup.data.keySet()) {
                 if (config.productService.getProductByName(prodName) == null)
@@ -471,7 +640,7 @@ public class BasicWeeklyCostEmailService extends Poller {
                 continue;
 
             try {
-                MimeBodyPart mimeBodyPart = constructEmail(index, appGroup, body);
+                MimeBodyPart mimeBodyPart = constructEmail(index, costs, end, body);
                 index++;
                 if (mimeBodyPart != null) {
                     mimeBodyParts.add(mimeBodyPart);
@@ -485,11 +654,10 @@ public class BasicWeeklyCostEmailService extends Poller {
         body.append("</html>");
 
         if (mimeBodyParts.size() == 0)
-            return;
+            return null;
 
-        DateTime end = new DateTime(DateTimeZone.UTC).withDayOfWeek(1).withMillisOfDay(0);
         subject = String.format("%s Weekly AWS Costs (%s - %s)", subject, formatter.print(end.minusWeeks(1)), formatter.print(end));
-        String toEmail = test ? testEmail : email;
+        final String toEmail = test ? testEmail : email;
         Session session = Session.getInstance(new Properties());
         MimeMessage mimeMessage = new MimeMessage(session);
         mimeMessage.setSubject(subject);
@@ -510,11 +678,18 @@ public class BasicWeeklyCostEmailService extends Poller {
         mimeMessage.writeTo(outputStream);
         RawMessage rawMessage = new RawMessage(ByteBuffer.wrap(outputStream.toByteArray()));
 
-        SendRawEmailRequest rawEmailRequest = new SendRawEmailRequest(rawMessage);
+        final SendRawEmailRequest rawEmailRequest = new SendRawEmailRequest(rawMessage);
         rawEmailRequest.setDestinations(Lists.<String>newArrayList(toEmail));
         rawEmailRequest.setSource(fromEmail);
-        logger.info("sending email to " + toEmail + " " + body.toString());
-        emailService.sendRawEmail(rawEmailRequest);
+        final String logBody = body.toString();
+        return sendPool.submit(new Callable<Void>() {
+            public Void call() {
+                sendLimiter.acquire();
+                logger.info("sending email to " + toEmail + " " + logBody);
+                emailService.sendRawEmail(rawEmailRequest);
+                return null;
+            }
+        });
     }
 
     private String getValueCell(double value, Double lastValue, String link, boolean doColor) {
@@ -549,4 +724,38 @@ public class BasicWeeklyCostEmailService extends Poller {
 
         return link;
     }
+
+    /**
+     * The weekly costs of one application group summed by product for the chart and by account
+     * and region for the table.
+     */
+    private static class WeeklyCosts {
+        final ApplicationGroup appGroup;
+        final Map<Product, double[]> byProduct = Maps.newHashMap();
+        final Map<String, double[]> byAccountRegion = Maps.newHashMap();
+        final double[] total;
+        Future<byte[]> chart;
+
+        WeeklyCosts(ApplicationGroup appGroup, int numWeeks) {
+            this.appGroup = appGroup;
+            this.total = new double[numWeeks];
+        }
+
+        void add(TagGroup tagGroup, double[] values) {
+            add(byProduct, tagGroup.product, values);
+            add(byAccountRegion, tagGroup.account + "|" + tagGroup.region, values);
+            for (int week = 0; week < total.length; week++)
+                total[week] += values[week];
+        }
+
+        private <K> void add(Map<K, double[]> costs, K key, double[] values) {
+            double[] sum = costs.get(key);
+            if (sum == null) {
+                sum = new double[total.length];
+                costs.put(key, sum);
+            }
+            for (int week = 0; week < sum.length; week++)
+                sum[week] += values[week];
+        }
+    }
 }
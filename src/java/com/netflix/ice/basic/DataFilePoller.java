@@ -4,9 +4,12 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPInputStream;
 
 import org.joda.time.DateTime;
@@ -14,8 +17,10 @@ import org.joda.time.Interval;
 import org.joda.time.PeriodType;
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
@@ -25,9 +30,13 @@ import com.google.common.collect.Sets;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.common.Metrics;
 import com.netflix.ice.common.StalePoller;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.ReadWriteData;
+import com.netflix.ice.reader.BlockedReadOnlyData;
+import com.netflix.ice.reader.QueryTrace;
 import com.netflix.ice.reader.ReadOnlyData;
 import com.netflix.ice.reader.ReaderConfig;
 
@@ -37,20 +46,38 @@ import com.netflix.ice.reader.ReaderConfig;
 public class DataFilePoller extends StalePoller {
     protected static final String compressExtension = ".gz";
 
+    static final String CACHE_HITS = "reader_cache_hits_total";
+    static final String CACHE_MISSES = "reader_cache_misses_total";
+    static final String CACHE_EVICTIONS = "reader_cache_evictions_total";
+    static final String CACHE_LOAD_FAILURES = "reader_cache_load_failures_total";
+    static final String CACHE_ENTRIES = "reader_cache_entries";
+    static final String CACHE_LOAD = "reader_cache_load";
+    static final String DATA_BYTES = "reader_data_bytes";
+
     protected ReaderConfig config = ReaderConfig.getInstance();
     protected DateTime startDate;
     protected final String dbName;
     protected final boolean compress;
     protected ConsolidateType consolidateType;
-    private AccountService accountService;
-    private ProductService productService;
+    protected AccountService accountService;
+    protected ProductService productService;
 
     // map of files we've loaded into the cache
     protected Map<DateTime, File> fileCache = Maps.newConcurrentMap();
+
+    // ETags of the block indexed files we've opened, these are read from s3 on demand rather than downloaded
+    protected Map<DateTime, String> blockFileCache = Maps.newConcurrentMap();
     
     // data cache
     protected LoadingCache<DateTime, ReadOnlyData> data;
 
+    // publishes the cache statistics, removed again on shutdown
+    private final Metrics.Collector cacheStatsCollector = new Metrics.Collector() {
+        public void collect(Metrics metrics) {
+            collectCacheStats(metrics);
+        }
+    };
+
     public DataFilePoller(DateTime startDate, final String dbName, ConsolidateType consolidateType, boolean compress,
     		int monthlyCacheSize, AccountService accountService, ProductService productService) {
     	this.startDate = startDate;
@@ -62,10 +89,12 @@ public class DataFilePoller extends StalePoller {
         
         this.data = CacheBuilder.newBuilder()
         	       .maximumSize(monthlyCacheSize)
+        	       .recordStats()
         	       .removalListener(new RemovalListener<DateTime, ReadOnlyData>() {
         	           public void onRemoval(RemovalNotification<DateTime, ReadOnlyData> objectRemovalNotification) {
         	               logger.info(dbName + " removing from file cache " + objectRemovalNotification.getKey());
         	               fileCache.remove(objectRemovalNotification.getKey());
+        	               blockFileCache.remove(objectRemovalNotification.getKey());
         	           }
         	       })
         	       .build(
@@ -75,8 +104,33 @@ public class DataFilePoller extends StalePoller {
         	                   }
         	               });
 
+        Metrics.getInstance().addCollector(cacheStatsCollector);
+
         start();
     }
+
+    @Override
+    public void shutdown() {
+        Metrics.getInstance().removeCollector(cacheStatsCollector);
+        super.shutdown();
+    }
+
+    /**
+     * Publish the cache statistics and the size of the data held by this manager.
+     */
+    protected void collectCacheStats(Metrics metrics) {
+        CacheStats stats = data.stats();
+        metrics.setCounter(Metrics.name(CACHE_HITS, "manager", dbName), stats.hitCount());
+        metrics.setCounter(Metrics.name(CACHE_MISSES, "manager", dbName), stats.missCount());
+        metrics.setCounter(Metrics.name(CACHE_EVICTIONS, "manager", dbName), stats.evictionCount());
+        metrics.setCounter(Metrics.name(CACHE_LOAD_FAILURES, "manager", dbName), stats.loadExceptionCount());
+        metrics.setGauge(Metrics.name(CACHE_ENTRIES, "manager", dbName), data.size());
+
+        long bytes = 0;
+        for (ReadOnlyData readOnlyData: data.asMap().values())
+            bytes += readOnlyData.getDataBytes();
+        metrics.setGauge(Metrics.name(DATA_BYTES, "manager", dbName), bytes);
+    }
     
     /**
      * We check if new data is available periodically
@@ -85,16 +139,31 @@ public class DataFilePoller extends StalePoller {
     @Override
     protected boolean stalePoll() throws Exception {
         logger.info(dbName + " start polling...");
+        if (!blockFileCache.isEmpty()) {
+            // one listing has the ETags of all our block files
+            Map<String, String> eTags = Maps.newHashMap();
+            try {
+                for (S3ObjectSummary s3ObjectSummary: AwsUtils.getAmazonS3Client().listObjects(config.workS3BucketName, config.workS3BucketPrefix + dbName + "_").getObjectSummaries())
+                    eTags.put(s3ObjectSummary.getKey(), s3ObjectSummary.getETag());
+            }
+            catch (Exception e) {
+                logger.error("failed to check block files", e);
+                return true;
+            }
+            for (DateTime key: Sets.newHashSet(blockFileCache.keySet())) {
+                String eTag = blockFileCache.get(key);
+                if (eTag != null && !eTag.equals(eTags.get(getBlockFileKey(key)))) {
+                    // reopened with the new header on next access
+                    logger.info(dbName + " block file changed for " + key);
+                    blockFileCache.remove(key);
+                    data.invalidate(key);
+                }
+            }
+        }
         for (DateTime key: Sets.newHashSet(fileCache.keySet())) {
             File file = fileCache.get(key);
             try {
-                logger.info("trying to download " + file);
-                boolean downloaded = downloadFile(file);
-                if (downloaded) {
-                    ReadOnlyData newData = loadDataFromFile(file);
-                    data.put(key, newData);
-                    fileCache.put(key, file);
-                }
+                reloadFile(key, file);
             }
             catch (Exception e) {
                 logger.error("failed to download " + file, e);
@@ -104,12 +173,56 @@ public class DataFilePoller extends StalePoller {
         return false;
     }
 
+    /**
+     * Reload only the cached months whose files are in the changed set.
+     */
+    @Override
+    public void refresh(Set<String> fileNames) throws Exception {
+        for (DateTime key: Sets.newHashSet(blockFileCache.keySet())) {
+            if (fileNames.contains(getBlockFileName(key))) {
+                logger.info(dbName + " block file changed for " + key);
+                blockFileCache.remove(key);
+                data.invalidate(key);
+            }
+        }
+        for (DateTime key: Sets.newHashSet(fileCache.keySet())) {
+            File file = fileCache.get(key);
+            if (file != null && fileNames.contains(file.getName()))
+                reloadFile(key, file);
+        }
+    }
+
+    private void reloadFile(DateTime key, File file) throws Exception {
+        logger.info("trying to download " + file);
+        boolean downloaded = downloadFile(file);
+        if (downloaded) {
+            ReadOnlyData newData = loadDataFromFile(file);
+            data.put(key, newData);
+            fileCache.put(key, file);
+        }
+    }
+
     @Override
     protected String getThreadName() {
         return this.dbName;
     }
 
     private ReadOnlyData loadData(DateTime monthDate) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            return load(monthDate);
+        }
+        finally {
+            Metrics.getInstance().histogram(Metrics.name(CACHE_LOAD, "manager", dbName)).record(System.nanoTime() - start);
+        }
+    }
+
+    private ReadOnlyData load(DateTime monthDate) throws InterruptedException {
+        if (consolidateType == ConsolidateType.hourly && useBlockFiles()) {
+            ReadOnlyData result = loadBlockData(monthDate);
+            if (result != null)
+                return result;
+        }
         while (true) {
             File file = getDownloadFile(monthDate);
             try {
@@ -120,7 +233,7 @@ public class DataFilePoller extends StalePoller {
             catch (FileNotFoundException e) {
                 logger.warn("no data for " + monthDate + " " + this.dbName);
                 fileCache.put(monthDate, file);
-                return new ReadOnlyData(new double[][]{}, Lists.<TagGroup>newArrayList());
+                return emptyData();
             }
             catch (Exception e) {
                 logger.error("error in loading data for " + monthDate + " " + this.dbName, e);
@@ -135,10 +248,73 @@ public class DataFilePoller extends StalePoller {
 
     private synchronized File getDownloadFile(DateTime monthDate) {
         File file = getFile(monthDate);
+        long start = System.nanoTime();
         downloadFile(file);
+        QueryTrace.span(QueryTrace.DOWNLOAD, start);
         return file;
     }
 
+    /**
+     * Data of a month that has no file.
+     */
+    protected ReadOnlyData emptyData() {
+        return new ReadOnlyData(new double[][]{}, Lists.<TagGroup>newArrayList());
+    }
+
+    /**
+     * Open the block indexed version of an hourly file. Only the header is read here,
+     * blocks are fetched with ranged GETs as queries touch them.
+     * Returns null if there is no block file so the caller can fall back to the regular file.
+     */
+    private ReadOnlyData loadBlockData(final DateTime monthDate) {
+        final String key = getBlockFileKey(monthDate);
+        // set by the read of the header, later reads fail if the file has been replaced since
+        final AtomicReference<String> eTag = new AtomicReference<String>();
+        try {
+            ReadOnlyData result = BlockedReadOnlyData.open(new BlockedReadOnlyData.BlockSource() {
+                public byte[] read(long offset, int length) throws IOException {
+                    try {
+                        return AwsUtils.readRange(config.workS3BucketName, key, offset, length, eTag);
+                    }
+                    catch (IOException e) {
+                        // most likely the file was replaced, so drop it and reopen on the next query
+                        if (blockFileCache.remove(monthDate) != null)
+                            data.invalidate(monthDate);
+                        throw e;
+                    }
+                }
+            }, accountService, productService, config.offHeapData);
+            blockFileCache.put(monthDate, eTag.get());
+            logger.info("opened block file " + key);
+            return result;
+        }
+        catch (AmazonServiceException ase) {
+            if (ase.getStatusCode() == 404)
+                logger.info("no block file " + key + ", loading full file");
+            else
+                logger.error("error opening block file " + key, ase);
+        }
+        catch (Exception e) {
+            logger.error("error opening block file " + key, e);
+        }
+        return null;
+    }
+
+    /**
+     * Whether hourly data should be read from the block indexed files when they exist.
+     */
+    protected boolean useBlockFiles() {
+        return config.hourlyBlocks;
+    }
+
+    protected String getBlockFileKey(DateTime monthDate) {
+        return config.workS3BucketPrefix + getBlockFileName(monthDate);
+    }
+
+    protected String getBlockFileName(DateTime monthDate) {
+        return dbName + "_" + AwsUtils.monthDateFormat.print(monthDate) + ReadWriteData.Serializer.BLOCK_EXTENSION;
+    }
+
     protected File getFile(DateTime monthDate) {
     	String filename = dbName;
         if (consolidateType == ConsolidateType.hourly)
@@ -177,28 +353,51 @@ public class DataFilePoller extends StalePoller {
         InputStream is = new FileInputStream(file);
         if (compress)
         	is = new GZIPInputStream(is);
-        DataInputStream in = new DataInputStream(is);
         try {
-            ReadOnlyData result = ReadOnlyData.Serializer.deserialize(accountService, productService, in);
+            long start = System.nanoTime();
+            ReadOnlyData result = deserialize(is);
+            QueryTrace.span(QueryTrace.DESERIALIZE, start);
             logger.info("done loading data from " + file);
             return result;
         }
         finally {
-            in.close();
+            is.close();
         }
     }
 
+    protected ReadOnlyData deserialize(InputStream is) throws IOException {
+        return ReadOnlyData.Serializer.deserialize(accountService, productService, new DataInputStream(is), config.offHeapData);
+    }
+
     protected ReadOnlyData getReadOnlyData(DateTime key) throws ExecutionException {
 
+        long start = System.nanoTime();
         ReadOnlyData result = this.data.get(key);
+        QueryTrace.span(QueryTrace.CACHE, start);
 
-        if (fileCache.get(key) == null) {
+        if (fileCache.get(key) == null && blockFileCache.get(key) == null) {
             logger.warn(dbName + " cannot find file in fileCache " + key);
             fileCache.put(key, getFile(key));
         }
         return result;
     }
     
+    /**
+     * Read the rows from (inclusive) to to (exclusive) of a block indexed file before they are scanned.
+     * A failed read is reported the same way as a file that fails to load into the cache, and
+     * the file is reopened on the next query.
+     */
+    protected void loadRows(DateTime key, ReadOnlyData data, int from, int to) throws ExecutionException {
+        if (!(data instanceof BlockedReadOnlyData))
+            return;
+        try {
+            ((BlockedReadOnlyData) data).load(from, to);
+        }
+        catch (IOException e) {
+            throw new ExecutionException(e);
+        }
+    }
+
     protected Interval getAdjustedInterval(Interval interval) {
     	// For hourly and daily consolidation, we need to start at first of month or year
         DateTime start = startDate;
@@ -0,0 +1,466 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.ice.common.AwsUtils;
+import com.netflix.ice.processor.ProcessorConfig;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Region;
+
+/**
+ * ResourceStore kept in memory and made durable with a write-ahead log.
+ *
+ * Keys are packed into short byte arrays (region index, account id as a long and the resource id)
+ * and resource group names are stored once in a dictionary, so each entry costs a few dozen bytes.
+ * Changes are appended to a buffered log file, which is written in large batches. Once the log
+ * grows past CHECKPOINT_RECORDS, a background thread writes a new snapshot, uploads it to the work
+ * bucket and truncates the log. Callers of setResource never wait for the upload.
+ *
+ * Safe for concurrent writers.
+ */
+public class LogResourceStore implements ResourceStore {
+    private final static Logger logger = LoggerFactory.getLogger(LogResourceStore.class);
+
+    public static final String SNAPSHOT_SUFFIX = ".snapshot.gz";
+    public static final String LOG_SUFFIX = ".log";
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int CHECKPOINT_RECORDS = 500000;
+    private static final byte REGION_RECORD = 1;
+    private static final byte ENTRY_RECORD = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String bucketName;
+    private final String prefix;
+    private final String dbName;
+    private final File snapshotFile;
+    private final File logFile;
+    private final File rotatedLogFile;
+
+    private final ConcurrentMap<Key, Integer> items = Maps.newConcurrentMap();
+    // Dictionaries, only added to while holding the lock on this. New names are rare so copy on write lists are fine.
+    private final List<String> values = new CopyOnWriteArrayList<String>();
+    private final ConcurrentMap<String, Integer> valueIds = Maps.newConcurrentMap();
+    private final List<String> regions = new CopyOnWriteArrayList<String>();
+    private final ConcurrentMap<String, Integer> regionIds = Maps.newConcurrentMap();
+
+    private DataOutputStream log;
+    private int logRecords = 0;
+    private Future<?> checkpoint = null;
+    private final ExecutorService checkpointExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("resource-store-%d").setDaemon(true).build());
+
+    /**
+     * Compact binary key with the hash computed once.
+     */
+    static class Key {
+        final byte[] bytes;
+        final int hash;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+    }
+
+    LogResourceStore(String name) throws IOException {
+        this(ProcessorConfig.getInstance().localDir, ProcessorConfig.getInstance().workS3BucketName, ProcessorConfig.getInstance().workS3BucketPrefix, name);
+    }
+
+    /**
+     * @param bucketName work bucket, or null to keep the store local only
+     */
+    LogResourceStore(String localDir, String bucketName, String prefix, String name) throws IOException {
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+        this.dbName = "resources_" + name;
+        this.snapshotFile = new File(localDir, dbName + SNAPSHOT_SUFFIX);
+        this.logFile = new File(localDir, dbName + LOG_SUFFIX);
+        this.rotatedLogFile = new File(localDir, dbName + LOG_SUFFIX + ".1");
+
+        if (bucketName != null)
+            AwsUtils.downloadFileIfNotExist(bucketName, prefix, snapshotFile);
+        if (snapshotFile.exists())
+            readSnapshot();
+
+        // Replay anything logged since the last snapshot, then fold it into a new snapshot
+        // so we never append after a record that was cut short by a crash.
+        int replayed = replay(rotatedLogFile) + replay(logFile);
+        if (replayed > 0) {
+            logger.info(dbName + " replayed " + replayed + " logged changes");
+            writeSnapshot();
+        }
+        rotatedLogFile.delete();
+        logFile.delete();
+        log = openLog();
+        logger.info(dbName + " loaded " + items.size() + " resources");
+    }
+
+    private DataOutputStream openLog() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true), 256 * 1024));
+    }
+
+    /**
+     * Key of a resource: region index, account marker, account id, resource id. Account ids of exactly
+     * 12 digits, the AWS format, are packed into 8 bytes. Any other id is kept as its UTF-8 bytes after
+     * a one byte length, or a four byte length if it's longer than 255 bytes, so ids differing only
+     * in leading zeros never share a key.
+     */
+    private byte[] encodeKey(int regionId, Account account, String resourceId) {
+        byte[] id = resourceId.getBytes(UTF8);
+        String accountId = account.id;
+        boolean numeric = accountId.length() == 12 && StringUtils.isNumeric(accountId);
+        byte[] accountBytes = numeric ? null : accountId.getBytes(UTF8);
+        boolean longAccount = !numeric && accountBytes.length > 255;
+        int accountLength = numeric ? 8 : (longAccount ? 4 : 1) + accountBytes.length;
+
+        byte[] bytes = new byte[1 + 1 + accountLength + id.length];
+        bytes[0] = (byte) regionId;
+        if (numeric) {
+            bytes[1] = 0;
+            long value = Long.parseLong(accountId);
+            for (int i = 0; i < 8; i++)
+                bytes[2 + i] = (byte) (value >>> (56 - 8 * i));
+        }
+        else if (!longAccount) {
+            bytes[1] = 1;
+            bytes[2] = (byte) accountBytes.length;
+            System.arraycopy(accountBytes, 0, bytes, 3, accountBytes.length);
+        }
+        else {
+            bytes[1] = 2;
+            for (int i = 0; i < 4; i++)
+                bytes[2 + i] = (byte) (accountBytes.length >>> (24 - 8 * i));
+            System.arraycopy(accountBytes, 0, bytes, 6, accountBytes.length);
+        }
+        System.arraycopy(id, 0, bytes, 2 + accountLength, id.length);
+        return bytes;
+    }
+
+    public String getResource(Account account, Region region, String resourceId) {
+        Integer regionId = regionIds.get(region.name);
+        if (regionId == null)
+            return null;
+        Integer valueId = items.get(new Key(encodeKey(regionId, account, resourceId)));
+        return valueId == null ? null : values.get(valueId);
+    }
+
+    public void setResource(Account account, Region region, String resourceId, String resource, long millisStart) {
+        if (StringUtils.isEmpty(resource))
+            return;
+
+        Integer regionId = regionIds.get(region.name);
+        Integer valueId = valueIds.get(resource);
+        if (regionId != null && valueId != null) {
+            // Most calls are for resources we already have, so check without taking the lock
+            Integer current = items.get(new Key(encodeKey(regionId, account, resourceId)));
+            if (valueId.equals(current))
+                return;
+        }
+
+        boolean startCheckpoint = false;
+        synchronized (this) {
+            try {
+                if (regionId == null)
+                    regionId = getRegionId(region.name);
+                if (valueId == null)
+                    valueId = getValueId(resource);
+                Key key = new Key(encodeKey(regionId, account, resourceId));
+                Integer current = items.put(key, valueId);
+                if (valueId.equals(current))
+                    return;
+                if (current != null)
+                    logger.error("different resources " + values.get(current) + " " + resource + " for " + resourceId);
+
+                log.writeByte(ENTRY_RECORD);
+                log.writeShort(key.bytes.length);
+                log.write(key.bytes);
+                log.writeUTF(resource);
+                logRecords++;
+                if (logRecords >= CHECKPOINT_RECORDS && (checkpoint == null || checkpoint.isDone())) {
+                    logRecords = 0;
+                    startCheckpoint = true;
+                }
+            }
+            catch (IOException e) {
+                throw new RuntimeException("failed to log resource for " + resourceId, e);
+            }
+        }
+        if (startCheckpoint)
+            submitCheckpoint();
+    }
+
+    private int getRegionId(String name) throws IOException {
+        Integer id = regionIds.get(name);
+        if (id == null) {
+            if (regions.size() >= 256)
+                throw new IOException("too many regions");
+            id = regions.size();
+            regions.add(name);
+            regionIds.put(name, id);
+            log.writeByte(REGION_RECORD);
+            log.writeShort(id);
+            log.writeUTF(name);
+        }
+        return id;
+    }
+
+    private int getValueId(String value) {
+        Integer id = valueIds.get(value);
+        if (id == null) {
+            id = values.size();
+            values.add(value);
+            valueIds.put(value, id);
+        }
+        return id;
+    }
+
+    private synchronized Future<?> submitCheckpoint() {
+        if (checkpoint == null || checkpoint.isDone()) {
+            checkpoint = checkpointExecutor.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    try {
+                        checkpoint();
+                        return null;
+                    }
+                    catch (IOException e) {
+                        logger.error(dbName + " checkpoint failed", e);
+                        throw e;
+                    }
+                }
+            });
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Start a new log, write everything to a new snapshot and upload it.
+     * Only runs on the checkpoint thread.
+     */
+    private void checkpoint() throws IOException {
+        synchronized (this) {
+            log.close();
+            if (!logFile.renameTo(rotatedLogFile))
+                throw new IOException("failed to rotate " + logFile);
+            log = openLog();
+        }
+        // Writers carry on while the snapshot is written. Anything they change is in the new log as well.
+        writeSnapshot();
+        rotatedLogFile.delete();
+
+        if (bucketName != null) {
+            logger.info(dbName + " uploading snapshot...");
+            AwsUtils.upload(bucketName, prefix, snapshotFile);
+            logger.info(dbName + " uploading done.");
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        List<Map.Entry<Key, Integer>> entries = Lists.newArrayList(items.entrySet());
+        // Copy the dictionaries after the entries so every id they use is present
+        List<String> regions;
+        List<String> values;
+        synchronized (this) {
+            regions = Lists.newArrayList(this.regions);
+            values = Lists.newArrayList(this.values);
+        }
+
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))));
+        try {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(regions.size());
+            for (String region: regions)
+                out.writeUTF(region);
+            out.writeInt(values.size());
+            for (String value: values)
+                out.writeUTF(value);
+            out.writeInt(entries.size());
+            for (Map.Entry<Key, Integer> entry: entries) {
+                out.writeShort(entry.getKey().bytes.length);
+                out.write(entry.getKey().bytes);
+                out.writeInt(entry.getValue());
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (snapshotFile.exists() && !snapshotFile.delete())
+            throw new IOException("failed to replace " + snapshotFile);
+        if (!tmp.renameTo(snapshotFile))
+            throw new IOException("failed to rename " + tmp);
+    }
+
+    private void readSnapshot() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(snapshotFile))));
+        try {
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION)
+                throw new IOException("unknown snapshot version " + version + " in " + snapshotFile);
+            int numRegions = in.readInt();
+            for (int i = 0; i < numRegions; i++) {
+                String name = in.readUTF();
+                regions.add(name);
+                regionIds.put(name, i);
+            }
+            int numValues = in.readInt();
+            for (int i = 0; i < numValues; i++) {
+                String value = in.readUTF();
+                values.add(value);
+                valueIds.put(value, i);
+            }
+            int numEntries = in.readInt();
+            for (int i = 0; i < numEntries; i++) {
+                byte[] bytes = new byte[in.readUnsignedShort()];
+                in.readFully(bytes);
+                items.put(new Key(bytes), in.readInt());
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private int replay(File file) throws IOException {
+        if (!file.exists())
+            return 0;
+
+        int records = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == REGION_RECORD) {
+                    int id = in.readUnsignedShort();
+                    String name = in.readUTF();
+                    while (regions.size() <= id)
+                        regions.add(null);
+                    regions.set(id, name);
+                    regionIds.put(name, id);
+                }
+                else if (type == ENTRY_RECORD) {
+                    byte[] bytes = new byte[in.readUnsignedShort()];
+                    in.readFully(bytes);
+                    items.put(new Key(bytes), getValueId(in.readUTF()));
+                    records++;
+                }
+                else {
+                    logger.error("bad record in " + file + " after " + records + " records");
+                    break;
+                }
+            }
+        }
+        catch (EOFException e) {
+            // end of the log, possibly in the middle of a record written just before a crash
+        }
+        finally {
+            in.close();
+        }
+        return records;
+    }
+
+    /**
+     * Flush the log and wait for a snapshot to be written and uploaded. Called at the end of
+     * processing so the work bucket has everything before the processor stops.
+     */
+    public void commit() {
+        try {
+            Future<?> running;
+            synchronized (this) {
+                log.flush();
+                logRecords = 0;
+                running = checkpoint;
+            }
+            // a checkpoint that was already running may have rotated the log before our latest changes
+            if (running != null)
+                running.get();
+            submitCheckpoint().get();
+            logger.info(dbName + " committed " + items.size() + ".");
+        }
+        catch (IOException e) {
+            throw new RuntimeException(dbName + " commit failed", e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(dbName + " commit failed", e.getCause());
+        }
+    }
+
+    public void close() {
+        commit();
+        checkpointExecutor.shutdown();
+        try {
+            checkpointExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            synchronized (this) {
+                log.close();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            logger.error(dbName + " failed to close log", e);
+        }
+    }
+
+    int size() {
+        return items.size();
+    }
+}
@@ -33,7 +33,7 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.util.Map;
 
-public class MapDb {
+public class MapDb implements ResourceStore {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private DB db;
     private Map<String, String> items;
@@ -63,11 +63,11 @@ public class MapDb {
         }
     }
 
-    String getResource(Account account, Region region, String resourceId) {
+    public String getResource(Account account, Region region, String resourceId) {
         return this.items.get(resourceId + "|" + account + "|" + region);
     }
 
-    void SetResource(Account account, Region region, String resourceId, String resource, long millisStart) {
+    public void setResource(Account account, Region region, String resourceId, String resource, long millisStart) {
         if (StringUtils.isEmpty(resource))
             return;
 
@@ -96,26 +96,30 @@ public class MapDb {
         }
     }
 
-    void commit() {
+    public void commit() {
         this.db.commit();
         upload();
         logger.info("committed " + this.items.size() + ".");
     }
 
+    public void close() {
+        this.db.close();
+    }
+
     void upload() {
-        AmazonS3Client s3Client = AwsUtils.getAmazonS3Client();
+        AwsUtils.upload(config.workS3BucketName, config.workS3BucketPrefix, config.localDir, dbName);
 
-        File dir = new File(config.localDir);
-        File[] files = dir.listFiles(new FilenameFilter() {
+        // The backup copies are made on the S3 side rather than uploading each file twice. Files whose
+        // upload was skipped are copied too in case their copy is missing or out of date.
+        File[] files = new File(config.localDir).listFiles(new FilenameFilter() {
             public boolean accept(File file, String fileName) {
                 return fileName.startsWith(dbName);
             }
         });
+        if (files == null)
+            return;
         for (File file: files)
-            s3Client.putObject(config.workS3BucketName, config.workS3BucketPrefix + file.getName(), file);
-
-        for (File file: files)
-            s3Client.putObject(config.workS3BucketName, config.workS3BucketPrefix + "copy" + file.getName(), file);
+            AwsUtils.getUploader().copy(config.workS3BucketName, config.workS3BucketPrefix + file.getName(), config.workS3BucketPrefix + "copy" + file.getName());
     }
 
 }
@@ -0,0 +1,43 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Region;
+
+/**
+ * Persistent mapping of resource ids to resource group names used by resource services.
+ */
+public interface ResourceStore {
+    /**
+     * Store type selected with ice.resourceStore, "mapdb" or "log"
+     */
+    public static final String MAPDB = "mapdb";
+    public static final String LOG = "log";
+
+    String getResource(Account account, Region region, String resourceId);
+
+    void setResource(Account account, Region region, String resourceId, String resource, long millisStart);
+
+    /**
+     * Make everything stored so far durable and get it copied to the work bucket.
+     */
+    void commit();
+
+    void close();
+}
@@ -21,6 +21,7 @@ import com.google.common.collect.Lists;
 import com.netflix.ice.common.LineItem;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.ResourceService;
+import com.netflix.ice.processor.ProcessorConfig;
 import com.netflix.ice.tag.Account;
 import com.netflix.ice.tag.Product;
 import com.netflix.ice.tag.Region;
@@ -29,6 +30,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -46,7 +48,7 @@ public class SampleMapDbResourceService extends ResourceService {
     
 	private List<List<Product>> productsWithResources = Lists.<List<Product>>newArrayList();
 
-    MapDb instanceDb;
+    ResourceStore instanceDb;
     
     public SampleMapDbResourceService(ProductService productService) {
 		super();
@@ -60,8 +62,15 @@ public class SampleMapDbResourceService extends ResourceService {
     }
 
     public void init() {
-        instanceDb = new MapDb("instances");
-        
+        try {
+            if (ResourceStore.LOG.equals(ProcessorConfig.getInstance().resourceStore))
+                instanceDb = new LogResourceStore("instances");
+            else
+                instanceDb = new MapDb("instances");
+        }
+        catch (IOException e) {
+            throw new RuntimeException("failed to open resource store", e);
+        }
     }
 
     @Override
@@ -109,7 +118,7 @@ public class SampleMapDbResourceService extends ResourceService {
         }
         else if (resourceId.startsWith("i-")) {
             String appName = autoScalingGroupName.length() > 5 ? autoScalingGroupName.substring(0, 5) : autoScalingGroupName;
-            instanceDb.SetResource(account, region, lineItem.getResource(), appName, millisStart);
+            instanceDb.setResource(account, region, lineItem.getResource(), appName, millisStart);
             return autoScalingGroupName;
         }
         else {
@@ -1,5 +1,9 @@
 package com.netflix.ice.basic;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
@@ -17,17 +21,19 @@ import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.ConsolidateType;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagCoverageRatio;
+import com.netflix.ice.common.TagCoverageSeries;
 import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.TagCoverageData;
 import com.netflix.ice.reader.AggregateType;
-import com.netflix.ice.reader.DataManager;
 import com.netflix.ice.reader.ReadOnlyData;
+import com.netflix.ice.reader.TagCoverageManager;
 import com.netflix.ice.reader.TagGroupManager;
 import com.netflix.ice.reader.TagLists;
 import com.netflix.ice.reader.UsageUnit;
 import com.netflix.ice.tag.Tag;
 import com.netflix.ice.tag.TagType;
 
-public class TagCoverageDataManager extends DataFilePoller implements DataManager {
+public class TagCoverageDataManager extends DataFilePoller implements TagCoverageManager {
     protected TagGroupManager tagGroupManager;
 
 	public TagCoverageDataManager(DateTime startDate, String dbName, ConsolidateType consolidateType, TagGroupManager tagGroupManager, boolean compress,
@@ -36,16 +42,126 @@ public class TagCoverageDataManager extends DataFilePoller implements DataManage
 		this.tagGroupManager = tagGroupManager;
 	}
 
-    private double[] getData(Interval interval, TagLists tagLists, UsageUnit usageUnit) throws ExecutionException {
+	/**
+	 * Coverage files are small and aren't written with block indexed copies.
+	 */
+	@Override
+	protected boolean useBlockFiles() {
+		return false;
+	}
+
+	/**
+	 * Coverage counts for one month. Each hour is a row holding the count and total of each
+	 * column side by side, the same layout the processor uses in TagCoverageData.
+	 */
+	static class CoverageData extends ReadOnlyData {
+		private final long[][] rows;
+
+		CoverageData(long[][] rows, List<TagGroup> tagGroups) {
+			// rows are kept here, the encoded values of the base class aren't used
+			super(new double[rows.length][], tagGroups);
+			this.rows = rows;
+		}
+
+		@Override
+		public boolean hasData(int i) {
+			return rows[i] != null;
+		}
+
+		@Override
+		public double get(int i, int j) {
+			long[] row = rows[i];
+			return row == null ? 0 : new TagCoverageRatio(row[j * 2], row[j * 2 + 1]).toDouble();
+		}
+
+		@Override
+		public double[] getData(int i) {
+			double[] result = new double[getTagGroups().size()];
+			for (int j = 0; j < result.length; j++)
+				result[j] = get(i, j);
+			return result;
+		}
+
+		@Override
+		public long getDataBytes() {
+			long bytes = 0;
+			for (long[] row: rows) {
+				if (row != null)
+					bytes += row.length * 8L;
+			}
+			return bytes;
+		}
+
+		void addTo(int i, int j, TagCoverageSeries series, int index) {
+			long[] row = rows[i];
+			if (row != null)
+				series.add(index, row[j * 2], row[j * 2 + 1]);
+		}
+	}
+
+	/**
+	 * Months without a coverage file are empty coverage data so the scan can treat every month alike.
+	 */
+	@Override
+	protected ReadOnlyData emptyData() {
+		return new CoverageData(new long[0][], Lists.<TagGroup>newArrayList());
+	}
+
+	/**
+	 * Read either the coverage file format or, for months archived before it, regular data
+	 * files holding encoded ratios which are decoded once here.
+	 */
+	@Override
+	protected ReadOnlyData deserialize(InputStream is) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(is);
+		DataInputStream in = new DataInputStream(buffered);
+		buffered.mark(4);
+		int format = in.readInt();
+		buffered.reset();
+		if (format != TagCoverageData.FORMAT)
+			return decode(super.deserialize(buffered));
+
+		TagCoverageData coverage = TagCoverageData.Serializer.deserialize(accountService, productService, in);
+		int numColumns = coverage.getTagGroups().size();
+		long[][] rows = new long[coverage.getNum()][];
+		for (int hour = 0; hour < rows.length; hour++) {
+			if (!coverage.hasData(hour))
+				continue;
+			rows[hour] = new long[numColumns * 2];
+			for (int column = 0; column < numColumns; column++) {
+				rows[hour][column * 2] = coverage.getCount(hour, column);
+				rows[hour][column * 2 + 1] = coverage.getTotal(hour, column);
+			}
+		}
+		return new CoverageData(rows, coverage.getTagGroups());
+	}
+
+	private CoverageData decode(ReadOnlyData data) {
+		List<TagGroup> tagGroups = Lists.newArrayList(data.getTagGroups());
+		long[][] rows = new long[data.getNum()][];
+		for (int hour = 0; hour < rows.length; hour++) {
+			if (!data.hasData(hour))
+				continue;
+			rows[hour] = new long[tagGroups.size() * 2];
+			for (int column = 0; column < tagGroups.size(); column++) {
+				TagCoverageRatio ratio = new TagCoverageRatio(data.get(hour, column));
+				rows[hour][column * 2] = ratio.count;
+				rows[hour][column * 2 + 1] = ratio.total;
+			}
+		}
+		return new CoverageData(rows, tagGroups);
+	}
+
+    private TagCoverageSeries getCoverage(Interval interval, TagLists tagLists) throws ExecutionException {
     	Interval adjusted = getAdjustedInterval(interval);
         DateTime start = adjusted.getStart();
         DateTime end = adjusted.getEnd();
 
         int num = getSize(interval);
-        double[] result = new double[num];
+        TagCoverageSeries result = new TagCoverageSeries(num);
 
         do {
-            ReadOnlyData data = getReadOnlyData(start);
+            CoverageData data = (CoverageData) getReadOnlyData(start);
 
             int resultIndex = 0;
             int fromIndex = 0;
@@ -71,18 +187,20 @@ public class TagCoverageDataManager extends DataFilePoller implements DataManage
             	}
             }
 
-            List<Integer> columnIndecies = Lists.newArrayList();
+            int[] columns = new int[data.getTagGroups().size()];
+            int numColumns = 0;
             int columnIndex = 0;
             for (TagGroup tagGroup: data.getTagGroups()) {
-                if (tagLists.contains(tagGroup)) {
-                	columnIndecies.add(columnIndex);
-                }
+                if (tagLists.contains(tagGroup))
+                	columns[numColumns++] = columnIndex;
                 columnIndex++;
             }
             while (resultIndex < num && fromIndex < data.getNum()) {
-                double[] fromData = data.getData(fromIndex++);
-                for (int i = 0; i < columnIndecies.size(); i++)
-                    result[resultIndex] = TagCoverageRatio.add(result[resultIndex], fromData[columnIndecies.get(i)]);
+                if (data.hasData(fromIndex)) {
+                    for (int i = 0; i < numColumns; i++)
+                        data.addTo(fromIndex, columns[i], result, resultIndex);
+                }
+                fromIndex++;
                 resultIndex++;
             }
 
@@ -98,16 +216,18 @@ public class TagCoverageDataManager extends DataFilePoller implements DataManage
         return result;
     }
     
-    private void addData(double[] from, double[] to) {
-        for (int i = 0; i < from.length; i++) {
-            to[i] = TagCoverageRatio.add(to[i], from[i]);
-        }
-    }
-    
+	/**
+	 * Coverage as percentages.
+	 */
 	@Override
 	public Map<Tag, double[]> getData(Interval interval, TagLists tagLists,
 			TagType groupBy, AggregateType aggregate, boolean forReservation,
 			UsageUnit usageUnit) {
+		return TagCoverageSeries.toPercentage(getCoverage(interval, tagLists, groupBy, aggregate, forReservation));
+	}
+
+	public Map<Tag, TagCoverageSeries> getCoverage(Interval interval, TagLists tagLists,
+			TagType groupBy, AggregateType aggregate, boolean forReservation) {
 
         Map<Tag, TagLists> tagListsMap;
 
@@ -118,17 +238,17 @@ public class TagCoverageDataManager extends DataFilePoller implements DataManage
         else
             tagListsMap = tagGroupManager.getTagListsMap(interval, tagLists, groupBy, forReservation);
 
-        Map<Tag, double[]> result = Maps.newTreeMap();
-        double[] aggregated = null;
+        Map<Tag, TagCoverageSeries> result = Maps.newTreeMap();
+        TagCoverageSeries aggregated = null;
 
         for (Tag tag: tagListsMap.keySet()) {
             try {
-                double[] data = getData(interval, tagListsMap.get(tag), usageUnit);
+                TagCoverageSeries data = getCoverage(interval, tagListsMap.get(tag));
                 result.put(tag, data);
                 if (aggregate != AggregateType.none && tagListsMap.size() > 1) {
                     if (aggregated == null)
-                        aggregated = new double[data.length];
-                    addData(data, aggregated);
+                        aggregated = new TagCoverageSeries(data.size());
+                    aggregated.add(data);
                 }
             }
             catch (ExecutionException e) {
@@ -32,9 +32,11 @@ import com.amazonaws.services.simpledb.AmazonSimpleDBClient;
 import com.amazonaws.services.simpledb.AmazonSimpleDBClientBuilder;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceClient;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceClientBuilder;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.ClientConfiguration;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
@@ -47,6 +49,9 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,8 +68,13 @@ public class AwsUtils {
     public static final DateTimeFormatter dateFormatter = DateTimeFormat.forPattern("yyyy-MM-dd HHa").withZone(DateTimeZone.UTC);
     public static long hourMillis = 3600000L;
 
+    // Shared by all downloads to fetch the byte ranges of large files in parallel
+    private static final ExecutorService downloadPool = Executors.newFixedThreadPool(8,
+            new ThreadFactoryBuilder().setNameFormat("s3-download-%d").setDaemon(true).build());
+
     private static String workS3BucketRegion;
     private static AmazonS3Client s3Client;
+    private static S3Uploader uploader;
     private static AmazonSimpleEmailServiceClient emailServiceClient;
     private static AmazonSimpleDBClient simpleDBClient;
     private static AWSSecurityTokenService securityClient;
@@ -115,6 +125,21 @@ public class AwsUtils {
         AwsUtils.workS3BucketRegion = workS3BucketRegion;
         s3Client = (AmazonS3Client) AmazonS3ClientBuilder.standard().withRegion(workS3BucketRegion).withCredentials(awsCredentialsProvider).withClientConfiguration(clientConfig).build();
         securityClient = AWSSecurityTokenServiceClientBuilder.standard().withRegion(workS3BucketRegion).withCredentials(awsCredentialsProvider).withClientConfiguration(clientConfig).build();
+        initUploader(8);
+    }
+
+    /**
+     * Replace the uploader with one that runs the given number of uploads at a time.
+     * @param threads
+     */
+    public static void initUploader(int threads) {
+        if (uploader != null)
+            uploader.shutdown();
+        uploader = new S3Uploader(s3Client, threads);
+    }
+
+    public static S3Uploader getUploader() {
+        return uploader;
     }
 
     public static AmazonS3Client getAmazonS3Client() {
@@ -283,19 +308,50 @@ public class AwsUtils {
     }
 
     public static void upload(String bucketName, String prefix, File file) {
-        s3Client.putObject(bucketName, prefix + file.getName(), file);
+        try {
+            uploader.upload(bucketName, prefix + file.getName(), file);
+        }
+        catch (IOException e) {
+            throw new AmazonClientException("error uploading " + file.getName(), e);
+        }
     }
 
-    public static void upload(String bucketName, String prefix, String localDir, final String filePrefix) {
+    /**
+     * Upload all files in localDir starting with filePrefix concurrently and wait for them to finish.
+     * @return the files that were uploaded, unchanged files are skipped
+     */
+    public static List<File> upload(String bucketName, String prefix, String localDir, final String filePrefix) {
+        return uploader.uploadAll(bucketName, prefix, localDir, filePrefix);
+    }
+
+    /**
+     * Read part of an S3 object with a ranged GET. Fewer than length bytes are returned if the
+     * range runs past the end of the object. The first read of an object sets eTag to the ETag of
+     * the object, later reads with the same eTag fail if the object has been replaced since.
+     */
+    public static byte[] readRange(String bucketName, String fileKey, long offset, int length, AtomicReference<String> eTag) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucketName, fileKey).withRange(offset, offset + length - 1);
+        if (eTag.get() != null)
+            request.withMatchingETagConstraint(eTag.get());
+
+        S3Object s3Object = s3Client.getObject(request);
+        if (s3Object == null)
+            throw new IOException(fileKey + " has changed since it was opened");
+        eTag.compareAndSet(null, s3Object.getObjectMetadata().getETag());
 
-        File dir = new File(localDir);
-        File[] files = dir.listFiles(new FilenameFilter() {
-            public boolean accept(File file, String fileName) {
-                return fileName.startsWith(filePrefix);
+        try {
+            InputStream input = s3Object.getObjectContent();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(length);
+            byte buf[] = new byte[64 * 1024];
+            int len;
+            while ((len = input.read(buf)) > 0) {
+                output.write(buf, 0, len);
             }
-        });
-        for (File file: files)
-            s3Client.putObject(bucketName, prefix + file.getName(), file);
+            return output.toByteArray();
+        }
+        finally {
+            s3Object.close();
+        }
     }
 
     public static long getLastModified(String bucketName, String fileKey) {
@@ -379,48 +435,17 @@ public class AwsUtils {
     }
 
     private static boolean download(AmazonS3Client s3Client, String bucketName, String fileKey, File file) {
+        RangedDownloader downloader = new RangedDownloader(s3Client, downloadPool);
         do {
-            S3Object s3Object = s3Client.getObject(bucketName, fileKey);
-            InputStream input = null;
-            FileOutputStream output = null;
-            long targetSize = 0;
-            long lastModified = 0;
-            boolean downloaded = false;
-            long size = 0;
-            try {                
-                input = s3Object.getObjectContent();
-                targetSize = s3Object.getObjectMetadata().getContentLength();
-                lastModified = s3Client.listObjects(bucketName, fileKey).getObjectSummaries().get(0).getLastModified().getTime();
-
-                output = new FileOutputStream(file);
-                byte buf[]=new byte[1024000];
-                int len;
-                while ((len=input.read(buf)) > 0) {
-                    output.write(buf, 0, len);
-                    size += len;
-                }
-                downloaded = true;
+            try {
+                long start = System.nanoTime();
+                downloader.download(bucketName, fileKey, file);
+                Metrics.getInstance().time("s3_download", start);
+                Metrics.getInstance().add("s3_download_bytes_total", file.length());
+                return true;
             }
             catch (IOException e) {
-                logger.error("error in downloading " + file, e);
-            }
-            finally {
-                if (input != null) try {input.close();} catch (IOException e){}
-                if (output != null) try {output.close();} catch (IOException e){}
-                try { s3Object.close(); } catch (Exception e) {}
-            }
-            
-            if (downloaded) {
-            	// Set modified time of local file to match the time of the file in S3
-            	file.setLastModified(lastModified);
-            	
-                long contentLenth = s3Client.getObjectMetadata(bucketName, fileKey).getContentLength();
-                if (contentLenth != size) {
-                    logger.warn("size does not match contentLenth=" + contentLenth +
-                            " downloadSize=" + size + "targetSize=" + targetSize + " ... re-downlaoding " + fileKey);
-                }
-                else
-                    return true;
+                logger.error("error in downloading " + file + " ... re-downloading " + fileKey, e);
             }
             try {Thread.sleep(2000L);}catch (Exception e){}
         }
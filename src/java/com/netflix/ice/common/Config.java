@@ -77,5 +77,6 @@ public abstract class Config {
         this.resourceService = resourceService;
 
         AwsUtils.init(credentialsProvider, workS3BucketRegion);
+        Poller.initScheduler(Integer.parseInt(properties.getProperty(IceOptions.POLL_THREADS, "4")));
     }
 }
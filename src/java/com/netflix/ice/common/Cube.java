@@ -0,0 +1,83 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.util.Map;
+
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+
+/**
+ * Pre-aggregated roll-ups of the "all" cost and usage data. Each cube keeps a subset of the
+ * TagGroup dimensions and collapses the rest: zone and resource group become null while account,
+ * region and usage type are replaced by their "*" placeholders, which aren't registered with the
+ * account service or the region and usage type maps.
+ *
+ * Product and operation are kept in every cube. The reader always filters on operation
+ * for non-reservation views to remove the lent and savings operations, so a cube without
+ * operation could never be used.
+ *
+ * Cubes are declared from smallest to largest so the reader can use the first one able to answer a query.
+ */
+public enum Cube {
+    product_operation(false, false),
+    region_product_operation(false, true),
+    account_product_operation(true, false);
+
+    public static final String FILE_PREFIX = "cube_";
+
+    public final boolean hasAccount;
+    public final boolean hasRegion;
+
+    private Cube(boolean hasAccount, boolean hasRegion) {
+        this.hasAccount = hasAccount;
+        this.hasRegion = hasRegion;
+    }
+
+    /**
+     * Name used in place of the product file name when archiving the cube, e.g. cost_daily_cube_product_operation_2018
+     */
+    public String getFileName() {
+        return FILE_PREFIX + name();
+    }
+
+    public static UsageType getRollupUsageType() {
+        return UsageType.ROLLUP;
+    }
+
+    /**
+     * Returns the cube TagGroup for a full TagGroup. The mapping cache avoids repeated lookups
+     * in the TagGroup interning map since there are many more source TagGroups than cube TagGroups.
+     */
+    public TagGroup getTagGroup(TagGroup tagGroup, Map<TagGroup, TagGroup> mapping) {
+        TagGroup result = mapping.get(tagGroup);
+        if (result == null) {
+            result = TagGroup.getTagGroup(
+                    hasAccount ? tagGroup.account : Account.ROLLUP,
+                    hasRegion ? tagGroup.region : Region.ROLLUP,
+                    null,
+                    tagGroup.product,
+                    tagGroup.operation,
+                    getRollupUsageType(),
+                    null);
+            mapping.put(tagGroup, result);
+        }
+        return result;
+    }
+}
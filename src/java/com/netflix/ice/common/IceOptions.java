@@ -127,6 +127,12 @@ public class IceOptions {
      */
     public static final String MONTHLY_CACHE_SIZE = "ice.monthlycachesize";
 
+    /**
+     * Whether the reader holds cached data values in direct (off-heap) memory. Default is false.
+     * When enabled, size the JVM with -XX:MaxDirectMemorySize large enough for the monthly cache.
+     */
+    public static final String OFF_HEAP_DATA = "ice.offHeapData";
+
     /**
      * Cost per monitor metric per hour, It's optional.
      */
@@ -181,6 +187,11 @@ public class IceOptions {
     * from email to use when test flag is enabled.
     */
     public static final String NUM_WEEKS_FOR_WEEKLYEMAILS = "ice.weeklyCostEmails_numWeeks";
+
+    /**
+    * maximum number of weekly cost emails sent per second. Should not be more than the aws ses send rate. Default is 1.
+    */
+    public static final String WEEKLY_SEND_RATE = "ice.weeklyCostEmails_sendRate";
     
     /**
      * enable single-pass run of billing file processor. Will shut down EC2 instance when pass completes.
@@ -217,5 +228,49 @@ public class IceOptions {
      */
     public static final String FAMILY_RI_BREAKOUT = "ice.breakoutFamilyReservationUsage";
 
+    /**
+     * Whether the processor writes the pre-aggregated cube data files. Default is false.
+     * The reader uses the cubes automatically once it finds them.
+     */
+    public static final String CUBES = "ice.cubes";
+
+    /**
+     * Whether the processor writes the cost and usage series of each application group. Default is false.
+     * The series are recomputed in the background when the application group definitions change.
+     * The reader uses them for application group views and weekly emails while they match the current definitions.
+     */
+    public static final String APPGROUP_SERIES = "ice.appgroupSeries";
+
+    /**
+     * Whether hourly data is written and read in the block indexed format, where each day is
+     * compressed separately so the reader can fetch single days with S3 ranged GETs. The hourly
+     * files are then only written in that format. Default is false.
+     * Set on both the processor and the reader.
+     */
+    public static final String HOURLY_BLOCKS = "ice.hourlyBlocks";
+
+    /**
+     * Maximum number of concurrent uploads to the work bucket, shared by all processor outputs. Default is 8.
+     */
+    public static final String UPLOAD_THREADS = "ice.uploadThreads";
+
+    /**
+     * Store used by resource services that keep a mapping of resource ids to resource groups, "mapdb" (default)
+     * or "log" for the in-memory store backed by a write-ahead log and snapshots in the work bucket.
+     */
+    public static final String RESOURCE_STORE = "ice.resourceStore";
+
+    /**
+     * Dashboard data queries that take longer than this many milliseconds are logged with the normalized
+     * query and the time spent in each step. Default is 5000, 0 logs every query.
+     */
+    public static final String SLOW_QUERY_MILLIS = "ice.reader.slowQueryMillis";
+
+    /**
+     * Maximum number of pollers that run at the same time. All pollers share one scheduler, so this bounds
+     * the threads and the bursts of S3 requests no matter how many products there are. Default is 4.
+     */
+    public static final String POLL_THREADS = "ice.pollThreads";
+
 
 }
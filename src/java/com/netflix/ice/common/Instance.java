@@ -31,6 +31,26 @@ public class Instance {
 		this.tags = tags;
 	}
 	
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof Instance))
+			return false;
+		Instance other = (Instance) o;
+		return id.equals(other.id) &&
+				type.equals(other.type) &&
+				account.id.equals(other.account.id) &&
+				region.equals(other.region) &&
+				(zone == null ? other.zone == null : zone.equals(other.zone)) &&
+				tags.equals(other.tags);
+	}
+
+	@Override
+	public int hashCode() {
+		return id.hashCode();
+	}
+
 	public static String header() {
 		return "InstanceID,InstanceType,AccountId,AccountName,Region,Zone,Tags\n";
 	}
@@ -0,0 +1,500 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Process wide registry of counters, gauges and timers. Metric names may carry labels in
+ * Prometheus form, e.g. <code>processor_stage{stage="download"}</code>; use {@link #name(String, String...)}
+ * to build them. The registry is published over JMX as {@value #OBJECT_NAME} and can be written
+ * out in the Prometheus text format.
+ */
+public class Metrics implements MetricsMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+    public static final String OBJECT_NAME = "com.netflix.ice:type=Metrics";
+    /** Prefix added to every metric name in the Prometheus output */
+    public static final String PROMETHEUS_PREFIX = "ice_";
+
+    private static final Metrics instance = new Metrics();
+
+    static {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(instance, name);
+        }
+        catch (Exception e) {
+            logger.warn("unable to register metrics with JMX: " + e);
+        }
+    }
+
+    private final ConcurrentMap<String, AtomicLong> counters = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, AtomicLong> gauges = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, Timer> timers = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, Histogram> histograms = Maps.newConcurrentMap();
+    private final List<Collector> collectors = new CopyOnWriteArrayList<Collector>();
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Build a metric name from a base name and label name/value pairs.
+     */
+    public static String name(String base, String... labels) {
+        if (labels.length == 0)
+            return base;
+        StringBuilder sb = new StringBuilder(base).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    public static class Timer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long elapsedNanos) {
+            count.incrementAndGet();
+            nanos.addAndGet(elapsedNanos);
+            long current;
+            while (elapsedNanos > (current = max.get()) && !max.compareAndSet(current, elapsedNanos))
+                ;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getNanos() {
+            return nanos.get();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+    }
+
+    /**
+     * Timer that also counts how many times fell into each of a fixed set of buckets, for
+     * latencies where the distribution matters more than the total.
+     */
+    public static class Histogram extends Timer {
+        /** Upper bounds of the buckets in seconds */
+        static final double[] BOUNDS = new double[]{ 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+
+        private final AtomicLong[] buckets = new AtomicLong[BOUNDS.length];
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = new AtomicLong();
+        }
+
+        @Override
+        public void record(long elapsedNanos) {
+            super.record(elapsedNanos);
+            double seconds = elapsedNanos / 1e9;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                if (seconds <= BOUNDS[i]) {
+                    buckets[i].incrementAndGet();
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Number of values at or below each bound, in the order of BOUNDS.
+         */
+        public long[] getCumulativeCounts() {
+            long[] result = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                total += buckets[i].get();
+                result[i] = total;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Source of values that are kept elsewhere, e.g. cache statistics. Collectors are called
+     * to update their counters and gauges whenever the registry is read.
+     */
+    public interface Collector {
+        void collect(Metrics metrics);
+    }
+
+    public void addCollector(Collector collector) {
+        collectors.add(collector);
+    }
+
+    public void removeCollector(Collector collector) {
+        collectors.remove(collector);
+    }
+
+    private void collect() {
+        for (Collector collector: collectors) {
+            try {
+                collector.collect(this);
+            }
+            catch (Exception e) {
+                logger.error("error collecting metrics from " + collector, e);
+            }
+        }
+    }
+
+    public AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null)
+                counter = newCounter;
+        }
+        return counter;
+    }
+
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            Timer newTimer = new Timer();
+            timer = timers.putIfAbsent(name, newTimer);
+            if (timer == null)
+                timer = newTimer;
+        }
+        return timer;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null)
+                histogram = newHistogram;
+        }
+        return histogram;
+    }
+
+    private AtomicLong gauge(String name) {
+        AtomicLong gauge = gauges.get(name);
+        if (gauge == null) {
+            AtomicLong newGauge = new AtomicLong();
+            gauge = gauges.putIfAbsent(name, newGauge);
+            if (gauge == null)
+                gauge = newGauge;
+        }
+        return gauge;
+    }
+
+    public void increment(String name) {
+        counter(name).incrementAndGet();
+    }
+
+    public void add(String name, long delta) {
+        if (delta != 0)
+            counter(name).addAndGet(delta);
+    }
+
+    /**
+     * Record the time elapsed since startNanos, a value from System.nanoTime().
+     */
+    public void time(String name, long startNanos) {
+        timer(name).record(System.nanoTime() - startNanos);
+    }
+
+    public void setGauge(String name, long value) {
+        gauge(name).set(value);
+    }
+
+    /**
+     * Set a counter that is maintained elsewhere, for use by collectors.
+     */
+    public void setCounter(String name, long value) {
+        counter(name).set(value);
+    }
+
+    /**
+     * Raise the gauge to value if it is currently lower.
+     */
+    public void maxGauge(String name, long value) {
+        AtomicLong gauge = gauge(name);
+        long current;
+        while (value > (current = gauge.get()) && !gauge.compareAndSet(current, value))
+            ;
+    }
+
+    public long getCounter(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public long getGauge(String name) {
+        AtomicLong gauge = gauges.get(name);
+        return gauge == null ? 0 : gauge.get();
+    }
+
+    /**
+     * Values of the counters and timers at one point in time. Subtract an earlier snapshot
+     * to get the activity in between, e.g. for one processing run.
+     */
+    public static class Snapshot {
+        private final Map<String, Long> counters;
+        private final Map<String, Long> timerCounts;
+        private final Map<String, Long> timerNanos;
+
+        Snapshot(Map<String, Long> counters, Map<String, Long> timerCounts, Map<String, Long> timerNanos) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.timerCounts = Collections.unmodifiableMap(timerCounts);
+            this.timerNanos = Collections.unmodifiableMap(timerNanos);
+        }
+
+        public Snapshot minus(Snapshot earlier) {
+            return new Snapshot(minus(counters, earlier.counters), minus(timerCounts, earlier.timerCounts), minus(timerNanos, earlier.timerNanos));
+        }
+
+        private static Map<String, Long> minus(Map<String, Long> values, Map<String, Long> earlier) {
+            SortedMap<String, Long> result = Maps.newTreeMap();
+            for (Map.Entry<String, Long> entry: values.entrySet()) {
+                Long before = earlier.get(entry.getKey());
+                long value = entry.getValue() - (before == null ? 0 : before);
+                if (value != 0)
+                    result.put(entry.getKey(), value);
+            }
+            return result;
+        }
+
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        public Map<String, Long> getTimerCounts() {
+            return timerCounts;
+        }
+
+        public long counter(String name) {
+            Long value = counters.get(name);
+            return value == null ? 0 : value;
+        }
+
+        public long timerCount(String name) {
+            Long value = timerCounts.get(name);
+            return value == null ? 0 : value;
+        }
+
+        public double timerSeconds(String name) {
+            Long value = timerNanos.get(name);
+            return value == null ? 0 : value / 1e9;
+        }
+    }
+
+    public Snapshot snapshot() {
+        collect();
+        Map<String, Long> timerCounts = Maps.newTreeMap();
+        Map<String, Long> timerNanos = Maps.newTreeMap();
+        for (Map.Entry<String, Timer> entry: allTimers().entrySet()) {
+            timerCounts.put(entry.getKey(), entry.getValue().getCount());
+            timerNanos.put(entry.getKey(), entry.getValue().getNanos());
+        }
+        return new Snapshot(values(counters), timerCounts, timerNanos);
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        collect();
+        return values(counters);
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        collect();
+        return values(gauges);
+    }
+
+    private static Map<String, Long> values(Map<String, AtomicLong> metrics) {
+        Map<String, Long> result = Maps.newTreeMap();
+        for (Map.Entry<String, AtomicLong> entry: metrics.entrySet())
+            result.put(entry.getKey(), entry.getValue().get());
+        return result;
+    }
+
+    private Map<String, Timer> allTimers() {
+        Map<String, Timer> result = Maps.<String, Timer>newTreeMap();
+        result.putAll(timers);
+        result.putAll(histograms);
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getTimerCounts() {
+        Map<String, Long> result = Maps.newTreeMap();
+        for (Map.Entry<String, Timer> entry: allTimers().entrySet())
+            result.put(entry.getKey(), entry.getValue().getCount());
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getTimerSeconds() {
+        Map<String, Double> result = Maps.newTreeMap();
+        for (Map.Entry<String, Timer> entry: allTimers().entrySet())
+            result.put(entry.getKey(), entry.getValue().getNanos() / 1e9);
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getTimerMaxSeconds() {
+        Map<String, Double> result = Maps.newTreeMap();
+        for (Map.Entry<String, Timer> entry: allTimers().entrySet())
+            result.put(entry.getKey(), entry.getValue().getMaxNanos() / 1e9);
+        return result;
+    }
+
+    @Override
+    public String getPrometheusText() {
+        StringWriter writer = new StringWriter();
+        try {
+            writePrometheus(writer);
+        }
+        catch (IOException e) {
+            // not thrown by StringWriter
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write all metrics in the Prometheus text exposition format. Timers become a summary with
+     * _count and _sum series in seconds plus a _max gauge, histograms have _bucket series as well.
+     */
+    public void writePrometheus(Writer writer) throws IOException {
+        // Lines must be grouped by metric family, which sorting the full names doesn't guarantee
+        SortedMap<String, List<String>> families = Maps.newTreeMap();
+        Map<String, String> types = Maps.newHashMap();
+
+        collect();
+        for (Map.Entry<String, Long> entry: values(counters).entrySet())
+            addSample(families, types, entry.getKey(), "", "counter", Long.toString(entry.getValue()));
+        for (Map.Entry<String, Long> entry: values(gauges).entrySet())
+            addSample(families, types, entry.getKey(), "", "gauge", Long.toString(entry.getValue()));
+        for (Map.Entry<String, Timer> entry: new TreeMap<String, Timer>(timers).entrySet()) {
+            Timer timer = entry.getValue();
+            addSample(families, types, entry.getKey(), "_seconds_count", "summary", Long.toString(timer.getCount()));
+            addSample(families, types, entry.getKey(), "_seconds_sum", "summary", Double.toString(timer.getNanos() / 1e9));
+            addSample(families, types, entry.getKey(), "_seconds_max", "gauge", Double.toString(timer.getMaxNanos() / 1e9));
+        }
+        for (Map.Entry<String, Histogram> entry: new TreeMap<String, Histogram>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            long[] cumulative = histogram.getCumulativeCounts();
+            for (int i = 0; i < Histogram.BOUNDS.length; i++)
+                addSample(families, types, withLabel(entry.getKey(), "le", Double.toString(Histogram.BOUNDS[i])), "_seconds_bucket", "histogram", Long.toString(cumulative[i]));
+            addSample(families, types, withLabel(entry.getKey(), "le", "+Inf"), "_seconds_bucket", "histogram", Long.toString(histogram.getCount()));
+            addSample(families, types, entry.getKey(), "_seconds_count", "histogram", Long.toString(histogram.getCount()));
+            addSample(families, types, entry.getKey(), "_seconds_sum", "histogram", Double.toString(histogram.getNanos() / 1e9));
+            addSample(families, types, entry.getKey(), "_seconds_max", "gauge", Double.toString(histogram.getMaxNanos() / 1e9));
+        }
+
+        for (Map.Entry<String, List<String>> family: families.entrySet()) {
+            writer.write("# TYPE " + family.getKey() + " " + types.get(family.getKey()) + "\n");
+            for (String line: family.getValue())
+                writer.write(line + "\n");
+        }
+    }
+
+    private static void addSample(Map<String, List<String>> families, Map<String, String> types, String name, String suffix, String type, String value) {
+        int brace = name.indexOf('{');
+        String base = brace < 0 ? name : name.substring(0, brace);
+        String labels = brace < 0 ? "" : name.substring(brace);
+        String sample = PROMETHEUS_PREFIX + base + suffix;
+        // the _count, _sum and _bucket series belong to the family without the suffix
+        String family = type.equals("summary") || type.equals("histogram") ? PROMETHEUS_PREFIX + base + "_seconds" : sample;
+
+        List<String> lines = families.get(family);
+        if (lines == null) {
+            lines = Lists.newArrayList();
+            families.put(family, lines);
+            types.put(family, type);
+        }
+        lines.add(sample + labels + " " + value);
+    }
+
+    private static String withLabel(String name, String label, String value) {
+        String pair = label + "=\"" + value + "\"";
+        return name.endsWith("}") ? name.substring(0, name.length() - 1) + "," + pair + "}" : name + "{" + pair + "}";
+    }
+
+    /**
+     * Write the Prometheus text to a file, e.g. for the node exporter textfile collector.
+     * The text goes to a temporary file first so readers never see a partial file.
+     */
+    public void writePrometheus(File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), Charsets.UTF_8);
+        try {
+            writePrometheus(writer);
+        }
+        finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Clear all metrics. Used for unit testing only.
+     */
+    void reset() {
+        counters.clear();
+        gauges.clear();
+        timers.clear();
+        histograms.clear();
+        collectors.clear();
+    }
+}
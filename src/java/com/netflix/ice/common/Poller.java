@@ -20,51 +20,172 @@ package com.netflix.ice.common;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.io.InterruptedIOException;
 import java.nio.channels.ClosedByInterruptException;
-import java.util.concurrent.CountDownLatch;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Base class for everything that does work periodically. Pollers don't own threads: one shared
+ * scheduler thread keeps time for all of them and the polls run on a shared worker pool, at most
+ * pollThreads at a time. On JVMs with virtual threads each poll gets its own virtual thread and a
+ * semaphore provides the bound. A poller never overlaps with itself.
+ *
+ * Fixed delay schedules are jittered by up to 10% of the delay so pollers started together don't
+ * keep waking up together. A poller started with no initial delay still runs right away.
+ */
 public abstract class Poller {
+    private static final Logger staticLogger = LoggerFactory.getLogger(Poller.class);
+    private static final int JITTER_PERCENT = 10;
+    private static final int DEFAULT_POLL_THREADS = 4;
+    private static final Random random = new Random();
+
+    private static ScheduledExecutorService scheduler;
+    private static ExecutorService workers;
+    private static Semaphore permits;
 
     protected Logger logger = LoggerFactory.getLogger(getClass());
-    private Thread pollerThread;
-    private CountDownLatch threadDoneSignal;
-
-    private void doWork(int initialDelaySec, int delaySec, boolean fixedRate) {
-        logger.info("poller starting...");
-        boolean first = true;
-        long sleepTime = delaySec * 1000L;
-        while (true) {
-            try {
-                if (first) {
-                    if (initialDelaySec > 0) {
-                        Thread.sleep(initialDelaySec * 1000L);
-                    }
-                    first = false;
+    private final Object lock = new Object();
+    private boolean stopped = false;
+    private ScheduledFuture<?> next;
+    private Thread pollingThread;
+
+    /**
+     * Set the number of polls that can run at the same time across all pollers. Pollers that
+     * are already scheduled finish their current poll on the old pool.
+     * @param pollThreads
+     */
+    public static synchronized void initScheduler(int pollThreads) {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            workers.shutdown();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("poller-scheduler").setDaemon(true).build());
+        workers = newVirtualThreadExecutor();
+        boolean virtual = workers != null;
+        if (!virtual)
+            workers = Executors.newFixedThreadPool(pollThreads,
+                    new ThreadFactoryBuilder().setNameFormat("poller-%d").setDaemon(true).build());
+        permits = new Semaphore(pollThreads);
+        staticLogger.info("pollers run " + pollThreads + " at a time on " + (virtual ? "virtual" : "platform") + " threads");
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (Exception e) {
+            // JVM without virtual threads
+            return null;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null)
+            initScheduler(DEFAULT_POLL_THREADS);
+        return scheduler;
+    }
+
+    private static synchronized ExecutorService getWorkers() {
+        getScheduler();
+        return workers;
+    }
+
+    private static synchronized Semaphore getPermits() {
+        getScheduler();
+        return permits;
+    }
+
+    static long jitter(long delayMillis) {
+        long bound = delayMillis * JITTER_PERCENT / 100;
+        if (bound <= 0)
+            return delayMillis;
+        synchronized (random) {
+            return delayMillis + (long) (random.nextDouble() * bound);
+        }
+    }
+
+    private void schedule(long delayMillis, final int delaySec, final boolean fixedRate) {
+        synchronized (lock) {
+            if (stopped)
+                return;
+            next = getScheduler().schedule(new Runnable() {
+                public void run() {
+                    submit(delaySec, fixedRate);
+                }
+            }, Math.max(delayMillis, 0), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void submit(final int delaySec, final boolean fixedRate) {
+        synchronized (lock) {
+            if (stopped)
+                return;
+            getWorkers().submit(new Runnable() {
+                public void run() {
+                    doWork(delaySec, fixedRate);
                 }
-                else if (sleepTime > 0)
-                    Thread.sleep(sleepTime);
+            });
+        }
+    }
 
-                long startMillis = System.currentTimeMillis();
+    private void doWork(int delaySec, boolean fixedRate) {
+        Thread thread = Thread.currentThread();
+        synchronized (lock) {
+            if (stopped)
+                return;
+            pollingThread = thread;
+        }
+        Semaphore permits = getPermits();
+        String threadName = thread.getName();
+        boolean again = true;
+        long startMillis = System.currentTimeMillis();
+        try {
+            permits.acquire();
+            try {
+                thread.setName(getThreadName());
+                startMillis = System.currentTimeMillis();
                 poll();
-                sleepTime = fixedRate ? delaySec * 1000L - (System.currentTimeMillis() - startMillis) : delaySec * 1000L;
             }
-            catch (InterruptedException e) {
-                break;
+            finally {
+                permits.release();
+                thread.setName(threadName);
             }
-            catch (InterruptedIOException e) {
-                break;
-            }
-            catch (ClosedByInterruptException e) {
-                break;
-            }
-            catch (Exception e) {
-                logger.error("Error polling", e);
+        }
+        catch (InterruptedException e) {
+            again = false;
+        }
+        catch (InterruptedIOException e) {
+            again = false;
+        }
+        catch (ClosedByInterruptException e) {
+            again = false;
+        }
+        catch (Exception e) {
+            logger.error("Error polling", e);
+        }
+        finally {
+            synchronized (lock) {
+                pollingThread = null;
+                lock.notifyAll();
             }
         }
-        threadDoneSignal.countDown();
-        logger.info("poller stopping.");
+
+        if (again) {
+            long delayMillis = delaySec * 1000L;
+            schedule(fixedRate ? delayMillis - (System.currentTimeMillis() - startMillis) : jitter(delayMillis), delaySec, fixedRate);
+        }
+        else {
+            logger.info("poller stopping.");
+        }
     }
 
     protected abstract void poll() throws Exception;
@@ -82,35 +203,35 @@ public abstract class Poller {
     }
 
     public void start(final int initialDelaySec, final int delaySec, final boolean fixedRate) {
-        threadDoneSignal = new CountDownLatch(1);
-        pollerThread = new Thread(new Runnable() {
-            public void run() {
-                doWork(initialDelaySec, delaySec, fixedRate);
-            }
-        }, getThreadName());
-        pollerThread.start();
-        logger.info("poller thread for " + getThreadName() + " started...");
+        long initialDelayMillis = initialDelaySec * 1000L;
+        // A zero initial delay means run now, only later runs and delayed starts are jittered
+        if (!fixedRate && initialDelayMillis > 0)
+            initialDelayMillis += jitter(delaySec * 1000L) - delaySec * 1000L;
+        schedule(initialDelayMillis, delaySec, fixedRate);
+        logger.info("poller for " + getThreadName() + " scheduled...");
     }
 
     public void shutdown() {
-        logger.info("shutting down... trying to interrupt poller thread...");
-        boolean done = false;
-        int numTries = 0;
-        while (!done) {
-            pollerThread.interrupt();
-            try {
-                done = threadDoneSignal.await(10, TimeUnit.SECONDS);
-            }
-            catch (InterruptedException e) {
-                // ingore InterruptedException here
-            }
-            if (!done) {
-                numTries = numTries + 1;
-                logger.warn("trying to interrupt write thread again " + numTries);
-            }
-            else {
-                logger.info("shutted down successfully.");
+        logger.info("shutting down... trying to interrupt poller...");
+        synchronized (lock) {
+            stopped = true;
+            if (next != null)
+                next.cancel(false);
+            int numTries = 0;
+            while (pollingThread != null) {
+                pollingThread.interrupt();
+                try {
+                    lock.wait(10000);
+                }
+                catch (InterruptedException e) {
+                    // ingore InterruptedException here
+                }
+                if (pollingThread != null) {
+                    numTries = numTries + 1;
+                    logger.warn("trying to interrupt poller again " + numTries);
+                }
             }
         }
+        logger.info("shutted down successfully.");
     }
 }
@@ -0,0 +1,233 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.collect.Lists;
+
+/**
+ * Downloads S3 objects by splitting them into byte ranges that are fetched concurrently and
+ * written in place with positional FileChannel writes. Each range is retried on its own.
+ *
+ * The ETag, last modified time and length all come from the response to the first range. The
+ * remaining ranges are fetched with a matching ETag constraint, so if the object is replaced
+ * part way through the download starts over instead of stitching two versions together.
+ */
+public class RangedDownloader {
+    private final static Logger logger = LoggerFactory.getLogger(RangedDownloader.class);
+
+    public static final long DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AmazonS3 s3Client;
+    private final ExecutorService pool;
+    private final long partSize;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+
+    public static class Result {
+        public final String eTag;
+        public final long lastModified;
+        public final long length;
+
+        Result(String eTag, long lastModified, long length) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Thrown when a range request fails its ETag constraint
+     */
+    private static class ObjectChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ObjectChangedException(String fileKey) {
+            super(fileKey + " changed during download");
+        }
+    }
+
+    public RangedDownloader(AmazonS3 s3Client, ExecutorService pool) {
+        this(s3Client, pool, DEFAULT_PART_SIZE, DEFAULT_MAX_RETRIES, 2000L);
+    }
+
+    public RangedDownloader(AmazonS3 s3Client, ExecutorService pool, long partSize, int maxRetries, long retryDelayMillis) {
+        this.s3Client = s3Client;
+        this.pool = pool;
+        this.partSize = partSize;
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Download the object to the file and set the file's modified time to match the object.
+     * Service errors such as 404 are passed straight back to the caller.
+     */
+    public Result download(String bucketName, String fileKey, File file) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Result result = tryDownload(bucketName, fileKey, file);
+                file.setLastModified(result.lastModified);
+                return result;
+            }
+            catch (ObjectChangedException e) {
+                if (attempt >= maxRetries)
+                    throw e;
+                logger.warn(e.getMessage() + ", restarting");
+            }
+        }
+    }
+
+    private Result tryDownload(final String bucketName, final String fileKey, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+
+            ObjectMetadata metadata;
+            try {
+                metadata = fetch(new GetObjectRequest(bucketName, fileKey).withRange(0, partSize - 1), channel, 0);
+            }
+            catch (AmazonServiceException e) {
+                // Empty objects can't satisfy a range request
+                if (e.getStatusCode() != 416)
+                    throw e;
+                metadata = fetch(new GetObjectRequest(bucketName, fileKey), channel, 0);
+            }
+            final String eTag = metadata.getETag();
+            long length = metadata.getInstanceLength();
+
+            List<Future<ObjectMetadata>> futures = Lists.newArrayList();
+            for (long start = partSize; start < length; start += partSize) {
+                final long position = start;
+                final long end = Math.min(start + partSize, length) - 1;
+                futures.add(pool.submit(new Callable<ObjectMetadata>() {
+                    public ObjectMetadata call() throws Exception {
+                        return fetch(new GetObjectRequest(bucketName, fileKey).withRange(position, end).withMatchingETagConstraint(eTag), channel, position);
+                    }
+                }));
+            }
+            try {
+                for (Future<ObjectMetadata> future: futures)
+                    future.get();
+            }
+            catch (InterruptedException e) {
+                throw new IOException("interrupted downloading " + fileKey, e);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+            finally {
+                for (Future<ObjectMetadata> future: futures)
+                    future.cancel(true);
+            }
+
+            // Drop anything left over from an older, longer version of the file
+            raf.setLength(length);
+            return new Result(eTag, metadata.getLastModified() == null ? 0 : metadata.getLastModified().getTime(), length);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Fetch one range and write it at the given position, retrying client errors and 5xx responses.
+     */
+    private ObjectMetadata fetch(GetObjectRequest request, FileChannel channel, long position) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                S3Object s3Object = s3Client.getObject(request);
+                if (s3Object == null)
+                    throw new ObjectChangedException(request.getKey());
+                try {
+                    ObjectMetadata metadata = s3Object.getObjectMetadata();
+                    long written = copy(s3Object.getObjectContent(), channel, position);
+                    if (written != metadata.getContentLength())
+                        throw new IOException("size does not match contentLength=" + metadata.getContentLength() + " downloadSize=" + written + " for " + request.getKey());
+                    return metadata;
+                }
+                finally {
+                    s3Object.close();
+                }
+            }
+            catch (ObjectChangedException e) {
+                throw e;
+            }
+            catch (AmazonServiceException e) {
+                if (e.getStatusCode() < 500 || attempt >= maxRetries)
+                    throw e;
+                logger.warn("error fetching " + request.getKey() + " at " + position + ", retrying: " + e.getMessage());
+            }
+            catch (AmazonClientException e) {
+                if (attempt >= maxRetries)
+                    throw e;
+                logger.warn("error fetching " + request.getKey() + " at " + position + ", retrying: " + e.getMessage());
+            }
+            catch (IOException e) {
+                if (attempt >= maxRetries)
+                    throw e;
+                logger.warn("error fetching " + request.getKey() + " at " + position + ", retrying: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(retryDelayMillis * attempt);
+            }
+            catch (InterruptedException e) {
+                throw new IOException("interrupted downloading " + request.getKey(), e);
+            }
+        }
+    }
+
+    private static long copy(InputStream input, FileChannel channel, long position) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long written = 0;
+        int len;
+        while ((len = input.read(buf)) > 0) {
+            ByteBuffer buffer = ByteBuffer.wrap(buf, 0, len);
+            while (buffer.hasRemaining())
+                written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Uploads files to S3 on a bounded pool of threads.
+ *
+ * Each object is stored with the MD5 of its content in the user metadata. Before uploading
+ * a file the MD5 is compared with the one on the object already in S3 and the upload is
+ * skipped if they match. Files larger than the multipart threshold are uploaded in parts.
+ *
+ * getOutputStream() returns a stream that uploads parts as they are written, so a file can be
+ * sent to S3 while it is still being generated. The MD5 of streamed content is only known once the
+ * stream is closed, after the metadata of a multipart upload has been given, so streamed objects
+ * larger than one part are stored without it. Content that is written to a local file first
+ * should be uploaded with upload() instead.
+ */
+public class S3Uploader {
+    private final static Logger logger = LoggerFactory.getLogger(S3Uploader.class);
+
+    public static final String MD5_METADATA = "ice-md5";
+    public static final long DEFAULT_MULTIPART_THRESHOLD = 16 * 1024 * 1024;
+    // S3 requires parts other than the last to be at least 5MB
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    private final AmazonS3 s3Client;
+    private final ExecutorService pool;
+    private final int threads;
+    private final long multipartThreshold;
+    private final int partSize;
+
+    public S3Uploader(AmazonS3 s3Client, int threads) {
+        this(s3Client, threads, DEFAULT_MULTIPART_THRESHOLD, DEFAULT_PART_SIZE);
+    }
+
+    public S3Uploader(AmazonS3 s3Client, int threads, long multipartThreshold, int partSize) {
+        this.s3Client = s3Client;
+        this.threads = threads;
+        this.multipartThreshold = multipartThreshold;
+        this.partSize = partSize;
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("s3-upload-%d").setDaemon(true).build());
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Upload all the files in localDir whose names start with filePrefix and wait for them to finish.
+     * @return the files that were uploaded, files that were already up to date in S3 are left out.
+     */
+    public List<File> uploadAll(final String bucketName, final String prefix, String localDir, final String filePrefix) {
+        File[] files = new File(localDir).listFiles(new FilenameFilter() {
+            public boolean accept(File file, String fileName) {
+                return fileName.startsWith(filePrefix);
+            }
+        });
+        if (files == null)
+            return Lists.newArrayList();
+
+        List<Future<Boolean>> futures = Lists.newArrayList();
+        for (final File file: files) {
+            futures.add(pool.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return upload(bucketName, prefix + file.getName(), file);
+                }
+            }));
+        }
+
+        List<File> uploaded = Lists.newArrayList();
+        for (int i = 0; i < files.length; i++) {
+            if (get(futures.get(i), files[i].getName()))
+                uploaded.add(files[i]);
+        }
+        return uploaded;
+    }
+
+    /**
+     * Upload a file unless S3 already has the same content.
+     * @return false if the upload was skipped.
+     */
+    public boolean upload(String bucketName, String key, File file) throws IOException {
+        String md5 = md5(file);
+        if (md5.equals(getRemoteMd5(bucketName, key))) {
+            logger.info("skipping upload of unchanged " + key);
+            return false;
+        }
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.addUserMetadata(MD5_METADATA, md5);
+
+        long start = System.nanoTime();
+        if (file.length() <= multipartThreshold) {
+            s3Client.putObject(new PutObjectRequest(bucketName, key, file).withMetadata(metadata));
+            uploaded("s3_upload", start, file.length());
+            return true;
+        }
+
+        String uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key, metadata)).getUploadId();
+        try {
+            List<PartETag> partETags = Lists.newArrayList();
+            long position = 0;
+            for (int partNumber = 1; position < file.length(); partNumber++) {
+                long size = Math.min(partSize, file.length() - position);
+                partETags.add(s3Client.uploadPart(new UploadPartRequest()
+                        .withBucketName(bucketName).withKey(key).withUploadId(uploadId)
+                        .withPartNumber(partNumber).withFile(file).withFileOffset(position).withPartSize(size)).getPartETag());
+                position += size;
+            }
+            s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+            uploaded("s3_upload", start, file.length());
+            return true;
+        }
+        catch (AmazonClientException e) {
+            abort(bucketName, key, uploadId);
+            throw e;
+        }
+    }
+
+    private static void uploaded(String timer, long startNanos, long bytes) {
+        Metrics.getInstance().time(timer, startNanos);
+        Metrics.getInstance().add("s3_upload_bytes_total", bytes);
+    }
+
+    /**
+     * Server side copy, used for backup copies. The copy keeps the MD5 of the source, and is
+     * skipped if the destination already has the same content.
+     * @return false if the copy was skipped.
+     */
+    public boolean copy(String bucketName, String fromKey, String toKey) {
+        String md5 = getRemoteMd5(bucketName, fromKey);
+        if (md5 != null && md5.equals(getRemoteMd5(bucketName, toKey))) {
+            logger.info("skipping copy of unchanged " + fromKey);
+            return false;
+        }
+        s3Client.copyObject(bucketName, fromKey, bucketName, toKey);
+        return true;
+    }
+
+    /**
+     * Returns a stream that uploads to S3 as it is written. Nothing is visible in S3 until the
+     * stream is closed. Content smaller than one part is sent with a single put when the stream
+     * is closed, and skipped if it matches what's already there. Call abort() instead of close()
+     * if the content is incomplete.
+     */
+    public UploadOutputStream getOutputStream(String bucketName, String key) {
+        return new UploadOutputStream(bucketName, key);
+    }
+
+    private String getRemoteMd5(String bucketName, String key) {
+        try {
+            return s3Client.getObjectMetadata(bucketName, key).getUserMetaDataOf(MD5_METADATA);
+        }
+        catch (AmazonServiceException e) {
+            if (e.getStatusCode() == 404)
+                return null;
+            throw e;
+        }
+    }
+
+    private void abort(String bucketName, String key, String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        }
+        catch (AmazonClientException e) {
+            logger.error("failed to abort multipart upload of " + key, e);
+        }
+    }
+
+    private static <T> T get(Future<T> future, String name) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            throw new AmazonClientException("interrupted uploading " + name, e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new AmazonClientException("error uploading " + name, e.getCause());
+        }
+    }
+
+    static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String md5(File file) throws IOException {
+        return BinaryUtils.toHex(Md5Utils.computeMD5Hash(file));
+    }
+
+    public class UploadOutputStream extends OutputStream {
+        private final String bucketName;
+        private final String key;
+        // limit the number of parts held in memory waiting to be sent
+        private final Semaphore pending = new Semaphore(threads);
+        private final List<Future<PartETag>> parts = Lists.newArrayList();
+        private final MessageDigest digest = newMd5();
+        private byte[] buffer = new byte[partSize];
+        private int count = 0;
+        private String uploadId = null;
+        private boolean closed = false;
+
+        UploadOutputStream(String bucketName, String key) {
+            this.bucketName = bucketName;
+            this.key = key;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length)
+                sendPart();
+            digest.update((byte) b);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length)
+                    sendPart();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                digest.update(b, off, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void sendPart() throws IOException {
+            try {
+                if (uploadId == null)
+                    uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key)).getUploadId();
+
+                pending.acquire();
+                final byte[] bytes = buffer;
+                final int size = count;
+                final int partNumber = parts.size() + 1;
+                parts.add(pool.submit(new Callable<PartETag>() {
+                    public PartETag call() throws Exception {
+                        try {
+                            return s3Client.uploadPart(new UploadPartRequest()
+                                    .withBucketName(bucketName).withKey(key).withUploadId(uploadId)
+                                    .withPartNumber(partNumber).withInputStream(new ByteArrayInputStream(bytes, 0, size)).withPartSize(size)).getPartETag();
+                        }
+                        finally {
+                            pending.release();
+                        }
+                    }
+                }));
+                buffer = new byte[partSize];
+                count = 0;
+            }
+            catch (InterruptedException e) {
+                S3Uploader.this.abort(bucketName, key, uploadId);
+                throw new IOException("interrupted uploading " + key, e);
+            }
+            catch (AmazonClientException e) {
+                if (uploadId != null)
+                    S3Uploader.this.abort(bucketName, key, uploadId);
+                throw new IOException("error uploading " + key, e);
+            }
+        }
+
+        /**
+         * Discard the upload, nothing is written to S3. Later calls to close() do nothing.
+         */
+        public void abort() {
+            if (closed)
+                return;
+            closed = true;
+            for (Future<PartETag> part: parts)
+                part.cancel(true);
+            if (uploadId != null)
+                S3Uploader.this.abort(bucketName, key, uploadId);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+
+            // Parts are sent while the stream is written, so only the wait to finish them is timed here
+            long start = System.nanoTime();
+            long bytes = (long) parts.size() * partSize + count;
+            if (uploadId == null) {
+                // Small enough for a single put
+                String md5 = BinaryUtils.toHex(digest.digest());
+                if (md5.equals(getRemoteMd5(bucketName, key))) {
+                    logger.info("skipping upload of unchanged " + key);
+                    return;
+                }
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.addUserMetadata(MD5_METADATA, md5);
+                metadata.setContentLength(count);
+                s3Client.putObject(bucketName, key, new ByteArrayInputStream(Arrays.copyOf(buffer, count)), metadata);
+                uploaded("s3_upload_close", start, bytes);
+                return;
+            }
+
+            if (count > 0)
+                sendPart();
+            try {
+                List<PartETag> partETags = Lists.newArrayList();
+                for (Future<PartETag> part: parts)
+                    partETags.add(get(part, key));
+                s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+            }
+            catch (AmazonClientException e) {
+                S3Uploader.this.abort(bucketName, key, uploadId);
+                throw new IOException("error uploading " + key, e);
+            }
+            uploaded("s3_upload_close", start, bytes);
+        }
+    }
+}
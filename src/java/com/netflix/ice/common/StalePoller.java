@@ -1,5 +1,7 @@
 package com.netflix.ice.common;
 
+import java.util.Set;
+
 public abstract class StalePoller extends Poller {
     private boolean stale = true;
     public final int DefaultStalePollInvervalSecs = 5 * 60;
@@ -8,6 +10,16 @@ public abstract class StalePoller extends Poller {
     	stale = true;
     }
 
+    /**
+     * Reload any of our files that are in the set of changed file names. Pollers that
+     * can't tell which files they use just mark themselves stale.
+     * @param fileNames names of the files that have changed in the work bucket
+     * @throws Exception
+     */
+    public void refresh(Set<String> fileNames) throws Exception {
+    	stale();
+    }
+
 	@Override
     public void start() {
 		// Default to 5 minutes
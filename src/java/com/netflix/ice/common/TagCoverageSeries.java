@@ -0,0 +1,80 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.tag.Tag;
+
+/**
+ * A series of tag coverage ratios held as parallel count and total arrays. Series are added
+ * with plain array arithmetic and converted to percentages once, when the result is returned.
+ */
+public class TagCoverageSeries {
+	public final long[] counts;
+	public final long[] totals;
+
+	public TagCoverageSeries(int size) {
+		counts = new long[size];
+		totals = new long[size];
+	}
+
+	public int size() {
+		return counts.length;
+	}
+
+	public void add(int i, long count, long total) {
+		counts[i] += count;
+		totals[i] += total;
+	}
+
+	public void add(TagCoverageSeries other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+			totals[i] += other.totals[i];
+		}
+	}
+
+	public double[] toPercentage() {
+		double[] result = new double[counts.length];
+		for (int i = 0; i < result.length; i++)
+			result[i] = totals[i] == 0 ? 0 : (double) counts[i] / totals[i] * 100.0;
+		return result;
+	}
+
+	/**
+	 * Add each series of from to the series with the same tag in to.
+	 */
+	public static void merge(Map<Tag, TagCoverageSeries> from, Map<Tag, TagCoverageSeries> to) {
+		for (Map.Entry<Tag, TagCoverageSeries> entry: from.entrySet()) {
+			TagCoverageSeries existing = to.get(entry.getKey());
+			if (existing == null)
+				to.put(entry.getKey(), entry.getValue());
+			else
+				existing.add(entry.getValue());
+		}
+	}
+
+	public static Map<Tag, double[]> toPercentage(Map<Tag, TagCoverageSeries> coverage) {
+		Map<Tag, double[]> result = Maps.newTreeMap();
+		for (Map.Entry<Tag, TagCoverageSeries> entry: coverage.entrySet())
+			result.put(entry.getKey(), entry.getValue().toPercentage());
+		return result;
+	}
+}
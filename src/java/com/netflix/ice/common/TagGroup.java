@@ -25,8 +25,6 @@ import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -40,7 +38,6 @@ import java.util.TreeMap;
 
 public class TagGroup implements Comparable<TagGroup>, Serializable {
 	private static final long serialVersionUID = 3L;
-    private final Logger logger = LoggerFactory.getLogger(getClass());
 	
 	public final Account account;
     public final Product product;
@@ -49,8 +46,11 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
     public final Region region;
     public final Zone zone;
     public final ResourceGroup resourceGroup;
+    private final int hash;
+    // Dense id assigned when the TagGroup is interned
+    private final transient int id;
     
-    protected TagGroup(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup) {
+    protected TagGroup(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, int id) {
         this.account = account;
         this.region = region;
         this.zone = zone;
@@ -58,6 +58,15 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
         this.operation = operation;
         this.usageType = usageType;
         this.resourceGroup = resourceGroup;
+        this.hash = hash(account, region, zone, product, operation, usageType, resourceGroup);
+        this.id = id;
+    }
+
+    /**
+     * Id of the interned TagGroup, ids are dense and start at zero so they can be used to index arrays.
+     */
+    public int getId() {
+        return id;
     }
 
     @Override
@@ -92,57 +101,71 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
     public boolean equals(Object o) {
     	if (this == o)
     		return true;
-        if (o == null)
+        if (!(o instanceof TagGroup))
             return false;
         TagGroup other = (TagGroup)o;
-
-        boolean match = 
-                this.zone == other.zone &&
-                this.account == other.account &&
-                this.region == other.region &&
-                this.product == other.product &&
-                this.operation == other.operation &&
-                this.usageType == other.usageType &&
-                this.resourceGroup == other.resourceGroup;
-        
-        if (!match) {
-        	// Check for value match
-            boolean valueMatch = 
-            		this.account.equals(other.account) &&
-            		this.region.equals(other.region) &&
-            		(this.zone == null && other.zone == null) || (this.zone != null && other.zone != null && this.zone.equals(other.zone)) &&
-            		this.product.equals(other.product) &&
-            		this.operation.equals(other.operation) &&
-            		this.usageType.equals(other.usageType) &&
-            		(this.resourceGroup == null && other.resourceGroup == null) || (this.resourceGroup != null && other.resourceGroup != null && this.resourceGroup.equals(other.resourceGroup));
-            
-            if (match != valueMatch) {
-            	logger.error("non-equivalent tag sets in TagGroup comparison: " + this + ", " + System.identityHashCode(this.account) + ", " + System.identityHashCode(other.account));
-            	match = valueMatch;
-            }          
-        }
-        
-        return match;
+        // Tags are interned, so equal TagGroups always hold the same tag instances
+        return this.hash == other.hash && sameTags(other.account, other.region, other.zone, other.product, other.operation, other.usageType, other.resourceGroup);
     }
 
     @Override
     public int hashCode() {
+        return hash;
+    }
+
+    static int hash(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup) {
         final int prime = 31;
         int result = 1;
-        if (this.zone != null)
-            result = prime * result + this.zone.hashCode();
-        result = prime * result + this.account.hashCode();
-        result = prime * result + this.region.hashCode();
-        result = prime * result + this.product.hashCode();
-        result = prime * result + this.operation.hashCode();
-        result = prime * result + this.usageType.hashCode();
-        if (this.resourceGroup != null)
-            result = prime * result + this.resourceGroup.hashCode();
+        if (zone != null)
+            result = prime * result + zone.hashCode();
+        result = prime * result + account.hashCode();
+        result = prime * result + region.hashCode();
+        result = prime * result + product.hashCode();
+        result = prime * result + operation.hashCode();
+        result = prime * result + usageType.hashCode();
+        if (resourceGroup != null)
+            result = prime * result + resourceGroup.hashCode();
 
         return result;
     }
 
-    private static Map<TagGroup, TagGroup> tagGroups = Maps.newConcurrentMap();
+    final boolean sameTags(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup) {
+        return this.zone == zone &&
+                this.account == account &&
+                this.region == region &&
+                this.product == product &&
+                this.operation == operation &&
+                this.usageType == usageType &&
+                this.resourceGroup == resourceGroup;
+    }
+
+    /**
+     * Used by the registry to find the interned TagGroup for a set of tags without building one.
+     */
+    boolean matches(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, String reservationId) {
+        return reservationId == null && sameTags(account, region, zone, product, operation, usageType, resourceGroup);
+    }
+
+    private static TagGroupRegistry<TagGroup> tagGroups = new TagGroupRegistry<TagGroup>() {
+        @Override
+        protected TagGroup create(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, String reservationId, int id) {
+            return new TagGroup(account, region, zone, product, operation, usageType, resourceGroup, id);
+        }
+    };
+
+    /**
+     * @return the interned TagGroup (or TagGroupRI) with the id, or null if there isn't one
+     */
+    public static TagGroup getTagGroup(int id) {
+        return TagGroupRegistry.get(id);
+    }
+
+    /**
+     * @return one more than the highest TagGroup id handed out so far
+     */
+    public static int getNumTagGroups() {
+        return TagGroupRegistry.size();
+    }
 
     public static TagGroup getTagGroup(String account, String region, String zone, String product, String operation, String usageTypeName, String usageTypeUnit, String resourceGroup, AccountService accountService, ProductService productService) {
         return getTagGroup(
@@ -156,31 +179,72 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
     }
     
     public static TagGroup getTagGroup(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup) {
-        TagGroup newOne = new TagGroup(account, region, zone, product, operation, usageType, resourceGroup);
-        TagGroup oldOne = tagGroups.get(newOne);
-        if (oldOne != null) {
-            return oldOne;
-        }
-        else {
-            tagGroups.put(newOne, newOne);
-            return newOne;
-        }
+        return tagGroups.get(account, region, zone, product, operation, usageType, resourceGroup, null);
     }
 
     public static class Serializer {
 
+        /**
+         * Marker written in place of the TagGroup count for the dictionary format. Counts
+         * in the original format are never negative.
+         */
+        public static final int DICTIONARY_FORMAT = -2;
+
         public static void serializeTagGroups(DataOutput out, TreeMap<Long, Collection<TagGroup>> tagGroups) throws IOException {
-            out.writeInt(tagGroups.size());
+            Dictionary dictionary = new Dictionary();
+            for (Collection<TagGroup> keys: tagGroups.values())
+                dictionary.addAll(keys);
+
+            out.writeInt(DICTIONARY_FORMAT);
+            dictionary.write(out);
+            VarInt.write(out, tagGroups.size());
             for (Long monthMilli: tagGroups.keySet()) {
                 out.writeLong(monthMilli);
                 Collection<TagGroup> keys = tagGroups.get(monthMilli);
-                out.writeInt(keys.size());
+                VarInt.write(out, keys.size());
                 for (TagGroup tagGroup: keys) {
-                    serialize(out, tagGroup);
+                    dictionary.writeIds(out, tagGroup);
                 }
             }
         }
 
+        /**
+         * Write a list of TagGroups as a string table for each tag dimension followed by
+         * the TagGroups as tuples of table indices.
+         */
+        public static void serializeKeys(DataOutput out, Collection<TagGroup> keys) throws IOException {
+            Dictionary dictionary = new Dictionary();
+            dictionary.addAll(keys);
+
+            out.writeInt(DICTIONARY_FORMAT);
+            dictionary.write(out);
+            VarInt.write(out, keys.size());
+            for (TagGroup tagGroup: keys)
+                dictionary.writeIds(out, tagGroup);
+        }
+
+        /**
+         * Read a list of TagGroups written by serializeKeys or, for older files, as a count
+         * followed by TagGroups written one at a time by serialize.
+         */
+        public static List<TagGroup> deserializeKeys(AccountService accountService, ProductService productService, DataInput in) throws IOException {
+            int numKeys = in.readInt();
+            List<TagGroup> keys;
+            if (numKeys == DICTIONARY_FORMAT) {
+                ResolvedDictionary dictionary = new ResolvedDictionary(accountService, productService, in);
+                numKeys = VarInt.read(in);
+                keys = Lists.newArrayListWithCapacity(numKeys);
+                for (int j = 0; j < numKeys; j++)
+                    keys.add(dictionary.readTagGroup(in));
+            }
+            else {
+                keys = Lists.newArrayListWithCapacity(numKeys);
+                for (int j = 0; j < numKeys; j++)
+                    keys.add(deserialize(accountService, productService, in));
+            }
+            return keys;
+        }
+
         public static void serialize(DataOutput out, TagGroup tagGroup) throws IOException {
             out.writeUTF(tagGroup.account.toString());
             out.writeUTF(tagGroup.region.toString());
@@ -212,13 +276,18 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
 
         public static TreeMap<Long, Collection<TagGroup>> deserializeTagGroups(AccountService accountService, ProductService productService, DataInput in) throws IOException {
             int numCollections = in.readInt();
+            ResolvedDictionary dictionary = null;
+            if (numCollections == DICTIONARY_FORMAT) {
+                dictionary = new ResolvedDictionary(accountService, productService, in);
+                numCollections = VarInt.read(in);
+            }
             TreeMap<Long, Collection<TagGroup>> result = Maps.newTreeMap();
             for (int i = 0; i < numCollections; i++) {
                 long monthMilli = in.readLong();
-                int numKeys = in.readInt();
-                List<TagGroup> keys = Lists.newArrayList();
+                int numKeys = dictionary == null ? in.readInt() : VarInt.read(in);
+                List<TagGroup> keys = Lists.newArrayListWithCapacity(numKeys);
                 for (int j = 0; j < numKeys; j++) {
-                    keys.add(deserialize(accountService, productService, in));
+                    keys.add(dictionary == null ? deserialize(accountService, productService, in) : dictionary.readTagGroup(in));
                 }
                 result.put(monthMilli, keys);
             }
@@ -241,6 +310,130 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
             return TagGroup.getTagGroup(account, region, zone, product, operation, usageType, resourceGroup);
         }
                 
+        /**
+         * String tables for each tag dimension. Index 0 of the zone and resource group
+         * tables is reserved for null.
+         */
+        private static class Dictionary {
+            private final Map<String, Integer> accounts = Maps.newLinkedHashMap();
+            private final Map<String, Integer> regions = Maps.newLinkedHashMap();
+            private final Map<String, Integer> zones = Maps.newLinkedHashMap();
+            private final Map<String, Integer> products = Maps.newLinkedHashMap();
+            private final Map<String, Integer> operations = Maps.newLinkedHashMap();
+            private final Map<UsageType, Integer> usageTypes = Maps.newLinkedHashMap();
+            private final Map<String, Integer> resourceGroups = Maps.newLinkedHashMap();
+
+            void addAll(Collection<TagGroup> tagGroups) {
+                for (TagGroup tagGroup: tagGroups) {
+                    add(accounts, tagGroup.account.toString());
+                    add(regions, tagGroup.region.toString());
+                    if (tagGroup.zone != null)
+                        add(zones, tagGroup.zone.toString());
+                    // Always use the Product AWS name - the tag name can be updated to change how it's displayed
+                    add(products, tagGroup.product.getCanonicalName());
+                    add(operations, tagGroup.operation.toString());
+                    add(usageTypes, tagGroup.usageType);
+                    if (tagGroup.resourceGroup != null)
+                        add(resourceGroups, tagGroup.resourceGroup.toString());
+                }
+            }
+
+            private static <K> void add(Map<K, Integer> table, K key) {
+                if (!table.containsKey(key))
+                    table.put(key, table.size());
+            }
+
+            void write(DataOutput out) throws IOException {
+                write(out, accounts.keySet());
+                write(out, regions.keySet());
+                write(out, zones.keySet());
+                write(out, products.keySet());
+                write(out, operations.keySet());
+                VarInt.write(out, usageTypes.size());
+                for (UsageType usageType: usageTypes.keySet())
+                    UsageType.serialize(out, usageType);
+                write(out, resourceGroups.keySet());
+            }
+
+            private static void write(DataOutput out, Collection<String> table) throws IOException {
+                VarInt.write(out, table.size());
+                for (String s: table)
+                    out.writeUTF(s);
+            }
+
+            void writeIds(DataOutput out, TagGroup tagGroup) throws IOException {
+                VarInt.write(out, accounts.get(tagGroup.account.toString()));
+                VarInt.write(out, regions.get(tagGroup.region.toString()));
+                VarInt.write(out, tagGroup.zone == null ? 0 : zones.get(tagGroup.zone.toString()) + 1);
+                VarInt.write(out, products.get(tagGroup.product.getCanonicalName()));
+                VarInt.write(out, operations.get(tagGroup.operation.toString()));
+                VarInt.write(out, usageTypes.get(tagGroup.usageType));
+                VarInt.write(out, tagGroup.resourceGroup == null ? 0 : resourceGroups.get(tagGroup.resourceGroup.toString()) + 1);
+            }
+        }
+
+        /**
+         * Dictionary read back from a file with each entry resolved to its Tag up front, so reading
+         * the TagGroups only has to look up array entries.
+         */
+        private static class ResolvedDictionary {
+            private final Account[] accounts;
+            private final Region[] regions;
+            private final String[] zoneNames;
+            private final Zone[] zones;
+            private final Product[] products;
+            private final Operation[] operations;
+            private final UsageType[] usageTypes;
+            private final ResourceGroup[] resourceGroups;
+
+            ResolvedDictionary(AccountService accountService, ProductService productService, DataInput in) throws IOException {
+                accounts = new Account[VarInt.read(in)];
+                for (int i = 0; i < accounts.length; i++)
+                    accounts[i] = accountService.getAccountByName(in.readUTF());
+                regions = new Region[VarInt.read(in)];
+                for (int i = 0; i < regions.length; i++)
+                    regions[i] = Region.getRegionByName(in.readUTF());
+                // Zones need their region to be created, so they're resolved on first use
+                zoneNames = new String[VarInt.read(in)];
+                for (int i = 0; i < zoneNames.length; i++)
+                    zoneNames[i] = in.readUTF();
+                zones = new Zone[zoneNames.length];
+                products = new Product[VarInt.read(in)];
+                for (int i = 0; i < products.length; i++)
+                    products[i] = productService.getProductByName(in.readUTF());
+                operations = new Operation[VarInt.read(in)];
+                for (int i = 0; i < operations.length; i++)
+                    operations[i] = Operation.getOperation(in.readUTF());
+                usageTypes = new UsageType[VarInt.read(in)];
+                for (int i = 0; i < usageTypes.length; i++)
+                    usageTypes[i] = UsageType.deserialize(in);
+                resourceGroups = new ResourceGroup[VarInt.read(in)];
+                for (int i = 0; i < resourceGroups.length; i++)
+                    resourceGroups[i] = ResourceGroup.getResourceGroup(in.readUTF());
+            }
+
+            TagGroup readTagGroup(DataInput in) throws IOException {
+                Account account = accounts[VarInt.read(in)];
+                Region region = regions[VarInt.read(in)];
+                int zoneId = VarInt.read(in) - 1;
+                Zone zone = null;
+                if (zoneId >= 0) {
+                    zone = zones[zoneId];
+                    if (zone == null) {
+                        zone = Zone.getZone(zoneNames[zoneId], region);
+                        zones[zoneId] = zone;
+                    }
+                }
+                Product product = products[VarInt.read(in)];
+                Operation operation = operations[VarInt.read(in)];
+                UsageType usageType = usageTypes[VarInt.read(in)];
+                int resourceGroupId = VarInt.read(in) - 1;
+                ResourceGroup resourceGroup = resourceGroupId < 0 ? null : resourceGroups[resourceGroupId];
+
+                return TagGroup.getTagGroup(account, region, zone, product, operation, usageType, resourceGroup);
+            }
+        }
+
         // Serialize to CSV for general debugging
         public static void serializeTagGroupsCsv(DataOutput out, TreeMap<Long, Collection<TagGroup>> tagGroups) throws IOException {
             out.writeChars("Month,Account,Region,Zone,Product,Operation,UsageType,UsageTypeUnit,ResourceGroup\n");
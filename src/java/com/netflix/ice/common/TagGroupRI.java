@@ -1,8 +1,5 @@
 package com.netflix.ice.common;
 
-import java.util.Map;
-
-import com.google.common.collect.Maps;
 import com.netflix.ice.tag.Account;
 import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Product;
@@ -28,9 +25,9 @@ public class TagGroupRI extends TagGroup {
 
 	private TagGroupRI(Account account, Region region, Zone zone,
 			Product product, Operation operation, UsageType usageType,
-			ResourceGroup resourceGroup, String reservationId) {
+			ResourceGroup resourceGroup, String reservationId, int id) {
 		super(account, region, zone, product, operation, usageType,
-				resourceGroup);
+				resourceGroup, id);
 		this.reservationId = reservationId;
 	}
 
@@ -67,19 +64,21 @@ public class TagGroupRI extends TagGroup {
 
         return result;
     }
+
+    @Override
+    boolean matches(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, String reservationId) {
+        return this.reservationId.equals(reservationId) && sameTags(account, region, zone, product, operation, usageType, resourceGroup);
+    }
     
-    private static Map<TagGroupRI, TagGroupRI> tagGroups = Maps.newConcurrentMap();
+    private static TagGroupRegistry<TagGroupRI> tagGroups = new TagGroupRegistry<TagGroupRI>() {
+        @Override
+        protected TagGroupRI create(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, String reservationId, int id) {
+            return new TagGroupRI(account, region, zone, product, operation, usageType, resourceGroup, reservationId, id);
+        }
+    };
 
     public static TagGroupRI getTagGroup(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, String reservationId) {
-        TagGroupRI newOne = new TagGroupRI(account, region, zone, product, operation, usageType, resourceGroup, reservationId);
-        TagGroupRI oldOne = tagGroups.get(newOne);
-        if (oldOne != null) {
-            return oldOne;
-        }
-        else {
-            tagGroups.put(newOne, newOne);
-            return newOne;
-        }
+        return tagGroups.get(account, region, zone, product, operation, usageType, resourceGroup, reservationId);
     }
 
 }
@@ -0,0 +1,157 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.Zone;
+
+/**
+ * Interns TagGroups and gives each one a dense int id the first time it's seen. Ids are
+ * shared by all registries so a TagGroup can be found from its id whatever its class.
+ * Ids only live as long as the process, files are still written with the tags themselves.
+ *
+ * TagGroups are looked up straight from their interned tags, so finding an existing one
+ * allocates nothing and matches the tags by reference. The table is split into segments
+ * that are read without locking. Registering a new TagGroup only locks its segment.
+ */
+abstract class TagGroupRegistry<T extends TagGroup> {
+    private static final int SEGMENT_BITS = 4;
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+    // Reverse lookup, allocated a chunk at a time so it never has to be copied as it grows
+    private static final AtomicReferenceArray<AtomicReferenceArray<TagGroup>> byId = new AtomicReferenceArray<AtomicReferenceArray<TagGroup>>(1 << 16);
+
+    private static final class Segment {
+        // Open addressed table, entries are only ever added so readers can probe it without locking
+        volatile TagGroup[] table = new TagGroup[16];
+        int count;
+    }
+
+    private final Segment[] segments;
+
+    TagGroupRegistry() {
+        segments = new Segment[1 << SEGMENT_BITS];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Segment();
+    }
+
+    /**
+     * Create the TagGroup for a set of tags that hasn't been seen before.
+     */
+    protected abstract T create(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, String reservationId, int id);
+
+    /**
+     * @return the interned TagGroup for the tags, registering it if it's new. reservationId is null for plain TagGroups.
+     */
+    T get(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, String reservationId) {
+        int hash = TagGroup.hash(account, region, zone, product, operation, usageType, resourceGroup);
+        if (reservationId != null)
+            hash = 31 * hash + reservationId.hashCode();
+        int spread = spread(hash);
+        Segment segment = segments[spread >>> (32 - SEGMENT_BITS)];
+
+        T tagGroup = find(segment.table, hash, spread, account, region, zone, product, operation, usageType, resourceGroup, reservationId);
+        if (tagGroup != null)
+            return tagGroup;
+
+        synchronized (segment) {
+            TagGroup[] table = segment.table;
+            tagGroup = find(table, hash, spread, account, region, zone, product, operation, usageType, resourceGroup, reservationId);
+            if (tagGroup != null)
+                return tagGroup;
+
+            int id = nextId.getAndIncrement();
+            tagGroup = create(account, region, zone, product, operation, usageType, resourceGroup, reservationId, id);
+            publish(id, tagGroup);
+
+            if ((segment.count + 1) * 2 > table.length)
+                table = resize(table);
+            insert(table, tagGroup, spread);
+            segment.count++;
+            segment.table = table;
+            return tagGroup;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T find(TagGroup[] table, int hash, int spread, Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, String reservationId) {
+        int mask = table.length - 1;
+        for (int i = spread & mask; ; i = (i + 1) & mask) {
+            TagGroup tagGroup = table[i];
+            if (tagGroup == null)
+                return null;
+            if (tagGroup.hashCode() == hash && tagGroup.matches(account, region, zone, product, operation, usageType, resourceGroup, reservationId))
+                return (T) tagGroup;
+        }
+    }
+
+    private static void insert(TagGroup[] table, TagGroup tagGroup, int spread) {
+        int mask = table.length - 1;
+        int i = spread & mask;
+        while (table[i] != null)
+            i = (i + 1) & mask;
+        table[i] = tagGroup;
+    }
+
+    private static TagGroup[] resize(TagGroup[] table) {
+        TagGroup[] result = new TagGroup[table.length * 2];
+        for (TagGroup tagGroup: table) {
+            if (tagGroup != null)
+                insert(result, tagGroup, spread(tagGroup.hashCode()));
+        }
+        return result;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    private static void publish(int id, TagGroup tagGroup) {
+        int index = id >>> CHUNK_BITS;
+        AtomicReferenceArray<TagGroup> chunk = byId.get(index);
+        if (chunk == null) {
+            byId.compareAndSet(index, null, new AtomicReferenceArray<TagGroup>(CHUNK_SIZE));
+            chunk = byId.get(index);
+        }
+        chunk.set(id & (CHUNK_SIZE - 1), tagGroup);
+    }
+
+    static TagGroup get(int id) {
+        if (id < 0 || id >= nextId.get())
+            return null;
+        AtomicReferenceArray<TagGroup> chunk = byId.get(id >>> CHUNK_BITS);
+        return chunk == null ? null : chunk.get(id & (CHUNK_SIZE - 1));
+    }
+
+    static int size() {
+        return nextId.get();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.netflix.ice.basic.BasicS3ApplicationGroupService;
+import com.netflix.ice.common.AwsUtils;
+import com.netflix.ice.common.Poller;
+import com.netflix.ice.reader.ApplicationGroup;
+import com.netflix.ice.reader.ApplicationGroupSeries;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.ResourceGroup;
+
+/**
+ * Keeps the application group series in step with the application group definitions saved by the
+ * reader. The billing file processor archives the series of the months it processes. When the
+ * definitions change, this poller recomputes the series of every month in the background from the
+ * archived hourly data of the products with resources and then records the new definitions in the
+ * archive manifest.
+ */
+public class ApplicationGroupSeriesProcessor extends Poller {
+    private final ProcessorConfig config;
+    private final boolean compress;
+    // held while writing the series so a recomputation never interleaves with the billing file processor
+    private final Object archiveLock = new Object();
+
+    public ApplicationGroupSeriesProcessor(ProcessorConfig config, boolean compress) {
+        this.config = config;
+        this.compress = compress;
+    }
+
+    @Override
+    public void start() {
+        start(300, 600, false);
+    }
+
+    @Override
+    protected void poll() throws Exception {
+        synchronized (archiveLock) {
+            Map<String, ApplicationGroup> appgroups = readApplicationGroups();
+            String digest = ApplicationGroupSeries.digest(appgroups);
+            if (digest.equals(config.archiveManifest.get(ApplicationGroupSeries.MANIFEST_KEY)))
+                return;
+
+            logger.info("application group definitions changed, recomputing series of " + appgroups.size() + " application groups...");
+            Map<Product, Map<ResourceGroup, List<ResourceGroup>>> index = index(appgroups);
+            DateTime end = new DateTime(DateTimeZone.UTC).withDayOfMonth(1).withMillisOfDay(0);
+            for (DateTime month = config.startDate; !month.isAfter(end); month = month.plusMonths(1)) {
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedException("recomputing application group series");
+
+                String monthStr = AwsUtils.monthDateFormat.print(month);
+                CostAndUsageData data = new CostAndUsageData();
+                boolean hasData = false;
+                for (Product product: index.keySet()) {
+                    String partialDbName = "hourly_" + product.getFileName() + "_" + monthStr;
+                    ReadWriteData cost = new DataWriter("cost_" + partialDbName, true, compress, true).getData();
+                    if (cost.getNum() == 0)
+                        continue;
+                    data.putCost(product, cost);
+                    data.putUsage(product, new DataWriter("usage_" + partialDbName, true, compress, true).getData());
+                    hasData = true;
+                }
+                if (!hasData)
+                    continue;
+
+                data.archiveApplicationGroups(month.getMillis(), config.startDate, compress, index);
+                config.archiveManifest.save();
+            }
+
+            // only now are the series of every month computed from these definitions
+            config.archiveManifest.put(ApplicationGroupSeries.MANIFEST_KEY, digest);
+            config.archiveManifest.save();
+            logger.info("recomputed application group series");
+        }
+    }
+
+    /**
+     * Archive the series of the month just processed with the current application group definitions.
+     */
+    public void archive(CostAndUsageData data, long startMilli) throws Exception {
+        synchronized (archiveLock) {
+            data.archiveApplicationGroups(startMilli, config.startDate, compress, index(readApplicationGroups()));
+        }
+    }
+
+    private Map<String, ApplicationGroup> readApplicationGroups() throws Exception {
+        InputStream in;
+        try {
+            in = AwsUtils.getAmazonS3Client().getObject(config.workS3BucketName, config.workS3BucketPrefix + BasicS3ApplicationGroupService.FILE_NAME).getObjectContent();
+        }
+        catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404)
+                throw e;
+            // no application groups have been saved yet
+            return Maps.newHashMap();
+        }
+        try {
+            return BasicS3ApplicationGroupService.parse(IOUtils.toString(in));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Map each product and resource group to the application groups that contain it. Products share
+     * the resource groups of the first product in their list of products with resources, and monitor
+     * products use those of ec2 as the weekly cost email does.
+     */
+    Map<Product, Map<ResourceGroup, List<ResourceGroup>>> index(Map<String, ApplicationGroup> appgroups) {
+        Map<Product, Map<ResourceGroup, List<ResourceGroup>>> result = Maps.newHashMap();
+
+        for (List<Product> products: config.resourceService.getProductsWithResources()) {
+            String productName = products.get(0).name;
+            Map<ResourceGroup, List<ResourceGroup>> byResourceGroup = Maps.newHashMap();
+            for (Map.Entry<String, ApplicationGroup> entry: appgroups.entrySet()) {
+                Map<String, List<String>> data = entry.getValue().data;
+                if (data == null || data.get(productName) == null)
+                    continue;
+                ResourceGroup appgroup = ResourceGroup.getResourceGroup(entry.getKey());
+                for (String name: Sets.newHashSet(data.get(productName))) {
+                    ResourceGroup resourceGroup = ResourceGroup.getResourceGroup(name);
+                    List<ResourceGroup> list = byResourceGroup.get(resourceGroup);
+                    if (list == null) {
+                        list = Lists.newArrayList();
+                        byResourceGroup.put(resourceGroup, list);
+                    }
+                    list.add(appgroup);
+                }
+            }
+            for (Product product: products)
+                result.put(product, byResourceGroup);
+        }
+
+        Map<ResourceGroup, List<ResourceGroup>> ec2 = result.get(config.productService.getProductByName(Product.ec2));
+        if (ec2 != null) {
+            for (Product product: config.productService.getProducts()) {
+                if (product.isMonitor() && !result.containsKey(product))
+                    result.put(product, ec2);
+            }
+        }
+        return result;
+    }
+}
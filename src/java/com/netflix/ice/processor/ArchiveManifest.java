@@ -0,0 +1,186 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.util.BinaryUtils;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.AwsUtils;
+
+/**
+ * Digests of the data most recently archived to each file in the work bucket. Writers take the
+ * digest of the uncompressed data as they write the local file, compare it with the manifest and
+ * skip the upload when nothing has changed. That keeps the file's lastModified time unchanged so
+ * readers don't reload it.
+ *
+ * Entries are only added after a successful upload, and the manifest is saved to the work bucket
+ * once all the files for a month have been archived. Readers watch the manifest rather than
+ * each file and reload only the files whose digests have changed.
+ */
+public class ArchiveManifest {
+    private final static Logger logger = LoggerFactory.getLogger(ArchiveManifest.class);
+    public final static String FILE_NAME = "archive_manifest";
+
+    private final String bucketName;
+    private final String prefix;
+    private final File file;
+    private ConcurrentMap<String, String> digests = null;
+
+    public ArchiveManifest(String bucketName, String prefix, String localDir) {
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+        this.file = new File(localDir, FILE_NAME);
+    }
+
+    private synchronized ConcurrentMap<String, String> getDigests() throws IOException {
+        if (digests == null) {
+            digests = Maps.newConcurrentMap();
+            try {
+                AwsUtils.downloadFileIfChanged(bucketName, prefix, file, 0);
+            }
+            catch (AmazonS3Exception e) {
+                if (e.getStatusCode() != 404)
+                    throw e;
+                // Nothing has been archived with a manifest yet, so every file gets written
+                file.delete();
+            }
+            if (file.exists()) {
+                digests.putAll(load(file));
+                logger.info("loaded " + digests.size() + " digests from " + FILE_NAME);
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Read a downloaded manifest, used by the reader to find out which files have changed.
+     * @return map of file name to digest
+     */
+    public static Map<String, String> load(File file) throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            props.load(in);
+        }
+        finally {
+            in.close();
+        }
+        Map<String, String> result = Maps.newHashMap();
+        for (String name: props.stringPropertyNames())
+            result.put(name, props.getProperty(name));
+        return result;
+    }
+
+    /**
+     * @return true if the file was last archived with data having the same digest.
+     */
+    public boolean isUnchanged(String fileName, String digest) throws IOException {
+        return digest.equals(getDigests().get(fileName));
+    }
+
+    /**
+     * @return the digest the file was last archived with, or null if there is none.
+     */
+    public String get(String fileName) throws IOException {
+        return getDigests().get(fileName);
+    }
+
+    /**
+     * Record the digest of data that has just been uploaded to the file.
+     */
+    public void put(String fileName, String digest) throws IOException {
+        getDigests().put(fileName, digest);
+    }
+
+    /**
+     * Forget the digest of a file that has been written with something other than the usual format.
+     */
+    public void remove(String fileName) throws IOException {
+        getDigests().remove(fileName);
+    }
+
+    /**
+     * Upload the manifest to the work bucket.
+     */
+    public synchronized void save() throws IOException {
+        if (digests == null)
+            return;
+
+        Properties props = new Properties();
+        props.putAll(digests);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            props.store(out, null);
+        }
+        finally {
+            out.close();
+        }
+        AwsUtils.upload(bucketName, prefix, file);
+    }
+
+    /**
+     * Upload a file that has just been written unless it was last archived with the same digest,
+     * and record the digest once the upload is done.
+     * @return false if the upload was skipped
+     */
+    public boolean upload(File file, String digest) throws IOException {
+        if (isUnchanged(file.getName(), digest)) {
+            logger.info(file.getName() + " unchanged, skipping upload");
+            return false;
+        }
+        AwsUtils.upload(bucketName, prefix, file);
+        put(file.getName(), digest);
+        return true;
+    }
+
+    /**
+     * Wrap the stream the uncompressed serialized data is written to, so the digest is taken
+     * while the file is written rather than by serializing the data a second time.
+     */
+    public static DigestOutputStream digestStream(OutputStream out) {
+        try {
+            return new DigestOutputStream(out, MessageDigest.getInstance("MD5"));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return digest of everything written to a stream from digestStream()
+     */
+    public static String digest(DigestOutputStream out) {
+        return BinaryUtils.toHex(out.getMessageDigest().digest());
+    }
+}
@@ -29,6 +29,7 @@ import com.google.common.collect.Maps;
 import com.netflix.ice.common.*;
 import com.netflix.ice.processor.pricelist.InstancePrices;
 import com.netflix.ice.processor.pricelist.InstancePrices.ServiceCode;
+import com.netflix.ice.reader.ApplicationGroupSeries;
 import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Operation.ReservationOperation;
 import com.netflix.ice.tag.Product;
@@ -85,6 +86,38 @@ public class BillingFileProcessor extends Poller {
 
     @Override
     protected void poll() throws Exception {
+        Metrics.Snapshot runStart = ProcessorMetrics.startRun();
+        long start = System.nanoTime();
+        try {
+            processReports();
+        }
+        finally {
+            ProcessorMetrics.stage(ProcessorMetrics.RUN, start);
+            ProcessorMetrics.endRun(runStart, config.localDir, logger);
+        }
+
+        if (config.processOnce) {
+        	// We're done. If we're running on an AWS EC2 instance, stop the instance
+            logger.info("Stopping EC2 Instance " + config.processorInstanceId + " in region " + config.processorRegion);
+            
+            AmazonEC2 ec2 = AmazonEC2ClientBuilder.standard()
+            		.withRegion(config.processorRegion)
+            		.withCredentials(AwsUtils.awsCredentialsProvider)
+            		.withClientConfiguration(AwsUtils.clientConfig)
+            		.build();
+
+            try {
+	            StopInstancesRequest request = new StopInstancesRequest().withInstanceIds(new String[] { config.processorInstanceId });
+	            ec2.stopInstances(request);
+            }
+            catch (Exception e) {
+                logger.error("error in stopInstances", e);
+            }
+            ec2.shutdown();
+        }
+    }
+
+    private void processReports() throws Exception {
         TreeMap<DateTime, List<MonthlyReport>> reportsToProcess = dbrProcessor.getReportsToProcess();
         reportsToProcess.putAll(cauProcessor.getReportsToProcess());
                 
@@ -140,26 +173,52 @@ public class BillingFileProcessor extends Poller {
             // Get the reservation processor from the first report
             ReservationProcessor reservationProcessor = reportsToProcess.get(dataTime).get(0).getProcessor().getReservationProcessor();
             
-        	reservationProcessor.process(config.reservationService, costAndUsageData, null, dataTime);
-        	reservationProcessor.process(config.reservationService, costAndUsageData, config.productService.getProductByName(Product.ec2Instance), dataTime);
-        	reservationProcessor.process(config.reservationService, costAndUsageData, config.productService.getProductByName(Product.rdsInstance), dataTime);
-        	reservationProcessor.process(config.reservationService, costAndUsageData, config.productService.getProductByName(Product.redshift), dataTime);
+            processReservations(reservationProcessor, null, dataTime);
+            processReservations(reservationProcessor, config.productService.getProductByName(Product.ec2Instance), dataTime);
+            processReservations(reservationProcessor, config.productService.getProductByName(Product.rdsInstance), dataTime);
+            processReservations(reservationProcessor, config.productService.getProductByName(Product.redshift), dataTime);
             
             logger.info("adding savings data for " + dataTime + "...");
+            long stageStart = System.nanoTime();
             addSavingsData(dataTime, costAndUsageData.getUsage(null), costAndUsageData.getCost(null));
+            ProcessorMetrics.stage(ProcessorMetrics.SAVINGS, stageStart);
 
             /***** Debugging */
 //            used = costMap.get(redshiftHeavyTagGroup);
 //            logger.info("First hour cost is " + used + " for " + redshiftHeavyTagGroup + " after reservation processing");
 
-            if (hasTags && config.resourceService != null)
+            if (hasTags && config.resourceService != null) {
+                stageStart = System.nanoTime();
                 config.resourceService.commit();
+                ProcessorMetrics.stage(ProcessorMetrics.RESOURCES, stageStart);
+            }
 
             logger.info("archiving results for " + dataTime + "...");
+            stageStart = System.nanoTime();
             costAndUsageData.archive(startMilli, config.startDate, compress);
-            
+            ProcessorMetrics.stage(ProcessorMetrics.ARCHIVE, stageStart);
+            if (config.cubes) {
+                stageStart = System.nanoTime();
+                costAndUsageData.archiveCubes(startMilli, config.startDate, compress);
+                ProcessorMetrics.stage(ProcessorMetrics.CUBES, stageStart);
+            }
+            if (config.appgroupSeriesProcessor != null) {
+                stageStart = System.nanoTime();
+                config.appgroupSeriesProcessor.archive(costAndUsageData, startMilli);
+                ProcessorMetrics.stage(ProcessorMetrics.APPGROUPS, stageStart);
+            }
+            else {
+                // readers must not use series that are no longer kept up to date
+                config.archiveManifest.remove(ApplicationGroupSeries.MANIFEST_KEY);
+            }
+
             logger.info("archiving instance data...");
+            stageStart = System.nanoTime();
             archiveInstances();
+            ProcessorMetrics.stage(ProcessorMetrics.INSTANCES, stageStart);
+
+            // saved last, readers take a new manifest to mean the instance files are also new
+            config.archiveManifest.save();
             
             logger.info("done archiving " + dataTime);
 
@@ -170,27 +229,14 @@ public class BillingFileProcessor extends Poller {
         }
 
         logger.info("AWS usage processed.");
-        if (config.processOnce) {
-        	// We're done. If we're running on an AWS EC2 instance, stop the instance
-            logger.info("Stopping EC2 Instance " + config.processorInstanceId + " in region " + config.processorRegion);
-            
-            AmazonEC2 ec2 = AmazonEC2ClientBuilder.standard()
-            		.withRegion(config.processorRegion)
-            		.withCredentials(AwsUtils.awsCredentialsProvider)
-            		.withClientConfiguration(AwsUtils.clientConfig)
-            		.build();
-
-            try {
-	            StopInstancesRequest request = new StopInstancesRequest().withInstanceIds(new String[] { config.processorInstanceId });
-	            ec2.stopInstances(request);
-            }
-            catch (Exception e) {
-                logger.error("error in stopInstances", e);
-            }
-            ec2.shutdown();
-        }
     }
     
+    private void processReservations(ReservationProcessor reservationProcessor, Product product, DateTime dataTime) throws Exception {
+        long start = System.nanoTime();
+        reservationProcessor.process(config.reservationService, costAndUsageData, product, dataTime);
+        ProcessorMetrics.stage(ProcessorMetrics.RESERVATIONS, product == null ? "all" : product.getFileName(), start);
+    }
+
     private void addSavingsData(DateTime month, ReadWriteData usageData, ReadWriteData costData) throws Exception {
         // Get price list
     	InstancePrices ec2Prices = config.priceListService.getPrices(month, ServiceCode.AmazonEC2);
@@ -221,7 +267,7 @@ public class BillingFileProcessor extends Poller {
     }
 
     private void archiveInstances() throws Exception {
-        instances.archive(startMilli); 	
+        instances.archive(startMilli, config.accountService); 	
     }
 
 
@@ -1,9 +1,17 @@
 package com.netflix.ice.processor;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.zip.GZIPOutputStream;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -15,16 +23,18 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.AwsUtils;
-import com.netflix.ice.common.TagCoverageRatio;
+import com.netflix.ice.common.Cube;
 import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.ApplicationGroupSeries;
 import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.ResourceGroup;
 
 public class CostAndUsageData {
     protected Logger logger = LoggerFactory.getLogger(getClass());
 
     private Map<Product, ReadWriteData> usageDataByProduct;
     private Map<Product, ReadWriteData> costDataByProduct;
-    private Map<String, ReadWriteData> tagCoverage;
+    private Map<String, TagCoverageData> tagCoverage;
 
 	public CostAndUsageData() {
 		usageDataByProduct = Maps.newHashMap();
@@ -71,8 +81,8 @@ public class CostAndUsageData {
 				cost.putAll(entry.getValue());
 			}
 		}
-		for (Entry<String, ReadWriteData> entry: data.tagCoverage.entrySet()) {
-			ReadWriteData coverage = getCoverage(entry.getKey());
+		for (Entry<String, TagCoverageData> entry: data.tagCoverage.entrySet()) {
+			TagCoverageData coverage = getCoverage(entry.getKey());
 			if (coverage == null) {
 				tagCoverage.put(entry.getKey(), entry.getValue());
 			}
@@ -91,7 +101,7 @@ public class CostAndUsageData {
         }
     }
     
-    public ReadWriteData getCoverage(String tag) {
+    public TagCoverageData getCoverage(String tag) {
     	return tagCoverage.get(tag);
     }
     
@@ -99,13 +109,12 @@ public class CostAndUsageData {
      * Add an entry to the tag coverage statistics for the given TagGroup
      */
     public void addTagCoverage(String tag, int index, TagGroup tagGroup, boolean hasTag) {
-    	ReadWriteData coverage = getCoverage(tag);
+    	TagCoverageData coverage = getCoverage(tag);
     	if (coverage == null) {
-    		coverage = new ReadWriteData();
+    		coverage = new TagCoverageData();
     		tagCoverage.put(tag, coverage);
     	}
-    	Map<TagGroup, Double> hourData = coverage.getData(index);
-    	hourData.put(tagGroup, TagCoverageRatio.add(hourData.get(tagGroup), hasTag));
+    	coverage.add(index, tagGroup, hasTag);
     }
 
     public void archive(long startMilli, DateTime startDate, boolean compress) throws Exception {
@@ -113,8 +122,11 @@ public class CostAndUsageData {
         logger.info("archiving tag data...");
 
         for (Product product: costDataByProduct.keySet()) {
-            TagGroupWriter writer = new TagGroupWriter(product == null ? "all" : product.getFileName());
-            writer.archive(startMilli, costDataByProduct.get(product).getTagGroups());
+            String prodName = product == null ? "all" : product.getFileName();
+            Collection<TagGroup> tagGroups = costDataByProduct.get(product).getTagGroups();
+            ProcessorMetrics.tagGroups(prodName, tagGroups.size());
+            TagGroupWriter writer = new TagGroupWriter(prodName);
+            writer.archive(startMilli, tagGroups);
         }
 
         logger.info("archiving summary data...");
@@ -129,24 +141,145 @@ public class CostAndUsageData {
         archiveHourlyTagCoverage(startMilli, compress);
     }
     
+    /**
+     * Archive the pre-aggregated cubes built from the "all" data. Each cube gets the same
+     * hourly, daily, weekly and monthly files as a product does.
+     */
+    public void archiveCubes(long startMilli, DateTime startDate, boolean compress) throws Exception {
+        DateTime monthDateTime = new DateTime(startMilli, DateTimeZone.UTC);
+
+        for (Cube cube: Cube.values()) {
+            logger.info("archiving cube " + cube + "...");
+            ReadWriteData usage = buildCube(cube, usageDataByProduct.get(null));
+            ReadWriteData cost = buildCube(cube, costDataByProduct.get(null));
+
+            archiveSummary(monthDateTime, startDate, cube.getFileName(), usage, "usage_", compress);
+            archiveSummary(monthDateTime, startDate, cube.getFileName(), cost, "cost_", compress);
+            archiveHourly(monthDateTime, cube.getFileName(), usage, "usage_", compress);
+            archiveHourly(monthDateTime, cube.getFileName(), cost, "cost_", compress);
+        }
+    }
+
+    private ReadWriteData buildCube(Cube cube, ReadWriteData data) {
+        ReadWriteData result = new ReadWriteData();
+        Map<TagGroup, TagGroup> mapping = Maps.newHashMap();
+        for (int i = 0; i < data.getNum(); i++) {
+            Map<TagGroup, Double> cubeData = result.getData(i);
+            for (Entry<TagGroup, Double> entry: data.getData(i).entrySet()) {
+                if (entry.getValue() == null)
+                    continue;
+                TagGroup tagGroup = cube.getTagGroup(entry.getKey(), mapping);
+                Double existing = cubeData.get(tagGroup);
+                cubeData.put(tagGroup, existing == null ? entry.getValue() : existing + entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Archive the application group series built from the data of each product. The series get the
+     * same tag group, hourly, daily, weekly and monthly files as a product does.
+     *
+     * @param appgroups map of product to resource group to the application groups containing it,
+     *        each application group given as a ResourceGroup with its name
+     */
+    public void archiveApplicationGroups(long startMilli, DateTime startDate, boolean compress, Map<Product, Map<ResourceGroup, List<ResourceGroup>>> appgroups) throws Exception {
+        DateTime monthDateTime = new DateTime(startMilli, DateTimeZone.UTC);
+
+        logger.info("archiving application group series...");
+        ReadWriteData usage = buildApplicationGroupSeries(usageDataByProduct, appgroups);
+        ReadWriteData cost = buildApplicationGroupSeries(costDataByProduct, appgroups);
+
+        TagGroupWriter writer = new TagGroupWriter(ApplicationGroupSeries.FILE_NAME);
+        writer.archive(startMilli, cost.getTagGroups());
+
+        archiveSummary(monthDateTime, startDate, ApplicationGroupSeries.FILE_NAME, usage, "usage_", compress);
+        archiveSummary(monthDateTime, startDate, ApplicationGroupSeries.FILE_NAME, cost, "cost_", compress);
+        archiveHourly(monthDateTime, ApplicationGroupSeries.FILE_NAME, usage, "usage_", compress);
+        archiveHourly(monthDateTime, ApplicationGroupSeries.FILE_NAME, cost, "cost_", compress);
+    }
+
+    /**
+     * Sum the data of each product's resource groups into the series of the application groups that
+     * contain them. Only the per-product data has resource groups, the "all" data is left out.
+     */
+    static ReadWriteData buildApplicationGroupSeries(Map<Product, ReadWriteData> dataByProduct, Map<Product, Map<ResourceGroup, List<ResourceGroup>>> appgroups) {
+        ReadWriteData result = new ReadWriteData();
+        Map<TagGroup, List<TagGroup>> mapping = Maps.newHashMap();
+        List<TagGroup> none = Lists.newArrayList();
+        for (Product product: dataByProduct.keySet()) {
+            if (product != null && appgroups.containsKey(product))
+                addApplicationGroupSeries(dataByProduct.get(product), appgroups, mapping, none, result);
+        }
+        return result;
+    }
+
+    private static void addApplicationGroupSeries(ReadWriteData data, Map<Product, Map<ResourceGroup, List<ResourceGroup>>> appgroups,
+            Map<TagGroup, List<TagGroup>> mapping, List<TagGroup> none, ReadWriteData result) {
+        for (int i = 0; i < data.getNum(); i++) {
+            Map<TagGroup, Double> seriesData = result.getData(i);
+            for (Entry<TagGroup, Double> entry: data.getData(i).entrySet()) {
+                if (entry.getValue() == null)
+                    continue;
+                TagGroup tagGroup = entry.getKey();
+                List<TagGroup> seriesTagGroups = mapping.get(tagGroup);
+                if (seriesTagGroups == null) {
+                    seriesTagGroups = none;
+                    Map<ResourceGroup, List<ResourceGroup>> byResourceGroup = appgroups.get(tagGroup.product);
+                    List<ResourceGroup> appgroupsOfTagGroup = byResourceGroup == null || tagGroup.resourceGroup == null ? null : byResourceGroup.get(tagGroup.resourceGroup);
+                    if (appgroupsOfTagGroup != null) {
+                        seriesTagGroups = Lists.newArrayList();
+                        for (ResourceGroup appgroup: appgroupsOfTagGroup)
+                            seriesTagGroups.add(TagGroup.getTagGroup(tagGroup.account, tagGroup.region, null, tagGroup.product, tagGroup.operation, Cube.getRollupUsageType(), appgroup));
+                    }
+                    mapping.put(tagGroup, seriesTagGroups);
+                }
+                for (TagGroup seriesTagGroup: seriesTagGroups) {
+                    Double existing = seriesData.get(seriesTagGroup);
+                    seriesData.put(seriesTagGroup, existing == null ? entry.getValue() : existing + entry.getValue());
+                }
+            }
+        }
+    }
+
     private void archiveHourly(long startMilli, Map<Product, ReadWriteData> dataMap, String prefix, boolean compress) throws Exception {
         DateTime monthDateTime = new DateTime(startMilli, DateTimeZone.UTC);
         for (Product product: dataMap.keySet()) {
             String prodName = product == null ? "all" : product.getFileName();
-            DataWriter writer = new DataWriter(prefix + "hourly_" + prodName + "_" + AwsUtils.monthDateFormat.print(monthDateTime), false, compress);
-            writer.archive(dataMap.get(product));
+            archiveHourly(monthDateTime, prodName, dataMap.get(product), prefix, compress);
         }
     }
 
+    private void archiveHourly(DateTime monthDateTime, String prodName, ReadWriteData data, String prefix, boolean compress) throws Exception {
+        DataWriter writer = new DataWriter(prefix + "hourly_" + prodName + "_" + AwsUtils.monthDateFormat.print(monthDateTime), false, compress, true);
+        writer.archive(data);
+    }
+
     private void archiveHourlyTagCoverage(long startMilli, boolean compress) throws Exception {
     	logger.info("archiving tag coverage data... " + tagCoverage.size());
         DateTime monthDateTime = new DateTime(startMilli, DateTimeZone.UTC);
         for (String tag: tagCoverage.keySet()) {
-            DataWriter writer = new DataWriter("coverage_hourly_" + tag + "_" + AwsUtils.monthDateFormat.print(monthDateTime), false, compress);
-            writer.archive(tagCoverage.get(tag));
+            archiveTagCoverage("coverage_hourly_" + tag + "_" + AwsUtils.monthDateFormat.print(monthDateTime), tagCoverage.get(tag), compress);
         }
     }
 
+    private void archiveTagCoverage(String name, TagCoverageData data, boolean compress) throws IOException {
+        ProcessorConfig config = ProcessorConfig.getInstance();
+        File file = new File(config.localDir, name + (compress ? ".gz" : ""));
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        if (compress)
+            os = new GZIPOutputStream(os);
+        DigestOutputStream digestOut = ArchiveManifest.digestStream(os);
+        DataOutputStream out = new DataOutputStream(digestOut);
+        try {
+            TagCoverageData.Serializer.serialize(out, data);
+        }
+        finally {
+            out.close();
+        }
+        config.archiveManifest.upload(file, ArchiveManifest.digest(digestOut));
+    }
+
     private void addValue(List<Map<TagGroup, Double>> list, int index, TagGroup tagGroup, double v) {
         Map<TagGroup, Double> map = ReadWriteData.getCreateData(list, index);
         Double existedV = map.get(tagGroup);
@@ -159,74 +292,76 @@ public class CostAndUsageData {
         DateTime monthDateTime = new DateTime(startMilli, DateTimeZone.UTC);
 
         for (Product product: dataMap.keySet()) {
-
             String prodName = product == null ? "all" : product.getFileName();
-            ReadWriteData data = dataMap.get(product);
-            Collection<TagGroup> tagGroups = data.getTagGroups();
-
-            // init daily, weekly and monthly
-            List<Map<TagGroup, Double>> daily = Lists.newArrayList();
-            List<Map<TagGroup, Double>> weekly = Lists.newArrayList();
-            List<Map<TagGroup, Double>> monthly = Lists.newArrayList();
-
-            // get last month data
-            ReadWriteData lastMonthData = new DataWriter(prefix + "hourly_" + prodName + "_" + AwsUtils.monthDateFormat.print(monthDateTime.minusMonths(1)), true, compress).getData();
-
-            // aggregate to daily, weekly and monthly
-            int dayOfWeek = monthDateTime.getDayOfWeek();
-            int daysFromLastMonth = dayOfWeek - 1;
-            int lastMonthNumHours = monthDateTime.minusMonths(1).dayOfMonth().getMaximumValue() * 24;
-            for (int hour = 0 - daysFromLastMonth * 24; hour < data.getNum(); hour++) {
-                if (hour < 0) {
-                    // handle data from last month, add to weekly
-                    Map<TagGroup, Double> prevData = lastMonthData.getData(lastMonthNumHours + hour);
-                    for (TagGroup tagGroup: tagGroups) {
-                        Double v = prevData.get(tagGroup);
-                        if (v != null && v != 0) {
-                            addValue(weekly, 0, tagGroup, v);
-                        }
+            archiveSummary(monthDateTime, startDate, prodName, dataMap.get(product), prefix, compress);
+        }
+    }
+
+    private void archiveSummary(DateTime monthDateTime, DateTime startDate, String prodName, ReadWriteData data, String prefix, boolean compress) throws Exception {
+        Collection<TagGroup> tagGroups = data.getTagGroups();
+
+        // init daily, weekly and monthly
+        List<Map<TagGroup, Double>> daily = Lists.newArrayList();
+        List<Map<TagGroup, Double>> weekly = Lists.newArrayList();
+        List<Map<TagGroup, Double>> monthly = Lists.newArrayList();
+
+        // get last month data
+        ReadWriteData lastMonthData = new DataWriter(prefix + "hourly_" + prodName + "_" + AwsUtils.monthDateFormat.print(monthDateTime.minusMonths(1)), true, compress, true).getData();
+
+        // aggregate to daily, weekly and monthly
+        int dayOfWeek = monthDateTime.getDayOfWeek();
+        int daysFromLastMonth = dayOfWeek - 1;
+        int lastMonthNumHours = monthDateTime.minusMonths(1).dayOfMonth().getMaximumValue() * 24;
+        for (int hour = 0 - daysFromLastMonth * 24; hour < data.getNum(); hour++) {
+            if (hour < 0) {
+                // handle data from last month, add to weekly
+                Map<TagGroup, Double> prevData = lastMonthData.getData(lastMonthNumHours + hour);
+                for (TagGroup tagGroup: tagGroups) {
+                    Double v = prevData.get(tagGroup);
+                    if (v != null && v != 0) {
+                        addValue(weekly, 0, tagGroup, v);
                     }
                 }
-                else {
-                    // this month, add to weekly, monthly and daily
-                    Map<TagGroup, Double> map = data.getData(hour);
-
-                    for (TagGroup tagGroup: tagGroups) {
-                        Double v = map.get(tagGroup);
-                        if (v != null && v != 0) {
-                            addValue(monthly, 0, tagGroup, v);
-                            addValue(daily, hour/24, tagGroup, v);
-                            addValue(weekly, (hour + daysFromLastMonth*24) / 24/7, tagGroup, v);
-                        }
+            }
+            else {
+                // this month, add to weekly, monthly and daily
+                Map<TagGroup, Double> map = data.getData(hour);
+
+                for (TagGroup tagGroup: tagGroups) {
+                    Double v = map.get(tagGroup);
+                    if (v != null && v != 0) {
+                        addValue(monthly, 0, tagGroup, v);
+                        addValue(daily, hour/24, tagGroup, v);
+                        addValue(weekly, (hour + daysFromLastMonth*24) / 24/7, tagGroup, v);
                     }
                 }
             }
-            
-            // archive daily
-            int year = monthDateTime.getYear();
-            DataWriter writer = new DataWriter(prefix + "daily_" + prodName + "_" + year, true, compress);
-            ReadWriteData dailyData = writer.getData();
-            dailyData.setData(daily, monthDateTime.getDayOfYear() -1, false);
-            writer.archive();
-
-            // archive monthly
-            writer = new DataWriter(prefix + "monthly_" + prodName, true, compress);
-            ReadWriteData monthlyData = writer.getData();
-            int numMonths = Months.monthsBetween(startDate, monthDateTime).getMonths();            
-            monthlyData.setData(monthly, numMonths, false);            
-            writer.archive();
-
-            // archive weekly
-            writer = new DataWriter(prefix + "weekly_" + prodName, true, compress);
-            ReadWriteData weeklyData = writer.getData();
-            DateTime weekStart = monthDateTime.withDayOfWeek(1);
-            int index;
-            if (!weekStart.isAfter(startDate))
-                index = 0;
-            else
-                index = Weeks.weeksBetween(startDate, weekStart).getWeeks() + (startDate.dayOfWeek() == weekStart.dayOfWeek() ? 0 : 1);
-            weeklyData.setData(weekly, index, true);
-            writer.archive();
         }
+        
+        // archive daily
+        int year = monthDateTime.getYear();
+        DataWriter writer = new DataWriter(prefix + "daily_" + prodName + "_" + year, true, compress);
+        ReadWriteData dailyData = writer.getData();
+        dailyData.setData(daily, monthDateTime.getDayOfYear() -1, false);
+        writer.archive();
+
+        // archive monthly
+        writer = new DataWriter(prefix + "monthly_" + prodName, true, compress);
+        ReadWriteData monthlyData = writer.getData();
+        int numMonths = Months.monthsBetween(startDate, monthDateTime).getMonths();            
+        monthlyData.setData(monthly, numMonths, false);            
+        writer.archive();
+
+        // archive weekly
+        writer = new DataWriter(prefix + "weekly_" + prodName, true, compress);
+        ReadWriteData weeklyData = writer.getData();
+        DateTime weekStart = monthDateTime.withDayOfWeek(1);
+        int index;
+        if (!weekStart.isAfter(startDate))
+            index = 0;
+        else
+            index = Weeks.weeksBetween(startDate, weekStart).getWeeks() + (startDate.dayOfWeek() == weekStart.dayOfWeek() ? 0 : 1);
+        weeklyData.setData(weekly, index, true);
+        writer.archive();
     }
 }
@@ -33,6 +33,7 @@ import com.google.common.collect.Maps;
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.common.LineItem;
 import com.netflix.ice.common.LineItem.BillType;
+import com.netflix.ice.common.Metrics;
 import com.netflix.ice.processor.pricelist.InstancePrices;
 import com.netflix.ice.processor.pricelist.InstancePrices.ServiceCode;
 
@@ -109,8 +110,10 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
             
             logger.info("trying to list objects in cost and usage report bucket " + billingS3BucketName + " using assume role, and external id "
                     + billingAccessRoleName + " " + billingAccessExternalId);
+            long listStart = System.nanoTime();
             List<S3ObjectSummary> objectSummaries = AwsUtils.listAllObjects(billingS3BucketName, billingS3BucketPrefix,
                     accountId, billingAccessRoleName, billingAccessExternalId);
+            ProcessorMetrics.stage(ProcessorMetrics.LIST, listStart);
             logger.info("found " + objectSummaries.size() + " in cost and usage report bucket " + billingS3BucketName);
 
             Pattern costAndUsageReportPattern = getPattern(reportName);
@@ -171,8 +174,10 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 				String filename = fileKey.substring(prefix.length());
 		        File file = new File(localDir, filename);
 		        logger.info("trying to download " + report.getS3ObjectSummary().getBucketName() + "/" + prefix + file.getName() + "...");
+		        long downloadStart = System.nanoTime();
 		        boolean downloaded = AwsUtils.downloadFileIfChangedSince(report.getS3ObjectSummary().getBucketName(), report.getRegion(), prefix, file, lastProcessed,
 		                report.getAccountId(), report.getAccessRoleName(), report.getExternalId());
+		        ProcessorMetrics.stage(ProcessorMetrics.DOWNLOAD, downloadStart);
 		        if (downloaded)
 		            logger.info("downloaded " + fileKey);
 		        else
@@ -240,13 +245,17 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 		}
 		
 		// Process the delayed items		
+		long delayedStart = System.nanoTime();
+		long[] resultCounts = ProcessorMetrics.newResultCounts();
 		for (Future<FileData> ffd: fileData) {
 			FileData fd = ffd.get();
 	        for (String[] items: fd.delayedItems) {
 	        	lineItem.setItems(items);
-	            endMilli = processOneLine(null, lineItem, costAndUsageData, endMilli, ec2Prices);
+	            endMilli = processOneLine(null, lineItem, costAndUsageData, endMilli, ec2Prices, resultCounts);
 	        }
 		}
+		ProcessorMetrics.lineItems(resultCounts);
+		ProcessorMetrics.stage(ProcessorMetrics.DELAYED, delayedStart);
         return endMilli;
 	}
 
@@ -279,14 +288,17 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
             logger.info("done processing " + file.getName() + ", end is " + LineItem.amazonBillingDateFormat.print(new DateTime(endMilli)));
 		}
 
+        long[] resultCounts = ProcessorMetrics.newResultCounts();
         for (String[] items: delayedItems) {
         	lineItem.setItems(items);
-            endMilli = processOneLine(null, lineItem, costAndUsageData, endMilli, ec2Prices);
+            endMilli = processOneLine(null, lineItem, costAndUsageData, endMilli, ec2Prices, resultCounts);
         }
+        ProcessorMetrics.lineItems(resultCounts);
         return endMilli;
 	}
 	
 	private long processReportZip(File file, CostAndUsageReportLineItem lineItem, List<String[]> delayedItems, CostAndUsageData costAndUsageData, InstancePrices ec2Prices) throws IOException {
+        Metrics.getInstance().add(ProcessorMetrics.REPORT_BYTES, file.length());
         InputStream input = new FileInputStream(file);
         ZipArchiveInputStream zipInput = new ZipArchiveInputStream(input);
         long endMilli = startMilli;
@@ -327,6 +339,7 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
         long endMilli = startMilli;
         
         try {
+            Metrics.getInstance().add(ProcessorMetrics.REPORT_BYTES, file.length());
             InputStream input = new FileInputStream(file);
             gzipInput = new GZIPInputStream(input);
         	endMilli = processReportFile(file.getName(), gzipInput, lineItem, delayedItems, costAndUsageData, ec2Prices);
@@ -351,10 +364,14 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
 
 	private long processReportFile(String fileName, InputStream in, CostAndUsageReportLineItem lineItem, List<String[]> delayedItems, CostAndUsageData costAndUsageData, InstancePrices ec2Prices) {
 
-        CsvReader reader = new CsvReader(new InputStreamReader(in), ',');
+        // time spent reading the stream is decompression, the rest is parsing and processing the lines
+        long start = System.nanoTime();
+        ProcessorMetrics.TimedInputStream timedIn = new ProcessorMetrics.TimedInputStream(in);
+        CsvReader reader = new CsvReader(new InputStreamReader(timedIn), ',');
 
         long endMilli = startMilli;
         long lineNumber = 0;
+        long[] resultCounts = ProcessorMetrics.newResultCounts();
         try {
             reader.readRecord();
             
@@ -365,7 +382,7 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
                 String[] items = reader.getValues();
                 try {
                 	lineItem.setItems(items);
-                    endMilli = processOneLine(delayedItems, lineItem, costAndUsageData, endMilli, ec2Prices);
+                    endMilli = processOneLine(delayedItems, lineItem, costAndUsageData, endMilli, ec2Prices, resultCounts);
                 }
                 catch (Exception e) {
                     logger.error(StringUtils.join(items, ","), e);
@@ -391,16 +408,22 @@ public class CostAndUsageReportProcessor implements MonthlyReportProcessor {
                 logger.error("Cannot close BufferedReader...", e);
             }
         }
+        Metrics metrics = Metrics.getInstance();
+        metrics.timer(ProcessorMetrics.stageName(ProcessorMetrics.DECOMPRESS)).record(timedIn.getNanos());
+        metrics.timer(ProcessorMetrics.stageName(ProcessorMetrics.PARSE)).record(System.nanoTime() - start - timedIn.getNanos());
+        metrics.add(ProcessorMetrics.LINES, lineNumber);
+        ProcessorMetrics.lineItems(resultCounts);
         return endMilli;
 	}
 
-    private long processOneLine(List<String[]> delayedItems, CostAndUsageReportLineItem lineItem, CostAndUsageData costAndUsageData, long endMilli, InstancePrices ec2Prices) {
+    private long processOneLine(List<String[]> delayedItems, CostAndUsageReportLineItem lineItem, CostAndUsageData costAndUsageData, long endMilli, InstancePrices ec2Prices, long[] resultCounts) {
     	if (lineItem.getBillType() == BillType.Purchase) {
         	// Skip purchases
     		return endMilli;
     	}
     	
         LineItemProcessor.Result result = config.lineItemProcessor.process(startMilli, delayedItems == null, true, lineItem, costAndUsageData, ec2Prices, ondemandRate, instances);
+        resultCounts[result.ordinal()]++;
 
         if (result == LineItemProcessor.Result.delay) {
             delayedItems.add(lineItem.getItems());
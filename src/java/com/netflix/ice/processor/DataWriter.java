@@ -23,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.security.DigestOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -35,44 +36,62 @@ public class DataWriter {
     private String dbName;
     private File file;
     private boolean compress;
+    // written in the block indexed format rather than the regular one
+    private boolean blocks;
     private ReadWriteData data;
 
     DataWriter(String name, boolean loadData) throws Exception {
-    	this.compress = false;
-        dbName = name;
-    	init(loadData);
+    	this(name, loadData, false);
     }
     
     DataWriter(String name, boolean loadData, boolean compress) throws Exception {
+    	this(name, loadData, compress, false);
+    }
+    
+    /**
+     * @param hourly the file holds a month of hourly data. When hourly blocks are enabled it's
+     *        only written in the block indexed format, with one block per day.
+     */
+    DataWriter(String name, boolean loadData, boolean compress, boolean hourly) throws Exception {
     	this.compress = compress;
+    	this.blocks = hourly && config.hourlyBlocks;
         dbName = name;
     	init(loadData);
     }
     
     private void init(boolean loadData) throws Exception {
-        String filename = dbName + (compress ? compressExtension : "");
-        file = new File(config.localDir, filename);
+        File regularFile = new File(config.localDir, dbName + (compress ? compressExtension : ""));
+        file = blocks ? new File(config.localDir, dbName + ReadWriteData.Serializer.BLOCK_EXTENSION) : regularFile;
         if (loadData) {
             AwsUtils.downloadFileIfNotExist(config.workS3BucketName, config.workS3BucketPrefix, file);
+            // months archived before hourly blocks were enabled only have the regular file
+            if (blocks && !file.exists())
+                AwsUtils.downloadFileIfNotExist(config.workS3BucketName, config.workS3BucketPrefix, regularFile);
         }
 
-        if (file.exists()) {
-        	InputStream is = new FileInputStream(file);
-        	if (compress)
-        		is = new GZIPInputStream(is);
-            DataInputStream in = new DataInputStream(is);
-            try {
-                data = ReadWriteData.Serializer.deserialize(config.accountService, config.productService, in);
-            }
-            catch (Exception e) {
-                throw new RuntimeException("DataWriter: failed to load " + filename + ", " + e + ", " + e.getMessage());
-            }
-            finally {
-                in.close();
-            }
-        }
-        else {
+        if (file.exists())
+            data = load(file, blocks);
+        else if (regularFile.exists())
+            data = load(regularFile, false);
+        else
             data = new ReadWriteData();
+    }
+
+    private ReadWriteData load(File file, boolean blocks) throws IOException {
+    	InputStream is = new FileInputStream(file);
+    	if (compress && !blocks)
+    		is = new GZIPInputStream(is);
+        DataInputStream in = new DataInputStream(is);
+        try {
+            if (blocks)
+                return ReadWriteData.Serializer.deserializeBlocks(config.accountService, config.productService, in);
+            return ReadWriteData.Serializer.deserialize(config.accountService, config.productService, in);
+        }
+        catch (Exception e) {
+            throw new RuntimeException("DataWriter: failed to load " + file.getName() + ", " + e + ", " + e.getMessage());
+        }
+        finally {
+            in.close();
         }
     }
 
@@ -93,35 +112,48 @@ public class DataWriter {
     }
        
     void archive(ReadWriteData data, boolean csv) throws IOException {
-    	OutputStream os = new FileOutputStream(file);
-    	if (compress)
+        long start = System.nanoTime();
+        if (csv)
+            config.archiveManifest.remove(file.getName());
+        String digest = write(data, csv);
+        if (csv)
+            AwsUtils.upload(config.workS3BucketName, config.workS3BucketPrefix, file);
+        else
+            config.archiveManifest.upload(file, digest);
+        ProcessorMetrics.archiveFile(dbName, file.length(), start);
+    }
+
+    /**
+     * Write the data to the local file.
+     * @return digest of the serialized data, taken as it is written
+     */
+    private String write(ReadWriteData data, boolean csv) throws IOException {
+        logger.info(this.dbName + " writing...");
+    	OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+    	// blocks are compressed one by one
+    	if (compress && !blocks)
     		os = new GZIPOutputStream(os);
-    	DataOutputStream out = null;
-    	OutputStreamWriter writer = null;
-    	if (csv)
-    		writer = new OutputStreamWriter(os);
-    	else
-    		out = new DataOutputStream(os);
+    	DigestOutputStream digestOut = ArchiveManifest.digestStream(os);
         try {
         	if (csv) {
+        		OutputStreamWriter writer = new OutputStreamWriter(digestOut);
         		ReadWriteData.Serializer.serializeCsv(writer, data);
         		writer.flush();
         	}
+        	else if (blocks) {
+        		DataOutputStream out = new DataOutputStream(digestOut);
+        		ReadWriteData.Serializer.serializeBlocks(out, data, 24, compress);
+        		out.flush();
+        	}
         	else {
+        		DataOutputStream out = new DataOutputStream(digestOut);
         		ReadWriteData.Serializer.serialize(out, data);
         		out.flush();
         	}
         }
         finally {
-        	if (out != null)
-        		out.close();
-        	if (writer != null)
-        		writer.close();
+        	digestOut.close();
         }
-
-        logger.info(this.dbName + " uploading to s3...");
-        AwsUtils.upload(config.workS3BucketName, config.workS3BucketPrefix, config.localDir, dbName);
-        logger.info(this.dbName + " uploading done.");
+        return ArchiveManifest.digest(digestOut);
     }
 }
-
@@ -39,6 +39,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.common.LineItem;
+import com.netflix.ice.common.Metrics;
 import com.netflix.ice.processor.pricelist.InstancePrices;
 import com.netflix.ice.processor.pricelist.InstancePrices.ServiceCode;
 
@@ -75,8 +76,10 @@ public class DetailedBillingReportProcessor implements MonthlyReportProcessor {
 
             logger.info("trying to list objects in billing bucket " + billingS3BucketName + " using assume role, and external id "
                     + billingAccessRoleName + " " + billingAccessExternalId);
+            long listStart = System.nanoTime();
             List<S3ObjectSummary> objectSummaries = AwsUtils.listAllObjects(billingS3BucketName, billingS3BucketPrefix,
                     accountId, billingAccessRoleName, billingAccessExternalId);
+            ProcessorMetrics.stage(ProcessorMetrics.LIST, listStart);
             logger.info("found " + objectSummaries.size() + " in billing bucket " + billingS3BucketName);
             TreeMap<DateTime, S3ObjectSummary> filesToProcessInOneBucket = Maps.newTreeMap();
 
@@ -145,6 +148,7 @@ public class DetailedBillingReportProcessor implements MonthlyReportProcessor {
     		CostAndUsageData costAndUsageData,
     		Instances instances) throws Exception {
 
+        Metrics.getInstance().add(ProcessorMetrics.REPORT_BYTES, file.length());
         InputStream input = new FileInputStream(file);
         ZipArchiveInputStream zipInput = new ZipArchiveInputStream(input);
 
@@ -180,10 +184,15 @@ public class DetailedBillingReportProcessor implements MonthlyReportProcessor {
     
     private void processBillingFile(DateTime dataTime, String fileName, InputStream tempIn, boolean withTags, CostAndUsageData costAndUsageData, Instances instances) throws Exception {
 
-        CsvReader reader = new CsvReader(new InputStreamReader(tempIn), ',');
         InstancePrices ec2Prices = config.priceListService.getPrices(dataTime, ServiceCode.AmazonEC2);
 
+        // time spent reading the stream is decompression, the rest is parsing and processing the lines
+        long start = System.nanoTime();
+        ProcessorMetrics.TimedInputStream timedIn = new ProcessorMetrics.TimedInputStream(tempIn);
+        CsvReader reader = new CsvReader(new InputStreamReader(timedIn), ',');
+
         long lineNumber = 0;
+        long[] resultCounts = ProcessorMetrics.newResultCounts();
         List<String[]> delayedItems = Lists.newArrayList();
         LineItem lineItem = null;
         try {
@@ -198,7 +207,7 @@ public class DetailedBillingReportProcessor implements MonthlyReportProcessor {
                 String[] items = reader.getValues();
                 try {
                 	lineItem.setItems(items);
-                    processOneLine(delayedItems, lineItem, costAndUsageData, instances, ec2Prices);
+                    processOneLine(delayedItems, lineItem, costAndUsageData, instances, ec2Prices, resultCounts);
                 }
                 catch (Exception e) {
                     logger.error(StringUtils.join(items, ","), e);
@@ -224,16 +233,24 @@ public class DetailedBillingReportProcessor implements MonthlyReportProcessor {
                 logger.error("Cannot close BufferedReader...", e);
             }
         }
+        Metrics metrics = Metrics.getInstance();
+        metrics.timer(ProcessorMetrics.stageName(ProcessorMetrics.DECOMPRESS)).record(timedIn.getNanos());
+        metrics.timer(ProcessorMetrics.stageName(ProcessorMetrics.PARSE)).record(System.nanoTime() - start - timedIn.getNanos());
+        metrics.add(ProcessorMetrics.LINES, lineNumber);
 
+        long delayedStart = System.nanoTime();
         for (String[] items: delayedItems) {
         	lineItem.setItems(items);
-            processOneLine(null, lineItem, costAndUsageData, instances, ec2Prices);
+            processOneLine(null, lineItem, costAndUsageData, instances, ec2Prices, resultCounts);
         }
+        ProcessorMetrics.stage(ProcessorMetrics.DELAYED, delayedStart);
+        ProcessorMetrics.lineItems(resultCounts);
     }
 
-    private void processOneLine(List<String[]> delayedItems, LineItem lineItem, CostAndUsageData costAndUsageData, Instances instances, InstancePrices ec2Prices) {
+    private void processOneLine(List<String[]> delayedItems, LineItem lineItem, CostAndUsageData costAndUsageData, Instances instances, InstancePrices ec2Prices, long[] resultCounts) {
 
         LineItemProcessor.Result result = config.lineItemProcessor.process(startMilli, delayedItems == null, false, lineItem, costAndUsageData, ec2Prices, ondemandRate, instances);
+        resultCounts[result.ordinal()]++;
 
         if (result == LineItemProcessor.Result.delay) {
             delayedItems.add(lineItem.getItems());
@@ -247,8 +264,10 @@ public class DetailedBillingReportProcessor implements MonthlyReportProcessor {
         String fileKey = report.getS3ObjectSummary().getKey();
         File file = new File(localDir, fileKey.substring(report.getPrefix().length()));
         logger.info("trying to download " + fileKey + "...");
+        long downloadStart = System.nanoTime();
         boolean downloaded = AwsUtils.downloadFileIfChangedSince(report.getS3ObjectSummary().getBucketName(), report.getRegion(), report.getPrefix(), file, lastProcessed,
                 report.getAccountId(), report.getAccessRoleName(), report.getExternalId());
+        ProcessorMetrics.stage(ProcessorMetrics.DOWNLOAD, downloadStart);
         if (downloaded)
             logger.info("downloaded " + fileKey);
         else {
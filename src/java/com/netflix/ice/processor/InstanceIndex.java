@@ -0,0 +1,179 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.Instance;
+import com.netflix.ice.common.VarInt;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.Zone;
+
+/**
+ * Read-only set of instances held in flat arrays sorted by instance id and looked up with a
+ * binary search. Instance types, account ids, regions, zones and tag keys and values all go
+ * through one string dictionary, so each instance costs its id plus a few ints.
+ * Instance objects are only built when they are asked for.
+ */
+public class InstanceIndex {
+    public static final InstanceIndex EMPTY = new InstanceIndex(null, new String[0], new String[0], new int[0], new int[1], new int[0]);
+
+    private final AccountService accountService;
+    private final String[] strings;
+    private final String[] ids;
+    // type, account, region, zone (-1 for none) dictionary indices for each instance
+    private final int[] columns;
+    // tags of instance i are the key/value pairs from tagStart[i] to tagStart[i+1] in tags
+    private final int[] tagStart;
+    private final int[] tags;
+
+    private static final int NUM_COLUMNS = 4;
+
+    private InstanceIndex(AccountService accountService, String[] strings, String[] ids, int[] columns, int[] tagStart, int[] tags) {
+        this.accountService = accountService;
+        this.strings = strings;
+        this.ids = ids;
+        this.columns = columns;
+        this.tagStart = tagStart;
+        this.tags = tags;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public Instance get(String id) {
+        int i = Arrays.binarySearch(ids, id);
+        return i < 0 ? null : get(i);
+    }
+
+    private Instance get(int i) {
+        int c = i * NUM_COLUMNS;
+        Region region = Region.getRegionByName(strings[columns[c + 2]]);
+        Zone zone = columns[c + 3] < 0 ? null : Zone.getZone(strings[columns[c + 3]], region);
+        Map<String, String> tagMap = Maps.newHashMap();
+        for (int t = tagStart[i]; t < tagStart[i + 1]; t += 2)
+            tagMap.put(strings[tags[t]], strings[tags[t + 1]]);
+        return new Instance(ids[i], strings[columns[c]], accountService.getAccountById(strings[columns[c + 1]]), region, zone, tagMap);
+    }
+
+    /**
+     * All the instances, built on demand.
+     */
+    public List<Instance> getInstances() {
+        List<Instance> result = Lists.newArrayListWithCapacity(ids.length);
+        for (int i = 0; i < ids.length; i++)
+            result.add(get(i));
+        return result;
+    }
+
+    public static class Serializer {
+        private static final int FORMAT = 1;
+
+        public static void serialize(DataOutput out, Collection<Instance> instances) throws IOException {
+            List<Instance> sorted = Lists.newArrayList(instances);
+            Collections.sort(sorted, new Comparator<Instance>() {
+                public int compare(Instance a, Instance b) {
+                    return a.id.compareTo(b.id);
+                }
+            });
+
+            // Build the dictionary first so it can be written ahead of the instances
+            Map<String, Integer> dictionary = Maps.newLinkedHashMap();
+            for (Instance instance: sorted) {
+                index(dictionary, instance.type);
+                index(dictionary, instance.account.id);
+                index(dictionary, instance.region.name);
+                if (instance.zone != null)
+                    index(dictionary, instance.zone.name);
+                for (Map.Entry<String, String> tag: instance.tags.entrySet()) {
+                    index(dictionary, tag.getKey());
+                    index(dictionary, tag.getValue());
+                }
+            }
+
+            out.writeInt(FORMAT);
+            VarInt.write(out, dictionary.size());
+            for (String s: dictionary.keySet())
+                out.writeUTF(s);
+
+            VarInt.write(out, sorted.size());
+            for (Instance instance: sorted) {
+                out.writeUTF(instance.id);
+                VarInt.write(out, dictionary.get(instance.type));
+                VarInt.write(out, dictionary.get(instance.account.id));
+                VarInt.write(out, dictionary.get(instance.region.name));
+                VarInt.write(out, instance.zone == null ? 0 : dictionary.get(instance.zone.name) + 1);
+                VarInt.write(out, instance.tags.size());
+                for (Map.Entry<String, String> tag: instance.tags.entrySet()) {
+                    VarInt.write(out, dictionary.get(tag.getKey()));
+                    VarInt.write(out, dictionary.get(tag.getValue()));
+                }
+            }
+        }
+
+        public static InstanceIndex deserialize(AccountService accountService, DataInput in) throws IOException {
+            int format = in.readInt();
+            if (format != FORMAT)
+                throw new IOException("unknown instance index format " + format);
+
+            String[] strings = new String[VarInt.read(in)];
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = in.readUTF();
+
+            int num = VarInt.read(in);
+            String[] ids = new String[num];
+            int[] columns = new int[num * NUM_COLUMNS];
+            int[] tagStart = new int[num + 1];
+            int[] tags = new int[Math.max(16, num * 4)];
+            int numTagInts = 0;
+            for (int i = 0; i < num; i++) {
+                ids[i] = in.readUTF();
+                int c = i * NUM_COLUMNS;
+                columns[c] = VarInt.read(in);
+                columns[c + 1] = VarInt.read(in);
+                columns[c + 2] = VarInt.read(in);
+                columns[c + 3] = VarInt.read(in) - 1;
+                int numTags = VarInt.read(in);
+                tagStart[i] = numTagInts;
+                if (numTagInts + numTags * 2 > tags.length)
+                    tags = Arrays.copyOf(tags, Math.max(tags.length * 2, numTagInts + numTags * 2));
+                for (int t = 0; t < numTags * 2; t++)
+                    tags[numTagInts++] = VarInt.read(in);
+            }
+            tagStart[num] = numTagInts;
+            return new InstanceIndex(accountService, strings, ids, columns, tagStart, Arrays.copyOf(tags, numTagInts));
+        }
+
+        private static void index(Map<String, Integer> dictionary, String s) {
+            if (!dictionary.containsKey(s))
+                dictionary.put(s, dictionary.size());
+        }
+    }
+}
@@ -1,15 +1,16 @@
 package com.netflix.ice.processor;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.zip.GZIPInputStream;
@@ -20,6 +21,7 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazonaws.AmazonServiceException;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.AwsUtils;
@@ -35,6 +37,14 @@ public class Instances {
 	private final String workS3BucketName;
 	private final String workS3BucketPrefix;
 	private ConcurrentMap<String, Instance> data;
+	// Indexed instances loaded by the reader
+	private volatile InstanceIndex base = InstanceIndex.EMPTY;
+	private volatile InstanceIndex delta = InstanceIndex.EMPTY;
+	private long baseLoaded = 0;
+	private long deltaLoaded = 0;
+
+	// Rewrite the base once the delta holds more than this fraction of its instances
+	private static final int MAX_DELTA_FRACTION = 10;
 
 	public Instances(String localDir, String workS3BucketName, String workS3BucketPrefix) {
     	this.localDir = localDir;
@@ -51,43 +61,141 @@ public class Instances {
 	}
 	
 	public Instance get(String id) {
-		return data.get(id);
+		Instance instance = data.get(id);
+		if (instance == null)
+			instance = delta.get(id);
+		if (instance == null)
+			instance = base.get(id);
+		return instance;
 	}
 	
-	private String getFilename(long timeMillis) {
-        DateTime monthDateTime = new DateTime(timeMillis, DateTimeZone.UTC);
-		return "instances_" + AwsUtils.monthDateFormat.print(monthDateTime) + ".csv.gz";
-	}
+    private String getMonth(long timeMillis) {
+        return AwsUtils.monthDateFormat.print(new DateTime(timeMillis, DateTimeZone.UTC));
+    }
 
-    public void archive(long timeMillis) throws IOException {
-        
-        File file = new File(localDir, getFilename(timeMillis));
-        
-    	OutputStream os = new FileOutputStream(file);
-		os = new GZIPOutputStream(os);        
-		Writer out = new OutputStreamWriter(os);
-        
-        try {
-        	// Write the header
-        	out.write(Instance.header());
-            for (Instance instance: data.values()) {
-                out.write(instance.serialize());
+    private String getCsvFilename(long timeMillis) {
+        return "instances_" + getMonth(timeMillis) + ".csv.gz";
+    }
+
+    private String getBaseFilename(long timeMillis) {
+        return "instances_" + getMonth(timeMillis) + ".bin.gz";
+    }
+
+    private String getDeltaFilename(long timeMillis) {
+        return "instances_" + getMonth(timeMillis) + ".delta.gz";
+    }
+
+    /**
+     * Archive the instances for the month. The full set is kept in a base index file and each run only
+     * rewrites a delta file holding the instances that are new or have changed since the base was written.
+     * The base is rewritten, and the delta emptied, once the delta grows past a fraction of the base.
+     */
+    public void archive(long timeMillis, AccountService accountService) throws IOException {
+        File baseFile = new File(localDir, getBaseFilename(timeMillis));
+        File deltaFile = new File(localDir, getDeltaFilename(timeMillis));
+
+        InstanceIndex oldBase = download(baseFile) ? read(baseFile, accountService) : InstanceIndex.EMPTY;
+        InstanceIndex oldDelta = download(deltaFile) ? read(deltaFile, accountService) : InstanceIndex.EMPTY;
+
+        Map<String, Instance> delta = Maps.newHashMap();
+        for (Instance instance: oldDelta.getInstances())
+            delta.put(instance.id, instance);
+
+        int changed = 0;
+        for (Instance instance: data.values()) {
+            Instance previous = delta.containsKey(instance.id) ? delta.get(instance.id) : oldBase.get(instance.id);
+            if (!instance.equals(previous)) {
+                delta.put(instance.id, instance);
+                changed++;
             }
-        	out.flush();
+        }
+        logger.info(changed + " new or changed instances of " + data.size() + ", base has " + oldBase.size());
+        if (changed == 0 && baseFile.exists())
+            return;
+
+        if (oldBase.size() == 0 || delta.size() > oldBase.size() / MAX_DELTA_FRACTION) {
+            Map<String, Instance> all = Maps.newHashMap();
+            for (Instance instance: oldBase.getInstances())
+                all.put(instance.id, instance);
+            all.putAll(delta);
+            write(baseFile, all.values());
+            write(deltaFile, Collections.<Instance>emptyList());
+        }
+        else {
+            write(deltaFile, delta.values());
+        }
+    }
+
+    private boolean download(File file) throws IOException {
+        try {
+            AwsUtils.downloadFileIfChanged(workS3BucketName, workS3BucketPrefix, file, 0);
+        }
+        catch (AmazonServiceException e) {
+            if (e.getStatusCode() != 404)
+                throw e;
+            file.delete();
+        }
+        return file.exists();
+    }
+
+    private void write(File file, Collection<Instance> instances) throws IOException {
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+        try {
+            InstanceIndex.Serializer.serialize(out, instances);
         }
         finally {
             out.close();
         }
 
-        // archive to s3
-        logger.info("uploading " + file + "...");
-        AwsUtils.upload(workS3BucketName, workS3BucketPrefix, localDir, file.getName());
+        logger.info("uploading " + file + " with " + instances.size() + " instances...");
+        AwsUtils.upload(workS3BucketName, workS3BucketPrefix, file);
         logger.info("uploaded " + file);
     }
-    
-    public void retrieve(long timeMillis, AccountService accountService) {
-        File file = new File(localDir, getFilename(timeMillis));
-    	
+
+    private InstanceIndex read(File file, AccountService accountService) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)));
+        try {
+            return InstanceIndex.Serializer.deserialize(accountService, in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Load the instance index for the month, reloading only the files that have changed.
+     * Falls back to the CSV archive written by older processors when there is no index.
+     */
+    public void retrieve(long timeMillis, AccountService accountService) throws IOException {
+        File baseFile = new File(localDir, getBaseFilename(timeMillis));
+        File deltaFile = new File(localDir, getDeltaFilename(timeMillis));
+
+        boolean baseChanged = download(baseFile);
+        if (!baseFile.exists()) {
+            retrieveCsv(timeMillis, accountService);
+            return;
+        }
+        // Check the delta before the base is swapped in so we never pair a new base with a stale delta
+        download(deltaFile);
+        if (baseChanged || baseFile.lastModified() != baseLoaded) {
+            base = read(baseFile, accountService);
+            baseLoaded = baseFile.lastModified();
+            data = Maps.newConcurrentMap();
+            logger.info("loaded " + base.size() + " instances from " + baseFile);
+        }
+        if (!deltaFile.exists()) {
+            delta = InstanceIndex.EMPTY;
+            deltaLoaded = 0;
+        }
+        else if (deltaFile.lastModified() != deltaLoaded) {
+            delta = read(deltaFile, accountService);
+            deltaLoaded = deltaFile.lastModified();
+            logger.info("loaded " + delta.size() + " instances from " + deltaFile);
+        }
+    }
+
+    private void retrieveCsv(long timeMillis, AccountService accountService) {
+        File file = new File(localDir, getCsvFilename(timeMillis));
         // read from s3 if not exists
         boolean downloaded = false;
         
@@ -116,6 +224,9 @@ public class Instances {
                 	dataMap.put(instance.id, instance);
                 }
                 data = dataMap;
+                base = InstanceIndex.EMPTY;
+                delta = InstanceIndex.EMPTY;
+                baseLoaded = deltaLoaded = 0;
             }
             catch (Exception e) {
             	Logger logger = LoggerFactory.getLogger(ReservationService.class);
@@ -50,6 +50,11 @@ public class ProcessorConfig extends Config {
     public final String processorInstanceId;
 
     public final String useCostForResourceGroup;
+    public final boolean cubes;
+    public final ApplicationGroupSeriesProcessor appgroupSeriesProcessor;
+    public final boolean hourlyBlocks;
+    public final ArchiveManifest archiveManifest;
+    public final String resourceStore;
 
     /**
      *
@@ -102,6 +107,20 @@ public class ProcessorConfig extends Config {
         processOnce = properties.getProperty(IceOptions.PROCESS_ONCE) == null ? false : Boolean.parseBoolean(properties.getProperty(IceOptions.PROCESS_ONCE));
         processorRegion = properties.getProperty(IceOptions.PROCESSOR_REGION);
         processorInstanceId = properties.getProperty(IceOptions.PROCESSOR_INSTANCE_ID);
+        cubes = Boolean.parseBoolean(properties.getProperty(IceOptions.CUBES, "false"));
+        hourlyBlocks = Boolean.parseBoolean(properties.getProperty(IceOptions.HOURLY_BLOCKS, "false"));
+        resourceStore = properties.getProperty(IceOptions.RESOURCE_STORE, "mapdb");
+        archiveManifest = new ArchiveManifest(workS3BucketName, workS3BucketPrefix, localDir);
+        AwsUtils.initUploader(Integer.parseInt(properties.getProperty(IceOptions.UPLOAD_THREADS, "8")));
+
+        if (!Boolean.parseBoolean(properties.getProperty(IceOptions.APPGROUP_SERIES, "false")))
+            appgroupSeriesProcessor = null;
+        else if (resourceService == null) {
+            logger.warn(IceOptions.APPGROUP_SERIES + " needs resource groups, not writing application group series");
+            appgroupSeriesProcessor = null;
+        }
+        else
+            appgroupSeriesProcessor = new ApplicationGroupSeriesProcessor(this, compress);
         
         ProcessorConfig.instance = this;
 
@@ -122,12 +141,16 @@ public class ProcessorConfig extends Config {
 
         priceListService.init();
         billingFileProcessor.start();
+        if (appgroupSeriesProcessor != null)
+            appgroupSeriesProcessor.start();
     }
 
     public void shutdown() {
         logger.info("Shutting down...");
 
         billingFileProcessor.shutdown();
+        if (appgroupSeriesProcessor != null)
+            appgroupSeriesProcessor.shutdown();
         reservationService.shutdown();
     }
 
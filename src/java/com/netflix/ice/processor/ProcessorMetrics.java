@@ -0,0 +1,220 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Map;
+
+import org.slf4j.Logger;
+
+import com.netflix.ice.common.Metrics;
+
+/**
+ * Metrics recorded by the billing file processor. Every pipeline stage is a timer named
+ * processor_stage{stage="..."} in the shared {@link Metrics} registry. A run covers one poll of
+ * the billing buckets; at the end of each run a summary is logged and the registry is written in
+ * the Prometheus text format to {@value #PROMETHEUS_FILE} in the local directory.
+ */
+public class ProcessorMetrics {
+    public static final String PROMETHEUS_FILE = "processor_metrics.prom";
+
+    static final String STAGE = "processor_stage";
+    static final String ARCHIVE_FILE = "processor_archive_file";
+    static final String ARCHIVE_BYTES = "processor_archive_bytes_total";
+    static final String LINES = "processor_lines_total";
+    static final String LINE_ITEMS = "processor_line_items_total";
+    static final String DELAYED_ITEMS = "processor_delayed_items_total";
+    static final String REPORT_BYTES = "processor_report_bytes_total";
+    static final String TAG_GROUPS = "processor_tag_groups";
+    static final String HEAP_PEAK = "processor_heap_peak_bytes";
+    static final String RUNS = "processor_runs_total";
+
+    static final String LIST = "list";
+    static final String DOWNLOAD = "download";
+    static final String DECOMPRESS = "decompress";
+    static final String PARSE = "parse";
+    static final String DELAYED = "delayed";
+    static final String RESERVATIONS = "reservations";
+    static final String SAVINGS = "savings";
+    static final String RESOURCES = "resources";
+    static final String ARCHIVE = "archive";
+    static final String CUBES = "cubes";
+    static final String APPGROUPS = "appgroups";
+    static final String INSTANCES = "instances";
+    static final String RUN = "run";
+
+    private static final Metrics metrics = Metrics.getInstance();
+    private static final LineItemProcessor.Result[] results = LineItemProcessor.Result.values();
+
+    static String stageName(String stage) {
+        return Metrics.name(STAGE, "stage", stage);
+    }
+
+    static void stage(String stage, long startNanos) {
+        metrics.time(stageName(stage), startNanos);
+    }
+
+    static void stage(String stage, String product, long startNanos) {
+        metrics.time(Metrics.name(STAGE, "stage", stage, "product", product), startNanos);
+    }
+
+    /**
+     * Add the line item results counted while processing a file, indexed by Result ordinal.
+     * Delayed items are counted again with their final result when they're processed after
+     * the file, so the first pass only adds them to the delayed count.
+     */
+    static void lineItems(long[] resultCounts) {
+        for (LineItemProcessor.Result result: results) {
+            if (result != LineItemProcessor.Result.delay)
+                metrics.add(Metrics.name(LINE_ITEMS, "result", result.name()), resultCounts[result.ordinal()]);
+        }
+        metrics.add(DELAYED_ITEMS, resultCounts[LineItemProcessor.Result.delay.ordinal()]);
+    }
+
+    static long[] newResultCounts() {
+        return new long[results.length];
+    }
+
+    static void tagGroups(String product, int count) {
+        metrics.setGauge(Metrics.name(TAG_GROUPS, "product", product), count);
+    }
+
+    /**
+     * Record the time and size of one archived data file. Files are grouped by the
+     * usage_/cost_ prefix and granularity so there's one series per kind of file.
+     */
+    static void archiveFile(String dbName, long bytes, long startNanos) {
+        int first = dbName.indexOf('_');
+        int second = first < 0 ? -1 : dbName.indexOf('_', first + 1);
+        String kind = second < 0 ? dbName : dbName.substring(0, second);
+        metrics.time(Metrics.name(ARCHIVE_FILE, "kind", kind), startNanos);
+        metrics.add(Metrics.name(ARCHIVE_BYTES, "kind", kind), bytes);
+    }
+
+    /**
+     * Start a run: clears the heap high-water marks and returns the starting values for the summary.
+     */
+    static Metrics.Snapshot startRun() {
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+        return metrics.snapshot();
+    }
+
+    /**
+     * Sum of the peak usage of each heap pool since the run started. The pools don't all
+     * peak at the same moment, so this is an upper bound on the heap actually used.
+     */
+    static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    /**
+     * Finish a run: log what it did and write the Prometheus file.
+     */
+    static void endRun(Metrics.Snapshot start, String localDir, Logger logger) {
+        metrics.setGauge(HEAP_PEAK, heapPeak());
+        metrics.increment(RUNS);
+        logger.info(summary(metrics.snapshot().minus(start), metrics.getGauge(HEAP_PEAK)));
+
+        File file = new File(localDir, PROMETHEUS_FILE);
+        try {
+            metrics.writePrometheus(file);
+        }
+        catch (IOException e) {
+            logger.error("error writing metrics to " + file, e);
+        }
+    }
+
+    static String summary(Metrics.Snapshot run, long heapPeak) {
+        StringBuilder sb = new StringBuilder("processor run:");
+        for (Map.Entry<String, Long> entry: run.getTimerCounts().entrySet()) {
+            String name = entry.getKey();
+            if (!name.startsWith(STAGE + "{"))
+                continue;
+            sb.append(" ").append(name.substring(STAGE.length() + 1, name.length() - 1).replace("\"", ""));
+            sb.append(String.format(" %.1fs", run.timerSeconds(name)));
+            if (entry.getValue() > 1)
+                sb.append(" (").append(entry.getValue()).append(")");
+            sb.append(",");
+        }
+
+        // Files are downloaded and parsed in parallel, so rates are per thread
+        double download = run.timerSeconds(stageName(DOWNLOAD));
+        if (download > 0)
+            sb.append(String.format(" download %.1f MB/s per thread,", run.counter("s3_download_bytes_total") / download / 1e6));
+        double parse = run.timerSeconds(stageName(PARSE));
+        long lines = run.counter(LINES);
+        sb.append(" ").append(lines).append(" lines");
+        if (parse > 0)
+            sb.append(String.format(" at %.0f lines/s per thread", lines / parse));
+        sb.append(",");
+        for (LineItemProcessor.Result result: results) {
+            if (result != LineItemProcessor.Result.delay)
+                sb.append(" ").append(result.name()).append("=").append(run.counter(Metrics.name(LINE_ITEMS, "result", result.name())));
+        }
+        sb.append(" (").append(run.counter(DELAYED_ITEMS)).append(" delayed)");
+        sb.append(", uploaded ").append(run.counter("s3_upload_bytes_total")).append(" bytes");
+        sb.append(String.format(", heap peak %.1f MB", heapPeak / 1e6));
+        return sb.toString();
+    }
+
+    /**
+     * Accumulates the time spent reading, i.e. in decompression and file I/O, without
+     * touching the registry for every read.
+     */
+    static class TimedInputStream extends FilterInputStream {
+        private long nanos = 0;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            nanos += System.nanoTime() - start;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            return n;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+    }
+}
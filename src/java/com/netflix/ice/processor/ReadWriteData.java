@@ -24,15 +24,22 @@ import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -116,13 +123,19 @@ public class ReadWriteData {
 
     public static class Serializer {
         protected static Logger logger = LoggerFactory.getLogger(Serializer.class);
+
+        /**
+         * Marker at the start of block indexed files. The original format starts with the
+         * number of TagGroups or TagGroup.Serializer.DICTIONARY_FORMAT, neither of which can be -1.
+         */
+        public static final int BLOCK_FORMAT = -1;
+        public static final String BLOCK_EXTENSION = ".blocks";
+        public static final int MAX_BLOCKS = 64;
+
         public static void serialize(DataOutput out, ReadWriteData data) throws IOException {
 
             Collection<TagGroup> keys = data.getTagGroups();
-            out.writeInt(keys.size());
-            for (TagGroup tagGroup: keys) {
-                TagGroup.Serializer.serialize(out, tagGroup);
-            }
+            TagGroup.Serializer.serializeKeys(out, keys);
 
             out.writeInt(data.data.size());
             for (int i = 0; i < data.data.size(); i++) {
@@ -137,13 +150,65 @@ public class ReadWriteData {
             }
         }
 
-        public static ReadWriteData deserialize(AccountService accountService, ProductService productService, DataInput in) throws IOException {
+        /**
+         * Write the data in blocks of rowsPerBlock rows that are each compressed on their own,
+         * so a reader can fetch and decode just the rows it needs. Layout:
+         *
+         *   int BLOCK_FORMAT, int flags (1 = gzip), int header length, header, blocks
+         *
+         * The header holds the TagGroups, number of rows, rows per block and the
+         * offset of each block relative to the end of the header.
+         */
+        public static void serializeBlocks(DataOutput out, ReadWriteData data, int rowsPerBlock, boolean compress) throws IOException {
+            Collection<TagGroup> keys = data.getTagGroups();
+            int num = data.data.size();
+            int numBlocks = (num + rowsPerBlock - 1) / rowsPerBlock;
+            if (numBlocks > MAX_BLOCKS)
+                throw new IllegalArgumentException("too many blocks: " + numBlocks + ", rows per block must be at least " + ((num + MAX_BLOCKS - 1) / MAX_BLOCKS));
+
+            List<byte[]> blocks = Lists.newArrayList();
+            for (int block = 0; block < numBlocks; block++) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream blockOut = new DataOutputStream(compress ? new GZIPOutputStream(bytes) : bytes);
+                for (int i = block * rowsPerBlock; i < Math.min(num, (block + 1) * rowsPerBlock); i++) {
+                    Map<TagGroup, Double> map = data.getData(i);
+                    blockOut.writeBoolean(map.size() > 0);
+                    if (map.size() > 0) {
+                        for (TagGroup tagGroup: keys) {
+                            Double v = map.get(tagGroup);
+                            blockOut.writeDouble(v == null ? 0 : v);
+                        }
+                    }
+                }
+                blockOut.close();
+                blocks.add(bytes.toByteArray());
+            }
 
-            int numKeys = in.readInt();
-            List<TagGroup> keys = Lists.newArrayList();
-            for (int j = 0; j < numKeys; j++) {
-                keys.add(TagGroup.Serializer.deserialize(accountService, productService, in));
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(compress ? new GZIPOutputStream(headerBytes) : headerBytes);
+            TagGroup.Serializer.serializeKeys(header, keys);
+            header.writeInt(num);
+            header.writeInt(rowsPerBlock);
+            header.writeInt(numBlocks);
+            long offset = 0;
+            for (byte[] block: blocks) {
+                header.writeLong(offset);
+                offset += block.length;
             }
+            header.writeLong(offset);
+            header.close();
+
+            out.writeInt(BLOCK_FORMAT);
+            out.writeInt(compress ? 1 : 0);
+            out.writeInt(headerBytes.size());
+            out.write(headerBytes.toByteArray());
+            for (byte[] block: blocks)
+                out.write(block);
+        }
+
+        public static ReadWriteData deserialize(AccountService accountService, ProductService productService, DataInput in) throws IOException {
+
+            List<TagGroup> keys = TagGroup.Serializer.deserializeKeys(accountService, productService, in);
 
             List<Map<TagGroup, Double>> data = Lists.newArrayList();
             int num = in.readInt();
@@ -164,6 +229,55 @@ public class ReadWriteData {
             return new ReadWriteData(data);
         }
         
+        /**
+         * Read all the rows of a block indexed file written by serializeBlocks.
+         */
+        public static ReadWriteData deserializeBlocks(AccountService accountService, ProductService productService, DataInputStream in) throws IOException {
+            if (in.readInt() != BLOCK_FORMAT)
+                throw new IOException("not a block data file");
+            boolean compressed = (in.readInt() & 1) != 0;
+            byte[] headerBytes = new byte[in.readInt()];
+            in.readFully(headerBytes);
+
+            DataInputStream header = new DataInputStream(open(headerBytes, compressed));
+            List<TagGroup> keys = TagGroup.Serializer.deserializeKeys(accountService, productService, header);
+            int num = header.readInt();
+            int rowsPerBlock = header.readInt();
+            int numBlocks = header.readInt();
+            if (numBlocks > MAX_BLOCKS)
+                throw new IOException("too many blocks: " + numBlocks);
+            long[] blockOffsets = new long[numBlocks + 1];
+            for (int i = 0; i <= numBlocks; i++)
+                blockOffsets[i] = header.readLong();
+            header.close();
+
+            List<Map<TagGroup, Double>> data = Lists.newArrayList();
+            for (int block = 0; block < numBlocks; block++) {
+                byte[] blockBytes = new byte[(int) (blockOffsets[block + 1] - blockOffsets[block])];
+                in.readFully(blockBytes);
+                DataInputStream blockIn = new DataInputStream(open(blockBytes, compressed));
+                for (int i = block * rowsPerBlock; i < Math.min(num, (block + 1) * rowsPerBlock); i++) {
+                    Map<TagGroup, Double> map = Maps.newHashMap();
+                    if (blockIn.readBoolean()) {
+                        for (int j = 0; j < keys.size(); j++) {
+                            double v = blockIn.readDouble();
+                            if (v != 0)
+                                map.put(keys.get(j), v);
+                        }
+                    }
+                    data.add(map);
+                }
+                blockIn.close();
+            }
+
+            return new ReadWriteData(data);
+        }
+
+        private static InputStream open(byte[] bytes, boolean compressed) throws IOException {
+            InputStream is = new ByteArrayInputStream(bytes);
+            return compressed ? new GZIPInputStream(is) : is;
+        }
+        
         public static void serializeCsv(OutputStreamWriter out, ReadWriteData data) throws IOException {
         	// write the header
         	out.write("index,");
@@ -0,0 +1,188 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.processor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.common.VarInt;
+
+/**
+ * Tag coverage counts for one user tag. For each hour and TagGroup it keeps the number of
+ * line items that had the tag and the total number of line items as a pair of longs in a
+ * flat array, so adding a line item doesn't allocate.
+ *
+ * Not thread safe, each report file is processed into its own instance and merged with putAll.
+ */
+public class TagCoverageData {
+    /**
+     * Marker at the start of coverage files. Older coverage files were written as ReadWriteData
+     * and start with a TagGroup count or TagGroup.Serializer.DICTIONARY_FORMAT.
+     */
+    public static final int FORMAT = -3;
+
+    // column of each TagGroup indexed by TagGroup id, offset by one so zero means no column
+    private int[] columnsById = new int[0];
+    private final List<TagGroup> tagGroups = Lists.newArrayList();
+    // count and total for each column, indexed by hour
+    private long[][] rows = new long[0][];
+    private int num = 0;
+
+    public int getNum() {
+        return num;
+    }
+
+    public List<TagGroup> getTagGroups() {
+        return Collections.unmodifiableList(tagGroups);
+    }
+
+    public boolean hasData(int hour) {
+        return hour < rows.length && rows[hour] != null;
+    }
+
+    public long getCount(int hour, int column) {
+        long[] row = hour < rows.length ? rows[hour] : null;
+        return row == null || column * 2 >= row.length ? 0 : row[column * 2];
+    }
+
+    public long getTotal(int hour, int column) {
+        long[] row = hour < rows.length ? rows[hour] : null;
+        return row == null || column * 2 + 1 >= row.length ? 0 : row[column * 2 + 1];
+    }
+
+    /**
+     * Count one line item for the TagGroup in the hour.
+     */
+    public void add(int hour, TagGroup tagGroup, boolean hasTag) {
+        add(hour, getColumn(tagGroup), hasTag ? 1 : 0, 1);
+    }
+
+    public void putAll(TagCoverageData other) {
+        for (int column = 0; column < other.tagGroups.size(); column++) {
+            int to = getColumn(other.tagGroups.get(column));
+            for (int hour = 0; hour < other.num; hour++) {
+                long total = other.getTotal(hour, column);
+                if (total > 0)
+                    add(hour, to, other.getCount(hour, column), total);
+            }
+        }
+    }
+
+    private void add(int hour, int column, long count, long total) {
+        if (hour >= rows.length)
+            rows = Arrays.copyOf(rows, Math.max(hour + 1, Math.min(rows.length * 2, 31 * 24)));
+        long[] row = rows[hour];
+        if (row == null || row.length <= column * 2 + 1) {
+            row = row == null ? new long[columnsCapacity() * 2] : Arrays.copyOf(row, columnsCapacity() * 2);
+            rows[hour] = row;
+        }
+        num = Math.max(num, hour + 1);
+        row[column * 2] += count;
+        row[column * 2 + 1] += total;
+    }
+
+    private int columnsCapacity() {
+        int capacity = 16;
+        while (capacity < tagGroups.size())
+            capacity *= 2;
+        return capacity;
+    }
+
+    private int getColumn(TagGroup tagGroup) {
+        int id = tagGroup.getId();
+        if (id >= columnsById.length)
+            columnsById = Arrays.copyOf(columnsById, Math.max(id + 1, TagGroup.getNumTagGroups()));
+        int column = columnsById[id] - 1;
+        if (column < 0) {
+            column = tagGroups.size();
+            tagGroups.add(tagGroup);
+            columnsById[id] = column + 1;
+        }
+        return column;
+    }
+
+    public static class Serializer {
+
+        /**
+         * Layout: int FORMAT, TagGroups in sorted order, int number of hours, then for each hour
+         * a boolean and, if there's data, a varint count and total for each TagGroup.
+         */
+        public static void serialize(DataOutput out, final TagCoverageData data) throws IOException {
+            // Write the columns in TagGroup order so the same data always gives the same bytes
+            Integer[] order = new Integer[data.tagGroups.size()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return data.tagGroups.get(a).compareTo(data.tagGroups.get(b));
+                }
+            });
+            List<TagGroup> keys = Lists.newArrayListWithCapacity(order.length);
+            for (Integer column: order)
+                keys.add(data.tagGroups.get(column));
+
+            out.writeInt(FORMAT);
+            TagGroup.Serializer.serializeKeys(out, keys);
+            out.writeInt(data.num);
+            for (int hour = 0; hour < data.num; hour++) {
+                out.writeBoolean(data.rows[hour] != null);
+                if (data.rows[hour] != null) {
+                    for (Integer column: order) {
+                        VarInt.writeLong(out, data.getCount(hour, column));
+                        VarInt.writeLong(out, data.getTotal(hour, column));
+                    }
+                }
+            }
+        }
+
+        public static TagCoverageData deserialize(AccountService accountService, ProductService productService, DataInput in) throws IOException {
+            int format = in.readInt();
+            if (format != FORMAT)
+                throw new IOException("not a tag coverage file");
+
+            TagCoverageData data = new TagCoverageData();
+            List<TagGroup> keys = TagGroup.Serializer.deserializeKeys(accountService, productService, in);
+            int[] columns = new int[keys.size()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = data.getColumn(keys.get(i));
+
+            int num = in.readInt();
+            data.rows = new long[num][];
+            data.num = num;
+            for (int hour = 0; hour < num; hour++) {
+                if (in.readBoolean()) {
+                    for (int i = 0; i < columns.length; i++) {
+                        long count = VarInt.readLong(in);
+                        long total = VarInt.readLong(in);
+                        data.add(hour, columns[i], count, total);
+                    }
+                }
+            }
+            return data;
+        }
+    }
+}
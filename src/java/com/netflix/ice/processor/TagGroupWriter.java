@@ -24,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.security.DigestOutputStream;
 import java.util.Collection;
 import java.util.TreeMap;
 
@@ -61,7 +62,8 @@ public class TagGroupWriter {
     void archive(Long monthMilli,Collection<TagGroup> tagGroups) throws IOException {
         this.tagGroups.put(monthMilli, tagGroups);
 
-        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        DigestOutputStream digestOut = ArchiveManifest.digestStream(new FileOutputStream(file));
+        DataOutputStream out = new DataOutputStream(digestOut);
         try {
             TagGroup.Serializer.serializeTagGroups(out, this.tagGroups);
         }
@@ -70,9 +72,8 @@ public class TagGroupWriter {
         }
         
         logger.info(dbName + " uploading to s3...");
-        AwsUtils.upload(config.workS3BucketName, config.workS3BucketPrefix, config.localDir, dbName);
-        logger.info(dbName + " uploading done.");
-
+        if (config.archiveManifest.upload(file, ArchiveManifest.digest(digestOut)))
+            logger.info(dbName + " uploading done.");
     }
     
     // Output file to CSV for general debugging
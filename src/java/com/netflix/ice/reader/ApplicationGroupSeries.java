@@ -0,0 +1,65 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+/**
+ * Cost and usage series of each application group, precomputed by the processor from the data of
+ * each product. The series are archived like a product named FILE_NAME, tag groups included, so the
+ * reader can group them by application group like any other query. Their TagGroups keep the account, region,
+ * product and operation, hold the application group name in place of the resource group and roll up
+ * the zone and usage type the same way the cubes do.
+ *
+ * The processor records the digest of the application group definitions the series were computed
+ * from in the archive manifest under MANIFEST_KEY once every month has been computed. Readers only
+ * use the series while the definitions they see have the same digest.
+ */
+public class ApplicationGroupSeries {
+    public static final String FILE_NAME = "appgroup_series";
+    public static final String MANIFEST_KEY = "appgroup_series_definitions";
+
+    /**
+     * Digest of the application group definitions. Only the resource groups of each application
+     * group affect the series, so the owner is left out and the order of the names doesn't matter.
+     */
+    public static String digest(Map<String, ApplicationGroup> appgroups) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, ApplicationGroup> entry: new TreeMap<String, ApplicationGroup>(appgroups).entrySet()) {
+            sb.append(entry.getKey()).append("\n");
+            Map<String, List<String>> data = entry.getValue().data;
+            if (data == null)
+                continue;
+            for (Map.Entry<String, List<String>> product: new TreeMap<String, List<String>>(data).entrySet()) {
+                if (product.getValue() == null)
+                    continue;
+                List<String> names = Lists.newArrayList(product.getValue());
+                Collections.sort(names);
+                sb.append(" ").append(product.getKey()).append(":").append(names).append("\n");
+            }
+        }
+        return Hashing.md5().hashString(sb, Charsets.UTF_8).toString();
+    }
+}
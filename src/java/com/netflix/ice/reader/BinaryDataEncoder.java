@@ -0,0 +1,133 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import com.netflix.ice.tag.Tag;
+
+/**
+ * Compact binary alternative to the JSON getData response. All numbers are little-endian.
+ *
+ * <pre>
+ * header:
+ *   bytes[4]  magic "ICE1"
+ *   byte      bytes per value, 8 for float64 or 4 for float32
+ *   int64     start time in milliseconds
+ *   int64     step in milliseconds, 0 when each value is one calendar month
+ *   int32     number of tags
+ *   int32     number of values per tag
+ *   per tag:  int16 length followed by the UTF-8 tag name
+ * body:
+ *   per tag, in header order: the values for that tag
+ * </pre>
+ *
+ * Encoding goes through a per-thread buffer that is reused across requests, so large
+ * responses are written in fixed size pieces without allocating a byte[] for the payload.
+ */
+public class BinaryDataEncoder {
+    public static final String FLOAT64_CONTENT_TYPE = "application/x-ice-float64";
+    public static final String FLOAT32_CONTENT_TYPE = "application/x-ice-float32";
+
+    private static final byte[] MAGIC = new byte[]{'I', 'C', 'E', '1'};
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    };
+
+    public enum ValueType {
+        float64(8, FLOAT64_CONTENT_TYPE),
+        float32(4, FLOAT32_CONTENT_TYPE);
+
+        public final int size;
+        public final String contentType;
+
+        private ValueType(int size, String contentType) {
+            this.size = size;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * Returns the binary value type requested by an Accept header or null if the client wants JSON.
+     */
+    public static ValueType getValueType(String accept) {
+        if (accept == null)
+            return null;
+        if (accept.contains(FLOAT64_CONTENT_TYPE))
+            return ValueType.float64;
+        if (accept.contains(FLOAT32_CONTENT_TYPE))
+            return ValueType.float32;
+        return null;
+    }
+
+    public static void encode(OutputStream out, ValueType valueType, long start, long step, Map<? extends Tag, double[]> data) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+
+        int num = data.size() == 0 ? 0 : data.values().iterator().next().length;
+
+        buffer.put(MAGIC);
+        buffer.put((byte) valueType.size);
+        buffer.putLong(start);
+        buffer.putLong(step);
+        buffer.putInt(data.size());
+        buffer.putInt(num);
+
+        for (Tag tag: data.keySet()) {
+            byte[] name = tag.name.getBytes(UTF8);
+            ensureRemaining(out, buffer, 2 + name.length);
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+        }
+
+        for (double[] values: data.values()) {
+            for (int i = 0; i < num; i++) {
+                ensureRemaining(out, buffer, valueType.size);
+                double v = i < values.length ? values[i] : 0;
+                if (valueType == ValueType.float64)
+                    buffer.putDouble(v);
+                else
+                    buffer.putFloat((float) v);
+            }
+        }
+        flush(out, buffer);
+    }
+
+    private static void ensureRemaining(OutputStream out, ByteBuffer buffer, int size) throws IOException {
+        if (buffer.remaining() < size)
+            flush(out, buffer);
+        if (buffer.remaining() < size)
+            throw new IOException("value of " + size + " bytes is larger than the encoder buffer");
+    }
+
+    private static void flush(OutputStream out, ByteBuffer buffer) throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.ReadWriteData;
+
+/**
+ * ReadOnlyData backed by a block indexed file (see ReadWriteData.Serializer.serializeBlocks).
+ * Only the header is read when the data is opened. Each block of rows is fetched and decoded
+ * the first time one of its rows is touched, so a query for the last day of a month only
+ * loads one block. Callers should load the rows they are about to scan with load(), which
+ * reports read failures, since the accessors can only throw them unchecked.
+ */
+public class BlockedReadOnlyData extends ReadOnlyData {
+    private static final int PREFIX_SIZE = 12;
+    private static final int FIRST_READ_SIZE = 64 * 1024;
+
+    /**
+     * Where the file bytes come from, e.g. a local file or S3 ranged GETs.
+     */
+    public interface BlockSource {
+        /**
+         * Read up to length bytes starting at offset. Fewer bytes are returned at the end of the file.
+         */
+        byte[] read(long offset, int length) throws IOException;
+    }
+
+    private final BlockSource source;
+    private final boolean compressed;
+    private final int numKeys;
+    private final int rowsPerBlock;
+    private final long dataStart;
+    private final long[] blockOffsets;
+    // One bit per block, set once the rows of the block have been loaded
+    private volatile long loadedBlocks = 0;
+
+    private BlockedReadOnlyData(BlockSource source, boolean compressed, List<TagGroup> tagGroups, int num, int rowsPerBlock, long dataStart, long[] blockOffsets, boolean offHeap) {
+        super(num, tagGroups, offHeap);
+        this.source = source;
+        this.compressed = compressed;
+        this.numKeys = tagGroups.size();
+        this.rowsPerBlock = rowsPerBlock;
+        this.dataStart = dataStart;
+        this.blockOffsets = blockOffsets;
+    }
+
+    public static BlockedReadOnlyData open(BlockSource source, AccountService accountService, ProductService productService) throws IOException {
+        return open(source, accountService, productService, false);
+    }
+
+    /**
+     * @param offHeap hold the rows of the loaded blocks in direct buffers, see ReadOnlyData
+     */
+    public static BlockedReadOnlyData open(BlockSource source, AccountService accountService, ProductService productService, boolean offHeap) throws IOException {
+        // Most headers fit in the first read, so usually only one request is needed
+        byte[] first = source.read(0, FIRST_READ_SIZE);
+        if (first.length < PREFIX_SIZE)
+            throw new IOException("block data file is too short");
+
+        DataInputStream prefix = new DataInputStream(new ByteArrayInputStream(first, 0, PREFIX_SIZE));
+        if (prefix.readInt() != ReadWriteData.Serializer.BLOCK_FORMAT)
+            throw new IOException("not a block data file");
+        boolean compressed = (prefix.readInt() & 1) != 0;
+        int headerLength = prefix.readInt();
+
+        byte[] header = PREFIX_SIZE + headerLength <= first.length ?
+                Arrays.copyOfRange(first, PREFIX_SIZE, PREFIX_SIZE + headerLength) :
+                source.read(PREFIX_SIZE, headerLength);
+
+        DataInputStream in = new DataInputStream(open(header, compressed));
+        try {
+            List<TagGroup> keys = TagGroup.Serializer.deserializeKeys(accountService, productService, in);
+            int num = in.readInt();
+            int rowsPerBlock = in.readInt();
+            int numBlocks = in.readInt();
+            if (numBlocks > ReadWriteData.Serializer.MAX_BLOCKS)
+                throw new IOException("too many blocks: " + numBlocks);
+            long[] blockOffsets = new long[numBlocks + 1];
+            for (int i = 0; i <= numBlocks; i++)
+                blockOffsets[i] = in.readLong();
+
+            return new BlockedReadOnlyData(source, compressed, keys, num, rowsPerBlock, PREFIX_SIZE + headerLength, blockOffsets, offHeap);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static InputStream open(byte[] bytes, boolean compressed) throws IOException {
+        InputStream is = new ByteArrayInputStream(bytes);
+        return compressed ? new GZIPInputStream(is) : is;
+    }
+
+    public boolean isLoaded(int i) {
+        return (loadedBlocks & (1L << (i / rowsPerBlock))) != 0;
+    }
+
+    /**
+     * Load the blocks holding rows from (inclusive) to to (exclusive) if they aren't loaded yet.
+     */
+    public void load(int from, int to) throws IOException {
+        if (from >= to)
+            return;
+        for (int block = from / rowsPerBlock; block * rowsPerBlock < Math.min(to, getNum()); block++)
+            loadBlock(block);
+    }
+
+    private void ensureLoaded(int i) {
+        if (isLoaded(i))
+            return;
+        try {
+            loadBlock(i / rowsPerBlock);
+        }
+        catch (IOException e) {
+            throw new UncheckedExecutionException(e);
+        }
+    }
+
+    private synchronized void loadBlock(int block) throws IOException {
+        if ((loadedBlocks & (1L << block)) != 0)
+            return;
+
+        long offset = blockOffsets[block];
+        DataInputStream in;
+        try {
+            byte[] bytes = source.read(dataStart + offset, (int) (blockOffsets[block + 1] - offset));
+            in = new DataInputStream(open(bytes, compressed));
+        }
+        catch (IOException e) {
+            throw new IOException("failed to load block " + block, e);
+        }
+        try {
+            int end = Math.min(getNum(), (block + 1) * rowsPerBlock);
+            if (isOffHeap()) {
+                Serializer.readOffHeap(in, offHeapData, block * rowsPerBlock, end, numKeys);
+            }
+            else {
+                for (int i = block * rowsPerBlock; i < end; i++) {
+                    if (in.readBoolean()) {
+                        double[] row = new double[numKeys];
+                        for (int j = 0; j < numKeys; j++)
+                            row[j] = in.readDouble();
+                        data[i] = row;
+                    }
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+        // Volatile write publishes the rows to other threads
+        loadedBlocks |= (1L << block);
+    }
+
+    @Override
+    public boolean hasData(int i) {
+        ensureLoaded(i);
+        return super.hasData(i);
+    }
+
+    @Override
+    public double get(int i, int j) {
+        ensureLoaded(i);
+        return super.get(i, j);
+    }
+
+    @Override
+    public double[] getData(int i) {
+        ensureLoaded(i);
+        return super.getData(i);
+    }
+
+    /**
+     * Number of bytes used to hold the data values of the blocks loaded so far.
+     */
+    @Override
+    public long getDataBytes() {
+        long bytes = 0;
+        for (int i = 0; i < getNum(); i++) {
+            if (isLoaded(i) && super.hasData(i))
+                bytes += numKeys * 8L;
+        }
+        return bytes;
+    }
+}
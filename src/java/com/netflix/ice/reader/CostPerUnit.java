@@ -0,0 +1,44 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.Map;
+
+import com.netflix.ice.tag.Tag;
+
+/**
+ * Normalizes query results by a throughput metric in place.
+ */
+public class CostPerUnit {
+
+    /**
+     * Replace each value with value / units * multiply for the same period, or 0 where there are
+     * no units. Currency conversion can be folded into multiply so the data is only scanned once.
+     */
+    public static void divide(Map<Tag, double[]> data, double[] units, double multiply) {
+        // one factor per period, shared by every series
+        double[] factors = new double[units.length];
+        for (int i = 0; i < units.length; i++)
+            factors[i] = units[i] == 0.0 ? 0.0 : multiply / units[i];
+
+        for (double[] values: data.values()) {
+            for (int i = 0; i < values.length; i++)
+                values[i] = i < factors.length ? values[i] * factors[i] : 0.0;
+        }
+    }
+}
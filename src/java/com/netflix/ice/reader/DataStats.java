@@ -0,0 +1,126 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.tag.Tag;
+
+/**
+ * Legend statistics for the series returned by a data query. Each series is scanned once with
+ * primitive arithmetic.
+ *
+ * The statistics depend on which tag groups were summed into each series, so they can't be
+ * computed ahead of time by the processor: the minimum of a sum isn't the sum of the minimums.
+ */
+public class DataStats {
+    public static final String MIN = "min";
+    public static final String MAX = "max";
+    public static final String TOTAL = "total";
+    public static final String AVERAGE = "average";
+    public static final String AVG_DAILY_MIN = "avgDailyMin";
+    public static final String AVG_DAILY_MAX = "avgDailyMax";
+    public static final String ELASTICITY = "elasticity";
+
+    private static final int HOURS_PER_DAY = 24;
+
+    /**
+     * Min, max, total and average of each series. Empty series are left out.
+     */
+    public static Map<Tag, Map<String, Double>> getStats(Map<Tag, double[]> data) {
+        Map<Tag, Map<String, Double>> result = Maps.newLinkedHashMap();
+
+        for (Map.Entry<Tag, double[]> entry: data.entrySet()) {
+            double[] values = entry.getValue();
+            if (values.length == 0)
+                continue;
+
+            double max = 0;
+            double min = values[0];
+            double total = 0;
+            for (double v: values) {
+                if (v > max)
+                    max = v;
+                if (v < min)
+                    min = v;
+                total += v;
+            }
+
+            Map<String, Double> stats = Maps.newLinkedHashMap();
+            stats.put(MIN, min);
+            stats.put(MAX, max);
+            stats.put(TOTAL, total);
+            stats.put(AVERAGE, total / values.length);
+            result.put(entry.getKey(), stats);
+        }
+        return result;
+    }
+
+    /**
+     * Reduce hourly series to the daily elasticity, 1 - min / max of each day as a percentage.
+     * Hours after the last whole day get no elasticity value. The average daily min, max and the
+     * elasticity of those averages are put in stats. As they always have been, the averages divide
+     * the sums over the whole days by the fractional number of days in the series, and are zero
+     * for series shorter than a day.
+     */
+    public static Map<Tag, double[]> reduceToDailyElasticity(Map<Tag, double[]> data, Map<Tag, Map<String, Double>> stats) {
+        Map<Tag, double[]> result = Maps.newTreeMap();
+
+        for (Map.Entry<Tag, double[]> entry: data.entrySet()) {
+            double[] values = entry.getValue();
+            int days = values.length / HOURS_PER_DAY;
+            double[] daily = new double[days];
+            double avgDailyMin = 0;
+            double avgDailyMax = 0;
+
+            for (int day = 0; day < days; day++) {
+                int from = day * HOURS_PER_DAY;
+                double dailyMin = values[from];
+                double dailyMax = 0;
+                for (int hour = from; hour < from + HOURS_PER_DAY; hour++) {
+                    double v = values[hour];
+                    if (v < dailyMin)
+                        dailyMin = v;
+                    if (v > dailyMax)
+                        dailyMax = v;
+                }
+                daily[day] = elasticity(dailyMin, dailyMax);
+                avgDailyMin += dailyMin;
+                avgDailyMax += dailyMax;
+            }
+            double fractionalDays = (double) values.length / HOURS_PER_DAY;
+            if (days > 0) {
+                avgDailyMin /= fractionalDays;
+                avgDailyMax /= fractionalDays;
+            }
+            result.put(entry.getKey(), daily);
+
+            Map<String, Double> tagStats = Maps.newLinkedHashMap();
+            tagStats.put(AVG_DAILY_MIN, avgDailyMin);
+            tagStats.put(AVG_DAILY_MAX, avgDailyMax);
+            tagStats.put(ELASTICITY, elasticity(avgDailyMin, avgDailyMax));
+            stats.put(entry.getKey(), tagStats);
+        }
+        return result;
+    }
+
+    private static double elasticity(double min, double max) {
+        return (max > 0 ? 1 - min / max : 1) * 100;
+    }
+}
@@ -23,6 +23,7 @@ import com.netflix.ice.tag.Product;
 import com.netflix.ice.tag.UserTag;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Interface to manager all TagGroupManager and DataManager instances for different products
@@ -43,6 +44,13 @@ public interface Managers {
 	 */
 	Collection<UserTag> getTags();
 
+    /**
+     *
+     * @param product
+     * @return true once the managers of the product have done their initial loads
+     */
+    boolean isReady(Product product);
+
     /**
      *
      * @param product
@@ -71,7 +79,17 @@ public interface Managers {
      * @param tag
      * @return
      */
-    DataManager getTagCoverageManager(UserTag tag);
+    TagCoverageManager getTagCoverageManager(UserTag tag);
+
+    /**
+     *
+     * @param cost true for the cost series, false for the usage series
+     * @param consolidateType
+     * @param appgroups the current application group definitions
+     * @return DataManager of the application group series precomputed by the processor, or null if
+     *         there are none computed from the given definitions
+     */
+    DataManager getApplicationGroupManager(boolean cost, ConsolidateType consolidateType, Map<String, ApplicationGroup> appgroups);
 
     /**
      * 
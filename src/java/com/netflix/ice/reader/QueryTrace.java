@@ -0,0 +1,180 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.Metrics;
+
+/**
+ * Time spent in each step of answering one dashboard query. A trace is bound to the request
+ * thread between start() and finish(); the managers call span() as they go. Cache loads run on
+ * the thread that asked for the data, so they're part of the trace too.
+ *
+ * Every span is also recorded in the reader_span histogram, whether or not a trace is running.
+ */
+public class QueryTrace {
+    public static final String SPAN = "reader_span";
+    public static final String QUERY = "reader_query";
+
+    public static final String TAG_LISTS = "tag_lists";
+    public static final String CACHE = "cache";
+    public static final String DOWNLOAD = "download";
+    public static final String DESERIALIZE = "deserialize";
+    public static final String SCAN = "scan";
+    public static final String STATS = "stats";
+    public static final String RENDER = "render";
+
+    private static final ThreadLocal<QueryTrace> current = new ThreadLocal<QueryTrace>();
+
+    private final String name;
+    private final long start = System.nanoTime();
+    private long end = 0;
+    // span name -> count, nanos
+    private final Map<String, long[]> spans = Maps.newLinkedHashMap();
+
+    private QueryTrace(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Start tracing the query handled by the current thread.
+     */
+    public static QueryTrace start(String name) {
+        QueryTrace trace = new QueryTrace(name);
+        current.set(trace);
+        return trace;
+    }
+
+    /**
+     * Record a span that started at startNanos, a value from System.nanoTime(), and ends now.
+     */
+    public static void span(String span, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        Metrics.getInstance().histogram(Metrics.name(SPAN, "span", span)).record(nanos);
+        QueryTrace trace = current.get();
+        if (trace != null)
+            trace.add(span, nanos);
+    }
+
+    private void add(String span, long nanos) {
+        long[] values = spans.get(span);
+        if (values == null) {
+            values = new long[2];
+            spans.put(span, values);
+        }
+        values[0]++;
+        values[1] += nanos;
+    }
+
+    /**
+     * Stop tracing and record the total time of the query.
+     */
+    public QueryTrace finish() {
+        if (current.get() == this)
+            current.remove();
+        end = System.nanoTime();
+        Metrics.getInstance().histogram(Metrics.name(QUERY, "action", name)).record(end - start);
+        return this;
+    }
+
+    public long getElapsedMillis() {
+        return ((end == 0 ? System.nanoTime() : end) - start) / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(" ").append(getElapsedMillis()).append("ms");
+        for (Map.Entry<String, long[]> entry: spans.entrySet()) {
+            sb.append(", ").append(entry.getKey()).append(" ").append(entry.getValue()[1] / 1000000).append("ms");
+            if (entry.getValue()[0] > 1)
+                sb.append(" (").append(entry.getValue()[0]).append(")");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Canonical JSON for a query so equivalent queries log the same way: keys are sorted and so
+     * are the entries of comma separated lists.
+     */
+    public static String normalize(Map<?, ?> query) {
+        Map<String, Object> sorted = new TreeMap<String, Object>();
+        for (Map.Entry<?, ?> entry: query.entrySet())
+            sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry: sorted.entrySet()) {
+            if (sb.length() > 1)
+                sb.append(",");
+            appendString(sb, entry.getKey());
+            sb.append(":");
+            Object value = entry.getValue();
+            if (value == null || value.toString().equals("null"))
+                sb.append("null");
+            else if (value instanceof Number || value instanceof Boolean)
+                sb.append(value);
+            else if (value instanceof Map)
+                sb.append(normalize((Map<?, ?>) value));
+            else if (value instanceof Collection) {
+                List<String> items = Lists.newArrayList();
+                for (Object item: (Collection<?>) value)
+                    items.add(String.valueOf(item));
+                appendList(sb, items);
+            }
+            else {
+                String text = value.toString();
+                if (text.contains(","))
+                    appendList(sb, Lists.newArrayList(text.split(",")));
+                else
+                    appendString(sb, text);
+            }
+        }
+        return sb.append("}").toString();
+    }
+
+    private static void appendList(StringBuilder sb, List<String> items) {
+        Collections.sort(items);
+        StringBuilder joined = new StringBuilder();
+        for (String item: items) {
+            if (joined.length() > 0)
+                joined.append(",");
+            joined.append(item.trim());
+        }
+        appendString(sb, joined.toString());
+    }
+
+    private static void appendString(StringBuilder sb, String text) {
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        sb.append('"');
+    }
+}
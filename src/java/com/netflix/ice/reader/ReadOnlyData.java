@@ -17,54 +17,144 @@
  */
 package com.netflix.ice.reader;
 
-import com.google.common.collect.Lists;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
 
 import java.io.DataInput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.util.Collection;
 import java.util.List;
 
+/**
+ * ReadOnlyData holds one file worth of data values for the reader. Each row is a
+ * time interval (hour, day, week or month) and each column is one of the TagGroups.
+ *
+ * Values can either be held on the java heap as double[][] or off-heap in direct
+ * buffers. Off-heap rows are slices of one direct buffer per file, since direct memory
+ * is only released when its buffer is garbage collected. When held off-heap, only the
+ * TagGroup list is kept on the heap. Rows with no data are not allocated in either mode.
+ */
 public class ReadOnlyData {
+    // largest direct buffer, rows of bigger files are spread over several
+    private static final int MAX_SLAB_BYTES = Integer.MAX_VALUE - 7;
+
     double[][] data;
+    DoubleBuffer[] offHeapData;
     private Collection<TagGroup> tagGroups;
+    private final int numColumns;
 
     public ReadOnlyData(double[][] data, Collection<TagGroup> tagGroups) {
         this.data = data;
         this.tagGroups = tagGroups;
+        this.numColumns = tagGroups.size();
+    }
+
+    public ReadOnlyData(DoubleBuffer[] offHeapData, Collection<TagGroup> tagGroups) {
+        this.offHeapData = offHeapData;
+        this.tagGroups = tagGroups;
+        this.numColumns = tagGroups.size();
+    }
+
+    /**
+     * Data with num rows still to be filled in by a subclass.
+     */
+    ReadOnlyData(int num, Collection<TagGroup> tagGroups, boolean offHeap) {
+        if (offHeap)
+            this.offHeapData = new DoubleBuffer[num];
+        else
+            this.data = new double[num][];
+        this.tagGroups = tagGroups;
+        this.numColumns = tagGroups.size();
     }
 
+    public boolean isOffHeap() {
+        return offHeapData != null;
+    }
+
+    /**
+     * Returns false if the row was stored without any data
+     */
+    public boolean hasData(int i) {
+        return offHeapData == null ? data[i] != null : offHeapData[i] != null;
+    }
+
+    /**
+     * Get a single value without copying the row.
+     */
+    public double get(int i, int j) {
+        if (offHeapData == null) {
+            double[] row = data[i];
+            return row == null ? 0 : row[j];
+        }
+        DoubleBuffer row = offHeapData[i];
+        // Use absolute get so concurrent readers don't interfere with each other
+        return row == null ? 0 : row.get(j);
+    }
+
+    /**
+     * Get a row of data. Off-heap rows are copied onto the heap, so callers
+     * scanning large amounts of data should use get(i, j) instead.
+     * Rows without data are returned as a new row of zeros.
+     */
     public double[] getData(int i) {
-        return data[i];
+        if (offHeapData == null) {
+            double[] row = data[i];
+            return row == null ? new double[numColumns] : row;
+        }
+        double[] row = new double[numColumns];
+        if (offHeapData[i] != null)
+            offHeapData[i].duplicate().get(row);
+        return row;
     }
 
     public int getNum() {
-        return data.length;
+        return offHeapData == null ? data.length : offHeapData.length;
     }
 
     public Collection<TagGroup> getTagGroups() {
         return tagGroups;
     }
 
+    /**
+     * Number of bytes used to hold the data values.
+     */
+    public long getDataBytes() {
+        long bytes = 0;
+        for (int i = 0; i < getNum(); i++) {
+            if (hasData(i))
+                bytes += numColumns * 8L;
+        }
+        return bytes;
+    }
+
     public static class Serializer {
 
         public static ReadOnlyData deserialize(AccountService accountService, ProductService productService, DataInput in) throws IOException {
+            return deserialize(accountService, productService, in, false);
+        }
 
-            int numKeys = in.readInt();
-            List<TagGroup> keys = Lists.newArrayList();
-            for (int j = 0; j < numKeys; j++) {
-                keys.add(TagGroup.Serializer.deserialize(accountService, productService, in));
-            }
+        public static ReadOnlyData deserialize(AccountService accountService, ProductService productService, DataInput in, boolean offHeap) throws IOException {
+
+            List<TagGroup> keys = TagGroup.Serializer.deserializeKeys(accountService, productService, in);
+            int numKeys = keys.size();
 
             int num = in.readInt();
+            if (offHeap) {
+                DoubleBuffer[] data = new DoubleBuffer[num];
+                readOffHeap(in, data, 0, num, numKeys);
+                return new ReadOnlyData(data, keys);
+            }
+
             double[][] data = new double[num][];
             for (int i = 0; i < num; i++)  {
-                data[i] = new double[keys.size()];
                 boolean hasData = in.readBoolean();
                 if (hasData) {
-                    for (int j = 0; j < keys.size(); j++) {
+                    data[i] = new double[numKeys];
+                    for (int j = 0; j < numKeys; j++) {
                         double v = in.readDouble();
                         if (v != 0) {
                             data[i][j] = v;
@@ -75,5 +165,55 @@ public class ReadOnlyData {
 
             return new ReadOnlyData(data, keys);
         }
+
+        /**
+         * Read rows from..to into slices of direct buffers. A buffer is sized for all the rows still to
+         * come and the rows with data are packed into it. If some rows turn out to be empty, the rows
+         * of the last buffer are moved into one of the right size so the unused tail isn't kept.
+         */
+        static void readOffHeap(DataInput in, DoubleBuffer[] data, int from, int to, int numKeys) throws IOException {
+            int rowsPerSlab = Math.max(1, MAX_SLAB_BYTES / Math.max(1, numKeys * 8));
+            DoubleBuffer slab = null;
+            int slabRows = 0;
+            int used = 0;
+            int slabStart = from;
+            for (int i = from; i < to; i++)  {
+                if (!in.readBoolean())
+                    continue;
+                if (used == slabRows) {
+                    slabRows = Math.min(to - i, rowsPerSlab);
+                    slab = allocate(slabRows, numKeys);
+                    used = 0;
+                    slabStart = i;
+                }
+                DoubleBuffer row = slice(slab, used++, numKeys);
+                for (int j = 0; j < numKeys; j++)
+                    row.put(j, in.readDouble());
+                data[i] = row;
+            }
+            if (used < slabRows) {
+                DoubleBuffer compact = allocate(used, numKeys);
+                int k = 0;
+                for (int i = slabStart; i < to; i++) {
+                    if (data[i] == null)
+                        continue;
+                    DoubleBuffer row = slice(compact, k++, numKeys);
+                    row.put(data[i].duplicate());
+                    row.clear();
+                    data[i] = row;
+                }
+            }
+        }
+
+        private static DoubleBuffer allocate(int rows, int numKeys) {
+            return ByteBuffer.allocateDirect(rows * numKeys * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+
+        private static DoubleBuffer slice(DoubleBuffer slab, int row, int numKeys) {
+            DoubleBuffer view = slab.duplicate();
+            view.position(row * numKeys);
+            view.limit((row + 1) * numKeys);
+            return view.slice();
+        }
     }
 }
@@ -30,7 +30,6 @@ import org.joda.time.Interval;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
 import java.util.Properties;
 
 /**
@@ -49,6 +48,9 @@ public class ReaderConfig extends Config {
     public final BasicWeeklyCostEmailService costEmailService;
     public final Managers managers;
     public final int monthlyCacheSize;
+    public final boolean offHeapData;
+    public final boolean hourlyBlocks;
+    public final long slowQueryMillis;
 
     /**
      *
@@ -82,6 +84,9 @@ public class ReaderConfig extends Config {
         this.throughputMetricService = throughputMetricService;
         this.costEmailService = costEmailService;
         this.monthlyCacheSize = Integer.parseInt(properties.getProperty(IceOptions.MONTHLY_CACHE_SIZE, "12"));
+        this.offHeapData = Boolean.parseBoolean(properties.getProperty(IceOptions.OFF_HEAP_DATA, "false"));
+        this.hourlyBlocks = Boolean.parseBoolean(properties.getProperty(IceOptions.HOURLY_BLOCKS, "false"));
+        this.slowQueryMillis = Long.parseLong(properties.getProperty(IceOptions.SLOW_QUERY_MILLIS, "5000"));
 
         ReaderConfig.instance = this;
 
@@ -117,21 +122,7 @@ public class ReaderConfig extends Config {
 
     public void start() {
 
-    	// Prime the data caches
-        Managers managers = ReaderConfig.getInstance().managers;
-        Collection<Product> products = managers.getProducts();
-        for (Product product: products) {
-            TagGroupManager tagGroupManager = managers.getTagGroupManager(product);
-            Interval interval = tagGroupManager.getOverlapInterval(new Interval(new DateTime(DateTimeZone.UTC).minusMonths(monthlyCacheSize), new DateTime(DateTimeZone.UTC)));
-            if (interval == null)
-                continue;
-            for (ConsolidateType consolidateType: ConsolidateType.values()) {
-                readData(product, managers.getCostManager(product, consolidateType), interval, consolidateType, UsageUnit.Dollar);
-                readData(product, managers.getUsageManager(product, consolidateType), interval, consolidateType, UsageUnit.Native);
-            }
-        }
-        
-        // Prime the tag coverage caches
+        // Prime the tag coverage caches, the managers prime the product data caches as each product loads
         for (UserTag tag: managers.getTags()) {
             TagGroupManager tagGroupManager = managers.getTagGroupManager(null);
             Interval interval = tagGroupManager.getOverlapInterval(new Interval(new DateTime(DateTimeZone.UTC).minusMonths(monthlyCacheSize), new DateTime(DateTimeZone.UTC)));
@@ -144,6 +135,21 @@ public class ReaderConfig extends Config {
             costEmailService.start();
     }
 
+    /**
+     * Prime the data caches of a product with the last monthlyCacheSize months.
+     * @param product product to prime, null for all products
+     */
+    public void prime(Product product) {
+        TagGroupManager tagGroupManager = managers.getTagGroupManager(product);
+        Interval interval = tagGroupManager.getOverlapInterval(new Interval(new DateTime(DateTimeZone.UTC).minusMonths(monthlyCacheSize), new DateTime(DateTimeZone.UTC)));
+        if (interval == null)
+            return;
+        for (ConsolidateType consolidateType: ConsolidateType.values()) {
+            readData(product, managers.getCostManager(product, consolidateType), interval, consolidateType, UsageUnit.Dollar);
+            readData(product, managers.getUsageManager(product, consolidateType), interval, consolidateType, UsageUnit.Native);
+        }
+    }
+
     public void shutdown() {
         logger.info("Shutting down...");
 
@@ -22,6 +22,12 @@ public class Account extends Tag {
 	
 	public final String id;
 
+    /**
+     * Placeholder used by the pre-aggregated cube data files when accounts are rolled up.
+     * It is never registered with the account service so it doesn't show up with the real accounts.
+     */
+    public static final Account ROLLUP = new Account("*", "*");
+
     public Account(String accountId, String accountName) {
         super(accountName);
         this.id = accountId;
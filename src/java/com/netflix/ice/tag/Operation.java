@@ -163,8 +163,10 @@ public class Operation extends Tag {
     	}
         Operation operation = operations.get(name);
         if (operation == null) {
-            operations.putIfAbsent(name, new Operation(name));
-            operation = operations.get(name);
+            Operation newOne = new Operation(name);
+            operation = operations.putIfAbsent(name, newOne);
+            if (operation == null)
+                operation = newOne;
         }
 
         return operation;
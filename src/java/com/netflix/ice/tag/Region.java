@@ -22,6 +22,7 @@ import com.google.common.collect.Maps;
 
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Region extends Tag {
 	private static final long serialVersionUID = 1L;
@@ -42,6 +43,12 @@ public class Region extends Tag {
     public static final Region AP_SOUTH_1 = new Region("ap-south-1", "APS3", "IN", "Asia Pacific (Mumbai)");
     public static final Region SA_EAST_1 = new Region("sa-east-1", "SAE1", "SA", "South America (Sao Paulo)");
 
+    /**
+     * Placeholder used by the pre-aggregated cube data files when regions are rolled up.
+     * It is deliberately not included in the region maps so it never shows up in getAllRegions().
+     */
+    public static final Region ROLLUP = new Region("*", "*", "*", "*");
+
     private static ConcurrentMap<String, Region> regionsByName = Maps.newConcurrentMap();
     private static ConcurrentMap<String, Region> regionsByShortName = Maps.newConcurrentMap();
 
@@ -91,7 +98,7 @@ public class Region extends Tag {
     public final String shortName;
     public final String cloudFrontName;
     public final String priceListName;
-    List<Zone> zones = Lists.newArrayList();
+    List<Zone> zones = new CopyOnWriteArrayList<Zone>();
 
     private Region(String name, String shortName, String cloudFrontName, String priceListName) {
         super(name);
@@ -114,6 +121,8 @@ public class Region extends Tag {
 
     public static Region getRegionByName(String name) {
         Region region = regionsByName.get(name);
+        if (region == null && ROLLUP.name.equals(name))
+        	return ROLLUP;
         if (region == null)
         	logger.error("Unknown region name: " + name);
         return region;
@@ -34,8 +34,10 @@ public class ResourceGroup extends Tag {
     public static ResourceGroup getResourceGroup(String name) {
         ResourceGroup resourceGroup = resourceGroups.get(name);
         if (resourceGroup == null) {
-            resourceGroups.putIfAbsent(name, new ResourceGroup(name));
-            resourceGroup = resourceGroups.get(name);
+            ResourceGroup newOne = new ResourceGroup(name);
+            resourceGroup = resourceGroups.putIfAbsent(name, newOne);
+            if (resourceGroup == null)
+                resourceGroup = newOne;
         }
         return resourceGroup;
     }
@@ -40,6 +40,12 @@ public class UsageType extends Tag {
     }
     private static ConcurrentMap<String, UsageType> usageTypes = Maps.newConcurrentMap();
 
+    /**
+     * Placeholder used by the pre-aggregated cube data files when usage types are rolled up.
+     * It is deliberately not included in the usage type map so it never shows up with the real usage types.
+     */
+    public static final UsageType ROLLUP = new UsageType("*", "");
+
     public static void serialize(DataOutput out, UsageType usageType) throws IOException {
         out.writeUTF(usageType.name);
         out.writeUTF(usageType.unit);
@@ -63,9 +69,13 @@ public class UsageType extends Tag {
 
     public static UsageType getUsageType(String name, String unit) {
         UsageType usageType = usageTypes.get(name);
+        if (usageType == null && ROLLUP.name.equals(name))
+            return ROLLUP;
         if (usageType == null) {
-            usageTypes.putIfAbsent(name, new UsageType(name, unit));
-            usageType = usageTypes.get(name);
+            UsageType newOne = new UsageType(name, unit);
+            usageType = usageTypes.putIfAbsent(name, newOne);
+            if (usageType == null)
+                usageType = newOne;
         }
         else if (!usageType.unit.equals(unit)) {
             logger.error("found different units for " + usageType + ", " + usageType.unit + ", " + unit);
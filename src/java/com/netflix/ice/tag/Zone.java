@@ -29,9 +29,14 @@ public class Zone extends Tag {
 	public final Region region;
 
     private Zone (Region region, String name) {
+        this(region, name, true);
+    }
+
+    private Zone (Region region, String name, boolean addToRegion) {
         super(name);
         this.region = region;
-        region.addZone(this);
+        if (addToRegion)
+            region.addZone(this);
     }
 
     public static final Zone US_EAST_1A = new Zone(Region.US_EAST_1, "us-east-1a");
@@ -166,8 +171,13 @@ public class Zone extends Tag {
             return null;
         Zone zone = zonesByName.get(name);
         if (zone == null) {
-            zonesByName.putIfAbsent(name, new Zone(region, name));
-            zone = zonesByName.get(name);
+            // Only the zone that wins the map entry is added to its region
+            Zone created = new Zone(region, name, false);
+            zone = zonesByName.putIfAbsent(name, created);
+            if (zone == null) {
+                region.addZone(created);
+                zone = created;
+            }
         }
         return zone;
     }
@@ -0,0 +1,118 @@
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Region;
+
+public class LogResourceStoreTest {
+	private File dir;
+
+	@Before
+	public void createDir() throws IOException {
+		dir = File.createTempFile("resources", ".test");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After
+	public void deleteDir() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testSetAndReopen() throws IOException {
+		Account account = new Account("123456789012", "account1");
+		Account namedAccount = new Account("not-a-number", "account2");
+
+		LogResourceStore store = new LogResourceStore(dir.getPath(), null, null, "test");
+		store.setResource(account, Region.US_EAST_1, "i-1", "app1", 0);
+		store.setResource(account, Region.US_WEST_2, "i-1", "app2", 0);
+		store.setResource(namedAccount, Region.US_EAST_1, "i-1", "app3", 0);
+		store.setResource(account, Region.US_EAST_1, "i-2", "", 0);
+
+		assertEquals("Wrong resource", "app1", store.getResource(account, Region.US_EAST_1, "i-1"));
+		assertEquals("Region should be part of the key", "app2", store.getResource(account, Region.US_WEST_2, "i-1"));
+		assertEquals("Account should be part of the key", "app3", store.getResource(namedAccount, Region.US_EAST_1, "i-1"));
+		assertNull("Empty resources are not stored", store.getResource(account, Region.US_EAST_1, "i-2"));
+		assertNull("Unknown region", store.getResource(account, Region.EU_WEST_1, "i-1"));
+		store.close();
+
+		store = new LogResourceStore(dir.getPath(), null, null, "test");
+		assertEquals("Wrong number of resources after reopen", 3, store.size());
+		assertEquals("Wrong resource after reopen", "app2", store.getResource(account, Region.US_WEST_2, "i-1"));
+		assertEquals("Wrong resource after reopen", "app3", store.getResource(namedAccount, Region.US_EAST_1, "i-1"));
+
+		// change one and make sure the change survives
+		store.setResource(account, Region.US_EAST_1, "i-1", "app4", 0);
+		store.close();
+		store = new LogResourceStore(dir.getPath(), null, null, "test");
+		assertEquals("Changed resource not saved", "app4", store.getResource(account, Region.US_EAST_1, "i-1"));
+		store.close();
+	}
+
+	@Test
+	public void testAccountIdsDoNotCollide() throws IOException {
+		Account padded = new Account("012345678901", "padded");
+		Account unpadded = new Account("12345678901", "unpadded");
+		StringBuilder longId = new StringBuilder();
+		for (int i = 0; i < 300; i++)
+			longId.append('a');
+		// a wrapped length byte would make these two keys identical
+		Account longAccount = new Account(longId.toString(), "long");
+		Account shortAccount = new Account(longId.substring(0, 44), "short");
+		String shortResourceId = longId.substring(44) + "i-1";
+
+		LogResourceStore store = new LogResourceStore(dir.getPath(), null, null, "test");
+		store.setResource(padded, Region.US_EAST_1, "i-1", "app1", 0);
+		store.setResource(unpadded, Region.US_EAST_1, "i-1", "app2", 0);
+		store.setResource(longAccount, Region.US_EAST_1, "i-1", "app3", 0);
+		store.setResource(shortAccount, Region.US_EAST_1, shortResourceId, "app4", 0);
+		assertEquals("Wrong resource for padded id", "app1", store.getResource(padded, Region.US_EAST_1, "i-1"));
+		assertEquals("Ids differing in leading zeros should not collide", "app2", store.getResource(unpadded, Region.US_EAST_1, "i-1"));
+		assertEquals("Wrong resource for long id", "app3", store.getResource(longAccount, Region.US_EAST_1, "i-1"));
+		assertEquals("Long ids should not wrap their length", "app4", store.getResource(shortAccount, Region.US_EAST_1, shortResourceId));
+		store.close();
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		final LogResourceStore store = new LogResourceStore(dir.getPath(), null, null, "test");
+		final Account account = new Account("123456789012", "account1");
+		final Region[] regions = new Region[]{ Region.US_EAST_1, Region.US_WEST_2, Region.EU_WEST_1 };
+
+		List<Thread> threads = Lists.newArrayList();
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			threads.add(new Thread() {
+				public void run() {
+					for (int i = 0; i < 1000; i++)
+						store.setResource(account, regions[i % regions.length], "i-" + thread + "-" + i, "app" + (i % 10), 0);
+				}
+			});
+		}
+		for (Thread thread: threads)
+			thread.start();
+		for (Thread thread: threads)
+			thread.join();
+		store.close();
+
+		LogResourceStore reopened = new LogResourceStore(dir.getPath(), null, null, "test");
+		assertEquals("Wrong number of resources", 4000, reopened.size());
+		for (int t = 0; t < 4; t++) {
+			for (int i = 0; i < 1000; i++)
+				assertEquals("Wrong resource", "app" + (i % 10), reopened.getResource(account, regions[i % regions.length], "i-" + t + "-" + i));
+		}
+		reopened.close();
+	}
+}
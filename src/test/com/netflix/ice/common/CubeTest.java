@@ -0,0 +1,77 @@
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.Zone;
+
+public class CubeTest {
+	private static AccountService as;
+	private static ProductService ps;
+
+	@BeforeClass
+	public static void init() {
+		as = new BasicAccountService(new Properties());
+		ps = new BasicProductService(null);
+	}
+
+	@Test
+	public void testRollup() {
+		TagGroup tg1 = TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_EAST_1, Zone.getZone("us-east-1a", Region.US_EAST_1), ps.getProductByName("Elastic Compute Cloud"), Operation.getOperation("RunInstances"), UsageType.getUsageType("m1.small", "hours"), null);
+		TagGroup tg2 = TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_WEST_2, null, ps.getProductByName("Elastic Compute Cloud"), Operation.getOperation("RunInstances"), UsageType.getUsageType("m1.large", "hours"), null);
+		Map<TagGroup, TagGroup> mapping = Maps.newHashMap();
+
+		TagGroup cube1 = Cube.product_operation.getTagGroup(tg1, mapping);
+		TagGroup cube2 = Cube.product_operation.getTagGroup(tg2, mapping);
+		assertTrue("Both TagGroups should roll up to the same cube TagGroup", cube1 == cube2);
+		assertEquals("Wrong account", Account.ROLLUP, cube1.account);
+		assertEquals("Wrong region", Region.ROLLUP, cube1.region);
+		assertNull("Zone should be rolled up", cube1.zone);
+		assertEquals("Wrong usage type", Cube.getRollupUsageType(), cube1.usageType);
+		assertEquals("Wrong operation", tg1.operation, cube1.operation);
+
+		mapping = Maps.newHashMap();
+		cube1 = Cube.region_product_operation.getTagGroup(tg1, mapping);
+		cube2 = Cube.region_product_operation.getTagGroup(tg2, mapping);
+		assertFalse("Regions should be kept", cube1 == cube2);
+		assertEquals("Wrong region", Region.US_EAST_1, cube1.region);
+		assertEquals("Wrong account", Account.ROLLUP, cube1.account);
+
+		mapping = Maps.newHashMap();
+		cube1 = Cube.account_product_operation.getTagGroup(tg1, mapping);
+		assertEquals("Wrong account", tg1.account, cube1.account);
+		assertEquals("Wrong region", Region.ROLLUP, cube1.region);
+	}
+
+	@Test
+	public void testSerializeRollup() throws IOException {
+		TagGroup tg = TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_EAST_1, null, ps.getProductByName("Elastic Compute Cloud"), Operation.getOperation("RunInstances"), UsageType.getUsageType("m1.small", "hours"), null);
+		TagGroup cube = Cube.product_operation.getTagGroup(tg, Maps.<TagGroup, TagGroup>newHashMap());
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TagGroup.Serializer.serialize(new DataOutputStream(output), cube);
+		TagGroup deserialized = TagGroup.Serializer.deserialize(as, ps, new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+
+		assertEquals("Cube TagGroup should survive serialization", cube, deserialized);
+		assertSame("Rollup account should not be registered", Account.ROLLUP, deserialized.account);
+		assertSame("Rollup usage type should not be registered", UsageType.ROLLUP, deserialized.usageType);
+		assertTrue("Rollup region should not be listed with the real regions", !Region.getAllRegions().contains(Region.ROLLUP));
+	}
+}
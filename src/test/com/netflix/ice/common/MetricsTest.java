@@ -0,0 +1,108 @@
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsTest {
+	private Metrics metrics;
+
+	@Before
+	public void init() {
+		metrics = Metrics.getInstance();
+		metrics.reset();
+	}
+
+	@Test
+	public void testName() {
+		assertEquals("Wrong name without labels", "lines_total", Metrics.name("lines_total"));
+		assertEquals("Wrong name with labels", "stage{stage=\"parse\",product=\"ec2\"}", Metrics.name("stage", "stage", "parse", "product", "ec2"));
+		assertEquals("Label value not escaped", "stage{file=\"a\\\"b\"}", Metrics.name("stage", "file", "a\"b"));
+	}
+
+	@Test
+	public void testSnapshotMinus() {
+		metrics.add("lines_total", 10);
+		metrics.timer("stage").record(1000000000L);
+		Metrics.Snapshot start = metrics.snapshot();
+
+		metrics.add("lines_total", 5);
+		metrics.increment("files_total");
+		metrics.timer("stage").record(500000000L);
+		Metrics.Snapshot run = metrics.snapshot().minus(start);
+
+		assertEquals("Wrong lines in run", 5, run.counter("lines_total"));
+		assertEquals("Wrong files in run", 1, run.counter("files_total"));
+		assertEquals("Wrong timer count in run", 1, run.timerCount("stage"));
+		assertEquals("Wrong timer seconds in run", 0.5, run.timerSeconds("stage"), 0.0001);
+		assertEquals("Wrong missing counter", 0, run.counter("other_total"));
+	}
+
+	@Test
+	public void testMaxGauge() {
+		metrics.maxGauge("peak", 10);
+		metrics.maxGauge("peak", 5);
+		assertEquals("Gauge should keep the max", 10, metrics.getGauge("peak"));
+		metrics.setGauge("peak", 5);
+		assertEquals("Gauge not set", 5, metrics.getGauge("peak"));
+	}
+
+	@Test
+	public void testPrometheusText() {
+		metrics.add("b_total", 2);
+		metrics.add(Metrics.name("a_total", "result", "hourly"), 3);
+		metrics.add(Metrics.name("a_total", "result", "ignore"), 1);
+		metrics.setGauge("a_total_other", 7);
+		metrics.timer(Metrics.name("stage", "stage", "list")).record(2000000000L);
+
+		String expected =
+				"# TYPE ice_a_total counter\n" +
+				"ice_a_total{result=\"hourly\"} 3\n" +
+				"ice_a_total{result=\"ignore\"} 1\n" +
+				"# TYPE ice_a_total_other gauge\n" +
+				"ice_a_total_other 7\n" +
+				"# TYPE ice_b_total counter\n" +
+				"ice_b_total 2\n" +
+				"# TYPE ice_stage_seconds summary\n" +
+				"ice_stage_seconds_count{stage=\"list\"} 1\n" +
+				"ice_stage_seconds_sum{stage=\"list\"} 2.0\n" +
+				"# TYPE ice_stage_seconds_max gauge\n" +
+				"ice_stage_seconds_max{stage=\"list\"} 2.0\n";
+		assertEquals("Wrong Prometheus text", expected, metrics.getPrometheusText());
+	}
+
+	@Test
+	public void testHistogram() {
+		Metrics.Histogram histogram = metrics.histogram("query");
+		histogram.record(20000000L);
+		histogram.record(2000000000L);
+		histogram.record(100000000000L);
+
+		long[] counts = histogram.getCumulativeCounts();
+		assertEquals("Wrong number of buckets", Metrics.Histogram.BOUNDS.length, counts.length);
+		assertEquals("Wrong count in 10ms bucket", 0, counts[2]);
+		assertEquals("Wrong count in 25ms bucket", 1, counts[3]);
+		assertEquals("Wrong count in 2.5s bucket", 2, counts[9]);
+		assertEquals("Wrong count in 60s bucket", 2, counts[counts.length - 1]);
+		assertEquals("Histogram not in timer counts", 3L, metrics.getTimerCounts().get("query").longValue());
+
+		String text = metrics.getPrometheusText();
+		assertTrue("Missing histogram type", text.contains("# TYPE ice_query_seconds histogram\n"));
+		assertTrue("Missing +Inf bucket", text.contains("ice_query_seconds_bucket{le=\"+Inf\"} 3\n"));
+		assertTrue("Missing count", text.contains("ice_query_seconds_count 3\n"));
+	}
+
+	@Test
+	public void testCollector() {
+		final long[] hits = new long[]{ 1 };
+		metrics.addCollector(new Metrics.Collector() {
+			public void collect(Metrics m) {
+				m.setCounter("hits_total", hits[0]);
+			}
+		});
+		assertEquals("Collector not run", 1L, metrics.getCounters().get("hits_total").longValue());
+		hits[0] = 5;
+		assertEquals("Collector not run on snapshot", 5, metrics.snapshot().counter("hits_total"));
+	}
+}
@@ -0,0 +1,110 @@
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class PollerTest {
+
+	class CountingPoller extends Poller {
+		final AtomicInteger polls = new AtomicInteger();
+		final AtomicInteger active;
+		final AtomicInteger maxActive;
+		final CountDownLatch polled;
+
+		CountingPoller(AtomicInteger active, AtomicInteger maxActive, CountDownLatch polled) {
+			this.active = active;
+			this.maxActive = maxActive;
+			this.polled = polled;
+		}
+
+		@Override
+		protected void poll() throws Exception {
+			int now = active.incrementAndGet();
+			synchronized (maxActive) {
+				maxActive.set(Math.max(maxActive.get(), now));
+			}
+			Thread.sleep(50);
+			active.decrementAndGet();
+			polls.incrementAndGet();
+			polled.countDown();
+		}
+	}
+
+	@Test
+	public void testConcurrencyIsBounded() throws Exception {
+		Poller.initScheduler(2);
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger maxActive = new AtomicInteger();
+		CountDownLatch polled = new CountDownLatch(20);
+		List<CountingPoller> pollers = Lists.newArrayList();
+		for (int i = 0; i < 20; i++) {
+			CountingPoller poller = new CountingPoller(active, maxActive, polled);
+			poller.start(0, 1, false);
+			pollers.add(poller);
+		}
+		assertTrue("Pollers didn't all poll", polled.await(10, TimeUnit.SECONDS));
+		assertTrue("Too many concurrent polls: " + maxActive.get(), maxActive.get() <= 2);
+
+		for (CountingPoller poller: pollers)
+			poller.shutdown();
+		assertEquals("Polls still running after shutdown", 0, active.get());
+	}
+
+	@Test
+	public void testShutdownInterruptsPoll() throws Exception {
+		Poller.initScheduler(2);
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger interrupted = new AtomicInteger();
+		Poller poller = new Poller() {
+			@Override
+			protected void poll() throws Exception {
+				started.countDown();
+				try {
+					Thread.sleep(60000);
+				}
+				catch (InterruptedException e) {
+					interrupted.incrementAndGet();
+					throw e;
+				}
+			}
+		};
+		poller.start(0, 1, false);
+		assertTrue("Poller didn't start", started.await(10, TimeUnit.SECONDS));
+		poller.shutdown();
+		assertEquals("Poll not interrupted", 1, interrupted.get());
+	}
+
+	@Test
+	public void testZeroInitialDelayRunsImmediately() throws Exception {
+		Poller.initScheduler(2);
+		final CountDownLatch polled = new CountDownLatch(1);
+		Poller poller = new Poller() {
+			@Override
+			protected void poll() throws Exception {
+				polled.countDown();
+			}
+		};
+		// an hour's jitter on the first run would be up to six minutes
+		poller.start(0, 3600, false);
+		assertTrue("Poller didn't run right away", polled.await(5, TimeUnit.SECONDS));
+		poller.shutdown();
+	}
+
+	@Test
+	public void testJitter() {
+		for (int i = 0; i < 100; i++) {
+			long delay = Poller.jitter(300000);
+			assertTrue("Jitter too small: " + delay, delay >= 300000);
+			assertTrue("Jitter too large: " + delay, delay < 330000);
+		}
+		assertEquals("No jitter on tiny delays", 5, Poller.jitter(5));
+	}
+}
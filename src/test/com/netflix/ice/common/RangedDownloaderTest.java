@@ -0,0 +1,164 @@
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class RangedDownloaderTest {
+	private static final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+	@AfterClass
+	public static void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * In-memory stand-in for S3 that serves ranged GETs and can fail the first request for a range.
+	 */
+	private static class LocalS3 extends AbstractAmazonS3 {
+		byte[] content;
+		String eTag = "etag1";
+		long lastModified = 1500000000000L;
+		List<Long> requests = Lists.newArrayList();
+		Map<Long, Integer> failuresByStart = Maps.newHashMap();
+		// replace the content after this many requests
+		int replaceAfter = -1;
+
+		LocalS3(byte[] content) {
+			this.content = content;
+		}
+
+		@Override
+		public synchronized S3Object getObject(GetObjectRequest request) {
+			if (replaceAfter >= 0 && requests.size() == replaceAfter) {
+				eTag = "etag2";
+				replaceAfter = -1;
+			}
+			long[] range = request.getRange();
+			long start = range == null ? 0 : range[0];
+			requests.add(start);
+
+			Integer failures = failuresByStart.get(start);
+			if (failures != null && failures > 0) {
+				failuresByStart.put(start, failures - 1);
+				throw new AmazonClientException("simulated connection reset");
+			}
+			if (range != null && content.length == 0) {
+				AmazonServiceException e = new AmazonServiceException("InvalidRange");
+				e.setStatusCode(416);
+				throw e;
+			}
+			if (request.getMatchingETagConstraints() != null && request.getMatchingETagConstraints().size() > 0 && !request.getMatchingETagConstraints().contains(eTag))
+				return null;
+
+			long end = range == null ? content.length - 1 : Math.min(range[1], content.length - 1);
+			int length = (int) (end - start + 1);
+			ObjectMetadata metadata = new ObjectMetadata();
+			metadata.setContentLength(length);
+			metadata.setLastModified(new Date(lastModified));
+			metadata.setHeader(Headers.ETAG, eTag);
+			if (range != null)
+				metadata.setHeader(Headers.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + content.length);
+
+			S3Object s3Object = new S3Object();
+			s3Object.setKey(request.getKey());
+			s3Object.setObjectMetadata(metadata);
+			s3Object.setObjectContent(new ByteArrayInputStream(content, (int) start, length));
+			return s3Object;
+		}
+	}
+
+	private byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(1).nextBytes(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void testRangedDownload() throws IOException {
+		byte[] content = randomBytes(10000);
+		LocalS3 s3 = new LocalS3(content);
+		s3.failuresByStart.put(4096L, 2);
+
+		File file = File.createTempFile("ranged", ".test");
+		try {
+			RangedDownloader.Result result = new RangedDownloader(s3, pool, 1024, 5, 1).download("bucket", "key", file);
+
+			assertArrayEquals("Content mismatch", content, FileUtils.readFileToByteArray(file));
+			assertEquals("Wrong length", content.length, result.length);
+			assertEquals("Wrong etag", "etag1", result.eTag);
+			assertEquals("Wrong last modified", s3.lastModified, file.lastModified());
+			// 10 ranges plus the two retries of the failed one
+			assertEquals("Wrong number of requests", 12, s3.requests.size());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testTruncatesOldContent() throws IOException {
+		byte[] content = randomBytes(3000);
+		File file = File.createTempFile("ranged", ".test");
+		try {
+			FileUtils.writeByteArrayToFile(file, randomBytes(5000));
+			new RangedDownloader(new LocalS3(content), pool, 1024, 5, 1).download("bucket", "key", file);
+			assertArrayEquals("Content mismatch", content, FileUtils.readFileToByteArray(file));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testEmptyObject() throws IOException {
+		File file = File.createTempFile("ranged", ".test");
+		try {
+			RangedDownloader.Result result = new RangedDownloader(new LocalS3(new byte[0]), pool, 1024, 5, 1).download("bucket", "key", file);
+			assertEquals("Wrong length", 0, result.length);
+			assertEquals("File should be empty", 0, file.length());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testObjectReplacedDuringDownload() throws IOException {
+		byte[] content = randomBytes(4000);
+		LocalS3 s3 = new LocalS3(content);
+		s3.replaceAfter = 2;
+
+		File file = File.createTempFile("ranged", ".test");
+		try {
+			RangedDownloader.Result result = new RangedDownloader(s3, pool, 1024, 5, 1).download("bucket", "key", file);
+			assertEquals("Should restart with the new version", "etag2", result.eTag);
+			assertArrayEquals("Content mismatch", content, FileUtils.readFileToByteArray(file));
+		}
+		finally {
+			file.delete();
+		}
+	}
+}
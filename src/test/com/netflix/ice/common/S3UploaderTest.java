@@ -0,0 +1,292 @@
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class S3UploaderTest {
+	private static final int PART_SIZE = 1024;
+
+	/**
+	 * In-memory stand-in for S3 that keeps objects and in-progress multipart uploads.
+	 */
+	private static class LocalS3 extends AbstractAmazonS3 {
+		Map<String, byte[]> objects = Maps.newConcurrentMap();
+		Map<String, ObjectMetadata> metadata = Maps.newConcurrentMap();
+		Map<String, Map<Integer, byte[]>> uploads = Maps.newConcurrentMap();
+		int puts = 0;
+		int parts = 0;
+		int aborts = 0;
+		int copies = 0;
+
+		@Override
+		public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+			ObjectMetadata result = metadata.get(key);
+			if (result == null) {
+				AmazonServiceException e = new AmazonServiceException("Not Found");
+				e.setStatusCode(404);
+				throw e;
+			}
+			return result;
+		}
+
+		@Override
+		public synchronized PutObjectResult putObject(PutObjectRequest request) {
+			puts++;
+			try {
+				InputStream in = request.getFile() != null ? new FileInputStream(request.getFile()) : request.getInputStream();
+				try {
+					objects.put(request.getKey(), IOUtils.toByteArray(in));
+				}
+				finally {
+					in.close();
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			metadata.put(request.getKey(), request.getMetadata() == null ? new ObjectMetadata() : request.getMetadata());
+			return new PutObjectResult();
+		}
+
+		@Override
+		public PutObjectResult putObject(String bucketName, String key, InputStream input, ObjectMetadata metadata) {
+			return putObject(new PutObjectRequest(bucketName, key, input, metadata));
+		}
+
+		@Override
+		public synchronized InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+			String uploadId = "upload" + uploads.size();
+			uploads.put(uploadId, Maps.<Integer, byte[]>newConcurrentMap());
+			metadata.put(request.getKey() + uploadId, request.getObjectMetadata() == null ? new ObjectMetadata() : request.getObjectMetadata());
+			InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+			result.setUploadId(uploadId);
+			return result;
+		}
+
+		@Override
+		public UploadPartResult uploadPart(UploadPartRequest request) {
+			byte[] bytes = new byte[(int) request.getPartSize()];
+			try {
+				InputStream in = request.getInputStream();
+				if (in == null) {
+					in = new FileInputStream(request.getFile());
+					in.skip(request.getFileOffset());
+				}
+				try {
+					IOUtils.readFully(in, bytes);
+				}
+				finally {
+					in.close();
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			synchronized (this) {
+				parts++;
+			}
+			uploads.get(request.getUploadId()).put(request.getPartNumber(), bytes);
+			UploadPartResult result = new UploadPartResult();
+			result.setPartNumber(request.getPartNumber());
+			result.setETag("part" + request.getPartNumber());
+			return result;
+		}
+
+		@Override
+		public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+			Map<Integer, byte[]> upload = uploads.remove(request.getUploadId());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for (PartETag part: request.getPartETags())
+				out.write(upload.get(part.getPartNumber()), 0, upload.get(part.getPartNumber()).length);
+			objects.put(request.getKey(), out.toByteArray());
+			metadata.put(request.getKey(), metadata.remove(request.getKey() + request.getUploadId()));
+			return new CompleteMultipartUploadResult();
+		}
+
+		@Override
+		public synchronized void abortMultipartUpload(AbortMultipartUploadRequest request) {
+			aborts++;
+			uploads.remove(request.getUploadId());
+		}
+
+		@Override
+		public CopyObjectResult copyObject(String sourceBucketName, String sourceKey, String destinationBucketName, String destinationKey) {
+			return copyObject(new CopyObjectRequest(sourceBucketName, sourceKey, destinationBucketName, destinationKey));
+		}
+
+		@Override
+		public synchronized CopyObjectResult copyObject(CopyObjectRequest request) {
+			copies++;
+			objects.put(request.getDestinationKey(), objects.get(request.getSourceKey()));
+			ObjectMetadata newMetadata = request.getNewObjectMetadata();
+			metadata.put(request.getDestinationKey(), newMetadata == null ? metadata.get(request.getSourceKey()) : newMetadata);
+			return new CopyObjectResult();
+		}
+	}
+
+	private byte[] randomBytes(int size, int seed) {
+		byte[] bytes = new byte[size];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void testUploadAllSkipsUnchanged() throws IOException {
+		File dir = File.createTempFile("upload", ".test");
+		dir.delete();
+		dir.mkdir();
+		try {
+			byte[] small = randomBytes(100, 1);
+			byte[] large = randomBytes(PART_SIZE * 3 + 10, 2);
+			FileUtils.writeByteArrayToFile(new File(dir, "data_small"), small);
+			FileUtils.writeByteArrayToFile(new File(dir, "data_large"), large);
+			FileUtils.writeByteArrayToFile(new File(dir, "other"), small);
+
+			LocalS3 s3 = new LocalS3();
+			S3Uploader uploader = new S3Uploader(s3, 4, PART_SIZE, PART_SIZE);
+			try {
+				List<File> uploaded = uploader.uploadAll("bucket", "prefix/", dir.getPath(), "data_");
+				assertEquals("Wrong number of files uploaded", 2, uploaded.size());
+				assertArrayEquals("Small file mismatch", small, s3.objects.get("prefix/data_small"));
+				assertArrayEquals("Large file mismatch", large, s3.objects.get("prefix/data_large"));
+				assertFalse("Filtered file should not be uploaded", s3.objects.containsKey("prefix/other"));
+				assertEquals("Small file should use a single put", 1, s3.puts);
+				assertEquals("Large file should be uploaded in parts", 4, s3.parts);
+
+				// Nothing changed, so nothing should be sent again
+				uploaded = uploader.uploadAll("bucket", "prefix/", dir.getPath(), "data_");
+				assertEquals("Unchanged files should be skipped", 0, uploaded.size());
+				assertEquals("No new puts", 1, s3.puts);
+				assertEquals("No new parts", 4, s3.parts);
+
+				byte[] changed = randomBytes(100, 3);
+				FileUtils.writeByteArrayToFile(new File(dir, "data_small"), changed);
+				uploaded = uploader.uploadAll("bucket", "prefix/", dir.getPath(), "data_");
+				assertEquals("Only the changed file should be uploaded", Lists.newArrayList(new File(dir, "data_small")), uploaded);
+				assertArrayEquals("Changed file mismatch", changed, s3.objects.get("prefix/data_small"));
+			}
+			finally {
+				uploader.shutdown();
+			}
+		}
+		finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testOutputStream() throws IOException {
+		LocalS3 s3 = new LocalS3();
+		S3Uploader uploader = new S3Uploader(s3, 2, PART_SIZE, PART_SIZE);
+		try {
+			byte[] large = randomBytes(PART_SIZE * 5 + 1, 4);
+			OutputStream out = uploader.getOutputStream("bucket", "large");
+			// write in odd sized pieces so parts fill across writes
+			for (int i = 0; i < large.length; i += 333)
+				out.write(large, i, Math.min(333, large.length - i));
+			assertFalse("Nothing should be visible before close", s3.objects.containsKey("large"));
+			out.close();
+			assertArrayEquals("Streamed content mismatch", large, s3.objects.get("large"));
+			assertEquals("Wrong number of parts", 6, s3.parts);
+
+			// The MD5 isn't known when the multipart upload starts, and the object isn't rewritten to add it
+			assertNull("Streamed multipart object should have no MD5", s3.metadata.get("large").getUserMetaDataOf(S3Uploader.MD5_METADATA));
+			assertEquals("Streamed object should not be copied", 0, s3.copies);
+
+			// A file uploaded in parts has its MD5 from the start
+			File file = File.createTempFile("large", ".test");
+			try {
+				FileUtils.writeByteArrayToFile(file, large);
+				assertTrue("Streamed object without an MD5 should be uploaded again", uploader.upload("bucket", "large", file));
+				assertEquals("Uploaded object should have the MD5", S3Uploader.md5(file), s3.metadata.get("large").getUserMetaDataOf(S3Uploader.MD5_METADATA));
+				assertFalse("Unchanged object should not be uploaded again", uploader.upload("bucket", "large", file));
+				assertEquals("MD5 should not be added by copying", 0, s3.copies);
+			}
+			finally {
+				file.delete();
+			}
+
+			byte[] small = randomBytes(10, 5);
+			out = uploader.getOutputStream("bucket", "small");
+			out.write(small);
+			out.close();
+			assertArrayEquals("Small content mismatch", small, s3.objects.get("small"));
+			assertEquals("Small content should use a single put", 1, s3.puts);
+
+			out = uploader.getOutputStream("bucket", "small");
+			out.write(small);
+			out.close();
+			assertEquals("Unchanged content should be skipped", 1, s3.puts);
+		}
+		finally {
+			uploader.shutdown();
+		}
+	}
+
+	@Test
+	public void testCopySkipsUnchanged() throws IOException {
+		LocalS3 s3 = new LocalS3();
+		S3Uploader uploader = new S3Uploader(s3, 2, PART_SIZE, PART_SIZE);
+		try {
+			OutputStream out = uploader.getOutputStream("bucket", "db");
+			out.write(randomBytes(10, 7));
+			out.close();
+
+			assertTrue("Missing copy should be made", uploader.copy("bucket", "db", "copydb"));
+			assertArrayEquals("Copy content mismatch", s3.objects.get("db"), s3.objects.get("copydb"));
+			assertFalse("Up to date copy should be skipped", uploader.copy("bucket", "db", "copydb"));
+			assertEquals("Wrong number of copies", 1, s3.copies);
+		}
+		finally {
+			uploader.shutdown();
+		}
+	}
+
+	@Test
+	public void testAbort() throws IOException {
+		LocalS3 s3 = new LocalS3();
+		S3Uploader uploader = new S3Uploader(s3, 2, PART_SIZE, PART_SIZE);
+		try {
+			S3Uploader.UploadOutputStream out = uploader.getOutputStream("bucket", "partial");
+			out.write(randomBytes(PART_SIZE * 2 + 1, 6));
+			out.abort();
+			out.close();
+			assertFalse("Aborted upload should not be visible", s3.objects.containsKey("partial"));
+			assertEquals("Multipart upload should be aborted", 1, s3.aborts);
+		}
+		finally {
+			uploader.shutdown();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Tag;
+
+public class TagCoverageSeriesTest {
+
+	@Test
+	public void testAdd() {
+		TagCoverageSeries a = new TagCoverageSeries(2);
+		a.add(0, 1, 2);
+		a.add(1, 0, 4);
+		TagCoverageSeries b = new TagCoverageSeries(2);
+		b.add(0, 1, 2);
+		a.add(b);
+
+		assertEquals("Wrong count", 2, a.counts[0]);
+		assertEquals("Wrong total", 4, a.totals[0]);
+		double[] percentages = a.toPercentage();
+		assertEquals("Wrong percentage", 50.0, percentages[0], 0.0001);
+		assertEquals("Wrong percentage with no tags", 0.0, percentages[1], 0.0001);
+		assertEquals("Wrong percentage with no total", 0.0, new TagCoverageSeries(1).toPercentage()[0], 0.0001);
+	}
+
+	@Test
+	public void testMerge() {
+		Tag run = Operation.getOperation("RunInstances");
+		Tag other = Operation.getOperation("Other");
+
+		Map<Tag, TagCoverageSeries> to = Maps.newTreeMap();
+		TagCoverageSeries series = new TagCoverageSeries(1);
+		series.add(0, 1, 4);
+		to.put(run, series);
+
+		Map<Tag, TagCoverageSeries> from = Maps.newTreeMap();
+		series = new TagCoverageSeries(1);
+		series.add(0, 1, 4);
+		from.put(run, series);
+		series = new TagCoverageSeries(1);
+		series.add(0, 3, 4);
+		from.put(other, series);
+
+		TagCoverageSeries.merge(from, to);
+		Map<Tag, double[]> percentages = TagCoverageSeries.toPercentage(to);
+		assertEquals("Wrong merged percentage", 25.0, percentages.get(run)[0], 0.0001);
+		assertEquals("Wrong added percentage", 75.0, percentages.get(other)[0], 0.0001);
+	}
+}
@@ -2,17 +2,33 @@ package com.netflix.ice.common;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.netflix.ice.basic.BasicAccountService;
 import com.netflix.ice.basic.BasicProductService;
 import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Product;
 import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
 import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.Zone;
 
 public class TagGroupTest {
 	private static ProductService ps;
@@ -52,4 +68,111 @@ public class TagGroupTest {
 		assertEquals("Should be equal", tg1, tg2);
 	}
 
+	private List<TagGroup> makeTagGroups(AccountService as) {
+		List<TagGroup> tagGroups = Lists.newArrayList();
+		for (int i = 0; i < 100; i++) {
+			tagGroups.add(TagGroup.getTagGroup(as.getAccountById("11111111123" + (i % 3)), Region.US_EAST_1, i % 2 == 0 ? null : Zone.US_EAST_1A,
+					ps.getProductByName("RDS"), Operation.getOperation("CreateDBInstance"), UsageType.getUsageType("RDS:GP2-Storage-" + (i % 7), "GB"),
+					i % 5 == 0 ? null : ResourceGroup.getResourceGroup("group" + i)));
+		}
+		return tagGroups;
+	}
+
+	@Test
+	public void testSerializeKeys() throws IOException {
+		AccountService as = new BasicAccountService(new Properties());
+		List<TagGroup> tagGroups = makeTagGroups(as);
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TagGroup.Serializer.serializeKeys(new DataOutputStream(output), tagGroups);
+		List<TagGroup> deserialized = TagGroup.Serializer.deserializeKeys(as, ps, new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+		assertEquals("TagGroups should survive dictionary serialization", tagGroups, deserialized);
+
+		// Files written one TagGroup at a time should still be readable
+		output = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(output);
+		out.writeInt(tagGroups.size());
+		for (TagGroup tagGroup: tagGroups)
+			TagGroup.Serializer.serialize(out, tagGroup);
+		deserialized = TagGroup.Serializer.deserializeKeys(as, ps, new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+		assertEquals("TagGroups should survive the original serialization", tagGroups, deserialized);
+	}
+
+	@Test
+	public void testSerializeTagGroups() throws IOException {
+		AccountService as = new BasicAccountService(new Properties());
+		List<TagGroup> tagGroups = makeTagGroups(as);
+		TreeMap<Long, Collection<TagGroup>> months = Maps.newTreeMap();
+		months.put(0L, tagGroups.subList(0, 10));
+		months.put(1L, tagGroups);
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		TagGroup.Serializer.serializeTagGroups(new DataOutputStream(output), months);
+		TreeMap<Long, Collection<TagGroup>> deserialized = TagGroup.Serializer.deserializeTagGroups(as, ps, new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+		assertEquals("Wrong number of months", 2, deserialized.size());
+		assertEquals("First month mismatch", tagGroups.subList(0, 10), deserialized.get(0L));
+		assertEquals("Second month mismatch", tagGroups, deserialized.get(1L));
+	}
+
+	@Test
+	public void testIds() {
+		AccountService as = new BasicAccountService(new Properties());
+		List<TagGroup> tagGroups = makeTagGroups(as);
+		for (TagGroup tagGroup: tagGroups) {
+			assertTrue("Id should be assigned", tagGroup.getId() >= 0 && tagGroup.getId() < TagGroup.getNumTagGroups());
+			assertSame("Reverse lookup should return the interned TagGroup", tagGroup, TagGroup.getTagGroup(tagGroup.getId()));
+		}
+		assertEquals("Interning again should keep the id", tagGroups.get(0).getId(), makeTagGroups(as).get(0).getId());
+
+		TagGroupRI ri = TagGroupRI.getTagGroup(as.getAccountById("111111111234"), Region.US_EAST_1, null, ps.getProductByName("RDS"),
+				Operation.getOperation("CreateDBInstance"), UsageType.getUsageType("RDS:GP2-Storage", "GB"), null, "ri-1");
+		assertSame("TagGroupRIs should share the id space", ri, TagGroup.getTagGroup(ri.getId()));
+		assertSame("TagGroupRI should be interned", ri, TagGroupRI.getTagGroup(ri.account, ri.region, ri.zone, ri.product, ri.operation, ri.usageType, ri.resourceGroup, "ri-1"));
+		assertNotSame("TagGroupRIs with different reservations should differ", ri, TagGroupRI.getTagGroup(ri.account, ri.region, ri.zone, ri.product, ri.operation, ri.usageType, ri.resourceGroup, "ri-2"));
+		assertNull("Unknown id should not be found", TagGroup.getTagGroup(TagGroup.getNumTagGroups()));
+	}
+
+	@Test
+	public void testConcurrentInterning() throws Exception {
+		final AccountService as = new BasicAccountService(new Properties());
+		final int numThreads = 8;
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<List<TagGroup>>> results = Lists.newArrayList();
+			for (int t = 0; t < numThreads; t++) {
+				results.add(pool.submit(new Callable<List<TagGroup>>() {
+					public List<TagGroup> call() {
+						List<TagGroup> tagGroups = Lists.newArrayList();
+						for (int i = 0; i < 200; i++) {
+							String name = "concurrent" + i;
+							tagGroups.add(TagGroup.getTagGroup(as.getAccountById("2222222" + i), Region.US_WEST_2, Zone.getZone("us-west-2z" + i, Region.US_WEST_2),
+									ps.getProductByName(name), Operation.getOperation(name), UsageType.getUsageType(name, "hours"), ResourceGroup.getResourceGroup(name)));
+						}
+						return tagGroups;
+					}
+				}));
+			}
+			List<TagGroup> first = results.get(0).get();
+			for (Future<List<TagGroup>> result: results) {
+				List<TagGroup> tagGroups = result.get();
+				for (int i = 0; i < first.size(); i++) {
+					TagGroup expected = first.get(i);
+					TagGroup got = tagGroups.get(i);
+					assertSame("TagGroups should be the same instance", expected, got);
+					assertSame("Accounts should be the same instance", expected.account, got.account);
+					assertSame("Zones should be the same instance", expected.zone, got.zone);
+					assertSame("Products should be the same instance", expected.product, got.product);
+				}
+			}
+			int zones = 0;
+			for (Zone zone: Region.US_WEST_2.getZones()) {
+				if (zone.name.startsWith("us-west-2z"))
+					zones++;
+			}
+			assertEquals("Each zone should be added to its region once", first.size(), zones);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
 }
@@ -0,0 +1,93 @@
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.DigestOutputStream;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+
+public class ArchiveManifestTest {
+    private static AccountService as;
+    private static ProductService ps;
+
+	@BeforeClass
+	public static void init() {
+		as = new BasicAccountService(new Properties());
+        ps = new BasicProductService(null);
+	}
+
+	private TagGroup getTagGroup(Region region) {
+		return TagGroup.getTagGroup(as.getAccountById("111111111234"), region, null, ps.getProductByName("Simple Storage Service"), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs", "GB"), null);
+	}
+
+	private ReadWriteData getData(double value) {
+		ReadWriteData data = new ReadWriteData();
+		// insert in a different order each time, the digest should not depend on it
+		if (value > 1) {
+			data.getData(0).put(getTagGroup(Region.US_WEST_2), 2.0);
+			data.getData(0).put(getTagGroup(Region.US_EAST_1), value);
+		}
+		else {
+			data.getData(0).put(getTagGroup(Region.US_EAST_1), value);
+			data.getData(0).put(getTagGroup(Region.US_WEST_2), 2.0);
+		}
+		data.getData(2).put(getTagGroup(Region.US_EAST_1), 3.0);
+		return data;
+	}
+
+	private String digest(ReadWriteData data) throws IOException {
+		DigestOutputStream digestOut = ArchiveManifest.digestStream(new NullOutputStream());
+		DataOutputStream out = new DataOutputStream(digestOut);
+		ReadWriteData.Serializer.serialize(out, data);
+		out.close();
+		return ArchiveManifest.digest(digestOut);
+	}
+
+	private String digest(TreeMap<Long, Collection<TagGroup>> tagGroups) throws IOException {
+		DigestOutputStream digestOut = ArchiveManifest.digestStream(new NullOutputStream());
+		DataOutputStream out = new DataOutputStream(digestOut);
+		TagGroup.Serializer.serializeTagGroups(out, tagGroups);
+		out.close();
+		return ArchiveManifest.digest(digestOut);
+	}
+
+	@Test
+	public void testDataDigest() throws IOException {
+		assertEquals("Same data should have the same digest", digest(getData(1.0)), digest(getData(1.0)));
+		assertNotEquals("Changed data should have a new digest", digest(getData(1.0)), digest(getData(1.5)));
+
+		ReadWriteData data = getData(1.0);
+		String digest = digest(data);
+		data.getData(3);
+		assertNotEquals("Extra row should change the digest", digest, digest(data));
+	}
+
+	@Test
+	public void testTagGroupDigest() throws IOException {
+		TreeMap<Long, Collection<TagGroup>> tagGroups = new TreeMap<Long, Collection<TagGroup>>();
+		tagGroups.put(0L, getData(1.0).getTagGroups());
+		String digest = digest(tagGroups);
+
+		tagGroups.put(0L, getData(1.5).getTagGroups());
+		assertEquals("Same tag groups should have the same digest", digest, digest(tagGroups));
+
+		tagGroups.put(1000L, getData(1.0).getTagGroups());
+		assertNotEquals("New month should change the digest", digest, digest(tagGroups));
+	}
+}
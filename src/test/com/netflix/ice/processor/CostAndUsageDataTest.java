@@ -0,0 +1,79 @@
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.Cube;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.Zone;
+
+public class CostAndUsageDataTest {
+	private static AccountService as = new BasicAccountService(new Properties());
+	private static ProductService ps = new BasicProductService(null);
+
+	private TagGroup tagGroup(Product product, String resourceGroup) {
+		return TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_EAST_1, Zone.US_EAST_1A, product, Operation.getOperation("RunInstances"),
+				UsageType.getUsageType("m1.small", "hours"), resourceGroup == null ? null : ResourceGroup.getResourceGroup(resourceGroup));
+	}
+
+	private TagGroup seriesTagGroup(Product product, String appgroup) {
+		return TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_EAST_1, null, product, Operation.getOperation("RunInstances"),
+				Cube.getRollupUsageType(), ResourceGroup.getResourceGroup(appgroup));
+	}
+
+	@Test
+	public void testBuildApplicationGroupSeries() {
+		Product ec2 = ps.getProductByName(Product.ec2);
+		Product s3 = ps.getProductByName(Product.s3);
+
+		// appA holds web from ec2 and assets from s3, appB holds web only
+		Map<ResourceGroup, List<ResourceGroup>> ec2Groups = Maps.newHashMap();
+		ec2Groups.put(ResourceGroup.getResourceGroup("web"), Lists.newArrayList(ResourceGroup.getResourceGroup("appA"), ResourceGroup.getResourceGroup("appB")));
+		Map<ResourceGroup, List<ResourceGroup>> s3Groups = Maps.newHashMap();
+		s3Groups.put(ResourceGroup.getResourceGroup("assets"), Lists.newArrayList(ResourceGroup.getResourceGroup("appA")));
+		Map<Product, Map<ResourceGroup, List<ResourceGroup>>> appgroups = Maps.newHashMap();
+		appgroups.put(ec2, ec2Groups);
+		appgroups.put(s3, s3Groups);
+
+		ReadWriteData all = new ReadWriteData();
+		all.getData(0).put(tagGroup(ec2, null), 100.0);
+		ReadWriteData ec2Data = new ReadWriteData();
+		ec2Data.getData(0).put(tagGroup(ec2, "web"), 1.0);
+		ec2Data.getData(0).put(tagGroup(ec2, "batch"), 10.0);
+		ec2Data.getData(0).put(tagGroup(ec2, null), 20.0);
+		ec2Data.getData(1).put(tagGroup(ec2, "web"), 3.0);
+		ReadWriteData s3Data = new ReadWriteData();
+		s3Data.getData(0).put(tagGroup(s3, "assets"), 2.0);
+
+		Map<Product, ReadWriteData> dataByProduct = Maps.newHashMap();
+		dataByProduct.put(null, all);
+		dataByProduct.put(ec2, ec2Data);
+		dataByProduct.put(s3, s3Data);
+
+		ReadWriteData series = CostAndUsageData.buildApplicationGroupSeries(dataByProduct, appgroups);
+
+		assertEquals("Wrong number of hours", 2, series.getNum());
+		assertEquals("Wrong number of series", 3, series.getTagGroups().size());
+		assertEquals("Wrong appA ec2 cost", 1.0, series.getData(0).get(seriesTagGroup(ec2, "appA")), 0.001);
+		assertEquals("Wrong appA s3 cost", 2.0, series.getData(0).get(seriesTagGroup(s3, "appA")), 0.001);
+		assertEquals("Wrong appB ec2 cost", 1.0, series.getData(0).get(seriesTagGroup(ec2, "appB")), 0.001);
+		assertEquals("Wrong appB ec2 cost in second hour", 3.0, series.getData(1).get(seriesTagGroup(ec2, "appB")), 0.001);
+		assertNull("appB has no s3 resources", series.getData(0).get(seriesTagGroup(s3, "appB")));
+	}
+}
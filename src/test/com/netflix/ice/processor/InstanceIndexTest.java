@@ -0,0 +1,62 @@
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.Instance;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.Zone;
+
+public class InstanceIndexTest {
+
+	private InstanceIndex roundTrip(AccountService as, List<Instance> instances) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		InstanceIndex.Serializer.serialize(out, instances);
+		out.close();
+		return InstanceIndex.Serializer.deserialize(as, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	@Test
+	public void testSerializer() throws IOException {
+		AccountService as = new BasicAccountService(new Properties());
+		List<Instance> instances = Lists.newArrayList();
+		for (int i = 0; i < 1000; i++) {
+			Map<String, String> tags = Maps.newHashMap();
+			tags.put("Environment", i % 2 == 0 ? "prod" : "test");
+			if (i % 3 == 0)
+				tags.put("Name", "= I have equal signs, and a comma = " + i);
+			instances.add(new Instance(String.format("i-%017x", i * 7919L), i % 5 == 0 ? "m5.large" : "c4.2xlarge",
+					as.getAccountById(i % 4 == 0 ? "123456789012" : "234567890123"),
+					Region.US_EAST_1, i % 10 == 0 ? null : Zone.US_EAST_1A, tags));
+		}
+
+		InstanceIndex index = roundTrip(as, instances);
+		assertEquals("wrong size", instances.size(), index.size());
+		for (Instance expected: instances)
+			assertEquals("instance " + expected.id + " doesn't match", expected, index.get(expected.id));
+		assertNull("unknown instance should not be found", index.get("i-unknown"));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		AccountService as = new BasicAccountService(new Properties());
+		InstanceIndex index = roundTrip(as, Lists.<Instance>newArrayList());
+		assertEquals("wrong size", 0, index.size());
+		assertNull("empty index should not find anything", index.get("i-17f85eef87efb7a53"));
+	}
+}
@@ -146,6 +146,30 @@ public class ReadWriteDataTest {
 		assertEquals("Tags don't match", tg, tg2);
 	}
 	
+	@Test
+	public void testSerializeDeserializeBlocks() throws IOException {
+		TagGroup tg = TagGroup.getTagGroup(as.getAccountByName("Account1"), Region.US_WEST_2, null, ps.getProductByName("Simple Storage Service"), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs", "GB"), null);
+		ReadWriteData data = new ReadWriteData();
+		// two and a bit days with an empty hour
+		for (int hour = 0; hour < 50; hour++) {
+			if (hour != 30)
+				data.getData(hour).put(tg, (double) hour + 1);
+		}
+
+		for (boolean compress: new boolean[]{ false, true }) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			ReadWriteData.Serializer.serializeBlocks(new DataOutputStream(output), data, 24, compress);
+			ReadWriteData result = ReadWriteData.Serializer.deserializeBlocks(as, ps, new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+
+			assertEquals("Length of data is wrong", 50, result.getNum());
+			assertEquals("Empty hour should have no data", 0, result.getData(30).size());
+			for (int hour = 0; hour < 50; hour++) {
+				if (hour != 30)
+					assertEquals("Value of hour " + hour + " is wrong", hour + 1, result.getData(hour).get(tg), 0.001);
+			}
+		}
+	}
+	
 	ReadWriteData serializeDeserialize(AccountService as, ProductService ps, ReadWriteData data) throws IOException {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         DataOutput out = new DataOutputStream(output);
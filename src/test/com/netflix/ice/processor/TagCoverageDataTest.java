@@ -0,0 +1,86 @@
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+
+public class TagCoverageDataTest {
+	private AccountService as = new BasicAccountService(new Properties());
+	private ProductService ps = new BasicProductService(new Properties());
+
+	private TagGroup makeTagGroup(String usageType) {
+		return TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_EAST_1, null, ps.getProductByName("Elastic Compute Cloud"),
+				Operation.getOperation("RunInstances"), UsageType.getUsageType(usageType, "hours"), null);
+	}
+
+	private int column(TagCoverageData data, TagGroup tagGroup) {
+		return data.getTagGroups().indexOf(tagGroup);
+	}
+
+	@Test
+	public void testAddAndPutAll() {
+		TagGroup a = makeTagGroup("m1.small");
+		TagGroup b = makeTagGroup("m1.large");
+
+		TagCoverageData data = new TagCoverageData();
+		data.add(0, a, true);
+		data.add(0, a, false);
+		data.add(5, b, true);
+		assertEquals("Wrong number of hours", 6, data.getNum());
+		assertEquals("Wrong count", 1, data.getCount(0, column(data, a)));
+		assertEquals("Wrong total", 2, data.getTotal(0, column(data, a)));
+		assertFalse("Hour without line items should have no data", data.hasData(3));
+
+		TagCoverageData other = new TagCoverageData();
+		other.add(0, a, true);
+		other.add(7, b, false);
+		data.putAll(other);
+		assertEquals("Wrong number of hours after merge", 8, data.getNum());
+		assertEquals("Wrong merged count", 2, data.getCount(0, column(data, a)));
+		assertEquals("Wrong merged total", 3, data.getTotal(0, column(data, a)));
+		assertEquals("Wrong merged count", 0, data.getCount(7, column(data, b)));
+		assertEquals("Wrong merged total", 1, data.getTotal(7, column(data, b)));
+	}
+
+	@Test
+	public void testSerializer() throws IOException {
+		TagGroup a = makeTagGroup("m1.small");
+		TagGroup b = makeTagGroup("m1.large");
+
+		TagCoverageData data = new TagCoverageData();
+		for (int hour = 0; hour < 24; hour += 2) {
+			for (int i = 0; i < 1000; i++)
+				data.add(hour, a, i % 3 == 0);
+			data.add(hour + 1, b, true);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TagCoverageData.Serializer.serialize(new DataOutputStream(bytes), data);
+		TagCoverageData got = TagCoverageData.Serializer.deserialize(as, ps, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals("Wrong number of hours", data.getNum(), got.getNum());
+		assertEquals("Wrong number of tag groups", 2, got.getTagGroups().size());
+		for (int hour = 0; hour < data.getNum(); hour++) {
+			for (TagGroup tagGroup: data.getTagGroups()) {
+				assertEquals("Wrong count", data.getCount(hour, column(data, tagGroup)), got.getCount(hour, column(got, tagGroup)));
+				assertEquals("Wrong total", data.getTotal(hour, column(data, tagGroup)), got.getTotal(hour, column(got, tagGroup)));
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ApplicationGroupSeriesTest {
+
+	private static ApplicationGroup appgroup(String name, String owner, String... ec2) {
+		Map<String, List<String>> data = Maps.newHashMap();
+		data.put("ec2", Lists.newArrayList(ec2));
+		data.put("rds", Lists.<String>newArrayList());
+		return new ApplicationGroup(name, owner, data);
+	}
+
+	@Test
+	public void testDigest() {
+		Map<String, ApplicationGroup> appgroups = Maps.newHashMap();
+		appgroups.put("a", appgroup("a", "owner@example.com", "app1", "app2"));
+		appgroups.put("b", appgroup("b", "owner@example.com", "app3"));
+		String digest = ApplicationGroupSeries.digest(appgroups);
+
+		Map<String, ApplicationGroup> reordered = Maps.newLinkedHashMap();
+		reordered.put("b", appgroup("b", "other@example.com", "app3"));
+		reordered.put("a", appgroup("a", "owner@example.com", "app2", "app1"));
+		assertEquals("Order and owner should not change the digest", digest, ApplicationGroupSeries.digest(reordered));
+
+		reordered.put("b", appgroup("b", "other@example.com", "app3", "app4"));
+		assertFalse("Adding a resource group should change the digest", digest.equals(ApplicationGroupSeries.digest(reordered)));
+
+		reordered.remove("b");
+		assertFalse("Removing an application group should change the digest", digest.equals(ApplicationGroupSeries.digest(reordered)));
+	}
+}
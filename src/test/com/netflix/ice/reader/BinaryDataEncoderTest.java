@@ -0,0 +1,79 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Tag;
+
+public class BinaryDataEncoderTest {
+
+	@Test
+	public void testGetValueType() {
+		assertNull("JSON should not be binary", BinaryDataEncoder.getValueType("application/json, text/plain, */*"));
+		assertNull("Missing header should not be binary", BinaryDataEncoder.getValueType(null));
+		assertEquals(BinaryDataEncoder.ValueType.float32, BinaryDataEncoder.getValueType("application/x-ice-float32"));
+		assertEquals(BinaryDataEncoder.ValueType.float64, BinaryDataEncoder.getValueType("application/x-ice-float64;q=1.0"));
+	}
+
+	@Test
+	public void testEncode() throws IOException {
+		Map<Tag, double[]> data = Maps.newTreeMap();
+		data.put(Operation.getOperation("RunInstances"), new double[]{1.0, 2.0, 3.0});
+		data.put(Tag.aggregated, new double[]{1.5, 2.5, 3.5});
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataEncoder.encode(out, BinaryDataEncoder.ValueType.float64, 1000L, 3600000L, data);
+		ByteBuffer in = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+		byte[] magic = new byte[4];
+		in.get(magic);
+		assertEquals("ICE1", new String(magic, "UTF-8"));
+		assertEquals(8, in.get());
+		assertEquals(1000L, in.getLong());
+		assertEquals(3600000L, in.getLong());
+		assertEquals(2, in.getInt());
+		assertEquals(3, in.getInt());
+
+		String[] names = new String[2];
+		for (int i = 0; i < names.length; i++) {
+			byte[] name = new byte[in.getShort()];
+			in.get(name);
+			names[i] = new String(name, "UTF-8");
+		}
+		int i = 0;
+		for (Tag tag: data.keySet()) {
+			assertEquals("Wrong tag name", tag.name, names[i++]);
+			for (double expected: data.get(tag))
+				assertEquals("Wrong value", expected, in.getDouble(), 0.0);
+		}
+		assertFalse("Should be no data left over", in.hasRemaining());
+	}
+
+	@Test
+	public void testEncodeLargerThanBuffer() throws IOException {
+		Map<Tag, double[]> data = Maps.newTreeMap();
+		double[] values = new double[100000];
+		for (int i = 0; i < values.length; i++)
+			values[i] = i;
+		data.put(Tag.aggregated, values);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataEncoder.encode(out, BinaryDataEncoder.ValueType.float32, 0L, 0L, data);
+		ByteBuffer in = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+		in.position(4 + 1 + 8 + 8 + 4 + 4);
+		in.position(in.position() + 2 + in.getShort());
+		for (int i = 0; i < values.length; i++)
+			assertEquals("Wrong value at " + i, values[i], in.getFloat(), 0.0);
+		assertFalse("Should be no data left over", in.hasRemaining());
+	}
+}
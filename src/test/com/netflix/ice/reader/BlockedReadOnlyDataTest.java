@@ -0,0 +1,135 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.ReadWriteData;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+
+public class BlockedReadOnlyDataTest {
+    private static AccountService as;
+    private static ProductService ps;
+
+	@BeforeClass
+	public static void init() {
+		as = new BasicAccountService(new Properties());
+        ps = new BasicProductService(null);
+	}
+
+	private static class CountingSource implements BlockedReadOnlyData.BlockSource {
+		final byte[] bytes;
+		int reads = 0;
+
+		CountingSource(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		public byte[] read(long offset, int length) throws IOException {
+			reads++;
+			return Arrays.copyOfRange(bytes, (int) offset, (int) Math.min(bytes.length, offset + length));
+		}
+	}
+
+	private ReadWriteData getData() {
+		TagGroup tg1 = TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_EAST_1, null, ps.getProductByName("Simple Storage Service"), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs", "GB"), null);
+		TagGroup tg2 = TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_WEST_2, null, ps.getProductByName("Simple Storage Service"), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs", "GB"), null);
+
+		// three days of hourly data with an empty hour in the middle
+		ReadWriteData data = new ReadWriteData();
+		for (int hour = 0; hour < 72; hour++) {
+			if (hour == 30)
+				continue;
+			data.getData(hour).put(tg1, (double) hour);
+			data.getData(hour).put(tg2, hour * 2.0);
+		}
+		return data;
+	}
+
+	private void testBlocks(boolean compress, boolean offHeap) throws IOException {
+		ReadWriteData data = getData();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ReadWriteData.Serializer.serializeBlocks(new DataOutputStream(output), data, 24, compress);
+		CountingSource source = new CountingSource(output.toByteArray());
+
+        output = new ByteArrayOutputStream();
+		ReadWriteData.Serializer.serialize(new DataOutputStream(output), data);
+		ReadOnlyData expected = ReadOnlyData.Serializer.deserialize(as, ps, new DataInputStream(new ByteArrayInputStream(output.toByteArray())));
+
+		BlockedReadOnlyData blocked = BlockedReadOnlyData.open(source, as, ps, offHeap);
+		assertEquals("Header should be read with one request", 1, source.reads);
+		assertEquals("Wrong storage mode", offHeap, blocked.isOffHeap());
+		assertEquals("Wrong number of rows", 72, blocked.getNum());
+		assertEquals("Wrong tag groups", expected.getTagGroups(), blocked.getTagGroups());
+		assertEquals("No blocks should be loaded yet", 0, blocked.getDataBytes());
+
+		// Touch the last day only
+		assertTrue("Row should have data", blocked.hasData(50));
+		assertEquals("Only one block should be read", 2, source.reads);
+		assertFalse("First day should not be loaded", blocked.isLoaded(0));
+		assertTrue("Last day should be loaded", blocked.isLoaded(71));
+
+		for (int i = 0; i < expected.getNum(); i++) {
+			assertEquals("hasData mismatch at row " + i, expected.hasData(i), blocked.hasData(i));
+			assertArrayEquals("Row mismatch at row " + i, expected.getData(i), blocked.getData(i), 0.0001);
+			for (int j = 0; j < expected.getTagGroups().size(); j++)
+				assertEquals("Value mismatch at " + i + "," + j, expected.get(i, j), blocked.get(i, j), 0.0001);
+		}
+		assertEquals("Each block should only be read once", 4, source.reads);
+		assertEquals("All blocks loaded", expected.getDataBytes(), blocked.getDataBytes());
+	}
+
+	@Test
+	public void testCompressedBlocks() throws IOException {
+		testBlocks(true, false);
+	}
+
+	@Test
+	public void testUncompressedBlocks() throws IOException {
+		testBlocks(false, false);
+	}
+
+	@Test
+	public void testOffHeapBlocks() throws IOException {
+		testBlocks(true, true);
+	}
+
+	@Test
+	public void testLoadFailure() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ReadWriteData.Serializer.serializeBlocks(new DataOutputStream(output), getData(), 24, true);
+		final byte[] bytes = output.toByteArray();
+		BlockedReadOnlyData blocked = BlockedReadOnlyData.open(new BlockedReadOnlyData.BlockSource() {
+			public byte[] read(long offset, int length) throws IOException {
+				if (offset > 0)
+					throw new IOException("file replaced");
+				return Arrays.copyOfRange(bytes, 0, Math.min(bytes.length, length));
+			}
+		}, as, ps);
+
+		try {
+			blocked.load(48, 72);
+			fail("Block read failure should be reported");
+		}
+		catch (IOException e) {
+		}
+		assertFalse("Failed block should not be marked loaded", blocked.isLoaded(50));
+	}
+}
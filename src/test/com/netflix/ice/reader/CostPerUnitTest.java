@@ -0,0 +1,29 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Tag;
+
+public class CostPerUnitTest {
+
+	@Test
+	public void testDivide() {
+		Tag tag = Operation.getOperation("RunInstances");
+		Map<Tag, double[]> data = Maps.newTreeMap();
+		data.put(tag, new double[]{ 10.0, 20.0, 30.0, 40.0 });
+
+		CostPerUnit.divide(data, new double[]{ 5.0, 0.0, 10.0 }, 1000.0);
+
+		double[] values = data.get(tag);
+		assertEquals("Wrong cost per unit", 2000.0, values[0], 0.0001);
+		assertEquals("No units should give zero", 0.0, values[1], 0.0001);
+		assertEquals("Wrong cost per unit", 3000.0, values[2], 0.0001);
+		assertEquals("Missing units should give zero", 0.0, values[3], 0.0001);
+	}
+}
@@ -0,0 +1,69 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Tag;
+
+public class DataStatsTest {
+
+	@Test
+	public void testGetStats() {
+		Map<Tag, double[]> data = Maps.newTreeMap();
+		Tag tag = Operation.getOperation("RunInstances");
+		data.put(tag, new double[]{ 2.0, 1.0, 6.0, 3.0 });
+		data.put(Operation.getOperation("Empty"), new double[0]);
+
+		Map<Tag, Map<String, Double>> stats = DataStats.getStats(data);
+		assertEquals("Empty series should be skipped", 1, stats.size());
+		assertEquals("Wrong min", 1.0, stats.get(tag).get(DataStats.MIN), 0.001);
+		assertEquals("Wrong max", 6.0, stats.get(tag).get(DataStats.MAX), 0.001);
+		assertEquals("Wrong total", 12.0, stats.get(tag).get(DataStats.TOTAL), 0.001);
+		assertEquals("Wrong average", 3.0, stats.get(tag).get(DataStats.AVERAGE), 0.001);
+	}
+
+	@Test
+	public void testReduceToDailyElasticity() {
+		Tag tag = Operation.getOperation("RunInstances");
+		double[] hourly = new double[24 * 2 + 5];
+		for (int i = 0; i < 24; i++)
+			hourly[i] = i < 12 ? 5 : 10;	// day 1: min 5, max 10
+		for (int i = 24; i < 48; i++)
+			hourly[i] = 10;					// day 2: flat
+		for (int i = 48; i < hourly.length; i++)
+			hourly[i] = 100;				// partial day is ignored
+
+		Map<Tag, double[]> data = Maps.newTreeMap();
+		data.put(tag, hourly);
+		Map<Tag, Map<String, Double>> stats = Maps.newHashMap();
+		Map<Tag, double[]> daily = DataStats.reduceToDailyElasticity(data, stats);
+
+		assertEquals("Wrong number of days", 2, daily.get(tag).length);
+		assertEquals("Wrong day 1 elasticity", 50.0, daily.get(tag)[0], 0.001);
+		assertEquals("Wrong day 2 elasticity", 0.0, daily.get(tag)[1], 0.001);
+		// averages are over the fractional number of days in the series
+		double days = hourly.length / 24.0;
+		assertEquals("Wrong average daily min", 15.0 / days, stats.get(tag).get(DataStats.AVG_DAILY_MIN), 0.001);
+		assertEquals("Wrong average daily max", 20.0 / days, stats.get(tag).get(DataStats.AVG_DAILY_MAX), 0.001);
+		assertEquals("Wrong elasticity", 25.0, stats.get(tag).get(DataStats.ELASTICITY), 0.001);
+	}
+
+	@Test
+	public void testReduceLessThanADay() {
+		Tag tag = Operation.getOperation("RunInstances");
+		Map<Tag, double[]> data = Maps.newTreeMap();
+		data.put(tag, new double[]{ 1.0, 2.0, 3.0 });
+		Map<Tag, Map<String, Double>> stats = Maps.newHashMap();
+		Map<Tag, double[]> daily = DataStats.reduceToDailyElasticity(data, stats);
+
+		assertEquals("Should have no days", 0, daily.get(tag).length);
+		assertEquals("Average daily min should be zero", 0.0, stats.get(tag).get(DataStats.AVG_DAILY_MIN), 0.0);
+		assertEquals("Average daily max should be zero", 0.0, stats.get(tag).get(DataStats.AVG_DAILY_MAX), 0.0);
+		assertEquals("Elasticity should be 100", 100.0, stats.get(tag).get(DataStats.ELASTICITY), 0.0);
+	}
+}
@@ -0,0 +1,51 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class QueryTraceTest {
+
+	@Test
+	public void testNormalize() {
+		Map<String, Object> query = Maps.newLinkedHashMap();
+		query.put("region", "us-west-2,us-east-1");
+		query.put("isCost", true);
+		query.put("spans", 24);
+		query.put("account", "b, a");
+		query.put("groupBy", "Product");
+
+		String expected = "{\"account\":\"a,b\",\"groupBy\":\"Product\",\"isCost\":true,\"region\":\"us-east-1,us-west-2\",\"spans\":24}";
+		assertEquals("Wrong normalized query", expected, QueryTrace.normalize(query));
+
+		Map<String, Object> reordered = Maps.newLinkedHashMap();
+		reordered.put("groupBy", "Product");
+		reordered.put("spans", 24);
+		reordered.put("account", "a,b");
+		reordered.put("isCost", true);
+		reordered.put("region", "us-east-1,us-west-2");
+		assertEquals("Equivalent queries should normalize the same", expected, QueryTrace.normalize(reordered));
+	}
+
+	@Test
+	public void testSpans() {
+		QueryTrace trace = QueryTrace.start("getData");
+		QueryTrace.span(QueryTrace.SCAN, System.nanoTime());
+		QueryTrace.span(QueryTrace.SCAN, System.nanoTime());
+		QueryTrace.span(QueryTrace.RENDER, System.nanoTime());
+		trace.finish();
+
+		String text = trace.toString();
+		assertTrue("Missing query name: " + text, text.startsWith("getData "));
+		assertTrue("Missing span count: " + text, text.contains(", scan 0ms (2)"));
+		assertTrue("Missing render span: " + text, text.contains(", render 0ms"));
+
+		// spans outside a trace are only recorded in the histogram
+		QueryTrace.span(QueryTrace.SCAN, System.nanoTime());
+		assertEquals("Trace changed after finish", text, trace.toString());
+	}
+}
@@ -0,0 +1,72 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.processor.ReadWriteData;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+
+public class ReadOnlyDataTest {
+    private static AccountService as;
+    private static ProductService ps;
+
+	@BeforeClass
+	public static void init() {
+		as = new BasicAccountService(new Properties());
+        ps = new BasicProductService(null);
+	}
+
+	private byte[] serialize() throws IOException {
+		TagGroup tg1 = TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_EAST_1, null, ps.getProductByName("Simple Storage Service"), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs", "GB"), null);
+		TagGroup tg2 = TagGroup.getTagGroup(as.getAccountById("111111111234"), Region.US_WEST_2, null, ps.getProductByName("Simple Storage Service"), Operation.getOperation("StandardStorage"), UsageType.getUsageType("TimedStorage-ByteHrs", "GB"), null);
+
+		ReadWriteData data = new ReadWriteData();
+		data.getData(0).put(tg1, 1.0);
+		data.getData(0).put(tg2, 2.0);
+		// leave hour 1 empty
+		data.getData(2).put(tg2, 3.0);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ReadWriteData.Serializer.serialize(new DataOutputStream(output), data);
+		return output.toByteArray();
+	}
+
+	@Test
+	public void testOffHeapMatchesHeap() throws IOException {
+		byte[] bytes = serialize();
+		ReadOnlyData heap = ReadOnlyData.Serializer.deserialize(as, ps, new DataInputStream(new ByteArrayInputStream(bytes)), false);
+		ReadOnlyData offHeap = ReadOnlyData.Serializer.deserialize(as, ps, new DataInputStream(new ByteArrayInputStream(bytes)), true);
+
+		assertFalse("Heap data should not be off-heap", heap.isOffHeap());
+		assertTrue("Off-heap data should be off-heap", offHeap.isOffHeap());
+		assertEquals("Wrong number of rows", 3, offHeap.getNum());
+		assertEquals("Wrong number of tag groups", 2, offHeap.getTagGroups().size());
+		assertFalse("Empty row should have no data", offHeap.hasData(1));
+		assertEquals("Empty rows should not use memory", heap.getDataBytes(), offHeap.getDataBytes());
+		assertNotSame("Empty rows should not share a row", offHeap.getData(1), offHeap.getData(1));
+		assertEquals("Empty row should be zeros", 0.0, offHeap.getData(1)[0], 0.001);
+
+		for (int i = 0; i < heap.getNum(); i++) {
+			assertEquals("hasData mismatch at row " + i, heap.hasData(i), offHeap.hasData(i));
+			assertArrayEquals("Row mismatch at row " + i, heap.getData(i), offHeap.getData(i), 0.0001);
+			for (int j = 0; j < heap.getTagGroups().size(); j++)
+				assertEquals("Value mismatch at " + i + "," + j, heap.get(i, j), offHeap.get(i, j), 0.0001);
+		}
+	}
+}